@@ -25,14 +25,28 @@
 import org.phenotips.configuration.internal.global.GlobalRecordConfiguration;
 
 import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
 import org.xwiki.context.Execution;
 import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
 import org.xwiki.uiextension.UIExtensionFilter;
 import org.xwiki.uiextension.UIExtensionManager;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -44,14 +58,17 @@
 import com.xpn.xwiki.doc.XWikiDocument;
 
 /**
- * Default implementation for the {@link RecordConfigurationManager} component.
+ * Default implementation for the {@link RecordConfigurationManager} component. Since the active configuration is
+ * requested by every displayed section and field, the resolved configurations are cached: the global configuration is
+ * shared, since it reads the global preferences on demand, while study-specific configurations are cached per study
+ * document and discarded when that document is created, modified or deleted.
  *
  * @version $Id$
  * @since 1.0M9
  */
-@Component
+@Component(roles = { RecordConfigurationManager.class })
 @Singleton
-public class DefaultRecordConfigurationManager implements RecordConfigurationManager
+public class DefaultRecordConfigurationManager implements RecordConfigurationManager, EventListener, Initializable
 {
     /** Reference to the xclass which allows to bind a specific form customization to a patient record. */
     public static final EntityReference STUDY_BINDING_CLASS_REFERENCE = new EntityReference("StudyBindingClass",
@@ -88,6 +105,26 @@ public class DefaultRecordConfigurationManager implements RecordConfigurationMan
     @Named("current")
     private DocumentReferenceResolver<String> referenceParser;
 
+    /** Allows registering this object as an event listener. */
+    @Inject
+    private ObservationManager observationManager;
+
+    /** The global configuration, shared by all records which aren't bound to a specific study. */
+    private RecordConfiguration globalConfiguration;
+
+    /** Cached study configurations, keyed by the reference of the study document. */
+    private final ConcurrentMap<DocumentReference, RecordConfiguration> studyConfigurations =
+        new ConcurrentHashMap<DocumentReference, RecordConfiguration>();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.globalConfiguration = new GlobalRecordConfiguration(this.execution, this.uixManager, this.orderFilter);
+        // This component can't be registered as an event listener directly, since that would create a separate
+        // instance, with its own cached study configurations
+        this.observationManager.addListener(this);
+    }
+
     @Override
     public RecordConfiguration getActiveConfiguration()
     {
@@ -95,7 +132,28 @@ public RecordConfiguration getActiveConfiguration()
         if (boundConfig != null) {
             return boundConfig;
         }
-        return new GlobalRecordConfiguration(this.execution, this.uixManager, this.orderFilter);
+        return this.globalConfiguration;
+    }
+
+    @Override
+    public String getName()
+    {
+        return "record-configuration-cache";
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        // A configuration resolved while the study document didn't exist yet must be discarded once it is created
+        return Arrays.<Event>asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (!this.studyConfigurations.isEmpty()) {
+            this.studyConfigurations.remove(((XWikiDocument) source).getDocumentReference());
+        }
     }
 
     /**
@@ -115,12 +173,19 @@ private RecordConfiguration getBoundConfiguration()
                 this.resolver.resolve(STUDY_BINDING_CLASS_REFERENCE), "studyReference");
         if (StringUtils.isNotBlank(boundConfig)) {
             try {
+                DocumentReference studyReference = this.referenceParser.resolve(boundConfig);
+                RecordConfiguration result = this.studyConfigurations.get(studyReference);
+                if (result != null) {
+                    return result;
+                }
                 XWikiContext context = getXContext();
-                XWikiDocument doc = context.getWiki().getDocument(this.referenceParser.resolve(boundConfig), context);
+                XWikiDocument doc = context.getWiki().getDocument(studyReference, context);
                 CustomConfiguration configuration =
                     new CustomConfiguration(doc.getXObject(RecordConfiguration.CUSTOM_PREFERENCES_CLASS));
-                return new ConfiguredRecordConfiguration(configuration, this.execution, this.uixManager,
+                result = new ConfiguredRecordConfiguration(configuration, this.execution, this.uixManager,
                     this.orderFilter);
+                this.studyConfigurations.put(studyReference, result);
+                return result;
             } catch (Exception ex) {
                 this.logger.warn("Failed to read the bound configuration [{}] for [{}]: {}", boundConfig,
                     this.dab.getCurrentDocumentReference(), ex.getMessage());
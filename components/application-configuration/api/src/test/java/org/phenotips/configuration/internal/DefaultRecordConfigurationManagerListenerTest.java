@@ -0,0 +1,118 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.configuration.internal;
+
+import org.phenotips.configuration.RecordConfiguration;
+import org.phenotips.configuration.RecordConfigurationManager;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.internal.DefaultObservationManager;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+import org.xwiki.uiextension.UIExtensionFilter;
+import org.xwiki.uiextension.UIExtensionManager;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that the {@link DefaultRecordConfigurationManager} serving configurations is the one notified of study changes
+ * by the real {@link ObservationManager}.
+ *
+ * @version $Id$
+ */
+@ComponentList({ DefaultObservationManager.class, DefaultRecordConfigurationManager.class })
+public class DefaultRecordConfigurationManagerListenerTest
+{
+    @Rule
+    public final MockitoComponentManagerRule componentManager = new MockitoComponentManagerRule();
+
+    @Test
+    public void studyChangesNotifiedThroughTheObservationManagerDiscardTheCachedConfiguration() throws Exception
+    {
+        Provider<ComponentManager> contextComponentManager =
+            this.componentManager.registerMockComponent(
+                new DefaultParameterizedType(null, Provider.class, ComponentManager.class), "context");
+        when(contextComponentManager.get()).thenReturn(this.componentManager);
+        this.componentManager.registerMockComponent(UIExtensionManager.class);
+        this.componentManager.registerMockComponent(UIExtensionFilter.class, "sortByParameter");
+
+        DocumentReference currentDocument = new DocumentReference("xwiki", "data", "P0000001");
+        DocumentReference bindingClass = new DocumentReference("xwiki", "PhenoTips", "StudyBindingClass");
+        DocumentReference study = new DocumentReference("xwiki", "Groups", "Dentists");
+        DocumentAccessBridge dab = this.componentManager.registerMockComponent(DocumentAccessBridge.class);
+        when(dab.getCurrentDocumentReference()).thenReturn(currentDocument);
+        when(dab.getProperty(currentDocument, bindingClass, "studyReference")).thenReturn("Groups.Dentists");
+        DocumentReferenceResolver<EntityReference> resolver =
+            this.componentManager.registerMockComponent(DocumentReferenceResolver.TYPE_REFERENCE, "current");
+        when(resolver.resolve(DefaultRecordConfigurationManager.STUDY_BINDING_CLASS_REFERENCE))
+            .thenReturn(bindingClass);
+        DocumentReferenceResolver<String> referenceParser =
+            this.componentManager.registerMockComponent(DocumentReferenceResolver.TYPE_STRING, "current");
+        when(referenceParser.resolve("Groups.Dentists")).thenReturn(study);
+
+        Execution execution = this.componentManager.registerMockComponent(Execution.class);
+        ExecutionContext executionContext = new ExecutionContext();
+        XWikiContext context = mock(XWikiContext.class);
+        executionContext.setProperty("xwikicontext", context);
+        when(execution.getContext()).thenReturn(executionContext);
+        XWiki xwiki = mock(XWiki.class);
+        when(context.getWiki()).thenReturn(xwiki);
+        XWikiDocument studyDoc = mock(XWikiDocument.class);
+        when(studyDoc.getDocumentReference()).thenReturn(study);
+        when(studyDoc.getXObject(RecordConfiguration.CUSTOM_PREFERENCES_CLASS)).thenReturn(mock(BaseObject.class));
+        when(xwiki.getDocument(study, context)).thenReturn(studyDoc);
+
+        // Looking up the observation manager first registers all the event listener components, as on startup
+        ObservationManager observationManager = this.componentManager.getInstance(ObservationManager.class);
+        Assert.assertTrue(this.componentManager.getInstanceList(EventListener.class).isEmpty());
+        RecordConfigurationManager manager = this.componentManager.getInstance(RecordConfigurationManager.class);
+
+        RecordConfiguration first = manager.getActiveConfiguration();
+        Assert.assertSame(first, manager.getActiveConfiguration());
+        verify(xwiki, times(1)).getDocument(study, context);
+
+        observationManager.notify(new DocumentUpdatedEvent(study), studyDoc, null);
+
+        Assert.assertNotSame(first, manager.getActiveConfiguration());
+        verify(xwiki, times(2)).getDocument(study, context);
+    }
+}
@@ -23,15 +23,20 @@
 import org.phenotips.configuration.internal.global.GlobalRecordConfiguration;
 
 import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.event.Event;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import java.util.Collections;
+import java.util.List;
 
 import org.junit.Assert;
 import org.junit.Rule;
@@ -44,6 +49,8 @@
 import com.xpn.xwiki.objects.BaseObject;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -184,4 +191,72 @@ public void getActiveConfigurationWithExceptionsOnSecondTry() throws ComponentLo
         RecordConfiguration result = this.mocker.getComponentUnderTest().getActiveConfiguration();
         Assert.assertTrue(result instanceof GlobalRecordConfiguration);
     }
+
+    /**
+     * {@link RecordConfigurationManager#getActiveConfiguration()} reuses the custom configuration bound to a study
+     * until the study document is modified.
+     */
+    @Test
+    public void getActiveConfigurationCachesBoundConfigurationUntilStudyChanges() throws ComponentLookupException,
+        XWikiException
+    {
+        DocumentAccessBridge dab = this.mocker.getInstance(DocumentAccessBridge.class);
+        DocumentReference currentDocument = new DocumentReference("xwiki", "data", "P0000001");
+        DocumentReference bindingClass = new DocumentReference("xwiki", "PhenoTips", "StudyBindingClass");
+        DocumentReference gr = new DocumentReference("xwiki", "Groups", "Dentists");
+        when(dab.getCurrentDocumentReference()).thenReturn(currentDocument);
+        DocumentReferenceResolver<EntityReference> resolver =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_REFERENCE, "current");
+        when(resolver.resolve(DefaultRecordConfigurationManager.STUDY_BINDING_CLASS_REFERENCE))
+            .thenReturn(bindingClass);
+        when(dab.getProperty(currentDocument, bindingClass, "studyReference")).thenReturn("Groups.Dentists");
+        DocumentReferenceResolver<String> referenceParser =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "current");
+        when(referenceParser.resolve("Groups.Dentists")).thenReturn(gr);
+        Execution e = this.mocker.getInstance(Execution.class);
+        ExecutionContext ec = mock(ExecutionContext.class);
+        when(e.getContext()).thenReturn(ec);
+        XWikiContext context = mock(XWikiContext.class);
+        when(ec.getProperty("xwikicontext")).thenReturn(context);
+        XWiki x = mock(XWiki.class);
+        when(context.getWiki()).thenReturn(x);
+        XWikiDocument doc = mock(XWikiDocument.class);
+        when(doc.getDocumentReference()).thenReturn(gr);
+        when(x.getDocument(gr, context)).thenReturn(doc);
+        BaseObject o = mock(BaseObject.class);
+        when(doc.getXObject(RecordConfiguration.CUSTOM_PREFERENCES_CLASS)).thenReturn(o);
+
+        RecordConfiguration first = this.mocker.getComponentUnderTest().getActiveConfiguration();
+        RecordConfiguration second = this.mocker.getComponentUnderTest().getActiveConfiguration();
+        Assert.assertSame(first, second);
+        verify(x, times(1)).getDocument(gr, context);
+
+        ((DefaultRecordConfigurationManager) this.mocker.getComponentUnderTest())
+            .onEvent(new DocumentUpdatedEvent(gr), doc, null);
+        RecordConfiguration third = this.mocker.getComponentUnderTest().getActiveConfiguration();
+        Assert.assertNotSame(first, third);
+        Assert.assertTrue(third instanceof ConfiguredRecordConfiguration);
+        verify(x, times(2)).getDocument(gr, context);
+    }
+
+    /** Study configurations are discarded when the study document is created, modified or deleted. */
+    @Test
+    public void listensToStudyDocumentCreationChangesAndDeletion() throws ComponentLookupException
+    {
+        List<Event> events =
+            ((DefaultRecordConfigurationManager) this.mocker.getComponentUnderTest()).getEvents();
+        Assert.assertTrue(events.contains(new DocumentCreatedEvent()));
+        Assert.assertTrue(events.contains(new DocumentUpdatedEvent()));
+        Assert.assertTrue(events.contains(new DocumentDeletedEvent()));
+    }
+
+    /**
+     * {@link RecordConfigurationManager#getActiveConfiguration()} always returns the same global configuration.
+     */
+    @Test
+    public void getDefaultActiveConfigurationIsShared() throws ComponentLookupException
+    {
+        Assert.assertSame(this.mocker.getComponentUnderTest().getActiveConfiguration(),
+            this.mocker.getComponentUnderTest().getActiveConfiguration());
+    }
 }
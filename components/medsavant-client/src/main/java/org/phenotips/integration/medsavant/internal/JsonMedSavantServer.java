@@ -22,22 +22,31 @@
 import org.phenotips.integration.medsavant.MedSavantServer;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
 import org.xwiki.configuration.ConfigurationSource;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -53,6 +62,7 @@
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.slf4j.Logger;
 
 import com.xpn.xwiki.XWiki;
@@ -69,14 +79,15 @@
 
 /**
  * Communication via HTTP requests with a LIMS server, configured in the wiki preferences via
- * {@code PhenoTips.LimsAuthServer} objects.
+ * {@code PhenoTips.LimsAuthServer} objects. Queries which must be run for each reference genome are sent in parallel,
+ * over a pool of persistent connections, and their results are merged in the order of the reference genomes.
  *
  * @version $Id$
  * @since 1.0M11
  */
 @Component
 @Singleton
-public class JsonMedSavantServer implements MedSavantServer, Initializable
+public class JsonMedSavantServer implements MedSavantServer, Initializable, Disposable
 {
     private static final ContentType REQUEST_CONTENT_TYPE = ContentType.create(
         ContentType.APPLICATION_FORM_URLENCODED.getMimeType(), Consts.UTF_8);
@@ -95,6 +106,9 @@ public class JsonMedSavantServer implements MedSavantServer, Initializable
 
     private static final String REQUEST_PARAMETER = "json=";
 
+    /** The maximum number of requests sent at the same time to the MedSavant server. */
+    private static final int MAX_PARALLEL_REQUESTS = 8;
+
     private static final List<String> IGNORED_EFFECTS = Arrays.asList("ncRNA_INTRONIC", "UPSTREAM", "DOWNSTREAM",
         "INTERGENIC", "UTR3", "UTR5", "SYNONYMOUS", "INTRONIC");
 
@@ -102,8 +116,14 @@ public class JsonMedSavantServer implements MedSavantServer, Initializable
     @Inject
     private Logger logger;
 
+    /** Pool of connections to the MedSavant server, reused across requests. */
+    private final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+
     /** HTTP client used for communicating with the MedSavant server. */
-    private final CloseableHttpClient client = HttpClients.createSystem();
+    private final CloseableHttpClient client;
+
+    /** Runs the requests for the different reference genomes in parallel. */
+    private final ExecutorService requestExecutor = Executors.newFixedThreadPool(MAX_PARALLEL_REQUESTS);
 
     /** Provides access to the configuration, where the location to the MedSavant server and project is specified. */
     @Inject
@@ -119,7 +139,15 @@ public class JsonMedSavantServer implements MedSavantServer, Initializable
     /** The list of reference genomes available in the MedSavant database. */
     private Collection<Integer> referenceIDs;
 
-    private Map<String, String> annotationColumns = new HashMap<String, String>();
+    private Map<String, String> annotationColumns = new ConcurrentHashMap<String, String>();
+
+    /** Default constructor, sets up the pooled HTTP client. */
+    public JsonMedSavantServer()
+    {
+        this.connectionManager.setMaxTotal(MAX_PARALLEL_REQUESTS);
+        this.connectionManager.setDefaultMaxPerRoute(MAX_PARALLEL_REQUESTS);
+        this.client = HttpClients.custom().useSystemProperties().setConnectionManager(this.connectionManager).build();
+    }
 
     @Override
     public void initialize() throws InitializationException
@@ -137,15 +165,25 @@ public void initialize() throws InitializationException
         }
     }
 
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.requestExecutor.shutdownNow();
+        try {
+            this.client.close();
+        } catch (IOException ex) {
+            this.logger.debug("Failed to close the MedSavant HTTP client: {}", ex.getMessage());
+        }
+    }
+
     @Override
     public boolean hasVCF(Patient patient)
     {
-        HttpPost method = null;
         try {
             PatientData<String> identifiers = patient.getData("identifiers");
             String eid = identifiers.get("external_id");
             String url = getMethodURL(VARIANT_MANAGER, "getVariantCountForDNAIDs");
-            method = new HttpPost(url);
+            List<String> bodies = new ArrayList<String>(this.referenceIDs.size());
             JSONArray parameters = new JSONArray();
             parameters.add(this.projectID);
             parameters.add(0);
@@ -155,23 +193,17 @@ public boolean hasVCF(Patient patient)
             parameters.add(ids);
             for (Integer refID : this.referenceIDs) {
                 parameters.set(1, refID);
-                String body = REQUEST_PARAMETER + URLEncoder.encode(parameters.toString(), ENCODING);
-                method.setEntity(new StringEntity(body, REQUEST_CONTENT_TYPE));
-                try (CloseableHttpResponse httpResponse = this.client.execute(method)) {
-                    String response = IOUtils.toString(httpResponse.getEntity().getContent(), Consts.UTF_8);
-                    Integer count = Integer.valueOf(response);
-                    if (count > 0) {
-                        return true;
-                    }
+                bodies.add(REQUEST_PARAMETER + URLEncoder.encode(parameters.toString(), ENCODING));
+            }
+            for (String response : postAll(url, bodies)) {
+                Integer count = Integer.valueOf(response);
+                if (count > 0) {
+                    return true;
                 }
             }
         } catch (Exception ex) {
             this.logger.warn("Failed to get the number of variants for patient [{}]: {}", patient.getDocument(),
                 ex.getMessage(), ex);
-        } finally {
-            if (method != null) {
-                method.releaseConnection();
-            }
         }
         return false;
     }
@@ -180,6 +212,7 @@ public boolean hasVCF(Patient patient)
     public boolean uploadVCF(Patient patient)
     {
         HttpPost method = null;
+        List<InputStream> contents = new LinkedList<InputStream>();
         try {
             MultipartEntityBuilder data = MultipartEntityBuilder.create();
             PatientData<String> identifiers = patient.getData("identifiers");
@@ -189,15 +222,16 @@ public boolean uploadVCF(Patient patient)
             XWikiDocument doc = context.getWiki().getDocument(patient.getDocument(), context);
             method = new HttpPost(url);
 
-            boolean hasData = false;
             for (XWikiAttachment attachment : doc.getAttachmentList()) {
                 if (StringUtils.endsWithIgnoreCase(attachment.getFilename(), ".vcf")
                     && isCorrectVCF(attachment, eid, context)) {
-                    data.addBinaryBody(patient.getId() + ".vcf", attachment.getContentInputStream(context));
-                    hasData = true;
+                    // The stream is only read while the request is sent, the body is never fully held in memory
+                    InputStream content = attachment.getContentInputStream(context);
+                    contents.add(content);
+                    data.addBinaryBody(patient.getId() + ".vcf", content);
                 }
             }
-            if (hasData) {
+            if (!contents.isEmpty()) {
                 method.setEntity(data.build());
                 this.client.execute(method).close();
                 return true;
@@ -205,6 +239,9 @@ && isCorrectVCF(attachment, eid, context)) {
         } catch (Exception ex) {
             this.logger.warn("Failed to upload VCF for patient [{}]: {}", patient.getDocument(), ex.getMessage(), ex);
         } finally {
+            for (InputStream content : contents) {
+                IOUtils.closeQuietly(content);
+            }
             if (method != null) {
                 method.releaseConnection();
             }
@@ -215,13 +252,12 @@ && isCorrectVCF(attachment, eid, context)) {
     @Override
     public List<JSONArray> getPatientVariants(Patient patient)
     {
-        HttpPost method = null;
         List<JSONArray> result = new LinkedList<JSONArray>();
         try {
             PatientData<String> identifiers = patient.getData("identifiers");
             String eid = identifiers.get("external_id");
             String url = getMethodURL(VARIANT_MANAGER, "getVariants");
-            method = new HttpPost(url);
+            List<String> bodies = new ArrayList<String>(this.referenceIDs.size());
             JSONArray parameters = new JSONArray();
             // 1: Project ID
             parameters.add(this.projectID);
@@ -242,20 +278,14 @@ public List<JSONArray> getPatientVariants(Patient patient)
             for (Integer refID : this.referenceIDs) {
                 parameters.set(1, refID);
                 parameters.getJSONArray(2).getJSONArray(0).getJSONObject(0).put("refId", refID);
-                String body = REQUEST_PARAMETER + URLEncoder.encode(parameters.toString(), ENCODING);
-                method.setEntity(new StringEntity(body, REQUEST_CONTENT_TYPE));
-                try (CloseableHttpResponse httpResponse = this.client.execute(method)) {
-                    String response = IOUtils.toString(httpResponse.getEntity().getContent(), Consts.UTF_8);
-                    JSONArray results = (JSONArray) JSONSerializer.toJSON(response);
-                    result.addAll(results);
-                }
+                bodies.add(REQUEST_PARAMETER + URLEncoder.encode(parameters.toString(), ENCODING));
+            }
+            for (String response : postAll(url, bodies)) {
+                JSONArray results = (JSONArray) JSONSerializer.toJSON(response);
+                result.addAll(results);
             }
         } catch (Exception ex) {
             this.logger.warn("Failed to get variants for patient [{}]: {}", patient.getDocument(), ex.getMessage(), ex);
-        } finally {
-            if (method != null) {
-                method.releaseConnection();
-            }
         }
         return result;
     }
@@ -263,14 +293,13 @@ public List<JSONArray> getPatientVariants(Patient patient)
     @Override
     public List<JSONArray> getFilteredVariants(Patient patient)
     {
-        HttpPost method = null;
         List<JSONArray> result = new LinkedList<JSONArray>();
         try {
+            PatientData<String> identifiers = patient.getData("identifiers");
+            String eid = identifiers.get("external_id");
+            String url = getMethodURL(VARIANT_MANAGER, "getVariants");
+            List<String> bodies = new ArrayList<String>(this.referenceIDs.size());
             for (Integer refID : this.referenceIDs) {
-                PatientData<String> identifiers = patient.getData("identifiers");
-                String eid = identifiers.get("external_id");
-                String url = getMethodURL(VARIANT_MANAGER, "getVariants");
-                method = new HttpPost(url);
                 JSONArray parameters = new JSONArray();
                 // 1: Project ID
                 parameters.add(this.projectID);
@@ -282,25 +311,77 @@ public List<JSONArray> getFilteredVariants(Patient patient)
                 parameters.add(-1);
                 // 5: Max number of results -> all
                 parameters.add(-1);
-                String body = REQUEST_PARAMETER + URLEncoder.encode(parameters.toString(), ENCODING);
-                method.setEntity(new StringEntity(body, REQUEST_CONTENT_TYPE));
-                try (CloseableHttpResponse httpResponse = this.client.execute(method)) {
-                    String response = IOUtils.toString(httpResponse.getEntity().getContent(), Consts.UTF_8);
-                    JSONArray results = (JSONArray) JSONSerializer.toJSON(response);
-                    result.addAll(results);
-                }
+                bodies.add(REQUEST_PARAMETER + URLEncoder.encode(parameters.toString(), ENCODING));
+            }
+            for (String response : postAll(url, bodies)) {
+                JSONArray results = (JSONArray) JSONSerializer.toJSON(response);
+                result.addAll(results);
             }
         } catch (Exception ex) {
             this.logger.warn("Failed to get filtered variants for patient [{}]: {}", patient.getDocument(),
                 ex.getMessage(), ex);
+        }
+        return result;
+    }
+
+    /**
+     * Send several requests to the same URL in parallel, and wait for all of them to finish.
+     *
+     * @param url the URL of the MedSavant method to invoke
+     * @param bodies the bodies of the requests to send, one per request
+     * @return the responses, in the same order as the request bodies
+     * @throws IOException if any of the requests fails
+     * @throws InterruptedException if interrupted while waiting for the responses
+     */
+    private List<String> postAll(final String url, List<String> bodies) throws IOException, InterruptedException
+    {
+        List<Future<String>> futures = new ArrayList<Future<String>>(bodies.size());
+        for (final String body : bodies) {
+            futures.add(this.requestExecutor.submit(new Callable<String>()
+            {
+                @Override
+                public String call() throws IOException
+                {
+                    return post(url, body);
+                }
+            }));
+        }
+        List<String> result = new ArrayList<String>(bodies.size());
+        try {
+            for (Future<String> future : futures) {
+                result.add(future.get());
+            }
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
         } finally {
-            if (method != null) {
-                method.releaseConnection();
+            for (Future<String> future : futures) {
+                future.cancel(true);
             }
         }
         return result;
     }
 
+    /**
+     * Send a request to the MedSavant server.
+     *
+     * @param url the URL of the MedSavant method to invoke
+     * @param body the body of the request
+     * @return the response body
+     * @throws IOException if the request fails
+     */
+    private String post(String url, String body) throws IOException
+    {
+        HttpPost method = new HttpPost(url);
+        try {
+            method.setEntity(new StringEntity(body, REQUEST_CONTENT_TYPE));
+            try (CloseableHttpResponse httpResponse = this.client.execute(method)) {
+                return IOUtils.toString(httpResponse.getEntity().getContent(), Consts.UTF_8);
+            }
+        } finally {
+            method.releaseConnection();
+        }
+    }
+
     /**
      * Return the base URL of the specified LIMS instance.
      *
@@ -466,25 +547,27 @@ private JSONObject makeCondition(Integer refID, String type, String method, Obje
     private boolean isCorrectVCF(XWikiAttachment attachment, String eid, XWikiContext context)
         throws XWikiException, IOException
     {
-        BufferedReader in =
+        // Only the header lines are read, the rest of the file is not loaded
+        try (BufferedReader in =
             IOUtils.toBufferedReader(new InputStreamReader(attachment.getContentInputStream(context),
-                XWiki.DEFAULT_ENCODING));
-        String line;
-        while ((line = in.readLine()) != null) {
-            if (line.startsWith("##")) {
-                // Still in the meta, go on
-                continue;
-            } else if (!line.startsWith("#CHROM")) {
-                // Actual data, we're past the meta but didn't encounter the header, strange...
-                // Malformed file, abandon
-                break;
-            }
-            String[] fields = line.split("\t");
-            if (fields.length != 10 || !StringUtils.equals(eid, fields[9])) {
-                // Wrong sample ID or more than one sample, bail out
-                break;
+                XWiki.DEFAULT_ENCODING))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("##")) {
+                    // Still in the meta, go on
+                    continue;
+                } else if (!line.startsWith("#CHROM")) {
+                    // Actual data, we're past the meta but didn't encounter the header, strange...
+                    // Malformed file, abandon
+                    break;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length != 10 || !StringUtils.equals(eid, fields[9])) {
+                    // Wrong sample ID or more than one sample, bail out
+                    break;
+                }
+                return true;
             }
-            return true;
         }
         return false;
     }
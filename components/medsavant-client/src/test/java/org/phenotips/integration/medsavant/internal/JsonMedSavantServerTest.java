@@ -0,0 +1,279 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.integration.medsavant.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientData;
+
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Provider;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.web.Utils;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONSerializer;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link JsonMedSavantServer} component, talking to a fake MedSavant server listening on a local port.
+ *
+ * @version $Id$
+ */
+public class JsonMedSavantServerTest
+{
+    private static final String VCF = "##fileformat=VCFv4.1\n"
+        + "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tEID1\n"
+        + "1\t100\t.\tA\tG\t50\tPASS\t.\tGT\t0/1\n";
+
+    @Rule
+    public final MockitoComponentManagerRule componentManager = new MockitoComponentManagerRule();
+
+    private HttpServer server;
+
+    private ExecutorService serverExecutor;
+
+    /** The client ports of the connections used by the requests received so far. */
+    private Set<Integer> clientPorts = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+    /** Counts down as the variant count requests arrive, so that they only get an answer if they all arrive. */
+    private CountDownLatch pendingCountRequests;
+
+    private AtomicInteger requests = new AtomicInteger();
+
+    private volatile String uploadContentType;
+
+    private volatile String uploadBody;
+
+    private JsonMedSavantServer client;
+
+    private Patient patient;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.pendingCountRequests = new CountDownLatch(3);
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/", new FakeMedSavant());
+        this.serverExecutor = Executors.newCachedThreadPool();
+        this.server.setExecutor(this.serverExecutor);
+        this.server.start();
+
+        this.client = new JsonMedSavantServer();
+        ConfigurationSource configuration = mock(ConfigurationSource.class);
+        when(configuration.getProperty(eq("phenotips.medsavant.baseUrl"), anyString()))
+            .thenReturn("http://localhost:" + this.server.getAddress().getPort() + "/");
+        when(configuration.getProperty(eq("phenotips.medsavant.projectName"), anyString())).thenReturn("pc");
+        ReflectionUtils.setFieldValue(this.client, "configuration", configuration);
+        ReflectionUtils.setFieldValue(this.client, "logger", mock(Logger.class));
+        this.client.initialize();
+
+        this.patient = mock(Patient.class);
+        @SuppressWarnings("unchecked")
+        PatientData<String> identifiers = mock(PatientData.class);
+        when(identifiers.get("external_id")).thenReturn("EID1");
+        doReturn(identifiers).when(this.patient).getData("identifiers");
+        when(this.patient.getId()).thenReturn("P0000001");
+        when(this.patient.getDocument()).thenReturn(new DocumentReference("wiki", "data", "P0000001"));
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        this.client.dispose();
+        this.server.stop(0);
+        this.serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void referenceGenomesAreQueriedInParallel()
+    {
+        // The fake server only answers once the requests for all three reference genomes were received
+        Assert.assertTrue(this.client.hasVCF(this.patient));
+        Assert.assertEquals(0, this.pendingCountRequests.getCount());
+    }
+
+    @Test
+    public void parallelResponsesAreMergedInTheOrderOfTheReferenceGenomes()
+    {
+        // The fake server answers the requests for the first reference genome last
+        List<JSONArray> variants = this.client.getPatientVariants(this.patient);
+
+        Assert.assertEquals(3, variants.size());
+        for (int i = 0; i < 3; ++i) {
+            Assert.assertEquals(i + 1, variants.get(i).getInt(0));
+        }
+    }
+
+    @Test
+    public void connectionsAreReusedAcrossRequests() throws Exception
+    {
+        for (int i = 0; i < 5; ++i) {
+            this.client.getPatientVariants(this.patient);
+        }
+
+        // 2 initialization requests and 15 variant requests, sent over at most as many connections as references
+        Assert.assertEquals(17, this.requests.get());
+        Assert.assertTrue(this.clientPorts.size() <= 3);
+        PoolingHttpClientConnectionManager pool = ReflectionUtils.getFieldValue(this.client, "connectionManager");
+        Assert.assertEquals(0, pool.getTotalStats().getLeased());
+        Assert.assertTrue(pool.getTotalStats().getAvailable() > 0);
+    }
+
+    @Test
+    public void disposeReleasesTheConnections() throws Exception
+    {
+        this.client.getPatientVariants(this.patient);
+        int sent = this.requests.get();
+
+        this.client.dispose();
+
+        PoolingHttpClientConnectionManager pool = ReflectionUtils.getFieldValue(this.client, "connectionManager");
+        Assert.assertEquals(0, pool.getTotalStats().getAvailable());
+        Assert.assertTrue(this.client.getPatientVariants(this.patient).isEmpty());
+        Assert.assertEquals(sent, this.requests.get());
+    }
+
+    @Test
+    public void vcfFilesAreUploadedAsNamedFormParts() throws Exception
+    {
+        XWikiContext context = mock(XWikiContext.class);
+        Provider<XWikiContext> contextProvider =
+            this.componentManager.registerMockComponent(XWikiContext.TYPE_PROVIDER);
+        when(contextProvider.get()).thenReturn(context);
+        Execution execution = this.componentManager.registerMockComponent(Execution.class);
+        ExecutionContext executionContext = new ExecutionContext();
+        executionContext.setProperty("xwikicontext", context);
+        when(execution.getContext()).thenReturn(executionContext);
+        Utils.setComponentManager(this.componentManager);
+
+        XWiki xwiki = mock(XWiki.class);
+        when(context.getWiki()).thenReturn(xwiki);
+        XWikiDocument doc = mock(XWikiDocument.class);
+        when(xwiki.getDocument(this.patient.getDocument(), context)).thenReturn(doc);
+        XWikiAttachment attachment = mock(XWikiAttachment.class);
+        when(attachment.getFilename()).thenReturn("sample.vcf");
+        when(attachment.getContentInputStream(context)).thenAnswer(new Answer<InputStream>()
+        {
+            @Override
+            public InputStream answer(InvocationOnMock invocation)
+            {
+                return new ByteArrayInputStream(VCF.getBytes());
+            }
+        });
+        when(doc.getAttachmentList()).thenReturn(Collections.singletonList(attachment));
+
+        Assert.assertTrue(this.client.uploadVCF(this.patient));
+
+        Assert.assertTrue(this.uploadContentType.startsWith("multipart/form-data"));
+        // The part is sent the same way MedSavant always received it: named after the patient, without a file name
+        Assert.assertTrue(this.uploadBody.contains("Content-Disposition: form-data; name=\"P0000001.vcf\""));
+        Assert.assertFalse(this.uploadBody.contains("filename="));
+        Assert.assertTrue(this.uploadBody.contains(VCF));
+    }
+
+    /** Answers the MedSavant methods used by the client with canned responses. */
+    private final class FakeMedSavant implements HttpHandler
+    {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            JsonMedSavantServerTest.this.requests.incrementAndGet();
+            JsonMedSavantServerTest.this.clientPorts.add(exchange.getRemoteAddress().getPort());
+            String path = exchange.getRequestURI().getPath();
+            String body = IOUtils.toString(exchange.getRequestBody(), "UTF-8");
+            String response = "";
+            try {
+                if (path.endsWith("/getProjectID")) {
+                    response = "1";
+                } else if (path.endsWith("/getReferenceIDsForProject")) {
+                    response = "[1,2,3]";
+                } else if (path.endsWith("/getVariantCountForDNAIDs")) {
+                    JsonMedSavantServerTest.this.pendingCountRequests.countDown();
+                    boolean parallel = JsonMedSavantServerTest.this.pendingCountRequests.await(5, TimeUnit.SECONDS);
+                    response = parallel && getReferenceId(body) == 2 ? "4" : "0";
+                } else if (path.endsWith("/getVariants")) {
+                    int refId = getReferenceId(body);
+                    Thread.sleep((3 - refId) * 100L);
+                    response = "[[" + refId + "]]";
+                } else if (path.endsWith("/upload")) {
+                    JsonMedSavantServerTest.this.uploadContentType =
+                        exchange.getRequestHeaders().getFirst("Content-Type");
+                    JsonMedSavantServerTest.this.uploadBody = body;
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] bytes = response.getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, bytes.length == 0 ? -1 : bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+
+        private int getReferenceId(String body) throws IOException
+        {
+            String parameters = URLDecoder.decode(body.substring("json=".length()), "UTF-8");
+            return ((JSONArray) JSONSerializer.toJSON(parameters)).getInt(1);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.stability.Unstable;
+
+import java.util.Iterator;
+import java.util.List;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Imports many patient records at once, for example when moving an existing cohort into PhenoTips. Records are created
+ * and populated in parallel, and the patient index is updated once, after all the records are imported, instead of
+ * after each saved record.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+@Unstable
+@Role
+public interface BulkPatientImporter
+{
+    /**
+     * The name of the {@link org.xwiki.context.ExecutionContext execution context} property set while patient records
+     * are being imported. Listeners performing expensive tasks that will be done in bulk at the end of the import, such
+     * as indexing, can skip the records saved while this property is set.
+     */
+    String IMPORT_IN_PROGRESS = "phenotips.patientImportInProgress";
+
+    /**
+     * Import new patients from their JSON representations. Records are read from the iterator as the import progresses,
+     * so very large inputs don't have to be fully loaded in memory. No access rights are checked here.
+     *
+     * @param patients the JSON representations of the new patients, in the format accepted by
+     *            {@link Patient#updateFromJSON(JSONObject)}; {@code null} items are considered invalid records
+     * @param creator a reference to the document representing an entity (a user or a group) which will be set as the
+     *            owner of the created patients
+     * @return the identifiers of the created patients, in the order of the input records, with {@code null} for each
+     *         record that couldn't be imported
+     */
+    List<String> importPatients(Iterator<JSONObject> patients, DocumentReference creator);
+}
@@ -24,6 +24,7 @@
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.stability.Unstable;
 
+import java.io.Writer;
 import java.util.Collection;
 import java.util.Set;
 
@@ -130,6 +131,22 @@
      */
     JSONObject toJSON(Collection<String> onlyFieldNames);
 
+    /**
+     * Write patient data in the JSON format generated by {@link #toJSON(Collection)} directly to the given writer. The
+     * data is written as it is serialized, without building the whole JSON object and its string representation in
+     * memory first, which makes this the preferred method for sending patient records to clients.
+     *
+     * @param writer the writer where the JSON should be written; it is neither flushed nor closed
+     * @param onlyFieldNames list of fields which should be included in the resulting JSON. All available fields will be
+     *            included if null
+     * @param extraProperties additional properties to append to the written JSON object, such as links; may be
+     *            {@code null}
+     * @throws net.sf.json.JSONException if writing fails
+     * @since 1.2RC1
+     */
+    @Unstable
+    void writeJSON(Writer writer, Collection<String> onlyFieldNames, JSONObject extraProperties);
+
     /**
      * Update patient data using the provided json object (in the format generated by {@link #toJSON()}).
      * <p>
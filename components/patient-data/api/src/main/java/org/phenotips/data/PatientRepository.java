@@ -22,6 +22,8 @@
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.stability.Unstable;
 
+import java.util.Collection;
+
 /**
  * API that provides access to patient data. No access rights are checked here.
  *
@@ -49,6 +51,18 @@
      */
     Patient getPatientByExternalId(String externalId);
 
+    /**
+     * List the documents of all the patients having a clinical identifier. Normally external identifiers are unique,
+     * but this isn't enforced, and {@link #getPatientByExternalId(String)} doesn't return anything when more than one
+     * patient has the same identifier.
+     *
+     * @param externalId the patient's clinical identifier, as set by the patient's reporter
+     * @return the documents of the matching patients, may be empty
+     * @since 1.2RC1
+     */
+    @Unstable
+    Collection<DocumentReference> getPatientDocumentsByExternalId(String externalId);
+
     /**
      * Load and return a {@link Patient patient} from the specified document. This method will be removed once the new
      * XWiki model is implemented and the intermediary model bridge is no longer needed. Do not use.
@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.events;
+
+import org.xwiki.observation.event.Event;
+import org.xwiki.stability.Unstable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Notifies that a {@link org.phenotips.data.BulkPatientImporter bulk import} of patient records has finished.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+@Unstable
+public class PatientsImportedEvent implements Event
+{
+    /** The identifiers of the imported patients. */
+    private final List<String> patientIds;
+
+    /**
+     * Simple constructor passing all the required information.
+     *
+     * @param patientIds the identifiers of the imported patients
+     */
+    public PatientsImportedEvent(List<String> patientIds)
+    {
+        this.patientIds = patientIds == null ? Collections.<String>emptyList()
+            : Collections.unmodifiableList(patientIds);
+    }
+
+    /** Default constructor, to be used for declaring the events a listener wants to observe. */
+    public PatientsImportedEvent()
+    {
+        this(null);
+    }
+
+    /**
+     * The patient records that were imported.
+     *
+     * @return a list of patient identifiers, may be empty
+     */
+    public List<String> getPatientIds()
+    {
+        return this.patientIds;
+    }
+
+    @Override
+    public boolean matches(Object otherEvent)
+    {
+        return otherEvent instanceof PatientsImportedEvent;
+    }
+}
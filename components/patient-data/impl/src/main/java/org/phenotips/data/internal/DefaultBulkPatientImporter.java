@@ -0,0 +1,168 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.context.WorkerContexts;
+import org.phenotips.data.BulkPatientImporter;
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.events.PatientsImportedEvent;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.ObservationManager;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Default implementation for {@link BulkPatientImporter}. Records are imported by a small pool of workers, each record
+ * being created from the template with an identifier from the repository's in-memory sequence, populated with saves
+ * deferred, saved once more with all its data, and then initialized. Patients saved during the import are not indexed
+ * one by one; a {@link PatientsImportedEvent} is sent at the end so that they can be indexed in a single pass.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+@Component
+@Singleton
+public class DefaultBulkPatientImporter implements BulkPatientImporter
+{
+    /** The maximum number of records imported in parallel. */
+    private static final int MAX_WORKERS = 4;
+
+    private static final String XCONTEXT_KEY = "xwikicontext";
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private PatientRepository repository;
+
+    @Inject
+    private DocumentAccessBridge bridge;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ObservationManager observationManager;
+
+    @Override
+    public List<String> importPatients(Iterator<JSONObject> patients, final DocumentReference creator)
+    {
+        final XWikiContext context = (XWikiContext) this.execution.getContext().getProperty(XCONTEXT_KEY);
+        int workers = Math.max(1, Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        // Don't read more records than the workers can handle, the input can be very large
+        final Semaphore pending = new Semaphore(2 * workers);
+        List<Future<String>> tasks = new ArrayList<Future<String>>();
+        try {
+            while (patients.hasNext()) {
+                final JSONObject json = patients.next();
+                pending.acquireUninterruptibly();
+                tasks.add(pool.submit(new Callable<String>()
+                {
+                    @Override
+                    public String call()
+                    {
+                        try {
+                            return importPatient(json, creator, context);
+                        } finally {
+                            pending.release();
+                        }
+                    }
+                }));
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        List<String> result = new ArrayList<String>(tasks.size());
+        List<String> imported = new ArrayList<String>(tasks.size());
+        for (Future<String> task : tasks) {
+            String id = null;
+            try {
+                id = task.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                this.logger.warn("Failed to import patient: {}", ex.getMessage(), ex);
+            }
+            result.add(id);
+            if (id != null) {
+                imported.add(id);
+            }
+        }
+        this.logger.debug("Imported [{}] out of [{}] patient records", imported.size(), result.size());
+        this.observationManager.notify(new PatientsImportedEvent(imported), this);
+        return result;
+    }
+
+    private String importPatient(JSONObject json, DocumentReference creator, XWikiContext original)
+    {
+        if (json == null) {
+            return null;
+        }
+        XWikiContext context = WorkerContexts.setup(this.execution, original);
+        this.execution.getContext().setProperty(IMPORT_IN_PROGRESS, Boolean.TRUE);
+        try {
+            Patient patient;
+            DeferredPatientSaves.defer(context);
+            try {
+                // While saves are deferred, the new record is only created from the template, not initialized
+                patient = this.repository.createNewPatient(creator);
+                if (patient == null) {
+                    return null;
+                }
+                patient.updateFromJSON(json);
+            } finally {
+                DeferredPatientSaves.resume(context);
+            }
+            XWikiDocument doc = (XWikiDocument) this.bridge.getDocument(patient.getDocument());
+            context.getWiki().saveDocument(doc, "Imported from JSON", true, context);
+            PatientRecordInitializers.initialize(this.repository.loadPatientFromDocument(doc));
+            return patient.getId();
+        } catch (Exception ex) {
+            this.logger.warn("Failed to import patient: {}", ex.getMessage(), ex);
+            return null;
+        } finally {
+            this.execution.removeContext();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Populating a patient record from JSON saves the patient document once for each part of the record that is updated.
+ * While saves are deferred in the current context, these intermediary saves are skipped, and the modifications are
+ * kept in the document until the caller saves it once, when the whole record is populated. New patient records created
+ * by the repository while saves are deferred are stored from the template, since a document that was never saved isn't
+ * shared between the code populating it, but they aren't initialized, this is left to the caller.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+public final class DeferredPatientSaves
+{
+    /** The name of the XWiki context property marking that patient saves are deferred. */
+    private static final String DEFERRED_KEY = "phenotips.deferPatientSaves";
+
+    /** Avoid instantiation. */
+    private DeferredPatientSaves()
+    {
+        // Nothing to do
+    }
+
+    /**
+     * Start deferring patient saves in the given context.
+     *
+     * @param context the current XWiki context
+     */
+    public static void defer(XWikiContext context)
+    {
+        context.put(DEFERRED_KEY, Boolean.TRUE);
+    }
+
+    /**
+     * Stop deferring patient saves in the given context. The caller is responsible for saving the modified documents.
+     *
+     * @param context the current XWiki context
+     */
+    public static void resume(XWikiContext context)
+    {
+        context.remove(DEFERRED_KEY);
+    }
+
+    /**
+     * Check if patient saves are currently deferred in the given context.
+     *
+     * @param context the current XWiki context
+     * @return {@code true} if patient saves are deferred, {@code false} otherwise
+     */
+    public static boolean isDeferred(XWikiContext context)
+    {
+        return Boolean.TRUE.equals(context.get(DEFERRED_KEY));
+    }
+
+    /**
+     * Save a modified patient document, unless saves are currently deferred.
+     *
+     * @param doc the modified patient document
+     * @param comment the comment to use for the new document version
+     * @param isMinorEdit whether the change is a minor edit
+     * @param context the current XWiki context
+     * @throws XWikiException if saving the document fails
+     */
+    public static void save(XWikiDocument doc, String comment, boolean isMinorEdit, XWikiContext context)
+        throws XWikiException
+    {
+        if (!isDeferred(context)) {
+            context.getWiki().saveDocument(doc, comment, isMinorEdit, context);
+        }
+    }
+}
@@ -19,8 +19,9 @@
 
 import org.phenotips.data.Patient;
 import org.phenotips.data.events.PatientChangingEvent;
+import org.phenotips.vocabulary.AlternativeIdMapping;
+import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyManager;
-import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.context.Execution;
@@ -37,6 +38,8 @@
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.StringUtils;
+
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
@@ -44,7 +47,9 @@
 
 /**
  * Listens for patient records being changed, and before the action takes place, iterates over all the HPO terms and
- * replaces the deprecated ones with their updated ID.
+ * replaces the deprecated ones with their updated ID. Deprecated identifiers are looked up in the in-memory
+ * {@link AlternativeIdMapping alternative identifiers table} of their vocabulary, so that saving a record doesn't
+ * require a vocabulary query for each of its terms.
  *
  * @version $Id$
  */
@@ -94,12 +99,11 @@ public void onEvent(Event event, Object source, Object data)
                 List<String> terms = currentTermList.getList();
                 Set<String> correctSet = new LinkedHashSet<String>();
                 for (String term : terms) {
-                    VocabularyTerm properTerm = this.vocabularyManager.resolveTerm(term);
-                    if (properTerm != null) {
-                        correctSet.add(properTerm.getId());
-                    } else {
-                        correctSet.add(term);
-                    }
+                    correctSet.add(getPrimaryId(term));
+                }
+                if (correctSet.size() == terms.size() && terms.containsAll(correctSet)) {
+                    // Nothing was deprecated or duplicated, leave the property untouched
+                    continue;
                 }
                 List<String> correctList = new LinkedList<String>();
                 correctList.addAll(correctSet);
@@ -107,4 +111,27 @@ public void onEvent(Event event, Object source, Object data)
             }
         }
     }
+
+    /**
+     * Translates a possibly deprecated term identifier into the current one, using the in-memory alternative
+     * identifiers table of the vocabulary the term belongs to.
+     *
+     * @param term the identifier to check, may also be a free text term
+     * @return the primary identifier of the term, or the identifier itself if it isn't a known alternative identifier
+     */
+    private String getPrimaryId(String term)
+    {
+        String prefix = StringUtils.substringBefore(term, ":");
+        if (StringUtils.isEmpty(prefix) || prefix.length() == term.length()) {
+            return term;
+        }
+        Vocabulary vocabulary = this.vocabularyManager.getVocabulary(prefix);
+        if (vocabulary instanceof AlternativeIdMapping) {
+            String primaryId = ((AlternativeIdMapping) vocabulary).getPrimaryId(term);
+            if (primaryId != null) {
+                return primaryId;
+            }
+        }
+        return term;
+    }
 }
@@ -0,0 +1,139 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.Constants;
+import org.phenotips.data.FeatureMetadatum;
+
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.EntityReference;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.StringProperty;
+
+/**
+ * The phenotype metadata and custom category objects of a patient document, indexed by the feature they describe, so
+ * that all the features of a patient can be loaded with a single pass over these objects.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+class FeatureMetadataIndex
+{
+    /** The class of the objects storing custom categories for non-standard features. */
+    static final EntityReference CATEGORY_CLASS_REFERENCE =
+        new EntityReference("PhenotypeCategoryClass", EntityType.DOCUMENT, Constants.CODE_SPACE_REFERENCE);
+
+    private static final String META_PROPERTY_NAME = "target_property_name";
+
+    private static final String META_PROPERTY_VALUE = "target_property_value";
+
+    /** Logging helper object. */
+    private final Logger logger = LoggerFactory.getLogger(FeatureMetadataIndex.class);
+
+    /** Metadata objects, indexed by the feature property name, then by the feature value. */
+    private final Map<String, Map<String, BaseObject>> metadata;
+
+    /** Category objects, indexed by the feature property name, then by the feature value. */
+    private final Map<String, Map<String, BaseObject>> categories;
+
+    /**
+     * Indexes the metadata and category objects of the given document.
+     *
+     * @param doc the patient's XDocument, where metadata objects are stored
+     */
+    FeatureMetadataIndex(XWikiDocument doc)
+    {
+        this.metadata = index(doc.getXObjects(FeatureMetadatum.CLASS_REFERENCE));
+        this.categories = index(doc.getXObjects(CATEGORY_CLASS_REFERENCE));
+    }
+
+    /**
+     * Find the XObject that contains metadata for a feature, if any.
+     *
+     * @param propertyName the name of the property holding the feature, e.g. {@code negative_phenotype}
+     * @param value the feature value, its identifier or its name for non-standard features
+     * @return the found object, or {@code null} if one wasn't found
+     */
+    BaseObject getMetadataObject(String propertyName, String value)
+    {
+        return get(this.metadata, propertyName, value);
+    }
+
+    /**
+     * Find the XObject that contains the custom categories for a non-standard feature, if any.
+     *
+     * @param propertyName the name of the property holding the feature, e.g. {@code negative_phenotype}
+     * @param value the feature value, its identifier or its name for non-standard features
+     * @return the found object, or {@code null} if one wasn't found
+     */
+    BaseObject getCategoriesObject(String propertyName, String value)
+    {
+        return get(this.categories, propertyName, value);
+    }
+
+    private BaseObject get(Map<String, Map<String, BaseObject>> index, String propertyName, String value)
+    {
+        Map<String, BaseObject> objects = index.get(propertyName);
+        return objects == null ? null : objects.get(value);
+    }
+
+    private Map<String, Map<String, BaseObject>> index(List<BaseObject> objects)
+    {
+        if (objects == null || objects.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Map<String, BaseObject>> result = new HashMap<>();
+        for (BaseObject o : objects) {
+            if (o == null) {
+                continue;
+            }
+            try {
+                StringProperty nameProperty = (StringProperty) o.get(META_PROPERTY_NAME);
+                StringProperty valueProperty = (StringProperty) o.get(META_PROPERTY_VALUE);
+                if (nameProperty == null || nameProperty.getValue() == null || valueProperty == null
+                    || valueProperty.getValue() == null) {
+                    continue;
+                }
+                Map<String, BaseObject> values = result.get(nameProperty.getValue());
+                if (values == null) {
+                    values = new HashMap<>();
+                    result.put(nameProperty.getValue(), values);
+                }
+                // If there are several objects for the same feature, the first one is used
+                if (!values.containsKey(valueProperty.getValue())) {
+                    values.put(valueProperty.getValue(), o);
+                }
+            } catch (XWikiException ex) {
+                // Cannot access metadata, simply ignore
+                this.logger.info("Failed to retrieve phenotype metadata: {}", ex.getMessage());
+            }
+        }
+        return result;
+    }
+}
@@ -21,15 +21,20 @@
 import org.phenotips.data.events.PatientChangingEvent;
 import org.phenotips.vocabulary.VocabularyManager;
 import org.phenotips.vocabulary.VocabularyTerm;
+import org.phenotips.vocabulary.VocabularyTermAncestors;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.observation.AbstractEventListener;
 import org.xwiki.observation.event.Event;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -52,6 +57,13 @@ public class PatientExtendedPhenotypeUpdater extends AbstractEventListener
     @Inject
     private VocabularyManager vocabularyManager;
 
+    /**
+     * Cached ancestor closures, indexed by term identifier. Each entry remembers the term instance it was computed
+     * from, and since vocabularies discard their cached terms when reindexed, an entry computed from a different
+     * instance than the one currently resolved is stale and gets recomputed.
+     */
+    private final ConcurrentMap<String, AncestorClosure> closures = new ConcurrentHashMap<String, AncestorClosure>();
+
     /** Default constructor, sets up the listener name and the list of events to subscribe to. */
     public PatientExtendedPhenotypeUpdater()
     {
@@ -67,36 +79,95 @@ public void onEvent(Event event, Object source, Object data)
         if (patientRecordObj == null) {
             return;
         }
-        updateField("phenotype", "extended_phenotype", patientRecordObj);
-        updateField("prenatal_phenotype", "extended_prenatal_phenotype", patientRecordObj);
-        updateField("negative_phenotype", "extended_negative_phenotype", patientRecordObj);
+        XWikiDocument previousDoc = doc.getOriginalDocument();
+        BaseObject previousObj = previousDoc == null ? null : previousDoc.getXObject(Patient.CLASS_REFERENCE);
+        updateField("phenotype", "extended_phenotype", patientRecordObj, previousObj);
+        updateField("prenatal_phenotype", "extended_prenatal_phenotype", patientRecordObj, previousObj);
+        updateField("negative_phenotype", "extended_negative_phenotype", patientRecordObj, previousObj);
     }
 
     /**
-     * Fills in an extended phenotype field using the base phenotype field.
+     * Fills in an extended phenotype field using the base phenotype field, unless the base phenotypes are the same as
+     * in the previous version of the document and the extended field is already filled in.
      *
      * @param baseFieldName the name of the field holding the basic list of phenotypes
      * @param extendedFieldName the name of the target field that will hold the extended list of phenotypes
      * @param patientRecordObj the object to update
+     * @param previousObj the patient object from the previous version of the document, may be {@code null}
      */
-    private void updateField(String baseFieldName, String extendedFieldName, BaseObject patientRecordObj)
+    private void updateField(String baseFieldName, String extendedFieldName, BaseObject patientRecordObj,
+        BaseObject previousObj)
     {
         @SuppressWarnings("unchecked")
         List<String> phenotypes = patientRecordObj.getListValue(baseFieldName);
+        Set<String> sortedPhenotypes = new TreeSet<String>(phenotypes);
+        if (isUpToDate(baseFieldName, extendedFieldName, patientRecordObj, previousObj, sortedPhenotypes)) {
+            return;
+        }
         Set<String> extendedPhenotypes = new TreeSet<String>();
-        Set<String> sortedPhenotypes = new TreeSet<String>();
-        for (String phenotype : phenotypes) {
-            sortedPhenotypes.add(phenotype);
-            VocabularyTerm phenotypeTerm = this.vocabularyManager.resolveTerm(phenotype);
-            if (phenotypeTerm != null) {
-                for (VocabularyTerm term : phenotypeTerm.getAncestorsAndSelf()) {
-                    extendedPhenotypes.add(term.getId());
-                }
-            } else {
-                extendedPhenotypes.add(phenotype);
-            }
+        for (String phenotype : sortedPhenotypes) {
+            extendedPhenotypes.addAll(getAncestorsAndSelf(phenotype));
         }
         patientRecordObj.setDBStringListValue(extendedFieldName, new ArrayList<String>(extendedPhenotypes));
         patientRecordObj.setDBStringListValue(baseFieldName, new ArrayList<String>(sortedPhenotypes));
     }
+
+    private boolean isUpToDate(String baseFieldName, String extendedFieldName, BaseObject patientRecordObj,
+        BaseObject previousObj, Set<String> sortedPhenotypes)
+    {
+        if (previousObj == null) {
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        List<String> previousPhenotypes = previousObj.getListValue(baseFieldName);
+        @SuppressWarnings("unchecked")
+        List<String> phenotypes = patientRecordObj.getListValue(baseFieldName);
+        // The base list must also be already sorted, otherwise it still needs to be rewritten
+        return sortedPhenotypes.equals(new TreeSet<String>(previousPhenotypes))
+            && new ArrayList<String>(sortedPhenotypes).equals(phenotypes)
+            && (sortedPhenotypes.isEmpty() || !patientRecordObj.getListValue(extendedFieldName).isEmpty());
+    }
+
+    /**
+     * Computes the identifiers of a phenotype and all of its ancestors, using the cached closure when still valid.
+     *
+     * @param phenotype the identifier of the phenotype
+     * @return the identifiers of the phenotype and its ancestors, or just the phenotype itself if it isn't a known term
+     */
+    private Set<String> getAncestorsAndSelf(String phenotype)
+    {
+        VocabularyTerm phenotypeTerm = this.vocabularyManager.resolveTerm(phenotype);
+        if (phenotypeTerm == null) {
+            return Collections.singleton(phenotype);
+        }
+        AncestorClosure closure = this.closures.get(phenotype);
+        if (closure == null || closure.term != phenotypeTerm) {
+            closure = new AncestorClosure(phenotypeTerm, computeAncestorsAndSelf(phenotypeTerm));
+            this.closures.put(phenotype, closure);
+        }
+        return closure.ancestors;
+    }
+
+    private Set<String> computeAncestorsAndSelf(VocabularyTerm term)
+    {
+        Set<String> result = new HashSet<String>(VocabularyTermAncestors.getAncestorIds(term));
+        result.add(term.getId());
+        return Collections.unmodifiableSet(result);
+    }
+
+    /** The ancestor closure of a term, along with the term instance it was computed from. */
+    private static final class AncestorClosure
+    {
+        /** The term instance the closure was computed from. */
+        private final VocabularyTerm term;
+
+        /** The identifiers of the term and all its ancestors. */
+        private final Set<String> ancestors;
+
+        AncestorClosure(VocabularyTerm term, Set<String> ancestors)
+        {
+            this.term = term;
+            this.ancestors = ancestors;
+        }
+    }
 }
@@ -0,0 +1,75 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.components.ComponentManagerRegistry;
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRecordInitializer;
+
+import org.xwiki.component.manager.ComponentLookupException;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs all the available {@link PatientRecordInitializer}s on a newly created patient record.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+final class PatientRecordInitializers
+{
+    /** Logging helper object. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PatientRecordInitializers.class);
+
+    /** Avoid instantiation. */
+    private PatientRecordInitializers()
+    {
+        // Nothing to do
+    }
+
+    /**
+     * Initialize a new patient record.
+     *
+     * @param patient the newly created patient, already saved
+     */
+    static void initialize(Patient patient)
+    {
+        List<PatientRecordInitializer> initializers = Collections.emptyList();
+        try {
+            initializers = ComponentManagerRegistry.getContextComponentManager().getInstanceList(
+                PatientRecordInitializer.class);
+        } catch (ComponentLookupException e) {
+            LOGGER.error("Failed to get initializers", e);
+        }
+
+        for (PatientRecordInitializer initializer : initializers) {
+            try {
+                initializer.initialize(patient);
+            } catch (Exception ex) {
+                // Initializers shouldn't block the creation of a new patient, especially since the new patient
+                // has already been saved...
+                LOGGER.warn("Patient initializer [{}] failed: {}", initializer.getClass().getName(),
+                    ex.getMessage(), ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.context.WorkerContexts;
+import org.phenotips.vocabulary.TermPopularity;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.context.Execution;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Tells how many patient records use each phenotype. The uses are counted with a single query, in the background, and
+ * the count is reused for a while, so that callers, such as vocabulary searches ranking their suggestions, never wait
+ * for the count: until the first count is done all the terms are reported as unused, and afterwards the previous count
+ * is returned while a new one is in progress.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+@Component
+@Singleton
+public class PatientTermPopularity implements TermPopularity, Disposable
+{
+    /** How long the term popularity is reused before being counted again. */
+    private static final long POPULARITY_LIFETIME = TimeUnit.MINUTES.toMillis(10);
+
+    /** Counts how many patient records use each term. */
+    private static final String POPULARITY_QUERY = "select item, count(obj.id) from BaseObject obj,"
+        + " DBStringListProperty prop join prop.list item where obj.className = 'PhenoTips.PatientClass'"
+        + " and obj.name <> 'PhenoTips.PatientTemplate' and prop.id.id = obj.id"
+        + " and prop.id.name in ('phenotype', 'prenatal_phenotype', 'negative_phenotype') group by item";
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
+    /** Used for counting how many patients use each term. */
+    @Inject
+    private QueryManager qm;
+
+    /** Used for setting up the execution context of the thread counting the uses. */
+    @Inject
+    private Execution execution;
+
+    /** Provides the context of the request needing the count, copied into the counting thread. */
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    /** Counts the uses in the background, one count at a time. */
+    private final ExecutorService counter = Executors.newSingleThreadExecutor();
+
+    /** The number of patient records using each term, {@code null} until first counted. */
+    private volatile Map<String, Integer> popularity;
+
+    /** When {@link #popularity} was last counted. */
+    private volatile long popularityTimestamp;
+
+    /** Whether the uses are currently being counted, so that only one count is started at a time. */
+    private final AtomicBoolean counting = new AtomicBoolean();
+
+    @Override
+    public Map<String, Integer> getPopularity()
+    {
+        Map<String, Integer> result = this.popularity;
+        if (isExpired() && this.counting.compareAndSet(false, true)) {
+            startCount();
+        }
+        return result == null ? Collections.<String, Integer>emptyMap() : result;
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.counter.shutdownNow();
+    }
+
+    private boolean isExpired()
+    {
+        return this.popularity == null || System.currentTimeMillis() - this.popularityTimestamp > POPULARITY_LIFETIME;
+    }
+
+    /** Count the uses in the background. Must be called after setting the {@link #counting} flag. */
+    private void startCount()
+    {
+        final XWikiContext context = this.contextProvider.get();
+        if (context == null) {
+            // Without a context the records can't be queried, the uses will be counted when next needed
+            this.counting.set(false);
+            return;
+        }
+        this.counter.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                WorkerContexts.setup(PatientTermPopularity.this.execution, context);
+                try {
+                    PatientTermPopularity.this.popularity = count();
+                    PatientTermPopularity.this.popularityTimestamp = System.currentTimeMillis();
+                } finally {
+                    PatientTermPopularity.this.execution.removeContext();
+                    PatientTermPopularity.this.counting.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Counts how many patient records use each term.
+     *
+     * @return the popularity of each used term, empty if the patient records can't be queried
+     */
+    private Map<String, Integer> count()
+    {
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        try {
+            List<Object[]> counts = this.qm.createQuery(POPULARITY_QUERY, Query.HQL).execute();
+            for (Object[] count : counts) {
+                result.put(String.valueOf(count[0]), ((Number) count[1]).intValue());
+            }
+        } catch (Exception ex) {
+            this.logger.debug("Failed to count the phenotype usage: {}", ex.getMessage());
+        }
+        return result;
+    }
+}
@@ -17,7 +17,6 @@
  */
 package org.phenotips.data.internal;
 
-import org.phenotips.Constants;
 import org.phenotips.components.ComponentManagerRegistry;
 import org.phenotips.data.Feature;
 import org.phenotips.data.FeatureMetadatum;
@@ -25,8 +24,6 @@
 import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.manager.ComponentLookupException;
-import org.xwiki.model.EntityType;
-import org.xwiki.model.reference.EntityReference;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -65,10 +62,6 @@ public class PhenoTipsFeature extends AbstractPhenoTipsVocabularyProperty implem
      */
     private static final Pattern NEGATIVE_PREFIX = Pattern.compile("^negative_");
 
-    private static final String META_PROPERTY_NAME = "target_property_name";
-
-    private static final String META_PROPERTY_VALUE = "target_property_value";
-
     private static final String META_PROPERTY_CATEGORIES = "target_property_category";
 
     /** Used for reading and writing Features to JSON. */
@@ -114,6 +107,20 @@ public class PhenoTipsFeature extends AbstractPhenoTipsVocabularyProperty implem
      * @param value the specific value from the property represented by this object
      */
     PhenoTipsFeature(XWikiDocument doc, ListProperty property, String value)
+    {
+        this(new FeatureMetadataIndex(doc), property, value);
+    }
+
+    /**
+     * Constructor that copies the data from an XProperty value, taking the feature metadata from an index of the
+     * patient's metadata objects, shared by all the features of the patient.
+     *
+     * @param metadataIndex the metadata and category objects of the patient document
+     * @param property the feature category XProperty
+     * @param value the specific value from the property represented by this object
+     * @since 1.2RC1
+     */
+    PhenoTipsFeature(FeatureMetadataIndex metadataIndex, ListProperty property, String value)
     {
         super(value);
         this.propertyName = property.getName();
@@ -124,7 +131,7 @@ public class PhenoTipsFeature extends AbstractPhenoTipsVocabularyProperty implem
         this.metadata = new TreeMap<String, FeatureMetadatum>();
         String metadataNotes = "";
         try {
-            BaseObject metadataObject = findMetadataObject(doc);
+            BaseObject metadataObject = metadataIndex.getMetadataObject(this.propertyName, getValue());
             if (metadataObject != null) {
                 for (FeatureMetadatum.Type metadataType : FeatureMetadatum.Type.values()) {
                     StringProperty metadataProp = (StringProperty) metadataObject.get(metadataType.toString());
@@ -143,16 +150,11 @@ public class PhenoTipsFeature extends AbstractPhenoTipsVocabularyProperty implem
         this.metadata = Collections.unmodifiableMap(this.metadata);
 
         List<String> categoriesList = Collections.emptyList();
-        try {
-            BaseObject categoriesObject = findCategoriesObject(doc);
-            if (categoriesObject != null && categoriesObject.getListValue(META_PROPERTY_CATEGORIES) != null) {
-                @SuppressWarnings("unchecked")
-                List<String> originalCategories = categoriesObject.getListValue(META_PROPERTY_CATEGORIES);
-                categoriesList = Collections.unmodifiableList(originalCategories);
-            }
-        } catch (XWikiException ex) {
-            // Cannot access metadata, simply ignore
-            this.logger.info("Failed to retrieve phenotype categories: {}", ex.getMessage());
+        BaseObject categoriesObject = metadataIndex.getCategoriesObject(this.propertyName, getValue());
+        if (categoriesObject != null && categoriesObject.getListValue(META_PROPERTY_CATEGORIES) != null) {
+            @SuppressWarnings("unchecked")
+            List<String> originalCategories = categoriesObject.getListValue(META_PROPERTY_CATEGORIES);
+            categoriesList = Collections.unmodifiableList(originalCategories);
         }
         this.categories = categoriesList;
     }
@@ -251,58 +253,4 @@ public JSONObject toJSON()
         }
         return result;
     }
-
-    /**
-     * Find the XObject that contains metadata for this feature, if any.
-     *
-     * @param doc the patient's XDocument, where metadata objects are stored
-     * @return the found object, or {@code null} if one wasn't found
-     * @throws XWikiException if accessing the data fails
-     */
-    private BaseObject findMetadataObject(XWikiDocument doc) throws XWikiException
-    {
-        List<BaseObject> objects = doc.getXObjects(FeatureMetadatum.CLASS_REFERENCE);
-        if (objects != null && !objects.isEmpty()) {
-            for (BaseObject o : objects) {
-                if (o == null) {
-                    continue;
-                }
-                StringProperty nameProperty = (StringProperty) o.get(META_PROPERTY_NAME);
-                StringProperty valueProperty = (StringProperty) o.get(META_PROPERTY_VALUE);
-                if (nameProperty != null && StringUtils.equals(nameProperty.getValue(), this.propertyName)
-                    && valueProperty != null && StringUtils.equals(valueProperty.getValue(), this.getValue())) {
-                    return o;
-                }
-            }
-        }
-        return null;
-    }
-
-    /**
-     * Find the XObject that contains the custom categories for this non-standard feature, if any.
-     *
-     * @param doc the patient's XDocument, where objects are stored
-     * @return the found object, or {@code null} if one wasn't found
-     * @throws XWikiException if accessing the data fails
-     */
-    private BaseObject findCategoriesObject(XWikiDocument doc) throws XWikiException
-    {
-        List<BaseObject> objects =
-            doc.getXObjects(new EntityReference("PhenotypeCategoryClass", EntityType.DOCUMENT,
-                Constants.CODE_SPACE_REFERENCE));
-        if (objects != null && !objects.isEmpty()) {
-            for (BaseObject o : objects) {
-                if (o == null) {
-                    continue;
-                }
-                StringProperty nameProperty = (StringProperty) o.get(META_PROPERTY_NAME);
-                StringProperty valueProperty = (StringProperty) o.get(META_PROPERTY_VALUE);
-                if (nameProperty != null && StringUtils.equals(nameProperty.getValue(), this.propertyName)
-                    && valueProperty != null && StringUtils.equals(valueProperty.getValue(), this.getValue())) {
-                    return o;
-                }
-            }
-        }
-        return null;
-    }
 }
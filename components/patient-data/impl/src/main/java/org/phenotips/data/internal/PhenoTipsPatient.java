@@ -32,9 +32,12 @@
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
 
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -54,6 +57,7 @@
 
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
+import net.sf.json.util.JSONBuilder;
 
 /**
  * Implementation of patient data based on the XWiki data model, where patient data is represented by properties in
@@ -112,6 +116,13 @@ public class PhenoTipsPatient implements Patient
     /** Extra data that can be plugged into the patient record. */
     private Map<String, PatientData<?>> extraData = new HashMap<String, PatientData<?>>();
 
+    /**
+     * The data controllers whose data hasn't been loaded yet, indexed by their name. Controller data is only loaded
+     * when first requested, so that serializing a subset of the fields doesn't have to load all the data.
+     */
+    private Map<String, PatientDataController<?>> pendingSerializers =
+        new LinkedHashMap<String, PatientDataController<?>>();
+
     /**
      * Constructor that copies the data from an XDocument.
      *
@@ -139,13 +150,14 @@ public PhenoTipsPatient(XWikiDocument doc)
         this.disorders = Collections.unmodifiableSet(this.disorders);
 
         loadSerializers();
-        readPatientData();
     }
 
     private void loadFeatures(XWikiDocument doc, BaseObject data)
     {
         @SuppressWarnings("unchecked")
         Collection<BaseProperty<EntityReference>> fields = data.getFieldList();
+        // Metadata objects are indexed once, instead of being scanned again for each feature
+        FeatureMetadataIndex metadataIndex = null;
         for (BaseProperty<EntityReference> field : fields) {
             if (field == null || !field.getName().matches("(?!extended_)(.*_)?phenotype")
                 || !ListProperty.class.isInstance(field)) {
@@ -154,7 +166,10 @@ private void loadFeatures(XWikiDocument doc, BaseObject data)
             ListProperty values = (ListProperty) field;
             for (String value : values.getList()) {
                 if (StringUtils.isNotBlank(value)) {
-                    this.features.add(new PhenoTipsFeature(doc, values, value));
+                    if (metadataIndex == null) {
+                        metadataIndex = new FeatureMetadataIndex(doc);
+                    }
+                    this.features.add(new PhenoTipsFeature(metadataIndex, values, value));
                 }
             }
         }
@@ -179,17 +194,24 @@ private void loadSerializers()
         try {
             this.serializers =
                 ComponentManagerRegistry.getContextComponentManager().getInstanceList(PatientDataController.class);
+            for (PatientDataController<?> serializer : this.serializers) {
+                this.pendingSerializers.put(serializer.getName(), serializer);
+            }
         } catch (ComponentLookupException e) {
             this.logger.error("Failed to find component", e);
         }
     }
 
     /**
-     * Loops through all the available serializers and passes each a document reference.
+     * Loads the data provided by a controller, unless it has already been loaded.
+     *
+     * @param name the name of the controller whose data should be loaded
      */
-    private void readPatientData()
+    private void readPatientData(String name)
     {
-        for (PatientDataController<?> serializer : this.serializers) {
+        // Removed before loading, so that a controller that accesses its own data while loading doesn't loop forever
+        PatientDataController<?> serializer = this.pendingSerializers.remove(name);
+        if (serializer != null) {
             PatientData<?> data = serializer.load(this);
             if (data != null) {
                 this.extraData.put(data.getName(), data);
@@ -197,6 +219,16 @@ private void readPatientData()
         }
     }
 
+    /**
+     * Loops through all the serializers that haven't been loaded yet and loads their data.
+     */
+    synchronized void readPatientData()
+    {
+        for (String name : new ArrayList<String>(this.pendingSerializers.keySet())) {
+            readPatientData(name);
+        }
+    }
+
     private boolean isFieldIncluded(Collection<String> includedFieldNames, String fieldName)
     {
         return (includedFieldNames == null || includedFieldNames.contains(fieldName));
@@ -257,8 +289,16 @@ public Set<Disorder> getDisorders()
 
     @SuppressWarnings("unchecked")
     @Override
-    public <T> PatientData<T> getData(String name)
+    public synchronized <T> PatientData<T> getData(String name)
     {
+        if (!this.extraData.containsKey(name) && !this.pendingSerializers.isEmpty()) {
+            if (this.pendingSerializers.containsKey(name)) {
+                readPatientData(name);
+            } else {
+                // Not the name of a known controller, the data may be provided under a different name
+                readPatientData();
+            }
+        }
         return (PatientData<T>) this.extraData.get(name);
     }
 
@@ -332,6 +372,67 @@ public JSONObject toJSON(Collection<String> onlyFieldNames)
         return result;
     }
 
+    @Override
+    public void writeJSON(Writer writer, Collection<String> onlyFieldNames, JSONObject extraProperties)
+    {
+        JSONBuilder out = new JSONBuilder(writer);
+        out.object();
+
+        if (isFieldIncluded(onlyFieldNames, JSON_KEY_ID)) {
+            out.key(JSON_KEY_ID).value(getDocument().getName());
+        }
+
+        if (getReporter() != null && isFieldIncluded(onlyFieldNames, JSON_KEY_REPORTER)) {
+            out.key(JSON_KEY_REPORTER).value(getReporter().getName());
+        }
+
+        // Features and disorders are the bulk of most records, write them one at a time
+        if (!this.features.isEmpty() && isFieldIncluded(onlyFieldNames, PHENOTYPE_PROPERTIES)) {
+            out.key(JSON_KEY_FEATURES).array();
+            for (Feature phenotype : this.features) {
+                if (StringUtils.isNotBlank(phenotype.getId())) {
+                    out.value(phenotype.toJSON());
+                }
+            }
+            out.endArray();
+            out.key(JSON_KEY_NON_STANDARD_FEATURES).array();
+            for (Feature phenotype : this.features) {
+                if (StringUtils.isBlank(phenotype.getId())) {
+                    out.value(phenotype.toJSON());
+                }
+            }
+            out.endArray();
+        }
+
+        if (!this.disorders.isEmpty() && isFieldIncluded(onlyFieldNames, DISORDER_PROPERTIES)) {
+            out.key(JSON_KEY_DISORDERS).array();
+            for (Disorder disease : this.disorders) {
+                out.value(disease.toJSON());
+            }
+            out.endArray();
+        }
+
+        // Several serializers can contribute to the same section, so their output must be gathered before writing it
+        JSONObject controllersData = new JSONObject();
+        for (PatientDataController<?> serializer : this.serializers) {
+            serializer.writeJSON(this, controllersData, onlyFieldNames);
+        }
+        writeProperties(out, controllersData);
+        writeProperties(out, extraProperties);
+
+        out.endObject();
+    }
+
+    private void writeProperties(JSONBuilder out, JSONObject properties)
+    {
+        if (properties == null) {
+            return;
+        }
+        for (Object key : properties.keySet()) {
+            out.key(String.valueOf(key)).value(properties.get(key));
+        }
+    }
+
     private void updateFeaturesFromJSON(XWikiDocument doc, BaseObject data, XWikiContext context, JSONObject json)
     {
         try {
@@ -366,7 +467,7 @@ private void updateFeaturesFromJSON(XWikiDocument doc, BaseObject data, XWikiCon
                 // update the values in the document (overwriting the old list, if any)
                 data.set(PHENOTYPE_POSITIVE_PROPERTY, positiveValues, context);
                 data.set(PHENOTYPE_NEGATIVE_PROPERTY, negativeValues, context);
-                context.getWiki().saveDocument(doc, "Updated features from JSON", true, context);
+                DeferredPatientSaves.save(doc, "Updated features from JSON", true, context);
             }
         } catch (Exception ex) {
             this.logger.warn("Failed to update patient features from JSON [{}]: {}", ex.getMessage(), ex);
@@ -401,7 +502,7 @@ private void updateDisordersFromJSON(XWikiDocument doc, BaseObject data, XWikiCo
 
                 // update the values in the document (overwriting the old list, if any)
                 data.set(DISORDER_PROPERTIES_OMIMID, disorderValues, context);
-                context.getWiki().saveDocument(doc, "Updated disorders from JSON", true, context);
+                DeferredPatientSaves.save(doc, "Updated disorders from JSON", true, context);
             }
         } catch (Exception ex) {
             this.logger.warn("Failed to update patient disorders from JSON [{}]: {}", ex.getMessage(), ex);
@@ -435,7 +536,10 @@ public void updateFromJSON(JSONObject json)
                 try {
                     PatientData<?> patientData = serializer.readJSON(json);
                     if (patientData != null) {
-                        this.extraData.put(patientData.getName(), patientData);
+                        synchronized (this) {
+                            this.pendingSerializers.remove(serializer.getName());
+                            this.extraData.put(patientData.getName(), patientData);
+                        }
                         serializer.save(this);
                         this.logger.info("Successfully updated patient form JSON using serializer [{}]",
                             serializer.getName());
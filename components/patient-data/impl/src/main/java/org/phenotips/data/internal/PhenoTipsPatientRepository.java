@@ -17,47 +17,75 @@
  */
 package org.phenotips.data.internal;
 
-import org.phenotips.components.ComponentManagerRegistry;
 import org.phenotips.data.Patient;
-import org.phenotips.data.PatientRecordInitializer;
 import org.phenotips.data.PatientRepository;
+import org.phenotips.data.events.PatientChangedEvent;
+import org.phenotips.data.events.PatientDeletedEvent;
+import org.phenotips.data.events.PatientEvent;
 
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
 import org.xwiki.component.annotation.Component;
-import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
 import org.xwiki.context.Execution;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryManager;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
 
 /**
  * Implementation of patient data access service using XWiki as the storage backend, where patients in documents having
- * an object of type {@code PhenoTips.PatientClass}.
+ * an object of type {@code PhenoTips.PatientClass}. Recently loaded patients are cached, and reused as long as their
+ * document wasn't changed, and patient documents are indexed by their external identifier.
  *
  * @version $Id$
  * @since 1.0M8
  */
-@Component
+@Component(roles = { PatientRepository.class })
 @Singleton
-public class PhenoTipsPatientRepository implements PatientRepository
+public class PhenoTipsPatientRepository implements PatientRepository, EventListener, Initializable
 {
+    /** The maximum number of loaded patients to keep in memory. */
+    private static final int CACHE_SIZE = 200;
+
+    /** The name of the patient property holding the external identifier. */
+    private static final String EXTERNAL_ID_PROPERTY = "external_id";
+
     /** Logging helper object. */
     @Inject
     private Logger logger;
@@ -84,6 +112,89 @@ public class PhenoTipsPatientRepository implements PatientRepository
     @Named("current")
     private DocumentReferenceResolver<EntityReference> referenceResolver;
 
+    /** Serializes document references, used as cache keys. */
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    /** Creates the cache of loaded patients. */
+    @Inject
+    private CacheManager cacheManager;
+
+    /** Used for registering as a listener for patient changes. */
+    @Inject
+    private ObservationManager observationManager;
+
+    /** The last allocated patient identifier, {@code -1} until read from the database. */
+    private final AtomicLong lastUsedId = new AtomicLong(-1);
+
+    /** Recently loaded patients, indexed by their serialized document reference. */
+    private Cache<CachedPatient> cache;
+
+    /** The documents of the patients having each external identifier, {@code null} until read from the database. */
+    private volatile ConcurrentMap<String, Set<DocumentReference>> documentsByExternalId;
+
+    /** The external identifier of each indexed patient document, used for cleaning up the index on changes. */
+    private final ConcurrentMap<DocumentReference, String> externalIdsByDocument =
+        new ConcurrentHashMap<DocumentReference, String>();
+
+    /** Guards the initialization and the updates of the external identifiers index. */
+    private final Object externalIdsLock = new Object();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.cache = this.cacheManager.createNewLocalCache(
+                new CacheConfiguration(new LRUEvictionConfiguration(CACHE_SIZE)));
+        } catch (CacheException ex) {
+            throw new InitializationException("Cannot create the patient cache: " + ex.getMessage());
+        }
+        // This component can't be registered as an event listener directly, since that would create a separate
+        // instance, with its own cache and external identifiers index
+        this.observationManager.addListener(this);
+    }
+
+    @Override
+    public String getName()
+    {
+        return "phenotips-patient-cache";
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new PatientChangedEvent(), new PatientDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        Patient patient = ((PatientEvent) event).getPatient();
+        if (patient == null || patient.getDocument() == null) {
+            return;
+        }
+        if (this.cache != null) {
+            this.cache.remove(this.serializer.serialize(patient.getDocument()));
+        }
+        synchronized (this.externalIdsLock) {
+            if (this.documentsByExternalId == null) {
+                // Not loaded yet, the current data will be read from the database when needed
+                return;
+            }
+            unindexExternalId(patient.getDocument());
+            if (!(event instanceof PatientDeletedEvent)) {
+                String externalId = null;
+                if (source instanceof XWikiDocument) {
+                    BaseObject patientObject = ((XWikiDocument) source).getXObject(Patient.CLASS_REFERENCE);
+                    externalId = patientObject == null ? null : patientObject.getStringValue(EXTERNAL_ID_PROPERTY);
+                } else {
+                    externalId = patient.getExternalId();
+                }
+                indexExternalId(this.documentsByExternalId, externalId, patient.getDocument());
+            }
+        }
+    }
+
     @Override
     public Patient getPatientById(String id)
     {
@@ -91,7 +202,7 @@ public Patient getPatientById(String id)
         try {
             XWikiDocument doc = (XWikiDocument) this.bridge.getDocument(reference);
             if (doc != null && doc.getXObject(Patient.CLASS_REFERENCE) != null) {
-                return new PhenoTipsPatient(doc);
+                return getCachedPatient(doc);
             }
         } catch (Exception ex) {
             this.logger.warn("Failed to access patient with id [{}]: {}", id, ex.getMessage(), ex);
@@ -102,14 +213,15 @@ public Patient getPatientById(String id)
     @Override
     public Patient getPatientByExternalId(String externalId)
     {
+        if (StringUtils.isEmpty(externalId)) {
+            return null;
+        }
         try {
-            Query q = this.qm.createQuery("where doc.object(PhenoTips.PatientClass).external_id = :eid", Query.XWQL);
-            q.bindValue("eid", externalId);
-            List<String> results = q.execute();
-            if (results.size() == 1) {
-                DocumentReference reference =
-                    this.stringResolver.resolve(results.get(0), Patient.DEFAULT_DATA_SPACE);
-                return new PhenoTipsPatient((XWikiDocument) this.bridge.getDocument(reference));
+            Map<String, Set<DocumentReference>> index = getExternalIdIndex();
+            Set<DocumentReference> results = index.get(externalId);
+            if (results != null && results.size() == 1) {
+                DocumentReference reference = results.iterator().next();
+                return getCachedPatient((XWikiDocument) this.bridge.getDocument(reference));
             }
         } catch (QueryException ex) {
             this.logger.warn("Failed to search for the patient with external id [{}]: {}", externalId, ex.getMessage(),
@@ -120,6 +232,24 @@ public Patient getPatientByExternalId(String externalId)
         return null;
     }
 
+    @Override
+    public Collection<DocumentReference> getPatientDocumentsByExternalId(String externalId)
+    {
+        if (StringUtils.isEmpty(externalId)) {
+            return Collections.emptyList();
+        }
+        try {
+            Set<DocumentReference> results = getExternalIdIndex().get(externalId);
+            if (results != null) {
+                return new ArrayList<DocumentReference>(results);
+            }
+        } catch (QueryException ex) {
+            this.logger.warn("Failed to search for the patients with external id [{}]: {}", externalId,
+                ex.getMessage(), ex);
+        }
+        return Collections.emptyList();
+    }
+
     @Override
     public Patient loadPatientFromDocument(DocumentModelBridge document)
     {
@@ -132,18 +262,19 @@ public Patient loadPatientFromDocument(DocumentModelBridge document)
     }
 
     @Override
-    public synchronized Patient createNewPatient(DocumentReference creator)
+    public Patient createNewPatient(DocumentReference creator)
     {
         try {
             // FIXME Take these from the configuration
             String prefix = "P";
 
             XWikiContext context = (XWikiContext) this.execution.getContext().getProperty("xwikicontext");
-            long id = getLastUsedId();
+            long id;
             DocumentReference newDoc;
             do {
+                id = getNextId();
                 newDoc = this.referenceResolver.resolve(new EntityReference(
-                    prefix + String.format("%07d", ++id), EntityType.DOCUMENT, Patient.DEFAULT_DATA_SPACE));
+                    prefix + String.format("%07d", id), EntityType.DOCUMENT, Patient.DEFAULT_DATA_SPACE));
             } while (this.bridge.exists(newDoc));
             XWikiDocument doc = (XWikiDocument) this.bridge.getDocument(newDoc);
             doc.readFromTemplate(this.referenceResolver.resolve(PhenoTipsPatient.TEMPLATE_REFERENCE), context);
@@ -154,28 +285,15 @@ public synchronized Patient createNewPatient(DocumentReference creator)
                 doc.setAuthorReference(creator);
                 doc.setContentAuthorReference(creator);
             }
+            // Even when saves are deferred the new record must be stored, since until then each request for the
+            // document returns a new blank document, and the data added while populating the record would be lost
             context.getWiki().saveDocument(doc, context);
 
             Patient patient = new PhenoTipsPatient(doc);
-            List<PatientRecordInitializer> initializers = Collections.emptyList();
-            try {
-                initializers = ComponentManagerRegistry.getContextComponentManager().getInstanceList(
-                    PatientRecordInitializer.class);
-            } catch (ComponentLookupException e) {
-                this.logger.error("Failed to get initializers", e);
+            if (!DeferredPatientSaves.isDeferred(context)) {
+                // Otherwise the caller populates the new record, saves it, and then initializes it
+                PatientRecordInitializers.initialize(patient);
             }
-
-            for (PatientRecordInitializer initializer : initializers) {
-                try {
-                    initializer.initialize(patient);
-                } catch (Exception ex) {
-                    // Initializers shouldn't block the creation of a new patient, especially since the new patient
-                    // has already been saved...
-                    this.logger.warn("Patient initializer [{}] failed: {}", initializer.getClass().getName(),
-                        ex.getMessage(), ex);
-                }
-            }
-
             return patient;
         } catch (Exception ex) {
             this.logger.warn("Failed to create patient: {}", ex.getMessage(), ex);
@@ -184,11 +302,112 @@ public synchronized Patient createNewPatient(DocumentReference creator)
     }
 
     @Override
-    public synchronized Patient createNewPatient()
+    public Patient createNewPatient()
     {
         return createNewPatient(this.bridge.getCurrentUserReference());
     }
 
+    /**
+     * Returns the index of patient documents by external identifier, reading all the external identifiers from the
+     * database the first time it is needed. Afterwards, the index is kept up to date by listening to patient changes.
+     *
+     * @return the current index
+     * @throws QueryException if reading the external identifiers fails
+     */
+    private Map<String, Set<DocumentReference>> getExternalIdIndex() throws QueryException
+    {
+        ConcurrentMap<String, Set<DocumentReference>> index = this.documentsByExternalId;
+        if (index != null) {
+            return index;
+        }
+        synchronized (this.externalIdsLock) {
+            if (this.documentsByExternalId == null) {
+                Query q = this.qm.createQuery("select doc.fullName, p.external_id from Document doc,"
+                    + " doc.object(PhenoTips.PatientClass) p where p.external_id <> ''", Query.XWQL);
+                List<Object[]> results = q.execute();
+                index = new ConcurrentHashMap<String, Set<DocumentReference>>();
+                this.externalIdsByDocument.clear();
+                for (Object[] result : results) {
+                    indexExternalId(index, (String) result[1],
+                        this.stringResolver.resolve((String) result[0], Patient.DEFAULT_DATA_SPACE));
+                }
+                this.documentsByExternalId = index;
+            }
+            return this.documentsByExternalId;
+        }
+    }
+
+    private void indexExternalId(ConcurrentMap<String, Set<DocumentReference>> index, String externalId,
+        DocumentReference document)
+    {
+        if (StringUtils.isEmpty(externalId)) {
+            return;
+        }
+        Set<DocumentReference> documents = index.get(externalId);
+        if (documents == null) {
+            documents = Collections.newSetFromMap(new ConcurrentHashMap<DocumentReference, Boolean>());
+            Set<DocumentReference> existing = index.putIfAbsent(externalId, documents);
+            documents = existing == null ? documents : existing;
+        }
+        documents.add(document);
+        this.externalIdsByDocument.put(document, externalId);
+    }
+
+    private void unindexExternalId(DocumentReference document)
+    {
+        String previousExternalId = this.externalIdsByDocument.remove(document);
+        if (previousExternalId == null) {
+            return;
+        }
+        Set<DocumentReference> documents = this.documentsByExternalId.get(previousExternalId);
+        if (documents != null) {
+            documents.remove(document);
+            if (documents.isEmpty()) {
+                this.documentsByExternalId.remove(previousExternalId, documents);
+            }
+        }
+    }
+
+    /**
+     * Returns the patient stored in a document, reusing the patient loaded from the same version of the document, if
+     * it is still cached. Cached patients are shared between callers, so they are read-only, and their data is loaded
+     * only once, when first requested, see {@link SharedPhenoTipsPatient}.
+     *
+     * @param doc a document containing a patient record
+     * @return the patient stored in the document
+     */
+    private Patient getCachedPatient(XWikiDocument doc)
+    {
+        if (this.cache == null) {
+            return new PhenoTipsPatient(doc);
+        }
+        String key = this.serializer.serialize(doc.getDocumentReference());
+        CachedPatient cached = this.cache.get(key);
+        if (cached != null && StringUtils.equals(cached.version, doc.getVersion())) {
+            return cached.patient;
+        }
+        Patient patient = new SharedPhenoTipsPatient(doc);
+        this.cache.set(key, new CachedPatient(doc.getVersion(), patient));
+        return patient;
+    }
+
+    /**
+     * Allocates a new patient identifier. Identifiers are handed out from an in-memory sequence, so concurrent
+     * creations never wait for each other; the sequence is persisted by the identifiers stored in the patient records
+     * themselves, and it is initialized from the highest stored identifier the first time it is needed.
+     *
+     * @return a new identifier, never returned before by this repository
+     * @throws QueryException if initializing the sequence fails
+     */
+    private long getNextId() throws QueryException
+    {
+        if (this.lastUsedId.get() < 0) {
+            // If another thread initialized the sequence in the meantime, keep its value
+            this.lastUsedId.compareAndSet(-1, getLastUsedId());
+        }
+        return this.lastUsedId.incrementAndGet();
+    }
+
     private long getLastUsedId() throws QueryException
     {
         long crtMaxID = 0;
@@ -204,4 +423,20 @@ private long getLastUsedId() throws QueryException
         crtMaxID = Math.max(crtMaxID, 0);
         return crtMaxID;
     }
+
+    /** A loaded patient, along with the version of the document it was loaded from. */
+    private static final class CachedPatient
+    {
+        /** The version of the patient document. */
+        private final String version;
+
+        /** The patient loaded from that version. */
+        private final Patient patient;
+
+        CachedPatient(String version, Patient patient)
+        {
+            this.version = version;
+            this.patient = patient;
+        }
+    }
 }
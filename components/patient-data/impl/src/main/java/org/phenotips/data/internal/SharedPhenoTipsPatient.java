@@ -0,0 +1,68 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.components.ComponentManagerRegistry;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import net.sf.json.JSONObject;
+
+/**
+ * A patient record kept in the {@link PhenoTipsPatientRepository repository cache} and shared between all the callers
+ * requesting the same version of the patient. As for any patient, the data of each controller is only loaded when first
+ * requested, so that requests for a few fields don't load the whole record; loading is synchronized, so concurrent
+ * callers load each controller only once and then share its data. The instance is never modified afterwards: updates
+ * are applied to a private copy loaded from the current version of the document, and saving it evicts this instance
+ * from the cache.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+class SharedPhenoTipsPatient extends PhenoTipsPatient
+{
+    /** Logging helper object. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedPhenoTipsPatient.class);
+
+    /**
+     * Constructor that copies the data from an XDocument.
+     *
+     * @param doc the XDocument representing this patient in XWiki
+     */
+    SharedPhenoTipsPatient(XWikiDocument doc)
+    {
+        super(doc);
+    }
+
+    @Override
+    public void updateFromJSON(JSONObject json)
+    {
+        try {
+            DocumentAccessBridge bridge =
+                ComponentManagerRegistry.getContextComponentManager().getInstance(DocumentAccessBridge.class);
+            new PhenoTipsPatient((XWikiDocument) bridge.getDocument(getDocument())).updateFromJSON(json);
+        } catch (Exception ex) {
+            LOGGER.warn("Failed to update patient data from JSON [{}]: {}", ex.getMessage(), ex);
+        }
+    }
+}
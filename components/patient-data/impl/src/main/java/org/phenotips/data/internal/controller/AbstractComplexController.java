@@ -36,6 +36,7 @@
 
 import javax.inject.Inject;
 
+import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 
@@ -104,6 +105,10 @@ public PatientData<T> load(Patient patient)
     @Override
     public void writeJSON(Patient patient, JSONObject json, Collection<String> selectedFieldNames)
     {
+        if (selectedFieldNames != null && !CollectionUtils.containsAny(selectedFieldNames, getProperties())) {
+            // None of the fields handled by this controller are requested, don't bother loading the data
+            return;
+        }
         PatientData<T> data = patient.getData(getName());
         if (data == null) {
             return;
@@ -21,6 +21,7 @@
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientData;
 import org.phenotips.data.PatientDataController;
+import org.phenotips.data.internal.DeferredPatientSaves;
 
 import org.xwiki.bridge.DocumentAccessBridge;
 
@@ -34,6 +35,7 @@
 import javax.inject.Inject;
 import javax.inject.Provider;
 
+import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 
@@ -107,7 +109,7 @@ public void save(Patient patient)
 
             XWikiContext context = contextProvider.get();
             String comment = String.format("Updated %s from JSON", this.getName());
-            context.getWiki().saveDocument(doc, comment, true, context);
+            DeferredPatientSaves.save(doc, comment, true, context);
         } catch (Exception e) {
             this.logger.error("Failed to save {}: [{}]", this.getName(), e.getMessage());
         }
@@ -122,6 +124,10 @@ public void writeJSON(Patient patient, JSONObject json)
     @Override
     public void writeJSON(Patient patient, JSONObject json, Collection<String> selectedFieldNames)
     {
+        if (selectedFieldNames != null && !CollectionUtils.containsAny(selectedFieldNames, getProperties())) {
+            // None of the fields handled by this controller are requested, don't bother loading the data
+            return;
+        }
         PatientData<String> data = patient.getData(getName());
         if (data == null || !data.isNamed()) {
             return;
@@ -22,6 +22,7 @@
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientData;
 import org.phenotips.data.PatientDataController;
+import org.phenotips.data.internal.DeferredPatientSaves;
 
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.component.annotation.Component;
@@ -137,7 +138,7 @@ public void save(Patient patient)
             xobject.setIntValue(NKDA, nkda ? 1 : 0);
             xobject.setDBStringListValue(DATA_NAME, allergies);
 
-            this.xcontext.get().getWiki().saveDocument(doc, "Updated allergies from JSON", true, this.xcontext.get());
+            DeferredPatientSaves.save(doc, "Updated allergies from JSON", true, this.xcontext.get());
         } catch (Exception ex) {
             this.logger.error("Could not access requested document or some unforeseen error has occurred during save.",
                 ex);
@@ -22,6 +22,7 @@
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientData;
 import org.phenotips.data.PatientDataController;
+import org.phenotips.data.internal.DeferredPatientSaves;
 
 import org.xwiki.bridge.DocumentAccessBridge;
 
@@ -130,7 +131,7 @@ public void save(Patient patient)
             }
 
             XWikiContext context = (XWikiContext) this.execution.getContext().getProperty("xwikicontext");
-            context.getWiki().saveDocument(doc, "Updated dates from JSON", true, context);
+            DeferredPatientSaves.save(doc, "Updated dates from JSON", true, context);
         } catch (Exception e) {
             this.logger.error("Failed to save dates: [{}]", e.getMessage());
         }
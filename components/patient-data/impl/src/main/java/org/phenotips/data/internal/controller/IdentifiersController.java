@@ -21,6 +21,7 @@
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientData;
 import org.phenotips.data.PatientDataController;
+import org.phenotips.data.internal.DeferredPatientSaves;
 
 import org.xwiki.bridge.DocumentAccessBridge;
 
@@ -110,7 +111,7 @@ public void save(Patient patient)
             data.setStringValue(EXTERNAL_IDENTIFIER_PROPERTY_NAME, externalId);
 
             XWikiContext context = (XWikiContext) this.execution.getContext().getProperty("xwikicontext");
-            context.getWiki().saveDocument(doc, "Updated identifiers from JSON", true, context);
+            DeferredPatientSaves.save(doc, "Updated identifiers from JSON", true, context);
         } catch (Exception e) {
             this.logger.error("Failed to save identifiers: [{}]", e.getMessage());
         }
@@ -21,6 +21,7 @@
 import org.phenotips.data.PatientData;
 import org.phenotips.data.PatientDataController;
 import org.phenotips.data.SimpleValuePatientData;
+import org.phenotips.data.internal.DeferredPatientSaves;
 
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.component.annotation.Component;
@@ -136,7 +137,7 @@ public void save(Patient patient)
 
             data.setIntValue(PATIENT_UNKNOWN_DATEOFDEATH_FIELDNAME, deathDateUnknown);
 
-            this.xcontext.get().getWiki().saveDocument(doc, "Updated life status from JSON", true, this.xcontext.get());
+            DeferredPatientSaves.save(doc, "Updated life status from JSON", true, this.xcontext.get());
         } catch (Exception e) {
             this.logger.error("Failed to save life status: [{}]", e.getMessage());
         }
@@ -21,6 +21,7 @@
 import org.phenotips.data.PatientData;
 import org.phenotips.data.PatientDataController;
 import org.phenotips.data.SimpleValuePatientData;
+import org.phenotips.data.internal.DeferredPatientSaves;
 
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.component.annotation.Component;
@@ -115,7 +116,7 @@ public void save(Patient patient)
             data.setStringValue(INTERNAL_PROPERTY_NAME, gender);
 
             XWikiContext context = (XWikiContext) this.execution.getContext().getProperty("xwikicontext");
-            context.getWiki().saveDocument(doc, "Updated gender from JSON", true, context);
+            DeferredPatientSaves.save(doc, "Updated gender from JSON", true, context);
         } catch (Exception e) {
             this.logger.error("Failed to save patient gender: [{}]", e.getMessage());
         }
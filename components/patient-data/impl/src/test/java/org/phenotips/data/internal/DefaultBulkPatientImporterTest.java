@@ -0,0 +1,301 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.components.ComponentManagerRegistry;
+import org.phenotips.data.BulkPatientImporter;
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientDataController;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.events.PatientsImportedEvent;
+import org.phenotips.data.internal.controller.SexController;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import net.sf.json.JSONObject;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DefaultBulkPatientImporterTest
+{
+    private static final String XCONTEXT_KEY = "xwikicontext";
+
+    @Rule
+    public final MockitoComponentMockingRule<BulkPatientImporter> mocker =
+        new MockitoComponentMockingRule<BulkPatientImporter>(DefaultBulkPatientImporter.class);
+
+    private DocumentReference creator = new DocumentReference("wiki", "XWiki", "user");
+
+    private PatientRepository repository;
+
+    private DocumentAccessBridge bridge;
+
+    private Execution execution;
+
+    private ExecutionContext requestContext;
+
+    private XWiki xwiki;
+
+    private XWikiContext context;
+
+    @Before
+    public void setup() throws Exception
+    {
+        this.context = mock(XWikiContext.class);
+        when(this.context.clone()).thenReturn(this.context);
+        this.xwiki = mock(XWiki.class);
+        when(this.context.getWiki()).thenReturn(this.xwiki);
+        this.requestContext = new ExecutionContext();
+        this.requestContext.setProperty(XCONTEXT_KEY, this.context);
+        // Each worker thread gets its own execution context, as with the real execution
+        final ThreadLocal<ExecutionContext> contexts = new ThreadLocal<ExecutionContext>()
+        {
+            @Override
+            protected ExecutionContext initialValue()
+            {
+                return DefaultBulkPatientImporterTest.this.requestContext;
+            }
+        };
+        this.execution = this.mocker.getInstance(Execution.class);
+        when(this.execution.getContext()).thenAnswer(new Answer<ExecutionContext>()
+        {
+            @Override
+            public ExecutionContext answer(InvocationOnMock invocation)
+            {
+                return contexts.get();
+            }
+        });
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                contexts.set((ExecutionContext) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(this.execution).setContext(any(ExecutionContext.class));
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                contexts.remove();
+                return null;
+            }
+        }).when(this.execution).removeContext();
+
+        this.repository = this.mocker.getInstance(PatientRepository.class);
+        this.bridge = this.mocker.getInstance(DocumentAccessBridge.class);
+    }
+
+    @Test
+    public void importedPatientsAreSavedOnceAndReportedTogether() throws Exception
+    {
+        Patient p1 = mockPatient("P0000001");
+        Patient p2 = mockPatient("P0000002");
+        when(this.repository.createNewPatient(this.creator)).thenReturn(p1, p2);
+        JSONObject first = new JSONObject().element("external_id", "a");
+        JSONObject second = new JSONObject().element("external_id", "b");
+
+        List<String> result = this.mocker.getComponentUnderTest()
+            .importPatients(Arrays.asList(first, null, second).iterator(), this.creator);
+
+        Assert.assertEquals(3, result.size());
+        Assert.assertNull(result.get(1));
+        Assert.assertTrue(result.containsAll(Arrays.asList("P0000001", "P0000002")));
+        verify(this.repository, times(2)).createNewPatient(this.creator);
+        verify(this.xwiki, times(2)).saveDocument(any(XWikiDocument.class), eq("Imported from JSON"), eq(true),
+            eq(this.context));
+        verify(this.xwiki, times(2)).saveDocument(any(XWikiDocument.class), anyString(), anyBoolean(),
+            any(XWikiContext.class));
+
+        ArgumentCaptor<PatientsImportedEvent> event = ArgumentCaptor.forClass(PatientsImportedEvent.class);
+        verify(this.mocker.<ObservationManager>getInstance(ObservationManager.class)).notify(event.capture(),
+            any());
+        Assert.assertEquals(2, event.getValue().getPatientIds().size());
+    }
+
+    @Test
+    public void newRecordsAreStoredBeforeBeingPopulatedAndSavedOnceWithTheirData() throws Exception
+    {
+        // A real XWiki context, which can hold the deferred saves flag, cloned for the worker thread
+        XWikiContext original = new XWikiContext();
+        original.setWiki(this.xwiki);
+        this.requestContext.setProperty(XCONTEXT_KEY, original);
+
+        // As with the real storage, each request for a document that was never saved returns a new blank document
+        final Map<DocumentReference, XWikiDocument> stored = new HashMap<DocumentReference, XWikiDocument>();
+        when(this.bridge.getDocument(any(DocumentReference.class))).thenAnswer(new Answer<XWikiDocument>()
+        {
+            @Override
+            public XWikiDocument answer(InvocationOnMock invocation)
+            {
+                DocumentReference reference = (DocumentReference) invocation.getArguments()[0];
+                XWikiDocument doc = stored.get(reference);
+                return doc != null ? doc : blankDocument(reference);
+            }
+        });
+        Answer<Object> store = new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                XWikiDocument doc = (XWikiDocument) invocation.getArguments()[0];
+                stored.put(doc.getDocumentReference(), doc);
+                return null;
+            }
+        };
+        doAnswer(store).when(this.xwiki).saveDocument(any(XWikiDocument.class), any(XWikiContext.class));
+        doAnswer(store).when(this.xwiki).saveDocument(any(XWikiDocument.class), anyString(), anyBoolean(),
+            any(XWikiContext.class));
+
+        SexController sex = new SexController();
+        ReflectionUtils.setFieldValue(sex, "logger", mock(Logger.class));
+        ReflectionUtils.setFieldValue(sex, "documentAccessBridge", this.bridge);
+        ReflectionUtils.setFieldValue(sex, "execution", this.execution);
+        ComponentManager cm = mock(ComponentManager.class);
+        @SuppressWarnings("unchecked")
+        Provider<ComponentManager> cmProvider = mock(Provider.class);
+        when(cmProvider.get()).thenReturn(cm);
+        ReflectionUtils.setFieldValue(new ComponentManagerRegistry(), "cmProvider", cmProvider);
+        doReturn(Collections.singletonList(sex)).when(cm).getInstanceList(PatientDataController.class);
+        when(cm.getInstance(Execution.class)).thenReturn(this.execution);
+        when(cm.getInstance(DocumentAccessBridge.class)).thenReturn(this.bridge);
+
+        // The real repository, creating the records from the template
+        PhenoTipsPatientRepository realRepository = new PhenoTipsPatientRepository();
+        ReflectionUtils.setFieldValue(realRepository, "logger", mock(Logger.class));
+        ReflectionUtils.setFieldValue(realRepository, "execution", this.execution);
+        ReflectionUtils.setFieldValue(realRepository, "bridge", this.bridge);
+        @SuppressWarnings("unchecked")
+        DocumentReferenceResolver<EntityReference> resolver = mock(DocumentReferenceResolver.class);
+        when(resolver.resolve(any(EntityReference.class))).thenAnswer(new Answer<DocumentReference>()
+        {
+            @Override
+            public DocumentReference answer(InvocationOnMock invocation)
+            {
+                EntityReference reference = (EntityReference) invocation.getArguments()[0];
+                return new DocumentReference("wiki", "data", reference.getName());
+            }
+        });
+        ReflectionUtils.setFieldValue(realRepository, "referenceResolver", resolver);
+        ReflectionUtils.<AtomicLong>getFieldValue(realRepository, "lastUsedId").set(2);
+        ReflectionUtils.setFieldValue(this.mocker.getComponentUnderTest(), "repository", realRepository);
+
+        List<String> result = this.mocker.getComponentUnderTest()
+            .importPatients(Collections.singletonList(new JSONObject().element("sex", "F")).iterator(), this.creator);
+
+        Assert.assertEquals(Collections.singletonList("P0000003"), result);
+        XWikiDocument doc = stored.get(new DocumentReference("wiki", "data", "P0000003"));
+        Assert.assertNotNull(doc);
+        BaseObject patientObject = doc.getXObject(Patient.CLASS_REFERENCE);
+        verify(patientObject).setLongValue("identifier", 3);
+        verify(patientObject).setStringValue("gender", "F");
+        // Stored once when created from the template, and once more when populated, the controller didn't save
+        verify(this.xwiki, times(1)).saveDocument(eq(doc), any(XWikiContext.class));
+        verify(this.xwiki, times(1)).saveDocument(eq(doc), eq("Imported from JSON"), eq(true),
+            any(XWikiContext.class));
+        verify(this.xwiki, times(1)).saveDocument(any(XWikiDocument.class), anyString(), anyBoolean(),
+            any(XWikiContext.class));
+        Assert.assertFalse(DeferredPatientSaves.isDeferred(original));
+    }
+
+    /**
+     * Mocks a document that was never saved, which only holds a patient object once it was filled in from the template.
+     *
+     * @param reference the reference of the document
+     * @return a new mocked document
+     */
+    private XWikiDocument blankDocument(DocumentReference reference)
+    {
+        XWikiDocument doc = mock(XWikiDocument.class);
+        when(doc.getDocumentReference()).thenReturn(reference);
+        final BaseObject patientObject = mock(BaseObject.class);
+        when(patientObject.getFieldList()).thenReturn(Collections.emptyList());
+        final boolean[] fromTemplate = new boolean[1];
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                fromTemplate[0] = true;
+                return null;
+            }
+        }).when(doc).readFromTemplate(any(DocumentReference.class), any(XWikiContext.class));
+        when(doc.getXObject(Patient.CLASS_REFERENCE)).thenAnswer(new Answer<BaseObject>()
+        {
+            @Override
+            public BaseObject answer(InvocationOnMock invocation)
+            {
+                return fromTemplate[0] ? patientObject : null;
+            }
+        });
+        return doc;
+    }
+
+    private Patient mockPatient(String id) throws Exception
+    {
+        Patient patient = mock(Patient.class);
+        DocumentReference reference = new DocumentReference("wiki", "data", id);
+        when(patient.getId()).thenReturn(id);
+        when(patient.getDocument()).thenReturn(reference);
+        when(this.bridge.getDocument(reference)).thenReturn(mock(XWikiDocument.class));
+        return patient;
+    }
+}
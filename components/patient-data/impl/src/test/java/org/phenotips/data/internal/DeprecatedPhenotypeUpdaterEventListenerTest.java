@@ -0,0 +1,137 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.events.PatientChangingEvent;
+import org.phenotips.vocabulary.AlternativeIdMapping;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyManager;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.observation.EventListener;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.DBStringListProperty;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DeprecatedPhenotypeUpdaterEventListenerTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<EventListener> mocker =
+        new MockitoComponentMockingRule<EventListener>(DeprecatedPhenotypeUpdaterEventListener.class);
+
+    private VocabularyManager vm;
+
+    private Vocabulary hpo;
+
+    private XWikiContext context;
+
+    private XWikiDocument doc;
+
+    private BaseObject obj;
+
+    @Before
+    public void setup() throws ComponentLookupException
+    {
+        this.vm = this.mocker.getInstance(VocabularyManager.class);
+        this.hpo = mock(Vocabulary.class, Mockito.withSettings().extraInterfaces(AlternativeIdMapping.class));
+        when(this.vm.getVocabulary("HP")).thenReturn(this.hpo);
+        when(((AlternativeIdMapping) this.hpo).getPrimaryId("HP:0008904")).thenReturn("HP:0001507");
+
+        Execution execution = this.mocker.getInstance(Execution.class);
+        ExecutionContext executionContext = mock(ExecutionContext.class);
+        when(execution.getContext()).thenReturn(executionContext);
+        this.context = mock(XWikiContext.class);
+        when(executionContext.getProperty("xwikicontext")).thenReturn(this.context);
+
+        this.doc = mock(XWikiDocument.class);
+        this.obj = mock(BaseObject.class);
+        when(this.doc.getXObject(Patient.CLASS_REFERENCE)).thenReturn(this.obj);
+    }
+
+    @Test
+    public void deprecatedTermsAreReplacedWithTheirPrimaryId() throws ComponentLookupException
+    {
+        setPhenotypes("HP:0008904", "HP:0001510", "custom");
+
+        this.mocker.getComponentUnderTest().onEvent(new PatientChangingEvent(), this.doc, null);
+
+        verify(this.obj).set("phenotype", Arrays.asList("HP:0001507", "HP:0001510", "custom"), this.context);
+        verify(this.vm, never()).getVocabulary("custom");
+        verify(this.hpo, never()).getTerm(anyString());
+    }
+
+    @Test
+    public void duplicatesCausedByReplacementsAreRemoved() throws ComponentLookupException
+    {
+        setPhenotypes("HP:0008904", "HP:0001507");
+
+        this.mocker.getComponentUnderTest().onEvent(new PatientChangingEvent(), this.doc, null);
+
+        verify(this.obj).set("phenotype", Collections.singletonList("HP:0001507"), this.context);
+    }
+
+    @Test
+    public void upToDateTermsAreLeftUntouched() throws ComponentLookupException
+    {
+        setPhenotypes("HP:0001507", "HP:0001510");
+
+        this.mocker.getComponentUnderTest().onEvent(new PatientChangingEvent(), this.doc, null);
+
+        verify(this.obj, never()).set(anyString(), any(), any(XWikiContext.class));
+    }
+
+    @Test
+    public void termsFromVocabulariesWithoutAlternativeIdsAreLeftUntouched() throws ComponentLookupException
+    {
+        when(this.vm.getVocabulary("MIM")).thenReturn(mock(Vocabulary.class));
+        setPhenotypes("MIM:123456");
+
+        this.mocker.getComponentUnderTest().onEvent(new PatientChangingEvent(), this.doc, null);
+
+        verify(this.obj, never()).set(eq("phenotype"), any(), any(XWikiContext.class));
+    }
+
+    private void setPhenotypes(String... terms)
+    {
+        DBStringListProperty property = new DBStringListProperty();
+        property.setList(Arrays.asList(terms));
+        when(this.obj.getField("phenotype")).thenReturn(property);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.events.PatientChangingEvent;
+import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.observation.EventListener;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PatientExtendedPhenotypeUpdaterTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<EventListener> mocker =
+        new MockitoComponentMockingRule<EventListener>(PatientExtendedPhenotypeUpdater.class);
+
+    private VocabularyManager vm;
+
+    private VocabularyTerm term;
+
+    private XWikiDocument doc;
+
+    private BaseObject obj;
+
+    @Before
+    public void setup() throws ComponentLookupException
+    {
+        this.vm = this.mocker.getInstance(VocabularyManager.class);
+        this.term = mock(VocabularyTerm.class);
+        when(this.term.getId()).thenReturn("HP:0000002");
+        when(this.term.get("term_category")).thenReturn(Arrays.asList("HP:0000001", "HP:0000118"));
+        when(this.vm.resolveTerm("HP:0000002")).thenReturn(this.term);
+
+        this.doc = mock(XWikiDocument.class);
+        this.obj = mock(BaseObject.class);
+        when(this.doc.getXObject(Patient.CLASS_REFERENCE)).thenReturn(this.obj);
+    }
+
+    @Test
+    public void extendedPhenotypesIncludeAncestors() throws ComponentLookupException
+    {
+        when(this.obj.getListValue("phenotype")).thenReturn(Arrays.asList("HP:0000002", "custom"));
+
+        this.mocker.getComponentUnderTest().onEvent(new PatientChangingEvent(), this.doc, null);
+
+        verify(this.obj).setDBStringListValue("extended_phenotype",
+            Arrays.asList("HP:0000001", "HP:0000002", "HP:0000118", "custom"));
+        verify(this.obj).setDBStringListValue("phenotype", Arrays.asList("HP:0000002", "custom"));
+        verify(this.term, never()).getAncestors();
+    }
+
+    @Test
+    public void unchangedPhenotypesAreNotRecomputed() throws ComponentLookupException
+    {
+        List<String> phenotypes = Collections.singletonList("HP:0000002");
+        when(this.obj.getListValue("phenotype")).thenReturn(phenotypes);
+        when(this.obj.getListValue("extended_phenotype")).thenReturn(Arrays.asList("HP:0000001", "HP:0000002"));
+        XWikiDocument previousDoc = mock(XWikiDocument.class);
+        BaseObject previousObj = mock(BaseObject.class);
+        when(this.doc.getOriginalDocument()).thenReturn(previousDoc);
+        when(previousDoc.getXObject(Patient.CLASS_REFERENCE)).thenReturn(previousObj);
+        when(previousObj.getListValue("phenotype")).thenReturn(phenotypes);
+
+        this.mocker.getComponentUnderTest().onEvent(new PatientChangingEvent(), this.doc, null);
+
+        verify(this.vm, never()).resolveTerm(anyString());
+        verify(this.obj, never()).setDBStringListValue(eq("extended_phenotype"), Mockito.anyList());
+    }
+
+    @Test
+    public void ancestorClosuresAreCached() throws ComponentLookupException
+    {
+        when(this.obj.getListValue("phenotype")).thenReturn(Collections.singletonList("HP:0000002"));
+
+        this.mocker.getComponentUnderTest().onEvent(new PatientChangingEvent(), this.doc, null);
+        this.mocker.getComponentUnderTest().onEvent(new PatientChangingEvent(), this.doc, null);
+
+        verify(this.obj, times(2)).setDBStringListValue("extended_phenotype",
+            Arrays.asList("HP:0000001", "HP:0000002", "HP:0000118"));
+        verify(this.term, times(1)).get("term_category");
+    }
+}
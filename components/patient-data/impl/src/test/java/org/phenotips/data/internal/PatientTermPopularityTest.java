@@ -0,0 +1,142 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.vocabulary.TermPopularity;
+
+import org.xwiki.context.Execution;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link PatientTermPopularity} component.
+ *
+ * @version $Id$
+ */
+public class PatientTermPopularityTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<TermPopularity> mocker =
+        new MockitoComponentMockingRule<TermPopularity>(PatientTermPopularity.class);
+
+    private Provider<XWikiContext> contextProvider;
+
+    private QueryManager qm;
+
+    private Query query;
+
+    @Before
+    public void setup() throws Exception
+    {
+        this.contextProvider = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
+        XWikiContext context = mock(XWikiContext.class);
+        when(context.clone()).thenReturn(context);
+        when(this.contextProvider.get()).thenReturn(context);
+        this.mocker.getInstance(Execution.class);
+        this.qm = this.mocker.getInstance(QueryManager.class);
+        this.query = mock(Query.class);
+        when(this.qm.createQuery(anyString(), eq(Query.HQL))).thenReturn(this.query);
+    }
+
+    @Test
+    public void usesAreCountedOnceInTheBackground() throws Exception
+    {
+        final CountDownLatch counting = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(this.query.execute()).thenAnswer(new Answer<List<Object>>()
+        {
+            @Override
+            public List<Object> answer(InvocationOnMock invocation) throws InterruptedException
+            {
+                counting.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return Collections.<Object>singletonList(new Object[] { "HP:0001507", 3L });
+            }
+        });
+        TermPopularity popularity = this.mocker.getComponentUnderTest();
+
+        // Callers don't wait for the count, and don't start another one while it is in progress
+        Assert.assertTrue(popularity.getPopularity().isEmpty());
+        Assert.assertTrue(counting.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(popularity.getPopularity().isEmpty());
+        release.countDown();
+
+        Map<String, Integer> result = waitForCount(popularity);
+        Assert.assertEquals(Collections.singletonMap("HP:0001507", 3), result);
+        Assert.assertSame(result, popularity.getPopularity());
+        verify(this.query, times(1)).execute();
+    }
+
+    @Test
+    public void failedCountsReportAllTermsAsUnused() throws Exception
+    {
+        when(this.qm.createQuery(anyString(), eq(Query.HQL))).thenThrow(new IllegalStateException("No database"));
+        TermPopularity popularity = this.mocker.getComponentUnderTest();
+
+        Assert.assertTrue(popularity.getPopularity().isEmpty());
+        Thread.sleep(100);
+        Assert.assertTrue(popularity.getPopularity().isEmpty());
+    }
+
+    @Test
+    public void usesAreNotCountedWithoutContext() throws Exception
+    {
+        when(this.contextProvider.get()).thenReturn(null);
+
+        Assert.assertTrue(this.mocker.getComponentUnderTest().getPopularity().isEmpty());
+        verify(this.qm, never()).createQuery(anyString(), anyString());
+    }
+
+    private Map<String, Integer> waitForCount(TermPopularity popularity) throws InterruptedException
+    {
+        for (int i = 0; i < 100; ++i) {
+            Map<String, Integer> result = popularity.getPopularity();
+            if (!result.isEmpty()) {
+                return result;
+            }
+            Thread.sleep(50);
+        }
+        return Collections.emptyMap();
+    }
+}
@@ -55,6 +55,8 @@
 import net.sf.json.JSONObject;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class PhenoTipsFeatureTest
@@ -627,4 +629,31 @@ public void noCategoriesWithNullObjectList() throws XWikiException
 
         Assert.assertFalse(new PhenoTipsFeature(doc, prop, "HP:0000100").toJSON().has("categories"));
     }
+
+    @Test
+    public void metadataIndexIsSharedBetweenFeatures() throws XWikiException
+    {
+        XWikiDocument doc = mock(XWikiDocument.class);
+        ListProperty prop = mock(ListProperty.class);
+        when(prop.getName()).thenReturn("phenotype");
+        List<BaseObject> metas = new ArrayList<BaseObject>();
+        for (String value : new String[] { "HP:0000100", "HP:0000082" }) {
+            BaseObject meta = mock(BaseObject.class);
+            StringProperty temp = new StringProperty();
+            temp.setValue("phenotype");
+            when(meta.get("target_property_name")).thenReturn(temp);
+            temp = new StringProperty();
+            temp.setValue(value);
+            when(meta.get("target_property_value")).thenReturn(temp);
+            when(meta.getLargeStringValue("comments")).thenReturn("Comments for " + value);
+            metas.add(meta);
+        }
+        when(doc.getXObjects(FeatureMetadatum.CLASS_REFERENCE)).thenReturn(metas);
+
+        FeatureMetadataIndex index = new FeatureMetadataIndex(doc);
+        Assert.assertEquals("Comments for HP:0000100", new PhenoTipsFeature(index, prop, "HP:0000100").getNotes());
+        Assert.assertEquals("Comments for HP:0000082", new PhenoTipsFeature(index, prop, "HP:0000082").getNotes());
+        Assert.assertEquals("", new PhenoTipsFeature(index, prop, "HP:0003678").getNotes());
+        verify(doc, times(1)).getXObjects(FeatureMetadatum.CLASS_REFERENCE);
+    }
 }
@@ -0,0 +1,183 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.events.PatientChangedEvent;
+import org.phenotips.data.events.PatientDeletedEvent;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.context.Execution;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.internal.DefaultObservationManager;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import java.util.Collections;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that the {@link PhenoTipsPatientRepository} serving requests is the one notified of patient changes by the real
+ * {@link ObservationManager}, and keeps its external identifiers index up to date.
+ *
+ * @version $Id$
+ */
+@ComponentList({ DefaultObservationManager.class, PhenoTipsPatientRepository.class })
+public class PhenoTipsPatientRepositoryTest
+{
+    private static final DocumentReference FIRST = new DocumentReference("wiki", "data", "P0000001");
+
+    private static final DocumentReference SECOND = new DocumentReference("wiki", "data", "P0000002");
+
+    @Rule
+    public final MockitoComponentManagerRule componentManager = new MockitoComponentManagerRule();
+
+    private QueryManager qm;
+
+    private Cache<?> cache;
+
+    private ObservationManager observationManager;
+
+    private PatientRepository repository;
+
+    @Before
+    public void setup() throws Exception
+    {
+        Provider<ComponentManager> contextComponentManager =
+            this.componentManager.registerMockComponent(
+                new DefaultParameterizedType(null, Provider.class, ComponentManager.class), "context");
+        when(contextComponentManager.get()).thenReturn(this.componentManager);
+        this.componentManager.registerMockComponent(Execution.class);
+        this.componentManager.registerMockComponent(DocumentAccessBridge.class);
+        this.componentManager.registerMockComponent(DocumentReferenceResolver.TYPE_REFERENCE, "current");
+        DocumentReferenceResolver<String> resolver =
+            this.componentManager.registerMockComponent(DocumentReferenceResolver.TYPE_STRING, "current");
+        when(resolver.resolve("data.P0000001", Patient.DEFAULT_DATA_SPACE)).thenReturn(FIRST);
+        EntityReferenceSerializer<String> serializer =
+            this.componentManager.registerMockComponent(EntityReferenceSerializer.TYPE_STRING);
+        when(serializer.serialize(FIRST)).thenReturn("wiki:data.P0000001");
+        when(serializer.serialize(SECOND)).thenReturn("wiki:data.P0000002");
+        CacheManager cacheManager = this.componentManager.registerMockComponent(CacheManager.class);
+        this.cache = mock(Cache.class);
+        doReturn(this.cache).when(cacheManager).createNewLocalCache(any(CacheConfiguration.class));
+
+        this.qm = this.componentManager.registerMockComponent(QueryManager.class);
+        Query q = mock(Query.class);
+        when(this.qm.createQuery(anyString(), eq(Query.XWQL))).thenReturn(q);
+        when(q.<Object[]>execute()).thenReturn(
+            Collections.singletonList(new Object[] { "data.P0000001", "a" }));
+
+        // Looking up the observation manager first registers all the event listener components, as on startup
+        this.observationManager = this.componentManager.getInstance(ObservationManager.class);
+        Assert.assertTrue(this.componentManager.getInstanceList(EventListener.class).isEmpty());
+        this.repository = this.componentManager.getInstance(PatientRepository.class);
+    }
+
+    @Test
+    public void externalIdentifiersAddedAfterTheIndexIsLoadedAreFound() throws Exception
+    {
+        Assert.assertEquals(Collections.singletonList(FIRST), this.repository.getPatientDocumentsByExternalId("a"));
+        Assert.assertTrue(this.repository.getPatientDocumentsByExternalId("b").isEmpty());
+
+        this.observationManager.notify(new PatientChangedEvent(mockPatient(SECOND), null), mockDocument("b"), null);
+
+        Assert.assertEquals(Collections.singletonList(SECOND), this.repository.getPatientDocumentsByExternalId("b"));
+        Assert.assertEquals(Collections.singletonList(FIRST), this.repository.getPatientDocumentsByExternalId("a"));
+        verify(this.cache).remove("wiki:data.P0000002");
+        // The index was only read from the database once
+        verify(this.qm, times(1)).createQuery(anyString(), eq(Query.XWQL));
+    }
+
+    @Test
+    public void changedExternalIdentifiersAreReindexed() throws Exception
+    {
+        Assert.assertEquals(Collections.singletonList(FIRST), this.repository.getPatientDocumentsByExternalId("a"));
+
+        this.observationManager.notify(new PatientChangedEvent(mockPatient(FIRST), null), mockDocument("c"), null);
+
+        Assert.assertTrue(this.repository.getPatientDocumentsByExternalId("a").isEmpty());
+        Assert.assertEquals(Collections.singletonList(FIRST), this.repository.getPatientDocumentsByExternalId("c"));
+        verify(this.cache).remove("wiki:data.P0000001");
+    }
+
+    @Test
+    public void deletedPatientsAreRemovedFromTheIndex() throws Exception
+    {
+        Assert.assertEquals(Collections.singletonList(FIRST), this.repository.getPatientDocumentsByExternalId("a"));
+
+        this.observationManager.notify(new PatientDeletedEvent(mockPatient(FIRST), null), mockDocument("a"), null);
+
+        Assert.assertTrue(this.repository.getPatientDocumentsByExternalId("a").isEmpty());
+        verify(this.cache).remove("wiki:data.P0000001");
+    }
+
+    @Test
+    public void changesBeforeTheIndexIsLoadedAreReadFromTheDatabase() throws Exception
+    {
+        this.observationManager.notify(new PatientChangedEvent(mockPatient(SECOND), null), mockDocument("b"), null);
+
+        Assert.assertEquals(Collections.singletonList(FIRST), this.repository.getPatientDocumentsByExternalId("a"));
+        verify(this.qm, times(1)).createQuery(anyString(), eq(Query.XWQL));
+    }
+
+    private Patient mockPatient(DocumentReference document)
+    {
+        Patient patient = mock(Patient.class);
+        when(patient.getDocument()).thenReturn(document);
+        return patient;
+    }
+
+    private XWikiDocument mockDocument(String externalId)
+    {
+        XWikiDocument doc = mock(XWikiDocument.class);
+        BaseObject patientObject = mock(BaseObject.class);
+        when(doc.getXObject(Patient.CLASS_REFERENCE)).thenReturn(patientObject);
+        when(patientObject.getStringValue("external_id")).thenReturn(externalId);
+        return doc;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.components.ComponentManagerRegistry;
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientData;
+import org.phenotips.data.PatientDataController;
+
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.reference.DocumentReference;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import net.sf.json.JSONObject;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the lazy loading of the controller data in {@link PhenoTipsPatient}.
+ *
+ * @version $Id$
+ */
+public class PhenoTipsPatientTest
+{
+    @Mock
+    private ComponentManager cm;
+
+    @Mock
+    private Provider<ComponentManager> cmProvider;
+
+    @Mock
+    private XWikiDocument doc;
+
+    @Mock
+    private BaseObject patientObject;
+
+    @Mock
+    private PatientDataController<String> sexController;
+
+    @Mock
+    private PatientDataController<String> datesController;
+
+    @Mock
+    private PatientData<String> sex;
+
+    @Mock
+    private PatientData<String> dates;
+
+    @Before
+    public void setup() throws Exception
+    {
+        MockitoAnnotations.initMocks(this);
+        ReflectionUtils.setFieldValue(new ComponentManagerRegistry(), "cmProvider", this.cmProvider);
+        when(this.cmProvider.get()).thenReturn(this.cm);
+
+        when(this.doc.getDocumentReference()).thenReturn(new DocumentReference("wiki", "data", "P0000001"));
+        when(this.doc.getXObject(Patient.CLASS_REFERENCE)).thenReturn(this.patientObject);
+        when(this.patientObject.getFieldList()).thenReturn(Collections.emptyList());
+
+        setupController(this.sexController, this.sex, "sex");
+        setupController(this.datesController, this.dates, "dates");
+        doReturn(Arrays.asList(this.sexController, this.datesController)).when(this.cm)
+            .getInstanceList(PatientDataController.class);
+    }
+
+    @Test
+    public void noDataIsLoadedUntilRequested()
+    {
+        new PhenoTipsPatient(this.doc);
+
+        verify(this.sexController, never()).load(any(Patient.class));
+        verify(this.datesController, never()).load(any(Patient.class));
+    }
+
+    @Test
+    public void onlyTheDataOfTheSelectedFieldsIsLoaded()
+    {
+        Patient patient = new PhenoTipsPatient(this.doc);
+
+        JSONObject json = patient.toJSON(Collections.singletonList("sex"));
+
+        Assert.assertEquals("sex", json.getString("sex"));
+        Assert.assertFalse(json.has("dates"));
+        verify(this.sexController, times(1)).load(patient);
+        verify(this.datesController, never()).load(any(Patient.class));
+    }
+
+    @Test
+    public void allTheDataIsLoadedWhenNoFieldsAreSelected()
+    {
+        Patient patient = new PhenoTipsPatient(this.doc);
+
+        JSONObject json = patient.toJSON(null);
+
+        Assert.assertEquals("sex", json.getString("sex"));
+        Assert.assertEquals("dates", json.getString("dates"));
+        verify(this.sexController, times(1)).load(patient);
+        verify(this.datesController, times(1)).load(patient);
+    }
+
+    /**
+     * Sets up a mock controller which, like the controllers extending the base controllers, only asks the patient for
+     * its data when its field is selected.
+     *
+     * @param controller the controller to set up
+     * @param data the data loaded by the controller
+     * @param name the name of the controller, its data, and the JSON field it writes
+     */
+    private void setupController(final PatientDataController<String> controller, PatientData<String> data,
+        final String name)
+    {
+        when(controller.getName()).thenReturn(name);
+        when(data.getName()).thenReturn(name);
+        doReturn(data).when(controller).load(any(Patient.class));
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                Patient patient = (Patient) invocation.getArguments()[0];
+                JSONObject json = (JSONObject) invocation.getArguments()[1];
+                @SuppressWarnings("unchecked")
+                Collection<String> fields = (Collection<String>) invocation.getArguments()[2];
+                if ((fields == null || fields.contains(name)) && patient.getData(name) != null) {
+                    json.put(name, name);
+                }
+                return null;
+            }
+        }).when(controller).writeJSON(any(Patient.class), any(JSONObject.class), anyCollectionOf(String.class));
+    }
+}
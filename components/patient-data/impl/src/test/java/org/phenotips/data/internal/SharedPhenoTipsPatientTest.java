@@ -0,0 +1,192 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.internal;
+
+import org.phenotips.components.ComponentManagerRegistry;
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientData;
+import org.phenotips.data.PatientDataController;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import net.sf.json.JSONObject;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link SharedPhenoTipsPatient} instances kept in the patient cache.
+ *
+ * @version $Id$
+ */
+public class SharedPhenoTipsPatientTest
+{
+    private static final DocumentReference PATIENT_REFERENCE = new DocumentReference("wiki", "data", "P0000001");
+
+    @Mock
+    private ComponentManager cm;
+
+    @Mock
+    private Provider<ComponentManager> cmProvider;
+
+    @Mock
+    private XWikiDocument doc;
+
+    @Mock
+    private BaseObject patientObject;
+
+    @Mock
+    private PatientDataController<String> controller;
+
+    @Mock
+    private PatientData<String> storedData;
+
+    @Mock
+    private PatientData<String> updatedData;
+
+    @Mock
+    private DocumentAccessBridge bridge;
+
+    @Mock
+    private Execution execution;
+
+    @Before
+    public void setup() throws Exception
+    {
+        MockitoAnnotations.initMocks(this);
+        ReflectionUtils.setFieldValue(new ComponentManagerRegistry(), "cmProvider", this.cmProvider);
+        when(this.cmProvider.get()).thenReturn(this.cm);
+
+        when(this.doc.getDocumentReference()).thenReturn(PATIENT_REFERENCE);
+        when(this.doc.getXObject(Patient.CLASS_REFERENCE)).thenReturn(this.patientObject);
+        when(this.patientObject.getFieldList()).thenReturn(Collections.emptyList());
+
+        when(this.controller.getName()).thenReturn("stored");
+        when(this.storedData.getName()).thenReturn("stored");
+        when(this.updatedData.getName()).thenReturn("stored");
+        doReturn(this.storedData).when(this.controller).load(any(Patient.class));
+        doReturn(Collections.singletonList(this.controller)).when(this.cm).getInstanceList(PatientDataController.class);
+
+        when(this.cm.getInstance(DocumentAccessBridge.class)).thenReturn(this.bridge);
+        when(this.bridge.getDocument(PATIENT_REFERENCE)).thenReturn(this.doc);
+        when(this.cm.getInstance(Execution.class)).thenReturn(this.execution);
+        ExecutionContext context = new ExecutionContext();
+        context.setProperty("xwikicontext", new XWikiContext());
+        when(this.execution.getContext()).thenReturn(context);
+    }
+
+    @Test
+    public void dataIsLoadedOnlyWhenRequested()
+    {
+        Patient patient = new SharedPhenoTipsPatient(this.doc);
+        verify(this.controller, never()).load(any(Patient.class));
+
+        Assert.assertSame(this.storedData, patient.getData("stored"));
+        Assert.assertSame(this.storedData, patient.getData("stored"));
+        Assert.assertNull(patient.getData("unknown"));
+        verify(this.controller, times(1)).load(patient);
+    }
+
+    @Test
+    public void concurrentRequestsLoadTheDataOnce() throws Exception
+    {
+        final Patient patient = new SharedPhenoTipsPatient(this.doc);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(new Answer<PatientData<String>>()
+        {
+            @Override
+            public PatientData<String> answer(InvocationOnMock invocation) throws InterruptedException
+            {
+                loading.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return SharedPhenoTipsPatientTest.this.storedData;
+            }
+        }).when(this.controller).load(any(Patient.class));
+        final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+        Runnable reader = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                results.add(patient.getData("stored"));
+            }
+        };
+
+        Thread first = new Thread(reader);
+        first.start();
+        Assert.assertTrue(loading.await(5, TimeUnit.SECONDS));
+        Thread second = new Thread(reader);
+        second.start();
+        release.countDown();
+        first.join(5000);
+        second.join(5000);
+
+        Assert.assertEquals(Arrays.<Object>asList(this.storedData, this.storedData), results);
+        verify(this.controller, times(1)).load(patient);
+    }
+
+    @Test
+    public void updatesAreAppliedToPrivateCopy()
+    {
+        Patient patient = new SharedPhenoTipsPatient(this.doc);
+        JSONObject json = new JSONObject();
+        doReturn(this.updatedData).when(this.controller).readJSON(json);
+
+        patient.updateFromJSON(json);
+
+        ArgumentCaptor<Patient> saved = ArgumentCaptor.forClass(Patient.class);
+        verify(this.controller).save(saved.capture());
+        Assert.assertNotSame(patient, saved.getValue());
+        Assert.assertEquals(PATIENT_REFERENCE, saved.getValue().getDocument());
+        Assert.assertSame(this.updatedData, saved.getValue().getData("stored"));
+        Assert.assertSame(this.storedData, patient.getData("stored"));
+    }
+}
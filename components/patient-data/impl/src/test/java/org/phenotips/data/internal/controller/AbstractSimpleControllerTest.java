@@ -389,6 +389,19 @@ public void writeJSONWithSelectedFieldsAddsContainerWithAllValuesWhenSelectedFie
         Assert.assertEquals("datum3", container.get(PROPERTY_3));
     }
 
+    @Test
+    public void writeJSONWithUnrelatedSelectedFieldsDoesNotLoadData() throws ComponentLookupException
+    {
+        JSONObject json = new JSONObject();
+        Collection<String> selectedFields = new LinkedList<>();
+        selectedFields.add("unrelated");
+
+        this.mocker.getComponentUnderTest().writeJSON(this.patient, json, selectedFields);
+
+        Assert.assertNull(json.get(DATA_NAME));
+        verify(this.patient, never()).getData(anyString());
+    }
+
     @Test
     public void writeJSONDoesNotOverwriteContainer() throws ComponentLookupException
     {
@@ -22,6 +22,8 @@
 import org.xwiki.component.annotation.Role;
 import org.xwiki.stability.Unstable;
 
+import java.util.Collection;
+
 /**
  * API for indexing patient data in a search engine.
  *
@@ -39,6 +41,14 @@
      */
     void index(Patient patient);
 
+    /**
+     * Add (or update) many patients to the index at once, committing the changes only once at the end.
+     *
+     * @param patients the patients to index
+     * @since 1.2RC1
+     */
+    void index(Collection<Patient> patients);
+
     /**
      * Delete from the index a patient.
      *
@@ -17,22 +17,37 @@
  */
 package org.phenotips.data.indexing.internal;
 
+import org.phenotips.data.BulkPatientImporter;
 import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
 import org.phenotips.data.events.PatientChangedEvent;
 import org.phenotips.data.events.PatientDeletedEvent;
 import org.phenotips.data.events.PatientEvent;
+import org.phenotips.data.events.PatientsImportedEvent;
 import org.phenotips.data.indexing.PatientIndexer;
 
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.DocumentModelBridge;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.observation.AbstractEventListener;
 import org.xwiki.observation.event.Event;
 
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.List;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.slf4j.Logger;
+
 /**
- * Monitors document changes and submits modified patients to the {@link PatientIndexer indexer}.
+ * Monitors document changes and submits modified patients to the {@link PatientIndexer indexer}. Patients saved during a
+ * {@link BulkPatientImporter bulk import} are indexed together once the import is done.
  *
  * @version $Id$
  * @since 1.0M8
@@ -46,15 +61,47 @@ public class PatientEventListener extends AbstractEventListener
     @Inject
     private PatientIndexer indexer;
 
+    /** Provides access to patients, needed for indexing imported records. */
+    @Inject
+    private PatientRepository repository;
+
+    /** Provides access to the patient documents. */
+    @Inject
+    private DocumentAccessBridge bridge;
+
+    /** Parses patient identifiers into document references. */
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> resolver;
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
+    /** Used for checking if a bulk import is in progress. */
+    @Inject
+    private Execution execution;
+
     /** Default constructor, sets up the listener name and the list of events to subscribe to. */
     public PatientEventListener()
     {
-        super("phenotips-patient-indexer", new PatientChangedEvent(), new PatientDeletedEvent());
+        super("phenotips-patient-indexer", new PatientChangedEvent(), new PatientDeletedEvent(),
+            new PatientsImportedEvent());
     }
 
     @Override
     public void onEvent(final Event event, final Object source, final Object data)
     {
+        if (event instanceof PatientsImportedEvent) {
+            indexImportedPatients(((PatientsImportedEvent) event).getPatientIds());
+            return;
+        }
+        ExecutionContext context = this.execution.getContext();
+        if (context != null && context.getProperty(BulkPatientImporter.IMPORT_IN_PROGRESS) != null
+            && !(event instanceof PatientDeletedEvent)) {
+            // Imported patients are indexed all at once when the import is done
+            return;
+        }
         Patient patient = ((PatientEvent) event).getPatient();
         if (event instanceof PatientDeletedEvent) {
             this.indexer.delete(patient);
@@ -62,4 +109,61 @@ public void onEvent(final Event event, final Object source, final Object data)
             this.indexer.index(patient);
         }
     }
+
+    private void indexImportedPatients(final List<String> patientIds)
+    {
+        // Patients are loaded one at a time while indexing, to avoid keeping all the imported records in memory
+        this.indexer.index(new AbstractCollection<Patient>()
+        {
+            @Override
+            public Iterator<Patient> iterator()
+            {
+                final Iterator<String> ids = patientIds.iterator();
+                return new Iterator<Patient>()
+                {
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return ids.hasNext();
+                    }
+
+                    @Override
+                    public Patient next()
+                    {
+                        return loadPatient(ids.next());
+                    }
+
+                    @Override
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size()
+            {
+                return patientIds.size();
+            }
+        });
+    }
+
+    /**
+     * Loads a private copy of an imported patient. The repository cache isn't used, since each imported patient is
+     * only needed once, and caching it would evict the recently used patients.
+     *
+     * @param id the identifier of the imported patient
+     * @return the loaded patient, or {@code null} if it cannot be loaded
+     */
+    private Patient loadPatient(String id)
+    {
+        try {
+            DocumentModelBridge doc = this.bridge.getDocument(this.resolver.resolve(id, Patient.DEFAULT_DATA_SPACE));
+            return this.repository.loadPatientFromDocument(doc);
+        } catch (Exception ex) {
+            this.logger.warn("Failed to load imported patient [{}] for indexing: {}", id, ex.getMessage());
+            return null;
+        }
+    }
 }
@@ -21,9 +21,15 @@
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientRepository;
 import org.phenotips.data.indexing.PatientIndexer;
+import org.phenotips.data.permissions.PatientAccess;
 import org.phenotips.data.permissions.PermissionsManager;
 import org.phenotips.vocabulary.SolrCoreContainerHandler;
 
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
@@ -32,7 +38,13 @@
 import org.xwiki.query.QueryManager;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -45,7 +57,8 @@
 import org.slf4j.Logger;
 
 /**
- * Indexes patients in a local Solr core.
+ * Indexes patients in a local Solr core. The values last sent for each patient are remembered, so that saving a patient
+ * without changing any of the indexed fields doesn't trigger a new indexing.
  *
  * @version $Id$
  * @since 1.0M8
@@ -54,6 +67,15 @@
 @Singleton
 public class SolrPatientIndexer implements PatientIndexer, Initializable
 {
+    /** The number of documents to send to the Solr server at once when indexing many patients. */
+    private static final int BATCH_SIZE = 500;
+
+    /** The maximum number of indexed patients whose indexed values are remembered. */
+    private static final int INDEXED_VALUES_CACHE_SIZE = 1000;
+
+    /** The name of the field holding the patient document reference, the unique key of the index. */
+    private static final String DOCUMENT_FIELD = "document";
+
     /** Logging helper object. */
     @Inject
     private Logger logger;
@@ -75,30 +97,37 @@ public class SolrPatientIndexer implements PatientIndexer, Initializable
     @Inject
     private PermissionsManager permissions;
 
+    @Inject
+    private CacheManager cacheManager;
+
+    /** The field values last sent to the index, indexed by the patient document reference. */
+    private Cache<Map<String, Set<Object>>> indexedValues;
+
     @Override
     public void initialize() throws InitializationException
     {
         this.server = new EmbeddedSolrServer(this.cores.getContainer(), "patients");
+        try {
+            this.indexedValues = this.cacheManager.createNewLocalCache(
+                new CacheConfiguration(new LRUEvictionConfiguration(INDEXED_VALUES_CACHE_SIZE)));
+        } catch (CacheException ex) {
+            throw new InitializationException("Failed to create the indexed patients cache", ex);
+        }
     }
 
     @Override
     public void index(Patient patient)
     {
-        SolrInputDocument input = new SolrInputDocument();
-        input.setField("document", patient.getDocument().toString());
-        String reporter = "";
-        if (patient.getReporter() != null) {
-            reporter = patient.getReporter().toString();
-        }
-        input.setField("reporter", reporter);
-
-        for (Feature phenotype : patient.getFeatures()) {
-            input.addField((phenotype.isPresent() ? "" : "negative_") + phenotype.getType(), phenotype.getId());
-        }
-        input.setField("visibility", this.permissions.getPatientAccess(patient).getVisibility().getName());
-        input.setField("accessLevel", this.permissions.getPatientAccess(patient).getVisibility().getPermissiveness());
         try {
+            SolrInputDocument input = getSolrDocument(patient);
+            Map<String, Set<Object>> values = getFieldValues(input);
+            String key = patient.getDocument().toString();
+            if (this.indexedValues != null && values.equals(this.indexedValues.get(key))) {
+                // None of the indexed fields changed since the last time, the index is still up to date
+                return;
+            }
             this.server.add(input);
+            rememberFieldValues(key, values);
         } catch (SolrServerException ex) {
             this.logger.warn("Failed to perform Solr search: {}", ex.getMessage());
         } catch (IOException ex) {
@@ -106,11 +135,40 @@ public void index(Patient patient)
         }
     }
 
+    @Override
+    public void index(Collection<Patient> patients)
+    {
+        try {
+            Collection<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(BATCH_SIZE);
+            for (Patient patient : patients) {
+                if (patient == null) {
+                    continue;
+                }
+                batch.add(getSolrDocument(patient));
+                if (batch.size() == BATCH_SIZE) {
+                    addBatch(batch);
+                }
+            }
+            if (!batch.isEmpty()) {
+                addBatch(batch);
+            }
+            this.server.commit();
+        } catch (SolrServerException ex) {
+            this.logger.warn("Failed to index patients: {}", ex.getMessage());
+        } catch (IOException ex) {
+            this.logger.warn("Error occurred while indexing patients: {}", ex.getMessage());
+        }
+    }
+
     @Override
     public void delete(Patient patient)
     {
         try {
-            this.server.deleteByQuery("document:" + ClientUtils.escapeQueryChars(patient.getDocument().toString()));
+            if (this.indexedValues != null) {
+                this.indexedValues.remove(patient.getDocument().toString());
+            }
+            this.server.deleteByQuery(DOCUMENT_FIELD + ':'
+                + ClientUtils.escapeQueryChars(patient.getDocument().toString()));
             this.server.commit();
         } catch (SolrServerException ex) {
             this.logger.warn("Failed to delete from Solr: {}", ex.getMessage());
@@ -119,6 +177,56 @@ public void delete(Patient patient)
         }
     }
 
+    private SolrInputDocument getSolrDocument(Patient patient)
+    {
+        SolrInputDocument input = new SolrInputDocument();
+        input.setField(DOCUMENT_FIELD, patient.getDocument().toString());
+        String reporter = "";
+        if (patient.getReporter() != null) {
+            reporter = patient.getReporter().toString();
+        }
+        input.setField("reporter", reporter);
+
+        for (Feature phenotype : patient.getFeatures()) {
+            input.addField((phenotype.isPresent() ? "" : "negative_") + phenotype.getType(), phenotype.getId());
+        }
+        PatientAccess access = this.permissions.getPatientAccess(patient);
+        input.setField("visibility", access.getVisibility().getName());
+        input.setField("accessLevel", access.getVisibility().getPermissiveness());
+        return input;
+    }
+
+    /**
+     * Collects the values of all the fields of an input document, ignoring the order of multi-valued fields.
+     *
+     * @param input the document to be sent to the index
+     * @return the values of each field
+     */
+    private Map<String, Set<Object>> getFieldValues(SolrInputDocument input)
+    {
+        Map<String, Set<Object>> result = new HashMap<String, Set<Object>>();
+        for (String field : input.getFieldNames()) {
+            result.put(field, new HashSet<Object>(input.getFieldValues(field)));
+        }
+        return result;
+    }
+
+    private void addBatch(Collection<SolrInputDocument> batch) throws SolrServerException, IOException
+    {
+        this.server.add(batch);
+        for (SolrInputDocument input : batch) {
+            rememberFieldValues((String) input.getFieldValue(DOCUMENT_FIELD), getFieldValues(input));
+        }
+        batch.clear();
+    }
+
+    private void rememberFieldValues(String document, Map<String, Set<Object>> values)
+    {
+        if (this.indexedValues != null) {
+            this.indexedValues.set(document, values);
+        }
+    }
+
     @Override
     public void reindex()
     {
@@ -126,6 +234,9 @@ public void reindex()
             List<String> patientDocs =
                 this.qm.createQuery("from doc.object(PhenoTips.PatientClass) as patient", Query.XWQL).execute();
             this.server.deleteByQuery("*:*");
+            if (this.indexedValues != null) {
+                this.indexedValues.removeAll();
+            }
             for (String patientDoc : patientDocs) {
                 this.index(this.patientRepository.getPatientById(patientDoc));
             }
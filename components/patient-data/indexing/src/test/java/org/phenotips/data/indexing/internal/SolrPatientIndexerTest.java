@@ -0,0 +1,228 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.indexing.internal;
+
+import org.phenotips.data.Feature;
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.permissions.PatientAccess;
+import org.phenotips.data.permissions.PermissionsManager;
+import org.phenotips.data.permissions.Visibility;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link SolrPatientIndexer}, in particular for skipping patients whose indexed fields didn't change.
+ *
+ * @version $Id$
+ */
+public class SolrPatientIndexerTest
+{
+    private static final DocumentReference PATIENT_REFERENCE = new DocumentReference("wiki", "data", "P0000001");
+
+    private SolrPatientIndexer indexer;
+
+    private SolrClient server;
+
+    private QueryManager qm;
+
+    private PatientRepository repository;
+
+    private Patient patient;
+
+    private Feature height;
+
+    private Feature weight;
+
+    private Visibility visibility;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.indexer = new SolrPatientIndexer();
+        this.server = mock(SolrClient.class);
+        this.qm = mock(QueryManager.class);
+        this.repository = mock(PatientRepository.class);
+        PermissionsManager permissions = mock(PermissionsManager.class);
+        ReflectionUtils.setFieldValue(this.indexer, "server", this.server);
+        ReflectionUtils.setFieldValue(this.indexer, "qm", this.qm);
+        ReflectionUtils.setFieldValue(this.indexer, "patientRepository", this.repository);
+        ReflectionUtils.setFieldValue(this.indexer, "permissions", permissions);
+        ReflectionUtils.setFieldValue(this.indexer, "logger", mock(Logger.class));
+        ReflectionUtils.setFieldValue(this.indexer, "indexedValues", mapBackedCache());
+
+        this.height = mockFeature("HP:0000098");
+        this.weight = mockFeature("HP:0004324");
+        this.patient = mock(Patient.class);
+        when(this.patient.getDocument()).thenReturn(PATIENT_REFERENCE);
+        setFeatures(this.height, this.weight);
+        when(this.repository.getPatientById(PATIENT_REFERENCE.getName())).thenReturn(this.patient);
+
+        PatientAccess access = mock(PatientAccess.class);
+        when(permissions.getPatientAccess(this.patient)).thenReturn(access);
+        this.visibility = mock(Visibility.class);
+        when(this.visibility.getName()).thenReturn("private");
+        when(this.visibility.getPermissiveness()).thenReturn(0);
+        when(access.getVisibility()).thenReturn(this.visibility);
+    }
+
+    @Test
+    public void unchangedPatientsAreNotSentAgain() throws Exception
+    {
+        this.indexer.index(this.patient);
+        // The same features, listed in a different order
+        setFeatures(this.weight, this.height);
+        this.indexer.index(this.patient);
+
+        verify(this.server, times(1)).add(any(SolrInputDocument.class));
+    }
+
+    @Test
+    public void changedPatientsAreSentAgain() throws Exception
+    {
+        this.indexer.index(this.patient);
+        setFeatures(this.height);
+        this.indexer.index(this.patient);
+        when(this.visibility.getName()).thenReturn("public");
+        this.indexer.index(this.patient);
+
+        ArgumentCaptor<SolrInputDocument> sent = ArgumentCaptor.forClass(SolrInputDocument.class);
+        verify(this.server, times(3)).add(sent.capture());
+        assertEquals(1, sent.getAllValues().get(1).getFieldValues("phenotype").size());
+        assertEquals("public", sent.getAllValues().get(2).getFieldValue("visibility"));
+    }
+
+    @Test
+    public void deletedPatientsAreSentAgainWhenReadded() throws Exception
+    {
+        this.indexer.index(this.patient);
+        this.indexer.index(this.patient);
+        verify(this.server, times(1)).add(any(SolrInputDocument.class));
+
+        this.indexer.delete(this.patient);
+        this.indexer.index(this.patient);
+
+        verify(this.server, times(2)).add(any(SolrInputDocument.class));
+    }
+
+    @Test
+    public void reindexingSendsAllPatientsAgain() throws Exception
+    {
+        Query query = mock(Query.class);
+        when(this.qm.createQuery(anyString(), eq(Query.XWQL))).thenReturn(query);
+        doReturn(Collections.singletonList(PATIENT_REFERENCE.getName())).when(query).execute();
+
+        this.indexer.index(this.patient);
+        this.indexer.reindex();
+        verify(this.server).deleteByQuery("*:*");
+        verify(this.server, times(2)).add(any(SolrInputDocument.class));
+
+        // Remembered again after reindexing
+        this.indexer.index(this.patient);
+        verify(this.server, times(2)).add(any(SolrInputDocument.class));
+    }
+
+    private Feature mockFeature(String id)
+    {
+        Feature feature = mock(Feature.class);
+        when(feature.getId()).thenReturn(id);
+        when(feature.getType()).thenReturn("phenotype");
+        when(feature.isPresent()).thenReturn(true);
+        return feature;
+    }
+
+    private void setFeatures(Feature... features)
+    {
+        doReturn(new LinkedHashSet<Feature>(Arrays.asList(features))).when(this.patient).getFeatures();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Cache<Map<String, Set<Object>>> mapBackedCache()
+    {
+        final Map<String, Map<String, Set<Object>>> values = new HashMap<>();
+        Cache<Map<String, Set<Object>>> cache = mock(Cache.class);
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                values.put((String) invocation.getArguments()[0],
+                    (Map<String, Set<Object>>) invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(cache).set(anyString(), any(Map.class));
+        when(cache.get(anyString())).thenAnswer(new Answer<Map<String, Set<Object>>>()
+        {
+            @Override
+            public Map<String, Set<Object>> answer(InvocationOnMock invocation)
+            {
+                return values.get(invocation.getArguments()[0]);
+            }
+        });
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                values.remove(invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(cache).remove(anyString());
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                values.clear();
+                return null;
+            }
+        }).when(cache).removeAll();
+        return cache;
+    }
+}
@@ -23,6 +23,7 @@
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
@@ -42,10 +43,12 @@
      * links to each such record is returned.
      *
      * @param eid the patient's given "external" identifier, see {@link org.phenotips.data.Patient#getExternalId()}
+     * @param fields an optional comma-separated list of the fields to include in the response; if missing or empty, all
+     *            the available fields are returned, otherwise only the data needed for the requested fields is loaded
      * @return the JSON representation of the requested patient, or a status message in case of error
      */
     @GET
-    Response getPatient(@PathParam("eid") String eid);
+    Response getPatient(@PathParam("eid") String eid, @QueryParam("fields") String fields);
 
     /**
      * Update a patient record, identified by its given "external" identifier, from its JSON representation. If the
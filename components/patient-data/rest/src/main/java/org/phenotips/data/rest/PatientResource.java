@@ -23,6 +23,7 @@
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
@@ -41,10 +42,12 @@
      * target patient record, an error is returned.
      *
      * @param id the patient's internal identifier, see {@link org.phenotips.data.Patient#getId()}
+     * @param fields an optional comma-separated list of the fields to include in the response; if missing or empty, all
+     *            the available fields are returned, otherwise only the data needed for the requested fields is loaded
      * @return the JSON representation of the requested patient, or a status message in case of error
      */
     @GET
-    Response getPatient(@PathParam("id") String id);
+    Response getPatient(@PathParam("id") String id, @QueryParam("fields") String fields);
 
     /**
      * Update a patient record, identified by its internal PhenoTips identifier, from its JSON representation. If the
@@ -0,0 +1,62 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest;
+
+import java.io.InputStream;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Resource for bulk importing patient records, for example when moving an existing cohort into PhenoTips.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+@Path("/patients/import")
+public interface PatientsImportResource
+{
+    /**
+     * Import new patients from a JSON array holding their JSON representations.
+     *
+     * @param json a JSON array of patient records, in the format accepted by {@link PatientsResource#addPatient}
+     * @return a JSON report listing the identifiers of the created patients, in the order of the input records, with
+     *         {@code null} for each record that couldn't be imported, or an error status if the import can't be done
+     */
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    Response importPatients(String json);
+
+    /**
+     * Import new patients from newline-delimited JSON, one patient record per line. Records are read as the import
+     * progresses, so this is the preferred format for very large imports.
+     *
+     * @param ndjson the stream of patient records, in the format accepted by {@link PatientsResource#addPatient}
+     * @return a JSON report listing the identifiers of the created patients, in the order of the input records, with
+     *         {@code null} for each record that couldn't be imported, or an error status if the import can't be done
+     */
+    @POST
+    @Consumes(PatientsStreamResource.NDJSON_MEDIA_TYPE)
+    @Produces(MediaType.APPLICATION_JSON)
+    Response importPatientsStream(InputStream ndjson);
+}
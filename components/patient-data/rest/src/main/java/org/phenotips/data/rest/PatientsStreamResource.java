@@ -0,0 +1,52 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
+
+/**
+ * Resource for bulk reading patient records, streamed as newline-delimited JSON.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+@Path("/patients/stream")
+public interface PatientsStreamResource
+{
+    /** The media type of the streamed response, one JSON object per line. */
+    String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+
+    /**
+     * Stream all the patient records that the current user has the right to view, one JSON representation per line,
+     * ordered by their document name. Records are read and written one at a time, so the response starts before all
+     * the records have been processed, and the memory needed doesn't depend on the number of patients.
+     *
+     * @param fields an optional comma-separated list of the fields to include for each patient; if missing or empty,
+     *            all the available fields are returned
+     * @param after an optional patient document name; if present, only the records following it are returned, which
+     *            allows resuming an interrupted transfer
+     * @return a streamed response with the JSON representations of the accessible patients
+     */
+    @GET
+    @Produces(NDJSON_MEDIA_TYPE)
+    Response streamPatients(@QueryParam("fields") String fields, @QueryParam("after") String after);
+}
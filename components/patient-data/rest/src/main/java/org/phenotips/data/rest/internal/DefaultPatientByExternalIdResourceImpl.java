@@ -26,26 +26,35 @@
 import org.phenotips.data.rest.model.Alternatives;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
-import org.xwiki.query.Query;
-import org.xwiki.query.QueryException;
-import org.xwiki.query.QueryManager;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.rest.XWikiResource;
 import org.xwiki.security.authorization.AuthorizationManager;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -53,6 +62,7 @@
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
 
 import net.sf.json.JSONObject;
 
@@ -74,10 +84,10 @@ public class DefaultPatientByExternalIdResourceImpl extends XWikiResource implem
     private PatientRepository repository;
 
     @Inject
-    private DomainObjectFactory factory;
+    private Execution execution;
 
     @Inject
-    private QueryManager qm;
+    private DomainObjectFactory factory;
 
     @Inject
     private AuthorizationManager access;
@@ -90,36 +100,66 @@ public class DefaultPatientByExternalIdResourceImpl extends XWikiResource implem
     @Named("current")
     private EntityReferenceResolver<EntityReference> currentResolver;
 
+    /** Serializes patient document references into patient identifiers. */
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    /** The current request, used for evaluating conditional GET preconditions. */
+    @Context
+    private Request request;
+
     @Override
-    public Response getPatient(String eid)
+    public Response getPatient(String eid, String fields)
     {
         this.logger.debug("Retrieving patient record with external ID [{}] via REST", eid);
-        Patient patient = this.repository.getPatientByExternalId(eid);
-        if (patient == null) {
-            return checkForMultipleRecords(patient, eid);
+        XWikiDocument doc = getPatientDocument(eid);
+        if (doc == null) {
+            return checkForMultipleRecords(null, eid);
         }
+        DocumentReference reference = doc.getDocumentReference();
         User currentUser = this.users.getCurrentUser();
         if (!this.access.hasAccess(Right.VIEW, currentUser == null ? null : currentUser.getProfileDocument(),
-            patient.getDocument())) {
-            this.logger.debug("View access denied to user [{}] on patient record [{}]", currentUser, patient.getId());
+            reference)) {
+            this.logger.debug("View access denied to user [{}] on patient record [{}]", currentUser,
+                reference.getName());
             return Response.status(Status.FORBIDDEN).build();
         }
 
-        JSONObject json = patient.toJSON();
+        // Answer conditional requests from the document metadata alone, without loading the patient data
+        EntityTag tag = PatientValidators.getEntityTag(doc, fields);
+        Date lastModified = PatientValidators.getLastModified(doc);
+        ResponseBuilder unchanged = this.request.evaluatePreconditions(lastModified, tag);
+        if (unchanged != null) {
+            this.logger.debug("Patient record [{}] not modified since last retrieved", reference.getName());
+            return unchanged.tag(tag).lastModified(lastModified).build();
+        }
+
+        // Only read, so the instance shared through the repository cache can be used
+        Patient patient = this.repository.getPatientById(this.localSerializer.serialize(reference));
+        if (patient == null) {
+            return Response.status(Status.NOT_FOUND).build();
+        }
+        Collection<String> selectedFields = StringUtils.isBlank(fields) ? null
+            : Arrays.asList(StringUtils.stripAll(StringUtils.split(fields, ',')));
         JSONObject link = new JSONObject().accumulate("rel", Relations.SELF).accumulate("href",
             this.uriInfo.getBaseUriBuilder().path(PatientResource.class).build(patient.getId()).toString());
-        json.accumulate("links", link);
-        return Response.ok(json, MediaType.APPLICATION_JSON_TYPE).build();
+        JSONObject links = new JSONObject().accumulate("links", link);
+        StreamingOutput json =
+            new PatientJSONOutput(patient, selectedFields, links, this.execution, getXWikiContext());
+        return Response.ok(json, MediaType.APPLICATION_JSON_TYPE).tag(tag).lastModified(lastModified).build();
     }
 
     @Override
     public Response updatePatient(String json, String eid)
     {
         this.logger.debug("Updating patient record with external ID [{}] via REST with JSON: {}", eid, json);
-        Patient patient = this.repository.getPatientByExternalId(eid);
-        if (patient == null) {
-            return checkForMultipleRecords(patient, eid);
+        XWikiDocument doc = getPatientDocument(eid);
+        if (doc == null) {
+            return checkForMultipleRecords(null, eid);
         }
+        // Updates are applied to a private copy of the patient, not to the instance shared through the repository cache
+        Patient patient = this.repository.loadPatientFromDocument(doc);
         User currentUser = this.users.getCurrentUser();
         if (!this.access.hasAccess(Right.EDIT, currentUser == null ? null : currentUser.getProfileDocument(),
             patient.getDocument())) {
@@ -170,19 +210,15 @@ public Response deletePatient(String eid)
 
     private Response checkForMultipleRecords(Patient patient, String eid)
     {
-        try {
-            Query q =
-                this.qm.createQuery("where doc.object(PhenoTips.PatientClass).external_id = :eid", Query.XWQL);
-            q.bindValue("eid", eid);
-            List<String> results = q.execute();
-            if (results.size() > 1) {
-                this.logger.debug("Multiple patient records ({}) with external ID [{}]: {}", results.size(), eid,
-                    results);
-                Alternatives response = this.factory.createAlternatives(results, this.uriInfo);
-                return Response.status(300).entity(response).build();
+        Collection<DocumentReference> results = this.repository.getPatientDocumentsByExternalId(eid);
+        if (results.size() > 1) {
+            List<String> ids = new ArrayList<String>(results.size());
+            for (DocumentReference result : results) {
+                ids.add(this.localSerializer.serialize(result));
             }
-        } catch (QueryException ex) {
-            this.logger.warn("Failed to retrieve patient with external id [{}]: {}", eid, ex.getMessage());
+            this.logger.debug("Multiple patient records ({}) with external ID [{}]: {}", ids.size(), eid, ids);
+            Alternatives response = this.factory.createAlternatives(ids, this.uriInfo);
+            return Response.status(300).entity(response).build();
         }
         if (patient == null) {
             this.logger.debug("No patient record with external ID [{}] exists yet", eid);
@@ -190,4 +226,22 @@ private Response checkForMultipleRecords(Patient patient, String eid)
         }
         return null;
     }
+
+    private XWikiDocument getPatientDocument(String eid)
+    {
+        // Resolved through the external identifiers index maintained by the repository
+        Collection<DocumentReference> results = this.repository.getPatientDocumentsByExternalId(eid);
+        if (results.size() == 1) {
+            try {
+                XWikiContext context = this.getXWikiContext();
+                XWikiDocument doc = context.getWiki().getDocument(results.iterator().next(), context);
+                if (doc != null && !doc.isNew() && doc.getXObject(Patient.CLASS_REFERENCE) != null) {
+                    return doc;
+                }
+            } catch (XWikiException ex) {
+                this.logger.warn("Failed to access patient with external id [{}]: {}", eid, ex.getMessage());
+            }
+        }
+        return null;
+    }
 }
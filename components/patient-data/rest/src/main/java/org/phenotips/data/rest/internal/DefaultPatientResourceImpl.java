@@ -23,6 +23,9 @@
 import org.phenotips.data.rest.Relations;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
 import org.xwiki.rest.XWikiResource;
@@ -31,13 +34,22 @@
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -45,6 +57,7 @@
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
 
 import net.sf.json.JSONObject;
 
@@ -65,6 +78,9 @@ public class DefaultPatientResourceImpl extends XWikiResource implements Patient
     @Inject
     private PatientRepository repository;
 
+    @Inject
+    private Execution execution;
+
     @Inject
     private AuthorizationManager access;
 
@@ -76,33 +92,62 @@ public class DefaultPatientResourceImpl extends XWikiResource implements Patient
     @Named("current")
     private EntityReferenceResolver<EntityReference> currentResolver;
 
+    /** Parses string representations of document references into proper references. */
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> stringResolver;
+
+    /** The current request, used for evaluating conditional GET preconditions. */
+    @Context
+    private Request request;
+
     @Override
-    public Response getPatient(String id)
+    public Response getPatient(String id, String fields)
     {
         this.logger.debug("Retrieving patient record [{}] via REST", id);
-        Patient patient = this.repository.getPatientById(id);
-        if (patient == null) {
+        XWikiDocument doc = getPatientDocument(id);
+        if (doc == null) {
             this.logger.debug("No such patient record: [{}]", id);
             return Response.status(Status.NOT_FOUND).build();
         }
         User currentUser = this.users.getCurrentUser();
         if (!this.access.hasAccess(Right.VIEW, currentUser == null ? null : currentUser.getProfileDocument(),
-            patient.getDocument())) {
+            doc.getDocumentReference())) {
             this.logger.debug("View access denied to user [{}] on patient record [{}]", currentUser, id);
             return Response.status(Status.FORBIDDEN).build();
         }
-        JSONObject json = patient.toJSON();
+
+        // Answer conditional requests from the document metadata alone, without loading the patient data
+        EntityTag tag = PatientValidators.getEntityTag(doc, fields);
+        Date lastModified = PatientValidators.getLastModified(doc);
+        ResponseBuilder unchanged = this.request.evaluatePreconditions(lastModified, tag);
+        if (unchanged != null) {
+            this.logger.debug("Patient record [{}] not modified since last retrieved", id);
+            return unchanged.tag(tag).lastModified(lastModified).build();
+        }
+
+        // Only read, so the instance shared through the repository cache can be used
+        Patient patient = this.repository.getPatientById(id);
+        if (patient == null) {
+            return Response.status(Status.NOT_FOUND).build();
+        }
+        Collection<String> selectedFields = StringUtils.isBlank(fields) ? null
+            : Arrays.asList(StringUtils.stripAll(StringUtils.split(fields, ',')));
         JSONObject link = new JSONObject().accumulate("rel", Relations.SELF).accumulate("href",
             this.uriInfo.getRequestUri().toString());
-        json.accumulate("links", link);
-        return Response.ok(json, MediaType.APPLICATION_JSON_TYPE).build();
+        JSONObject links = new JSONObject().accumulate("links", link);
+        StreamingOutput json =
+            new PatientJSONOutput(patient, selectedFields, links, this.execution, getXWikiContext());
+        return Response.ok(json, MediaType.APPLICATION_JSON_TYPE).tag(tag).lastModified(lastModified).build();
     }
 
     @Override
     public Response updatePatient(String json, String id)
     {
         this.logger.debug("Updating patient record [{}] via REST with JSON: {}", id, json);
-        Patient patient = this.repository.getPatientById(id);
+        XWikiDocument doc = getPatientDocument(id);
+        // Updates are applied to a private copy of the patient, not to the instance shared through the repository cache
+        Patient patient = doc == null ? null : this.repository.loadPatientFromDocument(doc);
         if (patient == null) {
             this.logger.debug(
                 "Patient record [{}] doesn't exist yet. It can be created by POST-ing the JSON to /rest/patients", id);
@@ -156,4 +201,19 @@ public Response deletePatient(String id)
         this.logger.debug("Deleted patient record [{}]", id);
         return Response.noContent().build();
     }
+
+    private XWikiDocument getPatientDocument(String id)
+    {
+        DocumentReference reference = this.stringResolver.resolve(id, Patient.DEFAULT_DATA_SPACE);
+        try {
+            XWikiContext context = this.getXWikiContext();
+            XWikiDocument doc = context.getWiki().getDocument(reference, context);
+            if (doc != null && !doc.isNew() && doc.getXObject(Patient.CLASS_REFERENCE) != null) {
+                return doc;
+            }
+        } catch (XWikiException ex) {
+            this.logger.warn("Failed to access patient with id [{}]: {}", id, ex.getMessage());
+        }
+        return null;
+    }
 }
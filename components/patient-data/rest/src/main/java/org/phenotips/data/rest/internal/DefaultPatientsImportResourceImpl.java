@@ -0,0 +1,223 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest.internal;
+
+import org.phenotips.data.BulkPatientImporter;
+import org.phenotips.data.Patient;
+import org.phenotips.data.rest.PatientsImportResource;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.rest.XWikiResource;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.users.User;
+import org.xwiki.users.UserManager;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+/**
+ * Default implementation for {@link PatientsImportResource} using XWiki's support for REST resources.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+@Component
+@Named("org.phenotips.data.rest.internal.DefaultPatientsImportResourceImpl")
+@Singleton
+public class DefaultPatientsImportResourceImpl extends XWikiResource implements PatientsImportResource
+{
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private BulkPatientImporter importer;
+
+    @Inject
+    private AuthorizationManager access;
+
+    @Inject
+    private UserManager users;
+
+    /** Fills in missing reference fields with those from the current context document to create a full reference. */
+    @Inject
+    @Named("current")
+    private EntityReferenceResolver<EntityReference> currentResolver;
+
+    @Override
+    public Response importPatients(String json)
+    {
+        DocumentReference creator = checkAccess();
+        final JSONArray records;
+        try {
+            records = JSONArray.fromObject(json);
+        } catch (JSONException ex) {
+            this.logger.error("Invalid patient import data: {}", ex.getMessage());
+            return Response.status(Status.BAD_REQUEST).build();
+        }
+        Iterator<JSONObject> patients = new Iterator<JSONObject>()
+        {
+            private int next;
+
+            @Override
+            public boolean hasNext()
+            {
+                return this.next < records.size();
+            }
+
+            @Override
+            public JSONObject next()
+            {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Object record = records.get(this.next++);
+                return record instanceof JSONObject ? (JSONObject) record : null;
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+        return importPatients(patients, creator);
+    }
+
+    @Override
+    public Response importPatientsStream(InputStream ndjson)
+    {
+        DocumentReference creator = checkAccess();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(ndjson, "UTF-8"))) {
+            return importPatients(new LineIterator(reader), creator);
+        } catch (IOException ex) {
+            this.logger.error("Failed to read the patient import data: {}", ex.getMessage());
+            return Response.status(Status.BAD_REQUEST).build();
+        }
+    }
+
+    private DocumentReference checkAccess()
+    {
+        User currentUser = this.users.getCurrentUser();
+        DocumentReference user = currentUser == null ? null : currentUser.getProfileDocument();
+        if (!this.access.hasAccess(Right.EDIT, user,
+            this.currentResolver.resolve(Patient.DEFAULT_DATA_SPACE, EntityType.SPACE))) {
+            throw new WebApplicationException(Status.UNAUTHORIZED);
+        }
+        return user;
+    }
+
+    private Response importPatients(Iterator<JSONObject> patients, DocumentReference creator)
+    {
+        List<String> ids = this.importer.importPatients(patients, creator);
+        int imported = 0;
+        for (String id : ids) {
+            if (id != null) {
+                ++imported;
+            }
+        }
+        this.logger.debug("Imported [{}] patients via REST, [{}] records failed", imported, ids.size() - imported);
+        JSONObject result = new JSONObject();
+        result.put("imported", imported);
+        result.put("failed", ids.size() - imported);
+        result.put("patients", JSONArray.fromObject(ids));
+        return Response.ok(result.toString(), MediaType.APPLICATION_JSON_TYPE).build();
+    }
+
+    /**
+     * Reads JSON records one per line, skipping blank lines; lines that aren't valid JSON objects are returned as
+     * {@code null}, so that they are reported as failed records.
+     */
+    private final class LineIterator implements Iterator<JSONObject>
+    {
+        private final BufferedReader reader;
+
+        private String nextLine;
+
+        LineIterator(BufferedReader reader)
+        {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            try {
+                while (this.nextLine == null) {
+                    String line = this.reader.readLine();
+                    if (line == null) {
+                        return false;
+                    }
+                    if (StringUtils.isNotBlank(line)) {
+                        this.nextLine = line;
+                    }
+                }
+                return true;
+            } catch (IOException ex) {
+                DefaultPatientsImportResourceImpl.this.logger.error("Failed to read the patient import data: {}",
+                    ex.getMessage());
+                return false;
+            }
+        }
+
+        @Override
+        public JSONObject next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String line = this.nextLine;
+            this.nextLine = null;
+            try {
+                return JSONObject.fromObject(line);
+            } catch (JSONException ex) {
+                return null;
+            }
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.rest.PatientResource;
+import org.phenotips.data.rest.PatientsStreamResource;
+import org.phenotips.data.rest.Relations;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.rest.XWikiResource;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.users.User;
+import org.xwiki.users.UserManager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriBuilder;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Default implementation for {@link PatientsStreamResource} using XWiki's support for REST resources. Patient
+ * identifiers are read in batches using a cursor over the document names, and each accessible record is serialized and
+ * flushed to the client before the next one is loaded.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+@Component
+@Named("org.phenotips.data.rest.internal.DefaultPatientsStreamResourceImpl")
+@Singleton
+public class DefaultPatientsStreamResourceImpl extends XWikiResource implements PatientsStreamResource
+{
+    /** How many patient identifiers to fetch with each query. */
+    private static final int BATCH_SIZE = 100;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private PatientRepository repository;
+
+    @Inject
+    private QueryManager queries;
+
+    @Inject
+    private AuthorizationManager access;
+
+    @Inject
+    private UserManager users;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private DocumentAccessBridge bridge;
+
+    /** Parses string representations of document references into proper references. */
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> stringResolver;
+
+    @Override
+    public Response streamPatients(String fields, String after)
+    {
+        this.logger.debug("Streaming patient records via REST");
+        User currentUser = this.users.getCurrentUser();
+        final DocumentReference user = currentUser == null ? null : currentUser.getProfileDocument();
+        final Collection<String> selectedFields = StringUtils.isBlank(fields) ? null
+            : Arrays.asList(StringUtils.stripAll(StringUtils.split(fields, ',')));
+        final String start = StringUtils.defaultString(after);
+        final UriBuilder patientURI = this.uriInfo.getBaseUriBuilder().path(PatientResource.class);
+        final XWikiContext context = getXWikiContext();
+
+        StreamingOutput output = new StreamingOutput()
+        {
+            @Override
+            public void write(OutputStream out) throws IOException
+            {
+                // The request context may already be cleaned up by the time the response body is written
+                boolean ownContext = PatientJSONOutput.setupContext(DefaultPatientsStreamResourceImpl.this.execution,
+                    context);
+                try {
+                    writePatients(new OutputStreamWriter(out, "UTF-8"), start, user, selectedFields, patientURI);
+                } finally {
+                    if (ownContext) {
+                        DefaultPatientsStreamResourceImpl.this.execution.removeContext();
+                    }
+                }
+            }
+        };
+        return Response.ok(output, NDJSON_MEDIA_TYPE).build();
+    }
+
+    private void writePatients(Writer writer, String after, DocumentReference user, Collection<String> fields,
+        UriBuilder patientURI) throws IOException
+    {
+        String cursor = after;
+        List<String> batch;
+        int count = 0;
+        do {
+            batch = getNextBatch(cursor);
+            for (String name : batch) {
+                DocumentReference reference = this.stringResolver.resolve(name, Patient.DEFAULT_DATA_SPACE);
+                if (!this.access.hasAccess(Right.VIEW, user, reference)) {
+                    continue;
+                }
+                Patient patient = loadPatient(reference);
+                if (patient == null) {
+                    continue;
+                }
+                JSONObject link = new JSONObject().accumulate("rel", Relations.SELF).accumulate("href",
+                    patientURI.clone().build(patient.getId()).toString());
+                patient.writeJSON(writer, fields, new JSONObject().accumulate("links", link));
+                writer.write('\n');
+                writer.flush();
+                ++count;
+            }
+            if (!batch.isEmpty()) {
+                cursor = batch.get(batch.size() - 1);
+            }
+        } while (batch.size() == BATCH_SIZE);
+        this.logger.debug("Streamed [{}] patient records", count);
+    }
+
+    private List<String> getNextBatch(String after)
+    {
+        try {
+            Query query = this.queries.createQuery(
+                "select doc.name from Document doc, doc.object(PhenoTips.PatientClass) p"
+                    + " where doc.name <> :t and doc.name > :after order by doc.name",
+                Query.XWQL);
+            query.bindValue("t", "PatientTemplate");
+            query.bindValue("after", after);
+            query.setLimit(BATCH_SIZE);
+            return query.execute();
+        } catch (QueryException ex) {
+            // The response is already committed, so the only option is to end the stream here
+            this.logger.error("Failed to list patients after [{}], ending the stream: {}", after, ex.getMessage(), ex);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Loads a private copy of a patient. The repository cache isn't used, since streaming all the records once would
+     * evict all the recently used patients from the cache.
+     *
+     * @param reference the patient document
+     * @return the loaded patient, or {@code null} if it cannot be loaded
+     */
+    private Patient loadPatient(DocumentReference reference)
+    {
+        try {
+            return this.repository.loadPatientFromDocument(this.bridge.getDocument(reference));
+        } catch (Exception ex) {
+            this.logger.warn("Failed to load patient [{}]: {}", reference, ex.getMessage());
+            return null;
+        }
+    }
+}
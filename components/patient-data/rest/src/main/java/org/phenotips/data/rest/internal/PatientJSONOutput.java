@@ -0,0 +1,108 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest.internal;
+
+import org.phenotips.context.WorkerContexts;
+import org.phenotips.data.Patient;
+
+import org.xwiki.context.Execution;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import com.xpn.xwiki.XWikiContext;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Writes the JSON representation of a patient record directly to the response, using
+ * {@link Patient#writeJSON(Writer, Collection, JSONObject)}.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+public class PatientJSONOutput implements StreamingOutput
+{
+    private final Patient patient;
+
+    private final Collection<String> fields;
+
+    private final JSONObject extraProperties;
+
+    private final Execution execution;
+
+    private final XWikiContext context;
+
+    /**
+     * Simple constructor passing all the required information.
+     *
+     * @param patient the patient to write
+     * @param fields the fields to include, or {@code null} for all the available fields
+     * @param extraProperties additional properties to write, such as links, may be {@code null}
+     * @param execution the execution, used for setting up a context if the request context is gone when writing
+     * @param context the XWiki context of the request
+     */
+    public PatientJSONOutput(Patient patient, Collection<String> fields, JSONObject extraProperties,
+        Execution execution, XWikiContext context)
+    {
+        this.patient = patient;
+        this.fields = fields;
+        this.extraProperties = extraProperties;
+        this.execution = execution;
+        this.context = context;
+    }
+
+    @Override
+    public void write(OutputStream out) throws IOException
+    {
+        // Patient data is loaded lazily, and the request context may already be cleaned up by the time the response
+        // body is written
+        boolean ownContext = setupContext(this.execution, this.context);
+        try {
+            Writer writer = new OutputStreamWriter(out, "UTF-8");
+            this.patient.writeJSON(writer, this.fields, this.extraProperties);
+            writer.flush();
+        } finally {
+            if (ownContext) {
+                this.execution.removeContext();
+            }
+        }
+    }
+
+    /**
+     * Make sure that an XWiki context is available in the current thread, cloning the request context if needed.
+     *
+     * @param execution the execution holding the current context
+     * @param original the XWiki context of the request
+     * @return {@code true} if a new context was set up, which must be removed by the caller when done, {@code false}
+     *         if a context was already available
+     */
+    static boolean setupContext(Execution execution, XWikiContext original)
+    {
+        if (WorkerContexts.hasContext(execution)) {
+            return false;
+        }
+        WorkerContexts.setup(execution, original);
+        return true;
+    }
+}
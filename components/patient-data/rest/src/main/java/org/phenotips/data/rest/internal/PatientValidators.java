@@ -0,0 +1,74 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest.internal;
+
+import java.util.Date;
+
+import javax.ws.rs.core.EntityTag;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Computes the validators used for answering conditional requests for patient records from the document metadata
+ * alone, without loading the patient data.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+final class PatientValidators
+{
+    /** The number of milliseconds in a second, the precision of HTTP dates. */
+    private static final long SECOND = 1000L;
+
+    /** Avoid instantiation. */
+    private PatientValidators()
+    {
+        // Nothing to do
+    }
+
+    /**
+     * Computes the entity tag of a patient representation.
+     *
+     * @param doc the patient document
+     * @param fields the fields selected in the representation, may be {@code null} if all fields are included
+     * @return an entity tag identifying the document version and the selected fields
+     */
+    static EntityTag getEntityTag(XWikiDocument doc, String fields)
+    {
+        // Different field selections yield different representations of the same version
+        StringBuilder tag = new StringBuilder(doc.getVersion());
+        if (StringUtils.isNotBlank(fields)) {
+            tag.append('-').append(Integer.toHexString(fields.hashCode()));
+        }
+        return new EntityTag(tag.toString());
+    }
+
+    /**
+     * Computes the last modification date of a patient representation.
+     *
+     * @param doc the patient document
+     * @return the last modification date of the document, truncated to seconds
+     */
+    static Date getLastModified(XWikiDocument doc)
+    {
+        // HTTP dates only have a precision of one second, so the milliseconds must be dropped before comparing
+        return new Date(doc.getDate().getTime() / SECOND * SECOND);
+    }
+}
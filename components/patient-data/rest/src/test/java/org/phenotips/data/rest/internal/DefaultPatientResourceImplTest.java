@@ -0,0 +1,250 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.users.User;
+import org.xwiki.users.UserManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Writer;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import net.sf.json.JSONObject;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DefaultPatientResourceImpl} REST resource.
+ *
+ * @version $Id$
+ */
+public class DefaultPatientResourceImplTest
+{
+    private static final String PATIENT_ID = "P0000001";
+
+    private static final DocumentReference PATIENT_REFERENCE = new DocumentReference("wiki", "data", PATIENT_ID);
+
+    private static final DocumentReference USER_REFERENCE = new DocumentReference("wiki", "XWiki", "padams");
+
+    /** The last modification date of the patient document, with milliseconds. */
+    private static final Date MODIFIED = new Date(1400000000789L);
+
+    /** The last modification date sent to the client, truncated to seconds. */
+    private static final Date HTTP_MODIFIED = new Date(1400000000000L);
+
+    private static final EntityTag TAG = new EntityTag("1.3");
+
+    @Mock
+    private Logger logger;
+
+    @Mock
+    private PatientRepository repository;
+
+    @Mock
+    private Execution execution;
+
+    @Mock
+    private AuthorizationManager access;
+
+    @Mock
+    private UserManager users;
+
+    @Mock
+    private DocumentReferenceResolver<String> stringResolver;
+
+    @Mock
+    private Request request;
+
+    @Mock
+    private UriInfo uriInfo;
+
+    @Mock
+    private XWikiContext context;
+
+    @Mock
+    private XWiki xwiki;
+
+    @Mock
+    private XWikiDocument doc;
+
+    @Mock
+    private User user;
+
+    @Mock
+    private Patient patient;
+
+    private DefaultPatientResourceImpl resource;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        MockitoAnnotations.initMocks(this);
+        final XWikiContext xcontext = this.context;
+        this.resource = new DefaultPatientResourceImpl()
+        {
+            @Override
+            protected XWikiContext getXWikiContext()
+            {
+                return xcontext;
+            }
+        };
+        ReflectionUtils.setFieldValue(this.resource, "logger", this.logger);
+        ReflectionUtils.setFieldValue(this.resource, "repository", this.repository);
+        ReflectionUtils.setFieldValue(this.resource, "execution", this.execution);
+        ReflectionUtils.setFieldValue(this.resource, "access", this.access);
+        ReflectionUtils.setFieldValue(this.resource, "users", this.users);
+        ReflectionUtils.setFieldValue(this.resource, "stringResolver", this.stringResolver);
+        ReflectionUtils.setFieldValue(this.resource, "request", this.request);
+        ReflectionUtils.setFieldValue(this.resource, "uriInfo", this.uriInfo);
+
+        when(this.stringResolver.resolve(PATIENT_ID, Patient.DEFAULT_DATA_SPACE)).thenReturn(PATIENT_REFERENCE);
+        when(this.context.getWiki()).thenReturn(this.xwiki);
+        when(this.xwiki.getDocument(PATIENT_REFERENCE, this.context)).thenReturn(this.doc);
+        when(this.doc.isNew()).thenReturn(false);
+        when(this.doc.getXObject(Patient.CLASS_REFERENCE)).thenReturn(mock(BaseObject.class));
+        when(this.doc.getDocumentReference()).thenReturn(PATIENT_REFERENCE);
+        when(this.doc.getVersion()).thenReturn("1.3");
+        when(this.doc.getDate()).thenReturn(MODIFIED);
+
+        when(this.users.getCurrentUser()).thenReturn(this.user);
+        when(this.user.getProfileDocument()).thenReturn(USER_REFERENCE);
+        when(this.access.hasAccess(Right.VIEW, USER_REFERENCE, PATIENT_REFERENCE)).thenReturn(true);
+
+        when(this.repository.getPatientById(PATIENT_ID)).thenReturn(this.patient);
+        when(this.uriInfo.getRequestUri()).thenReturn(URI.create("http://localhost/rest/patients/" + PATIENT_ID));
+    }
+
+    @Test
+    public void unmodifiedPatientsAreAnsweredWithNotModified()
+    {
+        // The client sent back the validators of the current version, in If-None-Match or If-Modified-Since
+        when(this.request.evaluatePreconditions(HTTP_MODIFIED, TAG)).thenReturn(Response.notModified());
+
+        Response response = this.resource.getPatient(PATIENT_ID, null);
+
+        Assert.assertEquals(Status.NOT_MODIFIED.getStatusCode(), response.getStatus());
+        Assert.assertEquals(TAG, response.getMetadata().getFirst(HttpHeaders.ETAG));
+        Assert.assertEquals(HTTP_MODIFIED, response.getMetadata().getFirst(HttpHeaders.LAST_MODIFIED));
+        Assert.assertNull(response.getEntity());
+        // The patient data isn't even loaded
+        verify(this.repository, never()).getPatientById(anyString());
+    }
+
+    @Test
+    public void modifiedPatientsAreSentWithTheirValidators()
+    {
+        Response response = this.resource.getPatient(PATIENT_ID, null);
+
+        verify(this.request).evaluatePreconditions(HTTP_MODIFIED, TAG);
+        Assert.assertEquals(Status.OK.getStatusCode(), response.getStatus());
+        Assert.assertEquals(TAG, response.getMetadata().getFirst(HttpHeaders.ETAG));
+        Assert.assertEquals(HTTP_MODIFIED, response.getMetadata().getFirst(HttpHeaders.LAST_MODIFIED));
+        Assert.assertTrue(response.getEntity() instanceof PatientJSONOutput);
+    }
+
+    @Test
+    public void onlyTheSelectedFieldsAreWritten() throws Exception
+    {
+        ExecutionContext requestContext = new ExecutionContext();
+        requestContext.setProperty("xwikicontext", this.context);
+        when(this.execution.getContext()).thenReturn(requestContext);
+
+        Response response = this.resource.getPatient(PATIENT_ID, " sex , features");
+        ((StreamingOutput) response.getEntity()).write(new ByteArrayOutputStream());
+
+        verify(this.patient).writeJSON(any(Writer.class), eq(Arrays.asList("sex", "features")), any(JSONObject.class));
+        // A different selection of fields is a different representation
+        Assert.assertNotEquals(TAG, response.getMetadata().getFirst(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void allFieldsAreWrittenWhenNoneAreSelected() throws Exception
+    {
+        ExecutionContext requestContext = new ExecutionContext();
+        requestContext.setProperty("xwikicontext", this.context);
+        when(this.execution.getContext()).thenReturn(requestContext);
+
+        Response response = this.resource.getPatient(PATIENT_ID, "");
+        ((StreamingOutput) response.getEntity()).write(new ByteArrayOutputStream());
+
+        verify(this.patient).writeJSON(any(Writer.class), eq((Collection<String>) null), any(JSONObject.class));
+    }
+
+    @Test
+    public void forbiddenPatientsDontRevealTheirValidators()
+    {
+        when(this.access.hasAccess(Right.VIEW, USER_REFERENCE, PATIENT_REFERENCE)).thenReturn(false);
+
+        Response response = this.resource.getPatient(PATIENT_ID, null);
+
+        Assert.assertEquals(Status.FORBIDDEN.getStatusCode(), response.getStatus());
+        Assert.assertNull(response.getMetadata().getFirst(HttpHeaders.ETAG));
+        verify(this.request, never()).evaluatePreconditions(any(Date.class), any(EntityTag.class));
+        verify(this.repository, never()).getPatientById(anyString());
+    }
+
+    @Test
+    public void missingPatientsAreNotFound()
+    {
+        when(this.doc.isNew()).thenReturn(true);
+
+        Response response = this.resource.getPatient(PATIENT_ID, null);
+
+        Assert.assertEquals(Status.NOT_FOUND.getStatusCode(), response.getStatus());
+        verify(this.request, never()).evaluatePreconditions(any(Date.class), any(EntityTag.class));
+    }
+}
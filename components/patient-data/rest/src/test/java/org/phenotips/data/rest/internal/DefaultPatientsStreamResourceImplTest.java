@@ -0,0 +1,325 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.rest.PatientResource;
+import org.phenotips.data.rest.PatientsStreamResource;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.users.User;
+import org.xwiki.users.UserManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Writer;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+
+import net.sf.json.JSONObject;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DefaultPatientsStreamResourceImpl} NDJSON resource.
+ *
+ * @version $Id$
+ */
+public class DefaultPatientsStreamResourceImplTest
+{
+    private static final DocumentReference USER_REFERENCE = new DocumentReference("wiki", "XWiki", "padams");
+
+    @Mock
+    private Logger logger;
+
+    @Mock
+    private PatientRepository repository;
+
+    @Mock
+    private QueryManager queries;
+
+    @Mock
+    private Query query;
+
+    @Mock
+    private AuthorizationManager access;
+
+    @Mock
+    private UserManager users;
+
+    @Mock
+    private User user;
+
+    @Mock
+    private Execution execution;
+
+    @Mock
+    private DocumentAccessBridge bridge;
+
+    @Mock
+    private DocumentReferenceResolver<String> stringResolver;
+
+    @Mock
+    private UriInfo uriInfo;
+
+    @Mock
+    private UriBuilder uriBuilder;
+
+    @Mock
+    private XWikiContext context;
+
+    private DefaultPatientsStreamResourceImpl resource;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        MockitoAnnotations.initMocks(this);
+        final XWikiContext xcontext = this.context;
+        this.resource = new DefaultPatientsStreamResourceImpl()
+        {
+            @Override
+            protected XWikiContext getXWikiContext()
+            {
+                return xcontext;
+            }
+        };
+        ReflectionUtils.setFieldValue(this.resource, "logger", this.logger);
+        ReflectionUtils.setFieldValue(this.resource, "repository", this.repository);
+        ReflectionUtils.setFieldValue(this.resource, "queries", this.queries);
+        ReflectionUtils.setFieldValue(this.resource, "access", this.access);
+        ReflectionUtils.setFieldValue(this.resource, "users", this.users);
+        ReflectionUtils.setFieldValue(this.resource, "execution", this.execution);
+        ReflectionUtils.setFieldValue(this.resource, "bridge", this.bridge);
+        ReflectionUtils.setFieldValue(this.resource, "stringResolver", this.stringResolver);
+        ReflectionUtils.setFieldValue(this.resource, "uriInfo", this.uriInfo);
+
+        ExecutionContext requestContext = new ExecutionContext();
+        requestContext.setProperty("xwikicontext", this.context);
+        when(this.execution.getContext()).thenReturn(requestContext);
+
+        when(this.users.getCurrentUser()).thenReturn(this.user);
+        when(this.user.getProfileDocument()).thenReturn(USER_REFERENCE);
+        when(this.access.hasAccess(eq(Right.VIEW), eq(USER_REFERENCE), any(DocumentReference.class)))
+            .thenReturn(true);
+        when(this.queries.createQuery(anyString(), eq(Query.XWQL))).thenReturn(this.query);
+
+        when(this.uriInfo.getBaseUriBuilder()).thenReturn(this.uriBuilder);
+        when(this.uriBuilder.path(PatientResource.class)).thenReturn(this.uriBuilder);
+        when(this.uriBuilder.clone()).thenReturn(this.uriBuilder);
+        when(this.uriBuilder.build(Matchers.<Object>anyVararg())).thenAnswer(new Answer<URI>()
+        {
+            @Override
+            public URI answer(InvocationOnMock invocation)
+            {
+                return URI.create("http://localhost/rest/patients/" + invocation.getArguments()[0]);
+            }
+        });
+
+        when(this.stringResolver.resolve(anyString(), Matchers.<Object>anyVararg()))
+            .thenAnswer(new Answer<DocumentReference>()
+            {
+                @Override
+                public DocumentReference answer(InvocationOnMock invocation)
+                {
+                    return new DocumentReference("wiki", "data", (String) invocation.getArguments()[0]);
+                }
+            });
+        when(this.bridge.getDocument(any(DocumentReference.class))).thenAnswer(new Answer<DocumentModelBridge>()
+        {
+            @Override
+            public DocumentModelBridge answer(InvocationOnMock invocation)
+            {
+                DocumentModelBridge doc = mock(DocumentModelBridge.class);
+                when(doc.getDocumentReference()).thenReturn((DocumentReference) invocation.getArguments()[0]);
+                return doc;
+            }
+        });
+        when(this.repository.loadPatientFromDocument(any(DocumentModelBridge.class))).thenAnswer(new Answer<Patient>()
+        {
+            @Override
+            public Patient answer(InvocationOnMock invocation) throws Exception
+            {
+                DocumentModelBridge doc = (DocumentModelBridge) invocation.getArguments()[0];
+                return mockPatient(doc.getDocumentReference().getName());
+            }
+        });
+    }
+
+    @Test
+    public void allAccessiblePatientsAreStreamedInBatches() throws Exception
+    {
+        doReturn(patientNames(1, 100)).doReturn(patientNames(101, 101)).when(this.query).execute();
+        DocumentReference denied = new DocumentReference("wiki", "data", "P0000002");
+        when(this.access.hasAccess(Right.VIEW, USER_REFERENCE, denied)).thenReturn(false);
+
+        Response response = this.resource.streamPatients(null, null);
+        List<String> lines = write(response);
+
+        Object type = response.getMetadata().getFirst(HttpHeaders.CONTENT_TYPE);
+        Assert.assertEquals(PatientsStreamResource.NDJSON_MEDIA_TYPE, String.valueOf(type));
+        Assert.assertEquals(100, lines.size());
+        Assert.assertEquals("P0000001", JSONObject.fromObject(lines.get(0)).getString("id"));
+        Assert.assertEquals("P0000003", JSONObject.fromObject(lines.get(1)).getString("id"));
+        Assert.assertEquals("P0000101", JSONObject.fromObject(lines.get(99)).getString("id"));
+        // Each batch continues after the last patient of the previous batch
+        InOrder order = inOrder(this.query);
+        order.verify(this.query).bindValue("after", "");
+        order.verify(this.query).execute();
+        order.verify(this.query).bindValue("after", "P0000100");
+        order.verify(this.query).execute();
+        // Patients that can't be viewed are not even loaded
+        verify(this.bridge, never()).getDocument(denied);
+    }
+
+    @Test
+    public void streamingStartsAfterTheCursor() throws Exception
+    {
+        doReturn(patientNames(51, 52)).when(this.query).execute();
+
+        List<String> lines = write(this.resource.streamPatients(null, "P0000050"));
+
+        Assert.assertEquals(2, lines.size());
+        Assert.assertEquals("P0000051", JSONObject.fromObject(lines.get(0)).getString("id"));
+        verify(this.query).bindValue("after", "P0000050");
+        // A partial batch is the last one
+        verify(this.query, times(1)).execute();
+    }
+
+    @Test
+    public void onlyTheSelectedFieldsAreStreamed() throws Exception
+    {
+        doReturn(patientNames(1, 1)).when(this.query).execute();
+        final List<Collection<String>> selectedFields = new ArrayList<>();
+        doAnswer(new Answer<Patient>()
+        {
+            @Override
+            public Patient answer(InvocationOnMock invocation) throws Exception
+            {
+                Patient patient = mockPatient("P0000001");
+                doAnswer(new Answer<Void>()
+                {
+                    @SuppressWarnings("unchecked")
+                    @Override
+                    public Void answer(InvocationOnMock invocation)
+                    {
+                        selectedFields.add((Collection<String>) invocation.getArguments()[1]);
+                        return null;
+                    }
+                }).when(patient).writeJSON(any(Writer.class), anyCollectionOf(String.class), any(JSONObject.class));
+                return patient;
+            }
+        }).when(this.repository).loadPatientFromDocument(any(DocumentModelBridge.class));
+
+        write(this.resource.streamPatients("sex, features", null));
+
+        Assert.assertEquals(Collections.singletonList(Arrays.asList("sex", "features")), selectedFields);
+    }
+
+    @Test
+    public void queryFailuresEndTheStream() throws Exception
+    {
+        doReturn(patientNames(1, 100)).doThrow(new QueryException("Database down", this.query, null))
+            .when(this.query).execute();
+
+        List<String> lines = write(this.resource.streamPatients(null, null));
+
+        Assert.assertEquals(100, lines.size());
+        Assert.assertEquals("P0000100", JSONObject.fromObject(lines.get(99)).getString("id"));
+    }
+
+    private List<String> write(Response response) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        String content = out.toString("UTF-8");
+        return content.isEmpty() ? Collections.<String>emptyList() : Arrays.asList(content.split("\n"));
+    }
+
+    private List<String> patientNames(int first, int last)
+    {
+        List<String> result = new ArrayList<>();
+        for (int i = first; i <= last; ++i) {
+            result.add(String.format("P%07d", i));
+        }
+        return result;
+    }
+
+    private Patient mockPatient(final String id) throws Exception
+    {
+        Patient patient = mock(Patient.class);
+        when(patient.getId()).thenReturn(id);
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Exception
+            {
+                JSONObject json = new JSONObject();
+                json.put("id", id);
+                json.putAll((JSONObject) invocation.getArguments()[2]);
+                ((Writer) invocation.getArguments()[0]).write(json.toString());
+                return null;
+            }
+        }).when(patient).writeJSON(any(Writer.class), anyCollectionOf(String.class), any(JSONObject.class));
+        return patient;
+    }
+}
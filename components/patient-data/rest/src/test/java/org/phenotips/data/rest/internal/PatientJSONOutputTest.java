@@ -0,0 +1,159 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest.internal;
+
+import org.phenotips.data.Patient;
+
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.xpn.xwiki.XWikiContext;
+
+import net.sf.json.JSONObject;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link PatientJSONOutput} streaming response body.
+ *
+ * @version $Id$
+ */
+public class PatientJSONOutputTest
+{
+    @Mock
+    private Patient patient;
+
+    @Mock
+    private Execution execution;
+
+    @Mock
+    private XWikiContext context;
+
+    @Mock
+    private XWikiContext clonedContext;
+
+    private Collection<String> fields = Collections.singletonList("sex");
+
+    private JSONObject links = new JSONObject().accumulate("links", "self");
+
+    @Before
+    public void setUp()
+    {
+        MockitoAnnotations.initMocks(this);
+        when(this.context.clone()).thenReturn(this.clonedContext);
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Exception
+            {
+                ((Writer) invocation.getArguments()[0]).write("{\"sex\":\"F\",\"note\":\"\u00e9\"}");
+                return null;
+            }
+        }).when(this.patient).writeJSON(any(Writer.class), anyCollectionOf(String.class), any(JSONObject.class));
+    }
+
+    @Test
+    public void patientIsWrittenInUTF8() throws Exception
+    {
+        ExecutionContext requestContext = new ExecutionContext();
+        requestContext.setProperty("xwikicontext", this.context);
+        when(this.execution.getContext()).thenReturn(requestContext);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        new PatientJSONOutput(this.patient, this.fields, this.links, this.execution, this.context).write(out);
+
+        Assert.assertEquals("{\"sex\":\"F\",\"note\":\"\u00e9\"}", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void selectedFieldsAndExtraPropertiesArePassedToThePatient() throws Exception
+    {
+        ExecutionContext requestContext = new ExecutionContext();
+        requestContext.setProperty("xwikicontext", this.context);
+        when(this.execution.getContext()).thenReturn(requestContext);
+
+        new PatientJSONOutput(this.patient, this.fields, this.links, this.execution, this.context)
+            .write(new ByteArrayOutputStream());
+
+        verify(this.patient).writeJSON(any(Writer.class), same(this.fields), same(this.links));
+    }
+
+    @Test
+    public void existingRequestContextIsReused() throws Exception
+    {
+        ExecutionContext requestContext = new ExecutionContext();
+        requestContext.setProperty("xwikicontext", this.context);
+        when(this.execution.getContext()).thenReturn(requestContext);
+
+        new PatientJSONOutput(this.patient, this.fields, this.links, this.execution, this.context)
+            .write(new ByteArrayOutputStream());
+
+        verify(this.execution, never()).setContext(any(ExecutionContext.class));
+        verify(this.execution, never()).removeContext();
+    }
+
+    @Test
+    public void contextIsSetUpAndRemovedWhenTheRequestContextIsGone() throws Exception
+    {
+        new PatientJSONOutput(this.patient, this.fields, this.links, this.execution, this.context)
+            .write(new ByteArrayOutputStream());
+
+        ArgumentCaptor<ExecutionContext> workerContext = ArgumentCaptor.forClass(ExecutionContext.class);
+        verify(this.execution).setContext(workerContext.capture());
+        Assert.assertSame(this.clonedContext, workerContext.getValue().getProperty("xwikicontext"));
+        verify(this.execution).removeContext();
+    }
+
+    @Test
+    public void contextIsRemovedWhenWritingFails() throws Exception
+    {
+        doThrow(new IllegalStateException("Broken")).when(this.patient)
+            .writeJSON(any(Writer.class), anyCollectionOf(String.class), any(JSONObject.class));
+
+        try {
+            new PatientJSONOutput(this.patient, this.fields, this.links, this.execution, this.context)
+                .write(new ByteArrayOutputStream());
+            Assert.fail("The failure should be propagated");
+        } catch (IllegalStateException ex) {
+            // Expected
+        }
+
+        verify(this.execution).removeContext();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest.internal;
+
+import java.util.Date;
+
+import javax.ws.rs.core.EntityTag;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link PatientValidators} used for answering conditional requests.
+ *
+ * @version $Id$
+ */
+public class PatientValidatorsTest
+{
+    private XWikiDocument doc;
+
+    @Before
+    public void setUp()
+    {
+        this.doc = mock(XWikiDocument.class);
+        when(this.doc.getVersion()).thenReturn("2.1");
+        when(this.doc.getDate()).thenReturn(new Date(1400000000789L));
+    }
+
+    @Test
+    public void entityTagIdentifiesTheDocumentVersion()
+    {
+        Assert.assertEquals(new EntityTag("2.1"), PatientValidators.getEntityTag(this.doc, null));
+        Assert.assertEquals(new EntityTag("2.1"), PatientValidators.getEntityTag(this.doc, " "));
+
+        when(this.doc.getVersion()).thenReturn("2.2");
+        Assert.assertEquals(new EntityTag("2.2"), PatientValidators.getEntityTag(this.doc, null));
+    }
+
+    @Test
+    public void entityTagDependsOnTheSelectedFields()
+    {
+        EntityTag all = PatientValidators.getEntityTag(this.doc, null);
+        EntityTag some = PatientValidators.getEntityTag(this.doc, "sex,features");
+
+        Assert.assertNotEquals(all, some);
+        Assert.assertEquals(some, PatientValidators.getEntityTag(this.doc, "sex,features"));
+        Assert.assertNotEquals(some, PatientValidators.getEntityTag(this.doc, "sex"));
+        Assert.assertTrue(some.getValue().startsWith("2.1-"));
+    }
+
+    @Test
+    public void lastModifiedHasTheHttpDatePrecision()
+    {
+        // If-Modified-Since only has a precision of one second, the milliseconds would never match
+        Assert.assertEquals(new Date(1400000000000L), PatientValidators.getLastModified(this.doc));
+    }
+}
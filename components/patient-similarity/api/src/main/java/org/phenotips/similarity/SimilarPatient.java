@@ -0,0 +1,75 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.similarity;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.stability.Unstable;
+
+/**
+ * A patient found by a {@link SimilarPatientsFinder similarity search}.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+@Unstable
+public final class SimilarPatient
+{
+    /** @see #getDocument() */
+    private final DocumentReference document;
+
+    /** @see #getScore() */
+    private final double score;
+
+    /**
+     * Simple constructor passing all the needed data.
+     *
+     * @param document the document where the similar patient is stored
+     * @param score the estimated similarity score
+     */
+    public SimilarPatient(DocumentReference document, double score)
+    {
+        this.document = document;
+        this.score = score;
+    }
+
+    /**
+     * The document where the similar patient is stored.
+     *
+     * @return a document reference
+     */
+    public DocumentReference getDocument()
+    {
+        return this.document;
+    }
+
+    /**
+     * The estimated similarity between the phenotypic profiles of the two patients.
+     *
+     * @return a number between {@code 0}, for unrelated profiles, and {@code 1}, for identical profiles
+     */
+    public double getScore()
+    {
+        return this.score;
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.document + " (" + this.score + ")";
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.similarity;
+
+import org.phenotips.data.Patient;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+import java.util.List;
+
+/**
+ * Finds the patients with a phenotypic profile similar to a given patient. The observed phenotypes of each patient,
+ * extended with all their ancestors in the phenotype ontology, are summarized in a compact signature, and only the
+ * patients sharing parts of the signature are compared, so that a search doesn't have to go through all the patients.
+ * Since the similarity is estimated from these signatures, the results are approximate: very weakly similar patients
+ * may be missed, and the scores are close to, but not always exactly, the Jaccard index of the extended phenotypes.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+@Unstable
+@Role
+public interface SimilarPatientsFinder
+{
+    /**
+     * Find the patients most similar to a reference patient. No access rights are checked here.
+     *
+     * @param patient the reference patient
+     * @param limit the maximum number of patients to return
+     * @return the similar patients, most similar first, not including the reference patient itself; an empty list if
+     *         the reference patient has no observed phenotypes or if no similar patients are found
+     */
+    List<SimilarPatient> findSimilarPatients(Patient patient, int limit);
+
+    /**
+     * Discard the indexed profiles and start reading them again from the stored patient records, in the background.
+     * Searches done meanwhile only find the patients indexed so far.
+     */
+    void reindex();
+}
@@ -0,0 +1,337 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.similarity.internal;
+
+import org.phenotips.context.WorkerContexts;
+import org.phenotips.data.Patient;
+import org.phenotips.data.events.PatientChangedEvent;
+import org.phenotips.data.events.PatientDeletedEvent;
+import org.phenotips.data.events.PatientEvent;
+import org.phenotips.similarity.SimilarPatient;
+import org.phenotips.similarity.SimilarPatientsFinder;
+import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.Execution;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Finds similar patients using a {@link MinHashIndex} of the observed phenotypes of all the patients, extended with
+ * their ancestors. The index is filled in from the stored patient records by a background thread, started when
+ * PhenoTips starts, and is afterwards kept up to date by listening to patient changes. Searches don't wait for the
+ * index to be filled in, they only find the patients indexed so far.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+@Component(roles = { SimilarPatientsFinder.class })
+@Singleton
+public class DefaultSimilarPatientsFinder implements SimilarPatientsFinder, EventListener, Initializable, Disposable
+{
+    /**
+     * The number of bands the signatures are split into. Along with {@link #ROWS}, this makes patients with a
+     * similarity of 0.5 be compared with a probability of about 0.87, while patients with a similarity of 0.2 are
+     * compared with a probability of only 0.05.
+     */
+    private static final int BANDS = 32;
+
+    /** The number of signature values in each band. */
+    private static final int ROWS = 4;
+
+    /** The patient properties holding observed phenotypes, extended with all their ancestors. */
+    private static final String[] EXTENDED_PROPERTIES = { "extended_phenotype", "extended_prenatal_phenotype" };
+
+    /** The patient properties holding the observed phenotypes, used when the extended properties aren't filled in. */
+    private static final String[] BASE_PROPERTIES = { "phenotype", "prenatal_phenotype" };
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
+    /** Provides access to the stored patient records. */
+    @Inject
+    private DocumentAccessBridge bridge;
+
+    /** Allows listing all the patient records. */
+    @Inject
+    private QueryManager qm;
+
+    /** Parses the patient document names returned by queries. */
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> stringResolver;
+
+    /** Resolves phenotypes in records without extended phenotypes. */
+    @Inject
+    private VocabularyManager vocabularyManager;
+
+    /** Used for registering this component as a patient events listener. */
+    @Inject
+    private ObservationManager observationManager;
+
+    /** Used for setting up the execution context of the thread filling in the index. */
+    @Inject
+    private Execution execution;
+
+    /** Provides the context of the request starting the index build, copied into the index builder thread. */
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    /** The indexed phenotypic profiles. */
+    private final MinHashIndex<DocumentReference> index = new MinHashIndex<DocumentReference>(BANDS, ROWS);
+
+    /** Fills in the index in the background, one build at a time. */
+    private final ExecutorService indexBuilder = Executors.newSingleThreadExecutor();
+
+    /** Whether the index was filled in, or is being filled in, with all the stored patients. */
+    private volatile boolean indexStarted;
+
+    /** Identifies the latest index build, so that builds made obsolete by a newer one stop early. */
+    private final AtomicInteger buildNumber = new AtomicInteger();
+
+    /** Guards starting index builds. */
+    private final Object indexLock = new Object();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        // This component can't be registered as an event listener directly, since that would create a separate
+        // instance, with its own index
+        this.observationManager.addListener(this);
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.indexBuilder.shutdownNow();
+    }
+
+    @Override
+    public String getName()
+    {
+        return "phenotips-similar-patients-index";
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new PatientChangedEvent(), new PatientDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (!this.indexStarted) {
+            // The current data will be read from the database when the index is built
+            return;
+        }
+        Patient patient = ((PatientEvent) event).getPatient();
+        if (patient == null || patient.getDocument() == null) {
+            return;
+        }
+        if (event instanceof PatientDeletedEvent) {
+            this.index.remove(patient.getDocument());
+        } else if (source instanceof XWikiDocument) {
+            this.index.put(patient.getDocument(), getProfile((XWikiDocument) source));
+        }
+    }
+
+    @Override
+    public List<SimilarPatient> findSimilarPatients(Patient patient, int limit)
+    {
+        if (patient == null || patient.getDocument() == null) {
+            return Collections.emptyList();
+        }
+        try {
+            if (!this.indexStarted) {
+                synchronized (this.indexLock) {
+                    if (!this.indexStarted) {
+                        startIndexBuild();
+                    }
+                }
+            }
+            Set<String> profile = getProfile((XWikiDocument) this.bridge.getDocument(patient.getDocument()));
+            Map<DocumentReference, Double> similar = this.index.findSimilar(profile, limit, patient.getDocument());
+            List<SimilarPatient> result = new ArrayList<SimilarPatient>(similar.size());
+            for (Map.Entry<DocumentReference, Double> match : similar.entrySet()) {
+                result.add(new SimilarPatient(match.getKey(), match.getValue()));
+            }
+            return result;
+        } catch (Exception ex) {
+            this.logger.warn("Failed to search patients similar to [{}]: {}", patient.getDocument(), ex.getMessage());
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void reindex()
+    {
+        synchronized (this.indexLock) {
+            startIndexBuild();
+        }
+    }
+
+    /**
+     * Discard the indexed profiles and start filling in the index again in the background. Must be called while
+     * holding the {@link #indexLock}.
+     */
+    private void startIndexBuild()
+    {
+        final int build = this.buildNumber.incrementAndGet();
+        this.index.clear();
+        final XWikiContext context = this.contextProvider.get();
+        if (context == null) {
+            // Without a context the records can't be read, the index will be built when next needed
+            this.indexStarted = false;
+            return;
+        }
+        // Setting the flag before the build starts so that patients changed while the index is being built aren't
+        // missed
+        this.indexStarted = true;
+        this.indexBuilder.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                WorkerContexts.setup(DefaultSimilarPatientsFinder.this.execution, context);
+                try {
+                    buildIndex(build);
+                } finally {
+                    DefaultSimilarPatientsFinder.this.execution.removeContext();
+                }
+            }
+        });
+    }
+
+    /**
+     * Fill in the index with the phenotypic profiles of all the stored patients.
+     *
+     * @param build the number of this build, the build stops early if a newer build is started
+     */
+    private void buildIndex(int build)
+    {
+        try {
+            List<String> patientDocs = this.qm.createQuery(
+                "from doc.object(PhenoTips.PatientClass) as patient where doc.name <> 'PatientTemplate'", Query.XWQL)
+                .execute();
+            for (String patientDoc : patientDocs) {
+                if (this.buildNumber.get() != build) {
+                    return;
+                }
+                DocumentReference reference = this.stringResolver.resolve(patientDoc, Patient.DEFAULT_DATA_SPACE);
+                this.index.put(reference, getProfile((XWikiDocument) this.bridge.getDocument(reference)));
+            }
+            this.logger.debug("Indexed the phenotypic profiles of [{}] patients", this.index.size());
+        } catch (Exception ex) {
+            this.logger.warn("Failed to build the similarity index: {}", ex.getMessage());
+            failBuild(build);
+        }
+    }
+
+    /**
+     * Mark the index as not built after a failed build, so that the next search starts a new build.
+     *
+     * @param build the number of the failed build
+     */
+    private void failBuild(int build)
+    {
+        synchronized (this.indexLock) {
+            if (this.buildNumber.get() == build) {
+                this.indexStarted = false;
+            }
+        }
+    }
+
+    /**
+     * Collects the observed phenotypes of a patient, along with all their ancestors.
+     *
+     * @param doc the document where the patient is stored
+     * @return the identifiers of the observed phenotypes and their ancestors, may be empty
+     */
+    private Set<String> getProfile(XWikiDocument doc)
+    {
+        Set<String> result = new HashSet<String>();
+        BaseObject patientObject = doc == null ? null : doc.getXObject(Patient.CLASS_REFERENCE);
+        if (patientObject == null) {
+            return result;
+        }
+        for (String property : EXTENDED_PROPERTIES) {
+            addAll(result, patientObject.getListValue(property));
+        }
+        if (result.isEmpty()) {
+            // Older records may not have the extended phenotypes computed yet
+            Set<String> phenotypes = new HashSet<String>();
+            for (String property : BASE_PROPERTIES) {
+                addAll(phenotypes, patientObject.getListValue(property));
+            }
+            for (String phenotype : phenotypes) {
+                result.add(phenotype);
+                VocabularyTerm term = this.vocabularyManager.resolveTerm(phenotype);
+                if (term != null) {
+                    for (VocabularyTerm ancestor : term.getAncestorsAndSelf()) {
+                        result.add(ancestor.getId());
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private void addAll(Set<String> target, List<?> values)
+    {
+        for (Object value : values) {
+            if (value != null) {
+                target.add(String.valueOf(value));
+            }
+        }
+    }
+}
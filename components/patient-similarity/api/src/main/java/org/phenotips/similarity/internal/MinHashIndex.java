@@ -0,0 +1,295 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.similarity.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A locality sensitive index of sets of terms. Each set is summarized as a MinHash signature, which is split into
+ * bands; sets having the same values in at least one band end up in the same bucket, and only the sets sharing a
+ * bucket with the query are compared, using the fraction of equal signature values as an estimate of their Jaccard
+ * index. With {@code b} bands of {@code r} rows, two sets with a Jaccard index {@code s} become candidates with the
+ * probability {@code 1 - (1 - s^r)^b}.
+ *
+ * @param <K> the type of the keys identifying the indexed sets
+ * @version $Id$
+ * @since 1.2RC1
+ */
+public class MinHashIndex<K>
+{
+    /** Seed for the hash functions, fixed so that signatures are reproducible. */
+    private static final long SEED = 0x5DEECE66DL;
+
+    /** The shift used when scrambling hashes, also used for keeping 31 well distributed bits as signature values. */
+    private static final int MIX_SHIFT = 33;
+
+    /** The first multiplier used when scrambling hashes. */
+    private static final long MIX_MULTIPLIER1 = 0xff51afd7ed558ccdL;
+
+    /** The second multiplier used when scrambling hashes. */
+    private static final long MIX_MULTIPLIER2 = 0xc4ceb9fe1a85ec53L;
+
+    /** The multiplier used when combining the signature values of a band. */
+    private static final int BAND_MULTIPLIER = 31;
+
+    /** The number of bands the signatures are split into. */
+    private final int bands;
+
+    /** The number of signature values in each band. */
+    private final int rows;
+
+    /** One seed for each hash function, i.e. for each position in the signatures. */
+    private final long[] seeds;
+
+    /** The signatures of the indexed sets. */
+    private final Map<K, int[]> signatures = new HashMap<K, int[]>();
+
+    /** For each band, the keys of the indexed sets, grouped by the hash of their signature values in that band. */
+    private final List<Map<Long, Set<K>>> buckets;
+
+    /** Allows concurrent searches, while updates are exclusive. */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Creates an empty index.
+     *
+     * @param bands the number of bands the signatures are split into; more bands find less similar sets, at the cost
+     *            of comparing more candidates
+     * @param rows the number of signature values in each band; more rows make buckets more selective
+     */
+    public MinHashIndex(int bands, int rows)
+    {
+        this.bands = bands;
+        this.rows = rows;
+        this.seeds = new long[bands * rows];
+        Random random = new Random(SEED);
+        for (int i = 0; i < this.seeds.length; ++i) {
+            this.seeds[i] = random.nextLong();
+        }
+        this.buckets = new ArrayList<Map<Long, Set<K>>>(bands);
+        for (int i = 0; i < bands; ++i) {
+            this.buckets.add(new HashMap<Long, Set<K>>());
+        }
+    }
+
+    /**
+     * Indexes a set of terms, replacing the previous set indexed under the same key, if any.
+     *
+     * @param key the key identifying the set
+     * @param terms the terms to index; if empty, the key is just removed from the index
+     */
+    public void put(K key, Collection<String> terms)
+    {
+        int[] signature = terms.isEmpty() ? null : computeSignature(terms);
+        this.lock.writeLock().lock();
+        try {
+            removeKey(key);
+            if (signature != null) {
+                this.signatures.put(key, signature);
+                for (int band = 0; band < this.bands; ++band) {
+                    Long bucket = getBucket(signature, band);
+                    Set<K> keys = this.buckets.get(band).get(bucket);
+                    if (keys == null) {
+                        keys = new HashSet<K>();
+                        this.buckets.get(band).put(bucket, keys);
+                    }
+                    keys.add(key);
+                }
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a set from the index.
+     *
+     * @param key the key identifying the set
+     */
+    public void remove(K key)
+    {
+        this.lock.writeLock().lock();
+        try {
+            removeKey(key);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /** Removes all the sets from the index. */
+    public void clear()
+    {
+        this.lock.writeLock().lock();
+        try {
+            this.signatures.clear();
+            for (Map<Long, Set<K>> band : this.buckets) {
+                band.clear();
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The number of indexed sets.
+     *
+     * @return a positive number, or {@code 0} if the index is empty
+     */
+    public int size()
+    {
+        this.lock.readLock().lock();
+        try {
+            return this.signatures.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the indexed sets most similar to a set of terms.
+     *
+     * @param terms the terms to search for
+     * @param limit the maximum number of results to return
+     * @param excluded a key that must not be returned, usually the key under which the searched set is itself indexed;
+     *            may be {@code null}
+     * @return the keys of the similar sets, mapped to their estimated Jaccard index, in descending order of similarity
+     */
+    public Map<K, Double> findSimilar(Collection<String> terms, int limit, K excluded)
+    {
+        if (terms.isEmpty() || limit <= 0) {
+            return Collections.emptyMap();
+        }
+        int[] signature = computeSignature(terms);
+        final Map<K, Double> scores = new HashMap<K, Double>();
+        this.lock.readLock().lock();
+        try {
+            for (int band = 0; band < this.bands; ++band) {
+                Set<K> keys = this.buckets.get(band).get(getBucket(signature, band));
+                if (keys == null) {
+                    continue;
+                }
+                for (K key : keys) {
+                    if (!scores.containsKey(key) && (excluded == null || !excluded.equals(key))) {
+                        scores.put(key, estimateSimilarity(signature, this.signatures.get(key)));
+                    }
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+        List<K> candidates = new ArrayList<K>(scores.keySet());
+        Collections.sort(candidates, new Comparator<K>()
+        {
+            @Override
+            public int compare(K o1, K o2)
+            {
+                return Double.compare(scores.get(o2), scores.get(o1));
+            }
+        });
+        Map<K, Double> result = new LinkedHashMap<K, Double>();
+        for (K key : candidates.subList(0, Math.min(limit, candidates.size()))) {
+            result.put(key, scores.get(key));
+        }
+        return result;
+    }
+
+    private void removeKey(K key)
+    {
+        int[] signature = this.signatures.remove(key);
+        if (signature == null) {
+            return;
+        }
+        for (int band = 0; band < this.bands; ++band) {
+            Long bucket = getBucket(signature, band);
+            Set<K> keys = this.buckets.get(band).get(bucket);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    this.buckets.get(band).remove(bucket);
+                }
+            }
+        }
+    }
+
+    private int[] computeSignature(Collection<String> terms)
+    {
+        int[] signature = new int[this.seeds.length];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (String term : terms) {
+            long termHash = mix(term.hashCode());
+            for (int i = 0; i < this.seeds.length; ++i) {
+                int value = (int) (mix(termHash ^ this.seeds[i]) >>> MIX_SHIFT);
+                if (value < signature[i]) {
+                    signature[i] = value;
+                }
+            }
+        }
+        return signature;
+    }
+
+    private Long getBucket(int[] signature, int band)
+    {
+        long hash = 1;
+        for (int i = band * this.rows; i < (band + 1) * this.rows; ++i) {
+            hash = BAND_MULTIPLIER * hash + signature[i];
+        }
+        return mix(hash);
+    }
+
+    private double estimateSimilarity(int[] signature, int[] other)
+    {
+        int equal = 0;
+        for (int i = 0; i < signature.length; ++i) {
+            if (signature[i] == other[i]) {
+                ++equal;
+            }
+        }
+        return (double) equal / signature.length;
+    }
+
+    /**
+     * Scrambles the bits of a number, the finalization step of the MurmurHash3 64 bit hash function.
+     *
+     * @param value the number to scramble
+     * @return a well distributed hash of the number
+     */
+    private static long mix(long value)
+    {
+        long result = value;
+        result ^= result >>> MIX_SHIFT;
+        result *= MIX_MULTIPLIER1;
+        result ^= result >>> MIX_SHIFT;
+        result *= MIX_MULTIPLIER2;
+        result ^= result >>> MIX_SHIFT;
+        return result;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.similarity.internal;
+
+import org.phenotips.similarity.SimilarPatientsFinder;
+
+import org.xwiki.bridge.event.ApplicationReadyEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Starts filling in the similar patients index when PhenoTips starts, so that the first search doesn't find an empty
+ * index.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+@Component
+@Named("similar-patients-index-initializer")
+@Singleton
+public class SimilarPatientsIndexInitializer extends AbstractEventListener
+{
+    @Inject
+    private SimilarPatientsFinder finder;
+
+    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
+    public SimilarPatientsIndexInitializer()
+    {
+        super("similar-patients-index-initializer", new ApplicationReadyEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        this.finder.reindex();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.similarity.script;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.similarity.SimilarPatient;
+import org.phenotips.similarity.SimilarPatientsFinder;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.script.service.ScriptService;
+import org.xwiki.stability.Unstable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Service that finds patients with a phenotypic profile similar to a given patient.
+ *
+ * @see SimilarPatientsFinder
+ * @version $Id$
+ * @since 1.2RC1
+ */
+@Unstable
+@Component
+@Named("similarPatients")
+@Singleton
+public class SimilarPatientsScriptService implements ScriptService
+{
+    @Inject
+    private SimilarPatientsFinder finder;
+
+    @Inject
+    private PatientRepository repository;
+
+    @Inject
+    private DocumentAccessBridge bridge;
+
+    /**
+     * Find the patients most similar to a reference patient. Only patients that the current user can view are
+     * returned, so fewer than {@code limit} patients may be returned even if more similar patients exist.
+     *
+     * @param patientId the internal identifier of the reference patient, for example {@code P0000001}
+     * @param limit the maximum number of patients to return; must be a positive number
+     * @return the similar patients, most similar first, or an empty list if the reference patient doesn't exist or
+     *         can't be viewed by the current user
+     */
+    public List<SimilarPatient> find(String patientId, int limit)
+    {
+        Patient patient = this.repository.getPatientById(patientId);
+        if (patient == null || !this.bridge.isDocumentViewable(patient.getDocument())) {
+            return Collections.emptyList();
+        }
+        List<SimilarPatient> result = new ArrayList<SimilarPatient>();
+        for (SimilarPatient match : this.finder.findSimilarPatients(patient, limit)) {
+            if (this.bridge.isDocumentViewable(match.getDocument())) {
+                result.add(match);
+            }
+        }
+        return result;
+    }
+}
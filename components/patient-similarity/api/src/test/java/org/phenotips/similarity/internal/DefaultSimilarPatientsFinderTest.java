@@ -0,0 +1,282 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.similarity.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.events.PatientChangedEvent;
+import org.phenotips.data.events.PatientDeletedEvent;
+import org.phenotips.similarity.SimilarPatient;
+import org.phenotips.similarity.SimilarPatientsFinder;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DefaultSimilarPatientsFinder} component, using three patients: {@code P1} and {@code P2} have
+ * the same phenotypes, while {@code P3} has unrelated phenotypes.
+ *
+ * @version $Id$
+ */
+public class DefaultSimilarPatientsFinderTest
+{
+    private static final List<String> PROFILE = terms("HP:00");
+
+    private static final List<String> OTHER_PROFILE = terms("HP:01");
+
+    @Rule
+    public final MockitoComponentMockingRule<SimilarPatientsFinder> mocker =
+        new MockitoComponentMockingRule<SimilarPatientsFinder>(DefaultSimilarPatientsFinder.class);
+
+    private SimilarPatientsFinder finder;
+
+    private DocumentAccessBridge bridge;
+
+    private Provider<XWikiContext> contextProvider;
+
+    private Query query;
+
+    private List<Patient> patients = new ArrayList<Patient>();
+
+    @Before
+    public void setup() throws Exception
+    {
+        this.finder = this.mocker.getComponentUnderTest();
+        this.bridge = this.mocker.getInstance(DocumentAccessBridge.class);
+
+        this.contextProvider = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
+        XWikiContext context = mock(XWikiContext.class);
+        when(this.contextProvider.get()).thenReturn(context);
+        when(context.clone()).thenReturn(mock(XWikiContext.class));
+
+        QueryManager qm = this.mocker.getInstance(QueryManager.class);
+        this.query = mock(Query.class);
+        when(qm.createQuery(anyString(), anyString())).thenReturn(this.query);
+        when(this.query.execute()).thenReturn(Arrays.<Object>asList("data.P1", "data.P2", "data.P3"));
+
+        DocumentReferenceResolver<String> resolver =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "current");
+        this.patients.add(mockPatient(resolver, "P1", PROFILE));
+        this.patients.add(mockPatient(resolver, "P2", PROFILE));
+        this.patients.add(mockPatient(resolver, "P3", OTHER_PROFILE));
+    }
+
+    @Test
+    public void registersItselfAsPatientsListener() throws ComponentLookupException
+    {
+        ObservationManager observationManager = this.mocker.getInstance(ObservationManager.class);
+        verify(observationManager).addListener((EventListener) this.finder);
+    }
+
+    @Test
+    public void findsSimilarPatientsInTheIndexBuiltInBackground() throws Exception
+    {
+        this.finder.reindex();
+        waitForIndex();
+
+        List<SimilarPatient> result = this.finder.findSimilarPatients(this.patients.get(0), 10);
+
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(this.patients.get(1).getDocument(), result.get(0).getDocument());
+        Assert.assertEquals(1.0, result.get(0).getScore(), 0.0);
+        verify(this.query, times(1)).execute();
+        // The patient template isn't a patient record
+        verify(this.mocker.<QueryManager>getInstance(QueryManager.class))
+            .createQuery(contains("doc.name <> 'PatientTemplate'"), eq(Query.XWQL));
+    }
+
+    @Test
+    public void searchesDontWaitForTheIndexToBeBuilt() throws Exception
+    {
+        final CountDownLatch listed = new CountDownLatch(1);
+        when(this.query.execute()).thenAnswer(new Answer<List<Object>>()
+        {
+            @Override
+            public List<Object> answer(InvocationOnMock invocation) throws InterruptedException
+            {
+                listed.await();
+                return Arrays.<Object>asList("data.P1", "data.P2", "data.P3");
+            }
+        });
+
+        // The first search starts the build, but doesn't find anything while the patients are being listed
+        Assert.assertTrue(this.finder.findSimilarPatients(this.patients.get(0), 10).isEmpty());
+
+        listed.countDown();
+        waitForIndex();
+        Assert.assertEquals(1, this.finder.findSimilarPatients(this.patients.get(0), 10).size());
+        verify(this.query, times(1)).execute();
+    }
+
+    @Test
+    public void changedPatientsAreReindexed() throws Exception
+    {
+        this.finder.reindex();
+        waitForIndex();
+
+        Patient changed = this.patients.get(2);
+        XWikiDocument doc = mockDocument(PROFILE);
+        ((EventListener) this.finder).onEvent(new PatientChangedEvent(changed, null), doc, null);
+
+        List<DocumentReference> result = new ArrayList<DocumentReference>();
+        for (SimilarPatient match : this.finder.findSimilarPatients(this.patients.get(0), 10)) {
+            result.add(match.getDocument());
+        }
+        Assert.assertEquals(2, result.size());
+        Assert.assertTrue(result.contains(changed.getDocument()));
+    }
+
+    @Test
+    public void deletedPatientsAreRemovedFromTheIndex() throws Exception
+    {
+        this.finder.reindex();
+        waitForIndex();
+
+        ((EventListener) this.finder).onEvent(new PatientDeletedEvent(this.patients.get(1), null), null, null);
+
+        Assert.assertTrue(this.finder.findSimilarPatients(this.patients.get(0), 10).isEmpty());
+    }
+
+    @Test
+    public void eventsAreIgnoredBeforeTheIndexIsBuilt() throws Exception
+    {
+        XWikiDocument doc = mockDocument(PROFILE);
+        ((EventListener) this.finder).onEvent(new PatientChangedEvent(this.patients.get(2), null), doc, null);
+
+        verify(doc, never()).getXObject(any(EntityReference.class));
+    }
+
+    @Test
+    public void failedBuildsAreRetriedByTheNextSearch() throws Exception
+    {
+        when(this.query.execute()).thenThrow(new QueryException("Database down", null, null)).thenReturn(
+            Arrays.<Object>asList("data.P1", "data.P2", "data.P3"));
+        this.finder.reindex();
+        waitForIndex();
+
+        // The failed build left the index empty, the search starts a new build
+        this.finder.findSimilarPatients(this.patients.get(0), 10);
+        waitForIndex();
+
+        Assert.assertEquals(1, this.finder.findSimilarPatients(this.patients.get(0), 10).size());
+        verify(this.query, times(2)).execute();
+    }
+
+    @Test
+    public void indexIsNotBuiltWithoutContext() throws Exception
+    {
+        when(this.contextProvider.get()).thenReturn(null);
+
+        this.finder.reindex();
+        waitForIndex();
+
+        verify(this.query, never()).execute();
+    }
+
+    @Test
+    public void missingPatientsHaveNoSimilarPatients() throws Exception
+    {
+        Assert.assertTrue(this.finder.findSimilarPatients(null, 10).isEmpty());
+        Assert.assertTrue(this.finder.findSimilarPatients(mock(Patient.class), 10).isEmpty());
+        verify(this.query, never()).execute();
+    }
+
+    /** Wait for the index builds started so far to finish, the index is built by a single thread. */
+    private void waitForIndex() throws Exception
+    {
+        ExecutorService builder = ReflectionUtils.getFieldValue(this.finder, "indexBuilder");
+        builder.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                // Nothing to do
+            }
+        }).get();
+    }
+
+    private Patient mockPatient(DocumentReferenceResolver<String> resolver, String id, List<String> profile)
+        throws Exception
+    {
+        DocumentReference reference = new DocumentReference("xwiki", "data", id);
+        when(resolver.resolve("data." + id, Patient.DEFAULT_DATA_SPACE)).thenReturn(reference);
+        XWikiDocument doc = mockDocument(profile);
+        when(this.bridge.getDocument(reference)).thenReturn(doc);
+        Patient patient = mock(Patient.class);
+        when(patient.getDocument()).thenReturn(reference);
+        return patient;
+    }
+
+    private XWikiDocument mockDocument(List<String> profile)
+    {
+        XWikiDocument doc = mock(XWikiDocument.class);
+        BaseObject patientObject = mock(BaseObject.class);
+        when(doc.getXObject(Patient.CLASS_REFERENCE)).thenReturn(patientObject);
+        when(patientObject.getListValue("extended_phenotype")).thenReturn(profile);
+        when(patientObject.getListValue("extended_prenatal_phenotype")).thenReturn(Collections.emptyList());
+        return doc;
+    }
+
+    private static List<String> terms(String prefix)
+    {
+        List<String> result = new ArrayList<String>();
+        for (int i = 0; i < 20; ++i) {
+            result.add(prefix + String.format("%05d", i));
+        }
+        return result;
+    }
+}
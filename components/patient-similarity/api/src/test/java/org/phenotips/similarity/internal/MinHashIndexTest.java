@@ -0,0 +1,112 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.similarity.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link MinHashIndex} class.
+ *
+ * @version $Id$
+ */
+public class MinHashIndexTest
+{
+    private MinHashIndex<String> index;
+
+    private List<String> profile;
+
+    @Before
+    public void setup()
+    {
+        this.index = new MinHashIndex<String>(32, 4);
+        this.profile = terms("HP:00", 0, 40);
+    }
+
+    @Test
+    public void identicalProfilesHaveMaximumScore()
+    {
+        this.index.put("P1", this.profile);
+        Map<String, Double> result = this.index.findSimilar(this.profile, 10, null);
+        Assert.assertEquals(Collections.singletonMap("P1", 1.0), result);
+    }
+
+    @Test
+    public void resultsAreSortedBySimilarity()
+    {
+        List<String> close = new ArrayList<String>(this.profile.subList(0, 36));
+        close.addAll(terms("HP:01", 0, 4));
+        List<String> farther = new ArrayList<String>(this.profile.subList(0, 28));
+        farther.addAll(terms("HP:02", 0, 12));
+        this.index.put("close", close);
+        this.index.put("farther", farther);
+        this.index.put("unrelated", terms("HP:03", 0, 40));
+
+        Map<String, Double> result = this.index.findSimilar(this.profile, 10, null);
+        Assert.assertEquals(Arrays.asList("close", "farther"), new ArrayList<String>(result.keySet()));
+        Assert.assertTrue(result.get("close") > result.get("farther"));
+    }
+
+    @Test
+    public void limitAndExclusionAreRespected()
+    {
+        this.index.put("P1", this.profile);
+        this.index.put("P2", this.profile);
+        this.index.put("P3", this.profile);
+        Assert.assertEquals(1, this.index.findSimilar(this.profile, 1, null).size());
+        Assert.assertFalse(this.index.findSimilar(this.profile, 10, "P2").containsKey("P2"));
+        Assert.assertTrue(this.index.findSimilar(this.profile, 0, null).isEmpty());
+    }
+
+    @Test
+    public void updatedAndRemovedProfilesAreNotFound()
+    {
+        this.index.put("P1", this.profile);
+        this.index.put("P2", this.profile);
+        this.index.put("P1", terms("HP:03", 0, 40));
+        this.index.remove("P2");
+        Assert.assertTrue(this.index.findSimilar(this.profile, 10, null).isEmpty());
+        Assert.assertEquals(1, this.index.size());
+
+        this.index.put("P1", Collections.<String>emptyList());
+        Assert.assertEquals(0, this.index.size());
+    }
+
+    @Test
+    public void emptyQueryReturnsNothing()
+    {
+        this.index.put("P1", this.profile);
+        Assert.assertTrue(this.index.findSimilar(Collections.<String>emptyList(), 10, null).isEmpty());
+    }
+
+    private List<String> terms(String prefix, int from, int to)
+    {
+        List<String> result = new ArrayList<String>();
+        for (int i = from; i < to; ++i) {
+            result.add(String.format("%s%05d", prefix, i));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.similarity.internal;
+
+import org.phenotips.similarity.SimilarPatientsFinder;
+
+import org.xwiki.bridge.event.ApplicationReadyEvent;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.observation.EventListener;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests for the {@link SimilarPatientsIndexInitializer} listener.
+ *
+ * @version $Id$
+ */
+public class SimilarPatientsIndexInitializerTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<EventListener> mocker =
+        new MockitoComponentMockingRule<EventListener>(SimilarPatientsIndexInitializer.class);
+
+    @Test
+    public void indexIsBuiltWhenTheApplicationStarts() throws ComponentLookupException
+    {
+        EventListener listener = this.mocker.getComponentUnderTest();
+        Assert.assertEquals(1, listener.getEvents().size());
+        Assert.assertTrue(listener.getEvents().get(0) instanceof ApplicationReadyEvent);
+
+        listener.onEvent(new ApplicationReadyEvent(), null, null);
+
+        verify(this.mocker.<SimilarPatientsFinder>getInstance(SimilarPatientsFinder.class)).reindex();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.similarity.script;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.similarity.SimilarPatient;
+import org.phenotips.similarity.SimilarPatientsFinder;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.script.service.ScriptService;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link SimilarPatientsScriptService} component.
+ *
+ * @version $Id$
+ */
+public class SimilarPatientsScriptServiceTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<ScriptService> mocker =
+        new MockitoComponentMockingRule<ScriptService>(SimilarPatientsScriptService.class);
+
+    private SimilarPatientsScriptService service;
+
+    private SimilarPatientsFinder finder;
+
+    private DocumentAccessBridge bridge;
+
+    private Patient patient;
+
+    private DocumentReference patientReference = new DocumentReference("xwiki", "data", "P0000001");
+
+    @Before
+    public void setup() throws ComponentLookupException
+    {
+        this.service = (SimilarPatientsScriptService) this.mocker.getComponentUnderTest();
+        this.finder = this.mocker.getInstance(SimilarPatientsFinder.class);
+        this.bridge = this.mocker.getInstance(DocumentAccessBridge.class);
+
+        PatientRepository repository = this.mocker.getInstance(PatientRepository.class);
+        this.patient = mock(Patient.class);
+        when(this.patient.getDocument()).thenReturn(this.patientReference);
+        when(repository.getPatientById("P0000001")).thenReturn(this.patient);
+        when(this.bridge.isDocumentViewable(this.patientReference)).thenReturn(true);
+    }
+
+    @Test
+    public void onlyViewableMatchesAreReturned()
+    {
+        SimilarPatient viewable = new SimilarPatient(new DocumentReference("xwiki", "data", "P0000002"), 0.9);
+        SimilarPatient restricted = new SimilarPatient(new DocumentReference("xwiki", "data", "P0000003"), 0.8);
+        when(this.finder.findSimilarPatients(this.patient, 5)).thenReturn(Arrays.asList(viewable, restricted));
+        when(this.bridge.isDocumentViewable(viewable.getDocument())).thenReturn(true);
+        when(this.bridge.isDocumentViewable(restricted.getDocument())).thenReturn(false);
+
+        Assert.assertEquals(Collections.singletonList(viewable), this.service.find("P0000001", 5));
+    }
+
+    @Test
+    public void restrictedReferencePatientIsNotSearched()
+    {
+        when(this.bridge.isDocumentViewable(this.patientReference)).thenReturn(false);
+
+        Assert.assertTrue(this.service.find("P0000001", 5).isEmpty());
+        verify(this.finder, never()).findSimilarPatients(any(Patient.class), anyInt());
+    }
+
+    @Test
+    public void missingReferencePatientIsNotSearched()
+    {
+        Assert.assertTrue(this.service.find("P0000009", 5).isEmpty());
+        verify(this.finder, never()).findSimilarPatients(any(Patient.class), anyInt());
+    }
+}
@@ -39,9 +39,11 @@
 import org.xwiki.velocity.XWikiVelocityException;
 
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -74,9 +76,15 @@ public class PhenotypeMappingService implements ScriptService, EventListener, In
     private Logger logger;
 
     /**
-     * Cached mappings for faster responses.
+     * Cached mappings for faster responses, keyed by the serialized reference of the mapping document. Each entry
+     * remembers the version of the document it was parsed from, so that a stale entry is never served even if the
+     * invalidation event was missed.
      */
-    private Map<String, Map<String, Object>> cache = new HashMap<String, Map<String, Object>>();
+    private final ConcurrentMap<String, CachedMappings> cache = new ConcurrentHashMap<String, CachedMappings>();
+
+    /** The mapping documents for which this listener already watches for changes. */
+    private final Set<String> watchedDocuments =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     /**
      * Reference serializer used for converting entities into strings.
@@ -207,35 +215,67 @@ public Object get(String name)
     private Object getMapping(String mappingName)
     {
         DocumentReference mappingDoc = getMappingDocument();
-        Object result = getMapping(mappingDoc, mappingName);
-        if (result == null) {
-            try {
-                String mappingContent = this.bridge.getDocumentContentForDefaultLanguage(mappingDoc);
-                if (mappingContent.startsWith("{{velocity")) {
-                    result = parseVelocityMapping(mappingDoc).get(mappingName);
-                } else {
-                    result = JSONObject.fromObject(mappingContent).get(mappingName);
-                }
-            } catch (Exception ex) {
-                this.logger.warn("Failed to access mapping: {}", ex.getMessage());
+        if (mappingDoc == null) {
+            return null;
+        }
+        Map<String, Object> mappings = getMappings(mappingDoc);
+        return mappings == null ? null : mappings.get(mappingName);
+    }
+
+    /**
+     * Get all the mappings defined in the specified document, either from the cache, if the cached entry was obtained
+     * from the current version of the document, or by parsing the document again.
+     *
+     * @param doc the reference of the document containing the mapping
+     * @return defined mappings, a map of maps, or {@code null} if the document cannot be parsed
+     */
+    private Map<String, Object> getMappings(DocumentReference doc)
+    {
+        String docName = this.serializer.serialize(doc);
+        String version = getDocumentVersion(doc);
+        CachedMappings cached = this.cache.get(docName);
+        if (cached != null && StringUtils.equals(cached.version, version)) {
+            return cached.mappings;
+        }
+
+        Map<String, Object> mappings = parseMappings(doc);
+        if (mappings != null) {
+            watchDocument(doc, docName);
+            CachedMappings fresh = new CachedMappings(version, mappings);
+            if (cached == null) {
+                this.cache.putIfAbsent(docName, fresh);
+            } else {
+                this.cache.replace(docName, cached, fresh);
             }
         }
-        return result;
+        return mappings;
     }
 
-    private Map<String, Object> parseVelocityMapping(DocumentReference mappingDoc)
+    private Map<String, Object> parseMappings(DocumentReference mappingDoc)
+    {
+        try {
+            String mappingContent = this.bridge.getDocumentContentForDefaultLanguage(mappingDoc);
+            if (mappingContent.startsWith("{{velocity")) {
+                return parseVelocityMapping(mappingDoc, mappingContent);
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> mappings = JSONObject.fromObject(mappingContent);
+            return Collections.unmodifiableMap(mappings);
+        } catch (Exception ex) {
+            this.logger.warn("Failed to access mapping: {}", ex.getMessage());
+        }
+        return null;
+    }
+
+    private Map<String, Object> parseVelocityMapping(DocumentReference mappingDoc, String mappingContent)
     {
         try {
             VelocityEngine e = this.velocityManager.getVelocityEngine();
             VelocityContext c = this.velocityManager.getVelocityContext();
-            e.evaluate(c, new NullWriter(), mappingDoc.getName(),
-                this.bridge.getDocumentContentForDefaultLanguage(mappingDoc));
-            this.observationManager.addEvent(this.getName(), new DocumentUpdatedEvent(mappingDoc));
-            this.observationManager.addEvent(this.getName(), new DocumentDeletedEvent(mappingDoc));
+            e.evaluate(c, new NullWriter(), mappingDoc.getName(), mappingContent);
             @SuppressWarnings("unchecked")
             Map<String, Object> mappings = (Map<String, Object>) c.get("mappings");
-            setMappings(mappingDoc, mappings);
-            return mappings;
+            return mappings == null ? null : Collections.unmodifiableMap(mappings);
         } catch (XWikiVelocityException ex) {
             this.logger.error("Failed to get a VelocityEngine instance", ex);
         } catch (Exception ex) {
@@ -245,30 +285,33 @@ private Map<String, Object> parseVelocityMapping(DocumentReference mappingDoc)
     }
 
     /**
-     * Get the configuration for a specific property, taking the configuration from a specified document.
+     * Register this listener for changes to the specified mapping document, unless already registered.
      *
      * @param doc the reference of the document containing the mapping
-     * @param mappingName the name of the configuration to return
-     * @return configuration object, should be a Map
+     * @param docName the serialized reference of the document, used as the cache key
      */
-    private Object getMapping(DocumentReference doc, String mappingName)
+    private void watchDocument(DocumentReference doc, String docName)
     {
-        String docName = this.serializer.serialize(doc);
-        if (!this.cache.containsKey(docName)) {
-            return null;
+        if (this.watchedDocuments.add(docName)) {
+            this.observationManager.addEvent(this.getName(), new DocumentUpdatedEvent(doc));
+            this.observationManager.addEvent(this.getName(), new DocumentDeletedEvent(doc));
         }
-        return this.cache.get(docName).get(mappingName);
     }
 
     /**
-     * Store all the mappings defined in the specified document in the cache.
+     * Get the current version of a document.
      *
-     * @param doc the reference of the document containing the mapping
-     * @param mappings defined mappings, a map of maps
+     * @param doc the reference of the document to check
+     * @return the version of the document, or {@code null} if it cannot be determined
      */
-    private void setMappings(DocumentReference doc, Map<String, Object> mappings)
+    private String getDocumentVersion(DocumentReference doc)
     {
-        this.cache.put(this.serializer.serialize(doc), mappings);
+        try {
+            return this.bridge.getDocument(doc).getVersion();
+        } catch (Exception ex) {
+            this.logger.debug("Failed to get the version of mapping document [{}]: {}", doc, ex.getMessage());
+        }
+        return null;
     }
 
     /**
@@ -304,4 +347,22 @@ private DocumentReference getCurrentUserConfiguration()
         }
         return null;
     }
+
+    /**
+     * The mappings parsed from a mapping document, along with the version of the document they were parsed from.
+     */
+    private static final class CachedMappings
+    {
+        /** The version of the mapping document when it was parsed. */
+        private final String version;
+
+        /** The parsed mappings. */
+        private final Map<String, Object> mappings;
+
+        CachedMappings(String version, Map<String, Object> mappings)
+        {
+            this.version = version;
+            this.mappings = mappings;
+        }
+    }
 }
@@ -20,6 +20,7 @@
 import org.phenotips.data.Patient;
 
 import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
 
 /**
  * A component to add, remove and handle locks on patient records. A record lock removes edit rights for a patient from
@@ -54,4 +55,15 @@
      * @return True if the patient is locked, false if otherwise
      */
     boolean isLocked(Patient patient);
+
+    /**
+     * Checks if there is a lock on the given patient document. Unlike {@link #isLocked(Patient)}, this doesn't load the
+     * patient document, but relies on an in-memory registry of the locked records, making it suitable for frequent
+     * checks, such as access rights checks.
+     *
+     * @param patientDocument the reference of the patient document to be checked
+     * @return True if the patient is locked, false if otherwise
+     * @since 1.2RC1
+     */
+    boolean isLocked(DocumentReference patientDocument);
 }
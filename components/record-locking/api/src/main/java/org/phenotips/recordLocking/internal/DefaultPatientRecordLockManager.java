@@ -23,16 +23,36 @@
 import org.phenotips.data.permissions.PatientAccess;
 import org.phenotips.data.permissions.PermissionsManager;
 
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
+import org.slf4j.Logger;
+
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
@@ -40,14 +60,18 @@
 import com.xpn.xwiki.objects.BaseObject;
 
 /**
- * Default implementation of the {@link org.phenotips.recordLocking.PatientRecordLockManager}.
+ * Default implementation of the {@link org.phenotips.recordLocking.PatientRecordLockManager}. Besides the lock objects
+ * stored in the patient documents, the set of locked records is also kept in memory, loaded from the database when
+ * first needed and updated whenever a patient document is saved or deleted, so that frequent lock checks don't need to
+ * load the patient documents.
  *
  * @version $Id$
  * @since 1.2M5
  */
-@Component
+@Component(roles = { org.phenotips.recordLocking.PatientRecordLockManager.class })
 @Singleton
-public class DefaultPatientRecordLockManager implements org.phenotips.recordLocking.PatientRecordLockManager
+public class DefaultPatientRecordLockManager
+    implements org.phenotips.recordLocking.PatientRecordLockManager, EventListener, Initializable
 {
     /** The XClass used for lock objects. */
     private EntityReference lockClassReference = new EntityReference("PatientLock", EntityType.DOCUMENT,
@@ -64,6 +88,38 @@ public class DefaultPatientRecordLockManager implements org.phenotips.recordLock
     @Named("manage")
     private AccessLevel manageAccessLevel;
 
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
+    /** Used for finding the already locked records. */
+    @Inject
+    private QueryManager qm;
+
+    /** Parses the names of the locked documents into proper references. */
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> resolver;
+
+    /** Allows registering this object as an event listener. */
+    @Inject
+    private ObservationManager observationManager;
+
+    /** The references of the locked patient documents. */
+    private final Set<DocumentReference> lockedDocuments =
+        Collections.newSetFromMap(new ConcurrentHashMap<DocumentReference, Boolean>());
+
+    /** Whether {@link #lockedDocuments} was already loaded from the database. */
+    private volatile boolean lockedDocumentsLoaded;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        // This component can't be registered as an event listener directly, since that would create a separate
+        // instance, with its own set of locked records
+        this.observationManager.addListener(this);
+    }
+
     @Override
     public boolean lockPatientRecord(Patient patient)
     {
@@ -75,6 +131,7 @@ public boolean lockPatientRecord(Patient patient)
                 patientDocument.createXObject(this.lockClassReference, context);
                 xwiki.saveDocument(patientDocument, "Locked patient record", true,
                     context);
+                this.lockedDocuments.add(patient.getDocument());
                 return true;
             } else {
                 return false;
@@ -95,6 +152,7 @@ public boolean unlockPatientRecord(Patient patient)
                 patientDocument.removeXObjects(this.lockClassReference);
                 xwiki.saveDocument(patientDocument, "Unlocked patient record", true,
                     context);
+                this.lockedDocuments.remove(patient.getDocument());
                 return true;
             } else {
                 return false;
@@ -111,6 +169,61 @@ public boolean isLocked(Patient patient)
         return isDocumentLocked(document);
     }
 
+    @Override
+    public boolean isLocked(DocumentReference patientDocument)
+    {
+        loadLockedDocuments();
+        return this.lockedDocuments.contains(patientDocument);
+    }
+
+    @Override
+    public String getName()
+    {
+        return "patient-lock-registry";
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(),
+            new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument document = (XWikiDocument) source;
+        // Deleted documents are reported as an empty document, so they are correctly treated as unlocked
+        if (isDocumentLocked(document)) {
+            this.lockedDocuments.add(document.getDocumentReference());
+        } else {
+            this.lockedDocuments.remove(document.getDocumentReference());
+        }
+    }
+
+    private void loadLockedDocuments()
+    {
+        if (this.lockedDocumentsLoaded) {
+            return;
+        }
+        synchronized (this.lockedDocuments) {
+            if (this.lockedDocumentsLoaded) {
+                return;
+            }
+            try {
+                Query q = this.qm.createQuery(
+                    "select doc.fullName from Document doc, doc.object(PhenoTips.PatientLock) l", Query.XWQL);
+                List<String> names = q.execute();
+                for (String name : names) {
+                    this.lockedDocuments.add(this.resolver.resolve(name));
+                }
+                this.lockedDocumentsLoaded = true;
+            } catch (QueryException ex) {
+                this.logger.warn("Failed to load the locked patient records: {}", ex.getMessage());
+            }
+        }
+    }
+
     private XWikiDocument getPatientDocument(Patient patient)
     {
         XWikiContext context = this.contextProvider.get();
@@ -17,26 +17,18 @@
  */
 package org.phenotips.recordLocking.internal.authorization;
 
-import org.phenotips.Constants;
+import org.phenotips.recordLocking.PatientRecordLockManager;
 import org.phenotips.security.authorization.AuthorizationModule;
 
 import org.xwiki.component.annotation.Component;
-import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
-import org.xwiki.model.reference.EntityReference;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.users.User;
 
 import javax.inject.Inject;
 import javax.inject.Named;
-import javax.inject.Provider;
 import javax.inject.Singleton;
 
-import com.xpn.xwiki.XWikiContext;
-import com.xpn.xwiki.XWikiException;
-import com.xpn.xwiki.doc.XWikiDocument;
-import com.xpn.xwiki.objects.BaseObject;
-
 /**
  * An authorization module to check if a given Patient Document has a lock on it. Will return false if a lock is found
  * regardless of which user is trying to edit the document.
@@ -49,13 +41,9 @@
 @Singleton
 public class LockedAuthorizationModule implements AuthorizationModule
 {
-    /** The XClass used for patient lock objects. */
-    private EntityReference lockClassReference = new EntityReference("PatientLock", EntityType.DOCUMENT,
-        Constants.CODE_SPACE_REFERENCE);
-
-    /** Provides access to the current context. */
+    /** Keeps track of the locked records, without having to load the patient documents. */
     @Inject
-    private Provider<XWikiContext> contextProvider;
+    private PatientRecordLockManager lockManager;
 
     @Override
     public int getPriority()
@@ -66,18 +54,12 @@ public int getPriority()
     @Override
     public Boolean hasAccess(User user, Right access, DocumentReference document)
     {
-        XWikiContext context = this.contextProvider.get();
-
-        try {
-            XWikiDocument doc = context.getWiki().getDocument(document, context);
-            BaseObject lock = doc.getXObject(this.lockClassReference);
-            if (lock != null && !access.isReadOnly()) {
-                return Boolean.FALSE;
-            }
-        } catch (XWikiException | NullPointerException e) {
+        if (access == null || document == null || access.isReadOnly()) {
             return null;
         }
-
+        if (this.lockManager.isLocked(document)) {
+            return Boolean.FALSE;
+        }
         return null;
     }
 }
@@ -0,0 +1,107 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.recordLocking.internal;
+
+import org.phenotips.data.permissions.AccessLevel;
+import org.phenotips.data.permissions.PermissionsManager;
+import org.phenotips.recordLocking.PatientRecordLockManager;
+
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.internal.DefaultObservationManager;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import java.util.LinkedList;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that the {@link DefaultPatientRecordLockManager} serving lock checks is the one notified of document changes by
+ * the real {@link ObservationManager}.
+ *
+ * @version $Id$
+ */
+@ComponentList({ DefaultObservationManager.class, DefaultPatientRecordLockManager.class })
+public class DefaultPatientRecordLockManagerListenerTest
+{
+    private static final DocumentReference PATIENT = new DocumentReference("xwiki", "data", "P0000001");
+
+    @Rule
+    public final MockitoComponentManagerRule componentManager = new MockitoComponentManagerRule();
+
+    @Before
+    public void setup() throws Exception
+    {
+        Provider<ComponentManager> contextComponentManager =
+            this.componentManager.registerMockComponent(
+                new DefaultParameterizedType(null, Provider.class, ComponentManager.class), "context");
+        when(contextComponentManager.get()).thenReturn(this.componentManager);
+        this.componentManager.registerMockComponent(PermissionsManager.class);
+        this.componentManager.registerMockComponent(AccessLevel.class, "manage");
+        this.componentManager.registerMockComponent(XWikiContext.TYPE_PROVIDER);
+        this.componentManager.registerMockComponent(DocumentReferenceResolver.TYPE_STRING, "current");
+        QueryManager qm = this.componentManager.registerMockComponent(QueryManager.class);
+        Query q = mock(Query.class);
+        when(qm.createQuery(any(String.class), eq(Query.XWQL))).thenReturn(q);
+        when(q.<Object>execute()).thenReturn(new LinkedList<Object>());
+    }
+
+    @Test
+    public void lockChangesNotifiedThroughTheObservationManagerAreSeen() throws Exception
+    {
+        // Looking up the observation manager first registers all the event listener components, as on startup
+        ObservationManager observationManager = this.componentManager.getInstance(ObservationManager.class);
+        Assert.assertTrue(this.componentManager.getInstanceList(EventListener.class).isEmpty());
+        PatientRecordLockManager manager = this.componentManager.getInstance(PatientRecordLockManager.class);
+        Assert.assertFalse(manager.isLocked(PATIENT));
+
+        XWikiDocument lockedDoc = mock(XWikiDocument.class);
+        when(lockedDoc.getDocumentReference()).thenReturn(PATIENT);
+        when(lockedDoc.getXObject(any(EntityReference.class))).thenReturn(mock(BaseObject.class));
+        observationManager.notify(new DocumentUpdatedEvent(PATIENT), lockedDoc, null);
+        Assert.assertTrue(manager.isLocked(PATIENT));
+
+        XWikiDocument unlockedDoc = mock(XWikiDocument.class);
+        when(unlockedDoc.getDocumentReference()).thenReturn(PATIENT);
+        observationManager.notify(new DocumentUpdatedEvent(PATIENT), unlockedDoc, null);
+        Assert.assertFalse(manager.isLocked(PATIENT));
+    }
+}
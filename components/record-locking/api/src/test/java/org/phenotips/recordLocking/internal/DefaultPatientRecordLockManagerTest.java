@@ -23,13 +23,23 @@
 import org.phenotips.data.permissions.PermissionsManager;
 import org.phenotips.recordLocking.PatientRecordLockManager;
 
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.util.DefaultParameterizedType;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import java.lang.reflect.ParameterizedType;
+import java.util.Collections;
+import java.util.List;
 
 import javax.inject.Provider;
 
@@ -206,4 +216,84 @@ public void returnsFalseAfterXWikiExceptionWhileRetrievingDocument() throws Comp
         Assert.assertFalse(mockedLockManager.lockPatientRecord(this.patient));
     }
 
+    @Test
+    public void lockedDocumentsAreLoadedOnlyOnce() throws Exception
+    {
+        DocumentReference lockedReference = new DocumentReference("xwiki", "data", "P0000001");
+        Query q = mockLockedDocumentsQuery(Collections.singletonList("data.P0000001"));
+        DocumentReferenceResolver<String> resolver = this.mocker.getInstance(
+            new DefaultParameterizedType(null, DocumentReferenceResolver.class, String.class), "current");
+        Mockito.doReturn(lockedReference).when(resolver).resolve("data.P0000001");
+
+        PatientRecordLockManager lockManager = this.mocker.getComponentUnderTest();
+        Assert.assertTrue(lockManager.isLocked(lockedReference));
+        Assert.assertFalse(lockManager.isLocked(new DocumentReference("xwiki", "data", "P0000002")));
+        Mockito.verify(q, Mockito.times(1)).execute();
+    }
+
+    @Test
+    public void loadingIsRetriedAfterQueryFailure() throws Exception
+    {
+        QueryManager qm = this.mocker.getInstance(QueryManager.class);
+        Mockito.doThrow(new QueryException("failed", null, null)).when(qm).createQuery(Matchers.anyString(),
+            Matchers.eq(Query.XWQL));
+
+        PatientRecordLockManager lockManager = this.mocker.getComponentUnderTest();
+        Assert.assertFalse(lockManager.isLocked(this.patientDocumentReference));
+
+        Query q = mockLockedDocumentsQuery(Collections.<String>emptyList());
+        Assert.assertFalse(lockManager.isLocked(this.patientDocumentReference));
+        Mockito.verify(q).execute();
+    }
+
+    @Test
+    public void lockingAndUnlockingUpdatesTheLockedRecords() throws Exception
+    {
+        mockLockedDocumentsQuery(Collections.<String>emptyList());
+        Mockito.doReturn(true).when(this.patientAccess).hasAccessLevel(this.manageAccessLevel);
+        PatientRecordLockManager lockManager = this.mocker.getComponentUnderTest();
+
+        Mockito.doReturn(null).when(this.patientDocument).getXObject(Matchers.<EntityReference>any());
+        Assert.assertTrue(lockManager.lockPatientRecord(this.patient));
+        Assert.assertTrue(lockManager.isLocked(this.patientDocumentReference));
+
+        Mockito.doReturn(this.lock).when(this.patientDocument).getXObject(Matchers.<EntityReference>any());
+        Assert.assertTrue(lockManager.unlockPatientRecord(this.patient));
+        Assert.assertFalse(lockManager.isLocked(this.patientDocumentReference));
+    }
+
+    @Test
+    public void savedAndDeletedDocumentsUpdateTheLockedRecords() throws Exception
+    {
+        mockLockedDocumentsQuery(Collections.<String>emptyList());
+        PatientRecordLockManager lockManager = this.mocker.getComponentUnderTest();
+        EventListener listener = (EventListener) lockManager;
+        Mockito.doReturn(this.patientDocumentReference).when(this.patientDocument).getDocumentReference();
+
+        Mockito.doReturn(this.lock).when(this.patientDocument).getXObject(Matchers.<EntityReference>any());
+        listener.onEvent(new DocumentUpdatedEvent(), this.patientDocument, null);
+        Assert.assertTrue(lockManager.isLocked(this.patientDocumentReference));
+
+        Mockito.doReturn(null).when(this.patientDocument).getXObject(Matchers.<EntityReference>any());
+        listener.onEvent(new DocumentDeletedEvent(), this.patientDocument, null);
+        Assert.assertFalse(lockManager.isLocked(this.patientDocumentReference));
+    }
+
+    @Test
+    public void listensToDocumentChanges() throws ComponentLookupException
+    {
+        EventListener listener = (EventListener) this.mocker.getComponentUnderTest();
+        Assert.assertEquals("patient-lock-registry", listener.getName());
+        Assert.assertEquals(3, listener.getEvents().size());
+        Mockito.verify(this.mocker.<ObservationManager>getInstance(ObservationManager.class)).addListener(listener);
+    }
+
+    private Query mockLockedDocumentsQuery(List<String> names) throws Exception
+    {
+        QueryManager qm = this.mocker.getInstance(QueryManager.class);
+        Query q = Mockito.mock(Query.class);
+        Mockito.doReturn(q).when(qm).createQuery(Matchers.anyString(), Matchers.eq(Query.XWQL));
+        Mockito.doReturn(names).when(q).execute();
+        return q;
+    }
 }
@@ -17,20 +17,15 @@
  */
 package org.phenotips.recordLocking.internal.authorization;
 
+import org.phenotips.recordLocking.PatientRecordLockManager;
 import org.phenotips.security.authorization.AuthorizationModule;
 
 import org.xwiki.component.manager.ComponentLookupException;
-import org.xwiki.component.util.DefaultParameterizedType;
 import org.xwiki.model.reference.DocumentReference;
-import org.xwiki.model.reference.EntityReference;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 import org.xwiki.users.User;
 
-import java.lang.reflect.ParameterizedType;
-
-import javax.inject.Provider;
-
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
@@ -40,13 +35,6 @@
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
-import com.xpn.xwiki.XWiki;
-import com.xpn.xwiki.XWikiContext;
-import com.xpn.xwiki.XWikiException;
-import com.xpn.xwiki.doc.XWikiDocument;
-import com.xpn.xwiki.objects.BaseObject;
-
-import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 /**
@@ -69,71 +57,44 @@
     @Mock
     private DocumentReference documentReference;
 
-    @Mock
-    private XWikiDocument document;
-
-    @Mock
-    private XWikiContext context;
-
-    @Mock
-    private XWiki xwiki;
-
-    private Provider<XWikiContext> contextProvider;
+    private PatientRecordLockManager lockManager;
 
     @Before
-    public void setup() throws ComponentLookupException, XWikiException
+    public void setup() throws ComponentLookupException
     {
         MockitoAnnotations.initMocks(this);
-        ParameterizedType cpType = new DefaultParameterizedType(null, Provider.class, XWikiContext.class);
-        this.contextProvider = this.mocker.getInstance(cpType);
-
-        Mockito.doReturn(this.context).when(this.contextProvider).get();
-        Mockito.doReturn(this.xwiki).when(this.context).getWiki();
-
+        this.lockManager = this.mocker.getInstance(PatientRecordLockManager.class);
     }
 
     @Test
-    public void ignoresDocumentsWithoutPatientLockObjects() throws ComponentLookupException, XWikiException
+    public void ignoresDocumentsWithoutPatientLocks() throws ComponentLookupException
     {
-        Mockito.doReturn(this.document).when(this.xwiki).getDocument(this.documentReference, this.context);
-        when(this.document.getXObject(Matchers.<EntityReference>any())).thenReturn(null);
+        when(this.lockManager.isLocked(this.documentReference)).thenReturn(false);
         Assert.assertNull(this.mocker.getComponentUnderTest().hasAccess(this.user, this.right, this.documentReference));
     }
 
     @Test
-    public void ignoresWhenActionIsReadOnly() throws ComponentLookupException, XWikiException
+    public void ignoresWhenActionIsReadOnly() throws ComponentLookupException
     {
-        Mockito.doReturn(this.document).when(this.xwiki).getDocument(this.documentReference, this.context);
-
-        BaseObject lock = mock(BaseObject.class);
         Mockito.doReturn(Boolean.TRUE).when(this.right).isReadOnly();
-        when(this.document.getXObject(Matchers.<EntityReference>any())).thenReturn(lock);
         Assert.assertNull(this.mocker.getComponentUnderTest().hasAccess(this.user, this.right, this.documentReference));
+        Mockito.verify(this.lockManager, Mockito.never()).isLocked(Matchers.any(DocumentReference.class));
     }
 
     @Test
-    public void returnsFalseWhenLockedAndRightCanEdit() throws ComponentLookupException, XWikiException
+    public void returnsFalseWhenLockedAndRightCanEdit() throws ComponentLookupException
     {
-        Mockito.doReturn(this.document).when(this.xwiki).getDocument(this.documentReference, this.context);
-
-        BaseObject lock = mock(BaseObject.class);
         when(this.right.isReadOnly()).thenReturn(Boolean.FALSE);
-        when(this.document.getXObject(Matchers.<EntityReference>any())).thenReturn(lock);
+        when(this.lockManager.isLocked(this.documentReference)).thenReturn(true);
         Assert
             .assertFalse(this.mocker.getComponentUnderTest().hasAccess(this.user, this.right, this.documentReference));
     }
 
-    @Test
-    public void returnsNullWhenExceptionIsThrown() throws ComponentLookupException, XWikiException
-    {
-        Mockito.doThrow(new XWikiException()).when(this.xwiki).getDocument(this.documentReference, this.context);
-        Assert.assertNull(this.mocker.getComponentUnderTest().hasAccess(this.user, this.right, this.documentReference));
-    }
-
     @Test
     public void nullArgumentsAreIgnored() throws ComponentLookupException
     {
         Assert.assertNull(this.mocker.getComponentUnderTest().hasAccess(null, null, null));
+        Assert.assertNull(this.mocker.getComponentUnderTest().hasAccess(this.user, this.right, null));
     }
 
     @Test
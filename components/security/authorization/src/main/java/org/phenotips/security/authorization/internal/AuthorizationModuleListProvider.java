@@ -20,13 +20,22 @@
 import org.phenotips.security.authorization.AuthorizationModule;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -34,32 +43,95 @@
 import javax.inject.Singleton;
 
 /**
- * Provides an ordered list of authorization modules.
+ * Provides an ordered list of authorization modules. Since the list is needed for every access check, it is computed
+ * only once and cached, and it is recomputed only after an authorization module is registered or unregistered.
  *
  * @version $Id$
  * @since 1.2RC1
  */
-@Component
+@Component(roles = { Provider.class })
 @Singleton
-public class AuthorizationModuleListProvider implements Provider<List<AuthorizationModule>>
+public class AuthorizationModuleListProvider
+    implements Provider<List<AuthorizationModule>>, EventListener, Initializable
 {
     @Inject
     @Named("wiki")
     private ComponentManager componentManager;
 
+    /** Allows registering this object as an event listener. */
+    @Inject
+    private ObservationManager observationManager;
+
+    /** Incremented each time the available modules change, so that lists computed before the change are discarded. */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** The cached sorted list, {@code null} until first requested. */
+    private volatile SortedModules cachedModules;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        // This component can't be registered as an event listener directly, since that would create a separate
+        // instance, with its own cached list
+        this.observationManager.addListener(this);
+    }
+
     @Override
     public List<AuthorizationModule> get()
     {
+        SortedModules modules = this.cachedModules;
+        if (modules != null && modules.generation == this.generation.get()) {
+            return modules.list;
+        }
         try {
+            long currentGeneration = this.generation.get();
             List<AuthorizationModule> services = new LinkedList<>();
             services.addAll(this.componentManager.<AuthorizationModule>getInstanceList(AuthorizationModule.class));
             Collections.sort(services, AuthorizationModuleComparator.INSTANCE);
-            return services;
+            modules = new SortedModules(currentGeneration, Collections.unmodifiableList(services));
+            this.cachedModules = modules;
+            return modules.list;
         } catch (ComponentLookupException ex) {
             throw new RuntimeException("Failed to look up authorization modules", ex);
         }
     }
 
+    @Override
+    public String getName()
+    {
+        return "authorization-modules-cache";
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new ComponentDescriptorAddedEvent(AuthorizationModule.class),
+            new ComponentDescriptorRemovedEvent(AuthorizationModule.class));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        this.generation.incrementAndGet();
+        this.cachedModules = null;
+    }
+
+    /** A sorted list of modules, along with the generation of the available modules it was computed from. */
+    private static final class SortedModules
+    {
+        /** The value of the generation counter when the list was computed. */
+        private final long generation;
+
+        /** The sorted, unmodifiable list of modules. */
+        private final List<AuthorizationModule> list;
+
+        SortedModules(long generation, List<AuthorizationModule> list)
+        {
+            this.generation = generation;
+            this.list = list;
+        }
+    }
+
     /**
      * Sorts the available authorization modules in descending order of their priority, then alphabetically if two or
      * more modules have the same priority.
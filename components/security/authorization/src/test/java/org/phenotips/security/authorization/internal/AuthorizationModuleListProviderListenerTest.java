@@ -0,0 +1,96 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.security.authorization.internal;
+
+import org.phenotips.security.authorization.AuthorizationModule;
+
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.internal.DefaultObservationManager;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that the {@link AuthorizationModuleListProvider} serving the module list is the one notified of module changes
+ * by the real {@link ObservationManager}.
+ *
+ * @version $Id$
+ */
+@ComponentList({ DefaultObservationManager.class, AuthorizationModuleListProvider.class })
+public class AuthorizationModuleListProviderListenerTest
+{
+    private static final Type PROVIDER_TYPE = new DefaultParameterizedType(null, Provider.class,
+        new DefaultParameterizedType(null, List.class, AuthorizationModule.class));
+
+    @Rule
+    public final MockitoComponentManagerRule componentManager = new MockitoComponentManagerRule();
+
+    private List<AuthorizationModule> modules = new LinkedList<>();
+
+    @Before
+    public void setup() throws Exception
+    {
+        Provider<ComponentManager> contextComponentManager =
+            this.componentManager.registerMockComponent(
+                new DefaultParameterizedType(null, Provider.class, ComponentManager.class), "context");
+        when(contextComponentManager.get()).thenReturn(this.componentManager);
+        ComponentManager wikiComponentManager = this.componentManager.registerMockComponent(ComponentManager.class,
+            "wiki");
+        doReturn(this.modules).when(wikiComponentManager).getInstanceList(AuthorizationModule.class);
+    }
+
+    @Test
+    public void moduleChangesNotifiedThroughTheObservationManagerRefreshTheList() throws Exception
+    {
+        // Looking up the observation manager first registers all the event listener components, as on startup
+        ObservationManager observationManager = this.componentManager.getInstance(ObservationManager.class);
+        Assert.assertTrue(this.componentManager.getInstanceList(EventListener.class).isEmpty());
+        Provider<List<AuthorizationModule>> provider = this.componentManager.getInstance(PROVIDER_TYPE);
+
+        AuthorizationModule low = mock(AuthorizationModule.class);
+        when(low.getPriority()).thenReturn(1);
+        this.modules.add(low);
+        Assert.assertEquals(Arrays.asList(low), provider.get());
+
+        AuthorizationModule high = mock(AuthorizationModule.class);
+        when(high.getPriority()).thenReturn(2);
+        this.modules.add(high);
+        observationManager.notify(new ComponentDescriptorAddedEvent(AuthorizationModule.class), null, null);
+
+        Assert.assertEquals(Arrays.asList(high, low), provider.get());
+    }
+}
@@ -24,9 +24,11 @@
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.phenotips.security.authorization.AuthorizationModule;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 import org.xwiki.users.User;
@@ -39,6 +41,8 @@
 import static org.hamcrest.Matchers.is;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -109,6 +113,26 @@ public void modulesWithSamePriorityGetSortedByName() throws Exception
         Assert.assertThat(actualList, is(expectedList));
     }
 
+    @Test
+    public void sortedListIsCachedUntilModulesChange() throws Exception
+    {
+        this.moduleList.add(this.lowPriorityModule);
+        this.moduleList.add(this.highPriorityModule);
+
+        List<AuthorizationModule> firstList = this.mocker.getComponentUnderTest().get();
+        Assert.assertSame(firstList, this.mocker.getComponentUnderTest().get());
+        verify(this.componentManager, times(1)).getInstanceList(AuthorizationModule.class);
+
+        this.moduleList.add(this.mediumPriorityModule);
+        ((EventListener) this.mocker.getComponentUnderTest()).onEvent(
+            new ComponentDescriptorAddedEvent(AuthorizationModule.class), this.componentManager, null);
+
+        List<AuthorizationModule> expectedList = Arrays.asList(
+            this.highPriorityModule, this.mediumPriorityModule, this.lowPriorityModule);
+        Assert.assertThat(this.mocker.getComponentUnderTest().get(), is(expectedList));
+        verify(this.componentManager, times(2)).getInstanceList(AuthorizationModule.class);
+    }
+
     @Test(expected = RuntimeException.class)
     public void componentLookupExceptionIsCaughtAndRuntimeExceptionIsThrown() throws ComponentLookupException
     {
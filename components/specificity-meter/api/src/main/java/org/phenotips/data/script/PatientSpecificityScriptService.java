@@ -29,6 +29,7 @@
 import org.xwiki.script.service.ScriptService;
 import org.xwiki.stability.Unstable;
 
+import java.io.Writer;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -224,6 +225,12 @@ public JSONObject toJSON(Collection<String> onlyFieldNames)
             return null;
         }
 
+        @Override
+        public void writeJSON(Writer writer, Collection<String> onlyFieldNames, JSONObject extraProperties)
+        {
+            // Nothing to do
+        }
+
         @Override
         public void updateFromJSON(JSONObject json)
         {
@@ -17,6 +17,7 @@
  */
 package org.phenotips.storage.migrators.internal;
 
+import org.phenotips.context.WorkerContexts;
 import org.phenotips.storage.migrators.DataReader;
 import org.phenotips.storage.migrators.DataTypeMigrator;
 import org.phenotips.storage.migrators.DataWriter;
@@ -25,20 +26,38 @@
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.component.util.DefaultParameterizedType;
 import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
 
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+
 /**
  * Implementation for the {@link DataTypeMigrator} role, which tries to use all available {@link DataReader}s that
  * {@link DataReader#hasData() have data} and {@link DataWriter#storeEntity(Object) write} the retrieved data to the
  * currently enabled {@link DataWriter storage engine}.
+ * <p>
+ * Entities are read from the old store on the calling thread, while storing them into the new store and discarding
+ * them from the old one is done on a bounded pool of workers, configured through {@value #THREADS_CONFIGURATION_KEY}
+ * in {@code xwiki.cfg}. When all the workers are busy, the reading thread migrates the current entity itself, so that
+ * only a limited number of entities are held in memory at once. Since each entity is discarded from the old store as
+ * soon as it is successfully written, an interrupted migration resumes with the entities not yet migrated when it is
+ * restarted.
+ * </p>
  *
  * @param <T> the type of data managed by this migrator, one of the classes from the data model
  * @version $Id$
@@ -46,9 +65,22 @@
  */
 public abstract class AbstractDataTypeMigrator<T> implements DataTypeMigrator<T>
 {
+    /** The key used in {@code xwiki.cfg} to configure the number of worker threads used for migrating data. */
+    protected static final String THREADS_CONFIGURATION_KEY = "phenotips.storage.migration.threads";
+
     /** The current default storage engine assumed by XWiki if no specific store is enabled. */
     private static final String DEFAULT_STORE = "hibernate";
 
+    /** The default number of worker threads used for migrating data. */
+    private static final int DEFAULT_THREADS = 4;
+
+    /** How often, in number of entities, to log the migration progress. */
+    private static final int PROGRESS_INTERVAL = 1000;
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
     /** Provides access tot the configuration file where the storage engines are configured. */
     @Inject
     @Named("legacy")
@@ -58,6 +90,14 @@
     @Inject
     private Provider<ComponentManager> cm;
 
+    /** Used for setting up the execution context of the worker threads. */
+    @Inject
+    private Execution execution;
+
+    /** The current request context, cloned for each worker thread. */
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
     @Override
     public boolean migrate()
     {
@@ -67,29 +107,108 @@ public boolean migrate()
             return true;
         }
 
-        boolean allDataMigrated = true;
         Map<String, DataReader<T>> readers = getReaders();
         if (readers == null) {
             // Failed to retrieve the available readers from the component manager
             return false;
         }
+        boolean allDataMigrated = true;
         for (Map.Entry<String, DataReader<T>> entry : readers.entrySet()) {
             DataReader<T> reader = entry.getValue();
             if (reader.getType().equals(writer.getType()) || !reader.hasData()) {
                 continue;
             }
+            // Don't change the order, or the operation will be short-circuited before the call
+            allDataMigrated = migrate(reader, writer) && allDataMigrated;
+        }
+        return allDataMigrated;
+    }
 
+    /**
+     * Moves all the data from a reader to a writer, using a bounded pool of workers.
+     *
+     * @param reader the old store to read data from
+     * @param writer the new store to write data to
+     * @return {@code true} if all the data was successfully migrated, {@code false} otherwise
+     */
+    private boolean migrate(final DataReader<T> reader, final DataWriter<T> writer)
+    {
+        final AtomicBoolean allDataMigrated = new AtomicBoolean(true);
+        final AtomicInteger processed = new AtomicInteger();
+        final XWikiContext context = this.contextProvider.get();
+        int threads = Math.max(1, this.config.getProperty(THREADS_CONFIGURATION_KEY, DEFAULT_THREADS));
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(threads), new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
             Iterator<T> data = reader.getData();
             while (data.hasNext()) {
-                T item = data.next();
-                if (writer.storeEntity(item)) {
-                    reader.discardEntity(item);
-                } else {
-                    allDataMigrated = false;
+                final T item = data.next();
+                final Thread caller = Thread.currentThread();
+                workers.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        boolean inWorker = Thread.currentThread() != caller;
+                        if (inWorker) {
+                            WorkerContexts.setup(AbstractDataTypeMigrator.this.execution, context);
+                        }
+                        try {
+                            if (!migrateEntity(item, reader, writer)) {
+                                allDataMigrated.set(false);
+                            }
+                        } finally {
+                            if (inWorker) {
+                                AbstractDataTypeMigrator.this.execution.removeContext();
+                            }
+                        }
+                        int count = processed.incrementAndGet();
+                        if (count % PROGRESS_INTERVAL == 0) {
+                            AbstractDataTypeMigrator.this.logger.info("Migrated [{}] {} from [{}]", count,
+                                getDataType(), reader.getType());
+                        }
+                    }
+                });
+            }
+        } finally {
+            workers.shutdown();
+            try {
+                while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                    this.logger.info("Waiting for the migration of {} from [{}] to finish", getDataType(),
+                        reader.getType());
                 }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                allDataMigrated.set(false);
             }
         }
-        return allDataMigrated;
+        this.logger.info("Finished migrating [{}] {} from [{}]", processed.get(), getDataType(), reader.getType());
+        return allDataMigrated.get();
+    }
+
+    /**
+     * Moves one entity from a reader to a writer.
+     *
+     * @param item the entity to migrate, may be {@code null} if the reader failed to retrieve it
+     * @param reader the old store to discard the entity from
+     * @param writer the new store to write the entity to
+     * @return {@code true} if the entity was successfully migrated, {@code false} otherwise
+     */
+    private boolean migrateEntity(T item, DataReader<T> reader, DataWriter<T> writer)
+    {
+        if (item == null) {
+            // The entity could not be read, it will be retried the next time the migration runs
+            return false;
+        }
+        try {
+            if (writer.storeEntity(item)) {
+                reader.discardEntity(item);
+                return true;
+            }
+        } catch (RuntimeException ex) {
+            this.logger.error("Unexpected failure while migrating {}: {}", getDataType(), ex.getMessage(), ex);
+        }
+        return false;
     }
 
     private DataWriter<T> getCurrentWriter()
@@ -0,0 +1,267 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.storage.migrators.internal;
+
+import org.phenotips.storage.migrators.DataReader;
+import org.phenotips.storage.migrators.DataTypeMigrator;
+import org.phenotips.storage.migrators.DataWriter;
+import org.phenotips.storage.migrators.Type;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the concurrent migration done by {@link AbstractDataTypeMigrator}.
+ *
+ * @version $Id$
+ */
+public class AbstractDataTypeMigratorTest
+{
+    private static final String STORE_KEY = "xwiki.store.strings.hint";
+
+    private static final int ENTITIES = 200;
+
+    @Rule
+    public final MockitoComponentMockingRule<DataTypeMigrator<String>> mocker =
+        new MockitoComponentMockingRule<DataTypeMigrator<String>>(StringsMigrator.class);
+
+    private ComponentManager cm;
+
+    private DataReader<String> reader;
+
+    private RecordingWriter writer;
+
+    private AtomicInteger contextsSet = new AtomicInteger();
+
+    private AtomicInteger contextsRemoved = new AtomicInteger();
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception
+    {
+        ConfigurationSource config = this.mocker.getInstance(ConfigurationSource.class, "legacy");
+        when(config.getProperty(STORE_KEY, "hibernate")).thenReturn("file");
+        when(config.getProperty(AbstractDataTypeMigrator.THREADS_CONFIGURATION_KEY, 4)).thenReturn(3);
+
+        Provider<ComponentManager> cmProvider =
+            this.mocker.getInstance(new DefaultParameterizedType(null, Provider.class, ComponentManager.class));
+        this.cm = mock(ComponentManager.class);
+        when(cmProvider.get()).thenReturn(this.cm);
+
+        this.writer = new RecordingWriter();
+        when(this.cm.getInstance(new DefaultParameterizedType(null, DataWriter.class, String.class), "strings/file"))
+            .thenReturn(this.writer);
+
+        this.reader = mock(DataReader.class);
+        when(this.reader.getType()).thenReturn(new Type("strings", "hibernate"));
+        when(this.reader.hasData()).thenReturn(true);
+        when(this.reader.discardEntity(anyString())).thenReturn(true);
+        when(this.cm.getInstanceMap(new DefaultParameterizedType(null, DataReader.class, String.class)))
+            .thenReturn(Collections.<String, Object>singletonMap("strings/hibernate", this.reader));
+
+        Provider<XWikiContext> contextProvider = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
+        when(contextProvider.get()).thenReturn(new XWikiContext());
+
+        Execution execution = this.mocker.getInstance(Execution.class);
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                AbstractDataTypeMigratorTest.this.contextsSet.incrementAndGet();
+                return null;
+            }
+        }).when(execution).setContext(any(ExecutionContext.class));
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                AbstractDataTypeMigratorTest.this.contextsRemoved.incrementAndGet();
+                return null;
+            }
+        }).when(execution).removeContext();
+    }
+
+    @Test
+    public void migrateMovesAllEntitiesUsingWorkers() throws ComponentLookupException
+    {
+        List<String> entities = entities(ENTITIES);
+        when(this.reader.getData()).thenReturn(entities.iterator());
+
+        Assert.assertTrue(this.mocker.getComponentUnderTest().migrate());
+
+        Assert.assertEquals(new HashSet<String>(entities), this.writer.stored.keySet());
+        for (String entity : entities) {
+            verify(this.reader).discardEntity(entity);
+        }
+        Assert.assertTrue(this.writer.threads.size() > 1);
+        Assert.assertTrue(this.contextsSet.get() > 0);
+        Assert.assertEquals(this.contextsSet.get(), this.contextsRemoved.get());
+    }
+
+    @Test
+    public void failedEntitiesAreKeptInTheOldStore() throws ComponentLookupException
+    {
+        List<String> entities = entities(ENTITIES);
+        when(this.reader.getData()).thenReturn(entities.iterator());
+        this.writer.failing.add("entity13");
+        this.writer.throwing.add("entity42");
+
+        Assert.assertFalse(this.mocker.getComponentUnderTest().migrate());
+
+        verify(this.reader, never()).discardEntity("entity13");
+        verify(this.reader, never()).discardEntity("entity42");
+        verify(this.reader).discardEntity("entity14");
+        Assert.assertEquals(ENTITIES - 2, this.writer.stored.size());
+        Assert.assertEquals(this.contextsSet.get(), this.contextsRemoved.get());
+    }
+
+    @Test
+    public void unreadableEntitiesFailTheMigration() throws ComponentLookupException
+    {
+        when(this.reader.getData()).thenReturn(Arrays.asList("entity1", null, "entity3").iterator());
+
+        Assert.assertFalse(this.mocker.getComponentUnderTest().migrate());
+
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("entity1", "entity3")), this.writer.stored.keySet());
+    }
+
+    @Test
+    public void readersForTheCurrentStoreAreSkipped() throws ComponentLookupException
+    {
+        when(this.reader.getType()).thenReturn(new Type("strings", "file"));
+
+        Assert.assertTrue(this.mocker.getComponentUnderTest().migrate());
+
+        verify(this.reader, never()).getData();
+    }
+
+    @Test
+    public void missingWriterKeepsDataInPlace() throws Exception
+    {
+        when(this.cm.getInstance(new DefaultParameterizedType(null, DataWriter.class, String.class), "strings/file"))
+            .thenThrow(new ComponentLookupException("No such store"));
+
+        Assert.assertTrue(this.mocker.getComponentUnderTest().migrate());
+
+        verify(this.reader, never()).getData();
+    }
+
+    private List<String> entities(int count)
+    {
+        List<String> result = new ArrayList<String>(count);
+        for (int i = 0; i < count; ++i) {
+            result.add("entity" + i);
+        }
+        return result;
+    }
+
+    /** A simple migrator for strings, used for testing the base class. */
+    @Component(roles = { DataTypeMigrator.class })
+    @Named("strings")
+    @Singleton
+    public static class StringsMigrator extends AbstractDataTypeMigrator<String>
+    {
+        @Override
+        public String getDataType()
+        {
+            return "strings";
+        }
+
+        @Override
+        protected String getStoreConfigurationKey()
+        {
+            return STORE_KEY;
+        }
+    }
+
+    /** A writer remembering which entities were stored, and by which threads. */
+    private static final class RecordingWriter implements DataWriter<String>
+    {
+        private final ConcurrentHashMap<String, Boolean> stored = new ConcurrentHashMap<String, Boolean>();
+
+        private final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+
+        private final Set<String> failing = new HashSet<String>();
+
+        private final Set<String> throwing = new HashSet<String>();
+
+        @Override
+        public Type getType()
+        {
+            return new Type("strings", "file");
+        }
+
+        @Override
+        public boolean storeEntity(String entity)
+        {
+            if (this.throwing.contains(entity)) {
+                throw new IllegalStateException("Broken entity");
+            }
+            if (this.failing.contains(entity)) {
+                return false;
+            }
+            this.threads.add(Thread.currentThread());
+            this.stored.put(entity, Boolean.TRUE);
+            try {
+                // Give the other workers a chance to pick up entities
+                Thread.sleep(1);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }
+    }
+}
@@ -28,6 +28,7 @@
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -48,7 +49,9 @@
 
 /**
  * {@link DataReader} that can read {@link XWikiAttachment attachment} contents and history from a Hibernate-managed
- * database (the default storage engine of XWiki).
+ * database (the default storage engine of XWiki). The attachments are listed in batches ordered by their identifier,
+ * so that the whole list of attachments doesn't have to be loaded in memory, and so that discarding the already
+ * migrated attachments while iterating doesn't cause any attachment to be skipped.
  *
  * @version $Id$
  * @since 1.0RC1
@@ -64,6 +67,13 @@ public class HibernateAttachmentsReader implements DataReader<XWikiAttachment>
         "select d.fullName, a.filename from XWikiDocument d, XWikiAttachment a, XWikiAttachmentContent c"
             + " where a.docId = d.id and c.id = a.id";
 
+    private static final String BATCH_RETRIEVE_QUERY =
+        "select d.fullName, a.filename, a.id from XWikiDocument d, XWikiAttachment a, XWikiAttachmentContent c"
+            + " where a.docId = d.id and c.id = a.id and a.id > ? order by a.id";
+
+    /** How many attachment names to retrieve from the database at once. */
+    private static final int BATCH_SIZE = 100;
+
     @Inject
     private Logger logger;
 
@@ -106,26 +116,13 @@ public boolean hasData()
     @Override
     public Iterator<EntityReference> listData()
     {
-        try {
-            List<Object[]> data = this.docStore.search(DATA_RETRIEVE_QUERY, 0, 0, this.context.get());
-            return new ReferenceIterator(data);
-        } catch (XWikiException ex) {
-            this.logger.warn("Failed to list the database attachments: {}", ex.getMessage());
-            return Collections.emptyIterator();
-        }
+        return new ReferenceIterator(new BatchIterator());
     }
 
     @Override
     public Iterator<XWikiAttachment> getData()
     {
-        try {
-            List<Object[]> data = this.docStore.search(DATA_RETRIEVE_QUERY, 0, 0, this.context.get());
-            this.logger.debug("Found [{}] attachments in the database", data.size());
-            return new AttachmentIterator(data);
-        } catch (XWikiException ex) {
-            this.logger.warn("Failed to get the list of database attachments: {}", ex.getMessage());
-            return Collections.emptyIterator();
-        }
+        return new AttachmentIterator(new BatchIterator());
     }
 
     @Override
@@ -169,13 +166,69 @@ public boolean discardAllData()
         return true;
     }
 
+    /**
+     * Iterates over the {@code (document name, file name, attachment id)} triplets of the attachments stored in the
+     * database, retrieving them in batches.
+     */
+    private class BatchIterator implements Iterator<Object[]>
+    {
+        private Iterator<Object[]> batch = Collections.emptyIterator();
+
+        private long lastId = Long.MIN_VALUE;
+
+        private boolean exhausted;
+
+        @Override
+        public boolean hasNext()
+        {
+            if (!this.batch.hasNext() && !this.exhausted) {
+                fetchNextBatch();
+            }
+            return this.batch.hasNext();
+        }
+
+        @Override
+        public Object[] next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Object[] item = this.batch.next();
+            this.lastId = ((Number) item[2]).longValue();
+            return item;
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        private void fetchNextBatch()
+        {
+            try {
+                List<Object[]> data = HibernateAttachmentsReader.this.docStore.search(BATCH_RETRIEVE_QUERY,
+                    BATCH_SIZE, 0, Collections.singletonList(this.lastId),
+                    HibernateAttachmentsReader.this.context.get());
+                this.exhausted = data.size() < BATCH_SIZE;
+                this.batch = data.iterator();
+                HibernateAttachmentsReader.this.logger.debug("Found [{}] more attachments in the database",
+                    data.size());
+            } catch (XWikiException ex) {
+                HibernateAttachmentsReader.this.logger.warn("Failed to get the list of database attachments: {}",
+                    ex.getMessage());
+                this.exhausted = true;
+            }
+        }
+    }
+
     private class ReferenceIterator implements Iterator<EntityReference>
     {
         private Iterator<Object[]> data;
 
-        ReferenceIterator(List<Object[]> data)
+        ReferenceIterator(Iterator<Object[]> data)
         {
-            this.data = data.iterator();
+            this.data = data;
         }
 
         @Override
@@ -203,9 +256,9 @@ private class AttachmentIterator implements Iterator<XWikiAttachment>
     {
         private Iterator<Object[]> data;
 
-        AttachmentIterator(List<Object[]> data)
+        AttachmentIterator(Iterator<Object[]> data)
         {
-            this.data = data.iterator();
+            this.data = data;
         }
 
         @Override
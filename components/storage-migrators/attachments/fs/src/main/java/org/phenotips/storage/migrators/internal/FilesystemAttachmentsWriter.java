@@ -73,6 +73,7 @@ public boolean storeEntity(XWikiAttachment entity)
         XWikiAttachment existing =
             new XWikiAttachment(entity.getDoc(), entity.getFilename());
         try {
+            // The filesystem store only checks that the content file exists, the content itself isn't read
             this.store.loadAttachmentContent(existing, this.context.get(), false);
             // If loading succeeded, then the attachment already exists on the filesystem;
             // keep using the existing attachment version and discard the database one
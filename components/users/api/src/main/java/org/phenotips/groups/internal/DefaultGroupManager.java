@@ -20,12 +20,20 @@
 import org.phenotips.groups.Group;
 import org.phenotips.groups.GroupManager;
 
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryManager;
@@ -33,10 +41,14 @@
 import org.xwiki.users.User;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -45,20 +57,29 @@
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 
+import com.xpn.xwiki.doc.XWikiDocument;
+
 /**
- * Default implementation for {@link GroupManager}, using XDocuments as the place where groups are defined.
+ * Default implementation for {@link GroupManager}, using XDocuments as the place where groups are defined. Since
+ * computing the groups of a user requires one query for each level of group nesting, the results are cached per user,
+ * and the whole cache is discarded whenever a group document is created, modified or deleted, since any such change
+ * can affect the transitive membership of any user.
  *
  * @version $Id$
  * @since 1.0M9
  */
 @Unstable
-@Component
+@Component(roles = { GroupManager.class })
 @Singleton
-public class DefaultGroupManager implements GroupManager
+public class DefaultGroupManager implements GroupManager, EventListener, Initializable
 {
     /** The space where groups are stored. */
     private static final EntityReference GROUP_SPACE = new EntityReference("Groups", EntityType.SPACE);
 
+    /** The XClass used for defining group members in XWiki. */
+    private static final EntityReference MEMBERS_CLASS_REFERENCE = new EntityReference("XWikiGroups",
+        EntityType.DOCUMENT, new EntityReference("XWiki", EntityType.SPACE));
+
     /** Logging helper. */
     @Inject
     private Logger logger;
@@ -76,6 +97,25 @@ public class DefaultGroupManager implements GroupManager
     @Named("compactwiki")
     private EntityReferenceSerializer<String> compactSerializer;
 
+    /** Allows registering this object as an event listener. */
+    @Inject
+    private ObservationManager observationManager;
+
+    /** Incremented on each group change, so that memberships computed before the change are discarded. */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** Cached transitive group memberships, keyed by the user profile reference. */
+    private final ConcurrentMap<DocumentReference, CachedGroups> cachedGroups =
+        new ConcurrentHashMap<DocumentReference, CachedGroups>();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        // This component can't be registered as an event listener directly, since that would create a separate
+        // instance, with its own cache
+        this.observationManager.addListener(this);
+    }
+
     @Override
     public Set<Group> getGroupsForUser(User user)
     {
@@ -84,6 +124,11 @@ public Set<Group> getGroupsForUser(User user)
         }
 
         DocumentReference profile = user.getProfileDocument();
+        long currentGeneration = this.generation.get();
+        CachedGroups cached = this.cachedGroups.get(profile);
+        if (cached != null && cached.generation == currentGeneration) {
+            return cached.groups;
+        }
 
         Set<Group> result = new LinkedHashSet<Group>();
         try {
@@ -118,6 +163,9 @@ public Set<Group> getGroupsForUser(User user)
             for (Object groupName : groups) {
                 result.add(getGroup(String.valueOf(groupName)));
             }
+            Set<Group> groupsResult = Collections.unmodifiableSet(result);
+            this.cachedGroups.put(profile, new CachedGroups(currentGeneration, groupsResult));
+            return groupsResult;
         } catch (QueryException ex) {
             this.logger.warn("Failed to search for user's groups: {}", ex.getMessage());
         }
@@ -143,4 +191,49 @@ public Group getGroup(DocumentReference groupReference)
         }
         return new DefaultGroup(groupReference);
     }
+
+    @Override
+    public String getName()
+    {
+        return "phenotips-group-membership-cache";
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(),
+            new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument doc = (XWikiDocument) source;
+        if (isGroupDocument(doc) || isGroupDocument(doc.getOriginalDocument())) {
+            this.generation.incrementAndGet();
+            this.cachedGroups.clear();
+        }
+    }
+
+    private boolean isGroupDocument(XWikiDocument doc)
+    {
+        return doc != null
+            && (doc.getXObject(MEMBERS_CLASS_REFERENCE) != null || doc.getXObject(Group.CLASS_REFERENCE) != null);
+    }
+
+    /** The groups of a user, along with the generation of the group definitions they were computed from. */
+    private static final class CachedGroups
+    {
+        /** The value of the generation counter when the groups were computed. */
+        private final long generation;
+
+        /** The transitive groups of the user. */
+        private final Set<Group> groups;
+
+        CachedGroups(long generation, Set<Group> groups)
+        {
+            this.generation = generation;
+            this.groups = groups;
+        }
+    }
 }
@@ -0,0 +1,108 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.groups.internal;
+
+import org.phenotips.groups.GroupManager;
+
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.internal.DefaultObservationManager;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+import org.xwiki.users.User;
+
+import java.util.LinkedList;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that the {@link DefaultGroupManager} serving group lookups is the one notified of group changes by the real
+ * {@link ObservationManager}.
+ *
+ * @version $Id$
+ */
+@ComponentList({ DefaultObservationManager.class, DefaultGroupManager.class })
+public class DefaultGroupManagerListenerTest
+{
+    @Rule
+    public final MockitoComponentManagerRule componentManager = new MockitoComponentManagerRule();
+
+    private QueryManager qm;
+
+    @Before
+    public void setup() throws Exception
+    {
+        Provider<ComponentManager> contextComponentManager =
+            this.componentManager.registerMockComponent(
+                new DefaultParameterizedType(null, Provider.class, ComponentManager.class), "context");
+        when(contextComponentManager.get()).thenReturn(this.componentManager);
+        this.componentManager.registerMockComponent(DocumentReferenceResolver.TYPE_STRING, "current");
+        this.componentManager.registerMockComponent(EntityReferenceSerializer.TYPE_STRING, "compactwiki");
+        this.qm = this.componentManager.registerMockComponent(QueryManager.class);
+        Query q = mock(Query.class);
+        when(this.qm.createQuery(any(String.class), eq(Query.XWQL))).thenReturn(q);
+        when(q.<Object>execute()).thenReturn(new LinkedList<Object>());
+    }
+
+    @Test
+    public void groupChangesNotifiedThroughTheObservationManagerClearTheCache() throws Exception
+    {
+        // Looking up the observation manager first registers all the event listener components, as on startup
+        ObservationManager observationManager = this.componentManager.getInstance(ObservationManager.class);
+        Assert.assertTrue(this.componentManager.getInstanceList(EventListener.class).isEmpty());
+        GroupManager manager = this.componentManager.getInstance(GroupManager.class);
+
+        User u = mock(User.class);
+        when(u.getProfileDocument()).thenReturn(new DocumentReference("xwiki", "XWiki", "Admin"));
+        manager.getGroupsForUser(u);
+        manager.getGroupsForUser(u);
+        verify(this.qm, times(2)).createQuery(any(String.class), eq(Query.XWQL));
+
+        XWikiDocument groupDoc = mock(XWikiDocument.class);
+        when(groupDoc.getXObject(any(EntityReference.class))).thenReturn(mock(BaseObject.class));
+        observationManager.notify(new DocumentUpdatedEvent(new DocumentReference("xwiki", "Groups", "Group A")),
+            groupDoc, null);
+
+        manager.getGroupsForUser(u);
+        verify(this.qm, times(4)).createQuery(any(String.class), eq(Query.XWQL));
+    }
+}
@@ -20,12 +20,14 @@
 import org.phenotips.groups.Group;
 import org.phenotips.groups.GroupManager;
 
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.EventListener;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryManager;
@@ -42,9 +44,14 @@
 import org.junit.Rule;
 import org.junit.Test;
 
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -121,6 +128,35 @@ public void getGroupsForUser() throws ComponentLookupException, QueryException
         Assert.assertEquals(b, resultGroups.next().getReference());
     }
 
+    /** {@link DefaultGroupManager#getGroupsForUser(User)} caches the groups until a group document changes. */
+    @Test
+    public void getGroupsForUserIsCachedUntilGroupsChange() throws ComponentLookupException, QueryException
+    {
+        User u = mock(User.class);
+        DocumentReference userProfile = new DocumentReference("xwiki", "XWiki", "Admin");
+        when(u.getProfileDocument()).thenReturn(userProfile);
+        QueryManager qm = this.mocker.getInstance(QueryManager.class);
+        Query q = mock(Query.class);
+        when(qm.createQuery(any(String.class), eq(Query.XWQL))).thenReturn(q);
+        when(q.<Object>execute()).thenReturn(new LinkedList<Object>());
+
+        GroupManager manager = this.mocker.getComponentUnderTest();
+        Set<Group> result = manager.getGroupsForUser(u);
+        Assert.assertSame(result, manager.getGroupsForUser(u));
+        verify(qm, times(2)).createQuery(any(String.class), eq(Query.XWQL));
+
+        // Changes to other documents don't affect the cache
+        XWikiDocument doc = mock(XWikiDocument.class);
+        ((EventListener) manager).onEvent(new DocumentUpdatedEvent(), doc, null);
+        Assert.assertSame(result, manager.getGroupsForUser(u));
+        verify(qm, times(2)).createQuery(any(String.class), eq(Query.XWQL));
+
+        when(doc.getXObject(any(EntityReference.class))).thenReturn(mock(BaseObject.class));
+        ((EventListener) manager).onEvent(new DocumentUpdatedEvent(), doc, null);
+        Assert.assertNotSame(result, manager.getGroupsForUser(u));
+        verify(qm, times(4)).createQuery(any(String.class), eq(Query.XWQL));
+    }
+
     /** {@link DefaultGroupManager#getGroupsForUser(User)} ignores invalid profiles. */
     @Test
     public void getGroupsForUserWithWrongProfile() throws ComponentLookupException, QueryException
@@ -0,0 +1,42 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * Optional capability of vocabularies where terms can have alternative identifiers, usually the identifiers of obsolete
+ * terms that were merged into another term. Such vocabularies keep an in-memory table of these alternative
+ * identifiers, so that deprecated identifiers can be translated to the current ones without querying the vocabulary
+ * index.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+@Unstable
+public interface AlternativeIdMapping
+{
+    /**
+     * Find the primary identifier of the term having the given alternative identifier.
+     *
+     * @param alternativeId a term identifier, for example {@code HP:0000489}
+     * @return the primary identifier of the term which lists the given identifier as one of its alternative
+     *         identifiers, or {@code null} if the identifier isn't a known alternative identifier
+     */
+    String getPrimaryId(String alternativeId);
+}
@@ -0,0 +1,98 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+import java.util.Collection;
+
+/**
+ * Measures how semantically similar vocabulary terms are, based on the information content of their most informative
+ * common ancestor. The information content of a term is computed from the structure of its vocabulary, as the negative
+ * logarithm of the fraction of all the terms which are the term itself or one of its descendants; the root has an
+ * information content of {@code 0}, while leaf terms are the most informative. The structure of a vocabulary is read
+ * once per vocabulary version, after which all the measures are computed in memory, without querying the vocabulary.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+@Unstable
+@Role
+public interface SemanticSimilarityService
+{
+    /**
+     * Compute the information content of a term.
+     *
+     * @param termId the term identifier, in the format {@code <vocabulary prefix>:<term id>}, for example
+     *            {@code HP:0002066}
+     * @return a positive number, or {@code 0} for the root term or for unknown terms
+     */
+    double getInformationContent(String termId);
+
+    /**
+     * Find the common ancestor of two terms from the same vocabulary having the highest information content. Terms are
+     * considered to be their own ancestors, so if one term is an ancestor of the other, it is the returned term.
+     *
+     * @param termId1 the first term identifier, for example {@code HP:0002066}
+     * @param termId2 the second term identifier, for example {@code HP:0001252}
+     * @return the identifier of the most informative common ancestor, or {@code null} if the terms are unknown or
+     *         belong to different vocabularies
+     */
+    String getMostInformativeCommonAncestor(String termId1, String termId2);
+
+    /**
+     * Compute the Resnik similarity of two terms, the information content of their most informative common ancestor.
+     *
+     * @param termId1 the first term identifier, for example {@code HP:0002066}
+     * @param termId2 the second term identifier, for example {@code HP:0001252}
+     * @return a positive number, or {@code 0} if the terms only share the root, are unknown, or belong to different
+     *         vocabularies
+     */
+    double getResnikSimilarity(String termId1, String termId2);
+
+    /**
+     * Compute the Lin similarity of two terms, the information content of their most informative common ancestor
+     * relative to the average information content of the two terms.
+     *
+     * @param termId1 the first term identifier, for example {@code HP:0002066}
+     * @param termId2 the second term identifier, for example {@code HP:0001252}
+     * @return a number between {@code 0}, for unrelated or unknown terms, and {@code 1}, for identical terms
+     */
+    double getLinSimilarity(String termId1, String termId2);
+
+    /**
+     * Compute the Resnik similarity of two sets of terms, as the symmetric best match average: each term is paired with
+     * the most similar term in the other set, and the similarities of all these pairs are averaged.
+     *
+     * @param termIds1 the first set of term identifiers
+     * @param termIds2 the second set of term identifiers
+     * @return a positive number, or {@code 0} if either set is empty
+     */
+    double getResnikSimilarity(Collection<String> termIds1, Collection<String> termIds2);
+
+    /**
+     * Compute the Lin similarity of two sets of terms, as the symmetric best match average: each term is paired with
+     * the most similar term in the other set, and the similarities of all these pairs are averaged.
+     *
+     * @param termIds1 the first set of term identifiers
+     * @param termIds2 the second set of term identifiers
+     * @return a number between {@code 0} and {@code 1}, or {@code 0} if either set is empty
+     */
+    double getLinSimilarity(Collection<String> termIds1, Collection<String> termIds2);
+}
@@ -23,6 +23,7 @@
 import org.xwiki.stability.Unstable;
 
 import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.common.SolrDocumentList;
 
 /**
  * Provides methods for initializing the resources needed by vocabularies stored in a Solr index.
@@ -50,6 +51,15 @@
      */
     Cache<VocabularyTerm> getTermCache();
 
+    /**
+     * Get the cache instance created for storing the results of searches in the target vocabulary. The cache is
+     * bounded, and must be cleared whenever the vocabulary is reindexed.
+     *
+     * @return a cache instance, where the keys are the serialized query parameters
+     * @since 1.2RC1
+     */
+    Cache<SolrDocumentList> getSearchCache();
+
     /**
      * Get the Solr core used for the target vocabulary.
      *
@@ -0,0 +1,45 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+import java.util.Map;
+
+/**
+ * Tells how often vocabulary terms are used, for example by how many patient records, so that vocabularies can rank
+ * the most used terms first in their suggestions. Vocabularies don't depend on this component being available, and
+ * treat all the terms as unused when it isn't. Since it is called while answering searches, implementations must
+ * answer right away, for example from counts refreshed in the background, instead of counting on every call.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+@Unstable
+@Role
+public interface TermPopularity
+{
+    /**
+     * Returns the number of uses of each used term.
+     *
+     * @return the number of uses, indexed by term identifier, for example {@code HP:0001507}; terms missing from the
+     *         map are considered unused; may be empty if the uses weren't counted yet, but never {@code null}
+     */
+    Map<String, Integer> getPopularity();
+}
@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary;
+
+import org.xwiki.stability.Unstable;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Utility class for reading the ancestors of a term in a structured vocabulary. Such vocabularies store the identifiers
+ * of all the ancestors of each term in a term property, which is much cheaper to read than resolving each ancestor as a
+ * full {@link VocabularyTerm}.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+@Unstable
+public final class VocabularyTermAncestors
+{
+    /** The name of the term property holding the identifiers of all the ancestors of a term. */
+    public static final String PROPERTY_NAME = "term_category";
+
+    /** Private default constructor, so that this utility class can't be instantiated. */
+    private VocabularyTermAncestors()
+    {
+        // Nothing to do
+    }
+
+    /**
+     * Returns the identifiers of all the ancestors of a term, read from the {@link #PROPERTY_NAME ancestors property}
+     * when the term holds it, or from the resolved {@link VocabularyTerm#getAncestors() ancestor terms} otherwise.
+     *
+     * @param term the term whose ancestors are requested
+     * @return the identifiers of the direct and indirect ancestors of the term, not including the term itself; an empty
+     *         set if the term doesn't have any ancestors
+     */
+    public static Set<String> getAncestorIds(VocabularyTerm term)
+    {
+        Set<String> result = new LinkedHashSet<String>();
+        Object ancestors = term.get(PROPERTY_NAME);
+        if (ancestors instanceof Collection) {
+            for (Object ancestor : (Collection<?>) ancestors) {
+                result.add(String.valueOf(ancestor));
+            }
+        } else {
+            for (VocabularyTerm ancestor : term.getAncestors()) {
+                result.add(ancestor.getId());
+            }
+        }
+        result.remove(term.getId());
+        return result;
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal;
+
+import org.phenotips.vocabulary.AlternativeIdMapping;
+import org.phenotips.vocabulary.SemanticSimilarityService;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularyTerm;
+import org.phenotips.vocabulary.VocabularyTermAncestors;
+
+import org.xwiki.component.annotation.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+/**
+ * Default implementation of the {@link SemanticSimilarityService}, keeping one {@link InformationContentIndex} for
+ * each vocabulary, built with a single query from the ancestors stored in each term the first time it is needed, and
+ * rebuilt whenever the vocabulary version changes.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+@Component
+@Singleton
+public class DefaultSemanticSimilarityService implements SemanticSimilarityService
+{
+    /** The name of the term property holding the term identifier. */
+    private static final String ID_FIELD = "id";
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
+    /** Provides access to the vocabularies. */
+    @Inject
+    private VocabularyManager vocabularyManager;
+
+    /** The structure of each vocabulary used so far. */
+    private final ConcurrentMap<Vocabulary, InformationContentIndex> indexes =
+        new ConcurrentHashMap<Vocabulary, InformationContentIndex>();
+
+    @Override
+    public double getInformationContent(String termId)
+    {
+        InformationContentIndex index = getIndex(termId);
+        return index == null ? 0 : index.getInformationContent(getPrimaryId(termId));
+    }
+
+    @Override
+    public String getMostInformativeCommonAncestor(String termId1, String termId2)
+    {
+        InformationContentIndex index = getIndex(termId1, termId2);
+        return index == null ? null
+            : index.getMostInformativeCommonAncestor(getPrimaryId(termId1), getPrimaryId(termId2));
+    }
+
+    @Override
+    public double getResnikSimilarity(String termId1, String termId2)
+    {
+        InformationContentIndex index = getIndex(termId1, termId2);
+        return index == null ? 0 : index.getResnikSimilarity(getPrimaryId(termId1), getPrimaryId(termId2));
+    }
+
+    @Override
+    public double getLinSimilarity(String termId1, String termId2)
+    {
+        InformationContentIndex index = getIndex(termId1, termId2);
+        return index == null ? 0 : index.getLinSimilarity(getPrimaryId(termId1), getPrimaryId(termId2));
+    }
+
+    @Override
+    public double getResnikSimilarity(Collection<String> termIds1, Collection<String> termIds2)
+    {
+        return getBestMatchAverage(termIds1, termIds2, false);
+    }
+
+    @Override
+    public double getLinSimilarity(Collection<String> termIds1, Collection<String> termIds2)
+    {
+        return getBestMatchAverage(termIds1, termIds2, true);
+    }
+
+    private double getBestMatchAverage(Collection<String> ids1, Collection<String> ids2, boolean lin)
+    {
+        if (ids1 == null || ids2 == null || ids1.isEmpty() || ids2.isEmpty()) {
+            return 0;
+        }
+        // Translated once, instead of once for each of the compared pairs
+        List<String> termIds1 = getPrimaryIds(ids1);
+        List<String> termIds2 = getPrimaryIds(ids2);
+        // Resolve each vocabulary only once, instead of once for each of the compared pairs
+        Map<String, InformationContentIndex> vocabularyIndexes = new HashMap<String, InformationContentIndex>();
+        double[][] scores = new double[termIds1.size()][termIds2.size()];
+        int i = 0;
+        for (String termId1 : termIds1) {
+            InformationContentIndex index = getIndex(termId1, vocabularyIndexes);
+            int j = 0;
+            for (String termId2 : termIds2) {
+                if (index != null && index == getIndex(termId2, vocabularyIndexes)) {
+                    scores[i][j] = lin ? index.getLinSimilarity(termId1, termId2)
+                        : index.getResnikSimilarity(termId1, termId2);
+                }
+                ++j;
+            }
+            ++i;
+        }
+
+        double sum = 0;
+        for (i = 0; i < scores.length; ++i) {
+            double best = 0;
+            for (int j = 0; j < scores[i].length; ++j) {
+                best = Math.max(best, scores[i][j]);
+            }
+            sum += best;
+        }
+        for (int j = 0; j < scores[0].length; ++j) {
+            double best = 0;
+            for (i = 0; i < scores.length; ++i) {
+                best = Math.max(best, scores[i][j]);
+            }
+            sum += best;
+        }
+        return sum / (scores.length + scores[0].length);
+    }
+
+    /**
+     * Translates an alternative identifier, such as the identifier of an obsolete term merged into another term, into
+     * the primary identifier of the term, since only primary identifiers are listed in the vocabulary structure.
+     *
+     * @param termId the identifier of a term, including the vocabulary prefix
+     * @return the primary identifier of the term, or the identifier itself if it isn't a known alternative identifier
+     */
+    private String getPrimaryId(String termId)
+    {
+        String prefix = StringUtils.substringBefore(termId, ":");
+        Vocabulary vocabulary = StringUtils.isBlank(prefix) ? null : this.vocabularyManager.getVocabulary(prefix);
+        if (vocabulary instanceof AlternativeIdMapping) {
+            String primaryId = ((AlternativeIdMapping) vocabulary).getPrimaryId(termId);
+            if (primaryId != null) {
+                return primaryId;
+            }
+        }
+        return termId;
+    }
+
+    private List<String> getPrimaryIds(Collection<String> termIds)
+    {
+        List<String> result = new ArrayList<String>(termIds.size());
+        for (String termId : termIds) {
+            result.add(getPrimaryId(termId));
+        }
+        return result;
+    }
+
+    private InformationContentIndex getIndex(String termId1, String termId2)
+    {
+        InformationContentIndex index = getIndex(termId1);
+        return index != null && index == getIndex(termId2) ? index : null;
+    }
+
+    private InformationContentIndex getIndex(String termId, Map<String, InformationContentIndex> resolved)
+    {
+        String prefix = StringUtils.substringBefore(termId, ":");
+        if (!resolved.containsKey(prefix)) {
+            resolved.put(prefix, getIndex(termId));
+        }
+        return resolved.get(prefix);
+    }
+
+    /**
+     * Returns the index of the vocabulary owning a term, building it if it wasn't built yet, or if it was built from a
+     * different version of the vocabulary.
+     *
+     * @param termId the identifier of a term, including the vocabulary prefix
+     * @return the index, or {@code null} if the term doesn't belong to a known vocabulary
+     */
+    private InformationContentIndex getIndex(String termId)
+    {
+        String prefix = StringUtils.substringBefore(termId, ":");
+        Vocabulary vocabulary = StringUtils.isBlank(prefix) ? null : this.vocabularyManager.getVocabulary(prefix);
+        if (vocabulary == null) {
+            return null;
+        }
+        String version = vocabulary.getVersion();
+        InformationContentIndex index = this.indexes.get(vocabulary);
+        if (index == null || !StringUtils.equals(version, index.getVersion())) {
+            synchronized (this) {
+                index = this.indexes.get(vocabulary);
+                if (index == null || !StringUtils.equals(version, index.getVersion())) {
+                    index = buildIndex(vocabulary, version);
+                    if (index != null) {
+                        this.indexes.put(vocabulary, index);
+                    }
+                }
+            }
+        }
+        return index;
+    }
+
+    private InformationContentIndex buildIndex(Vocabulary vocabulary, String version)
+    {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("rows", String.valueOf(vocabulary.size()));
+        options.put("fl", ID_FIELD + ',' + VocabularyTermAncestors.PROPERTY_NAME);
+        // Listing the whole vocabulary is too large to be kept in the vocabulary's search cache
+        List<VocabularyTerm> terms = vocabulary.search(Collections.singletonMap(ID_FIELD, "*"), options);
+        if (terms == null || terms.isEmpty()) {
+            // The vocabulary may not be indexed yet, try again next time
+            this.logger.warn("Failed to read the structure of the vocabulary [{}]", vocabulary.getAliases());
+            return null;
+        }
+        Map<String, Collection<String>> ancestors = new HashMap<String, Collection<String>>();
+        for (VocabularyTerm term : terms) {
+            ancestors.put(term.getId(), VocabularyTermAncestors.getAncestorIds(term));
+        }
+        this.logger.debug("Computed the information content of [{}] terms of version [{}]", ancestors.size(), version);
+        return new InformationContentIndex(ancestors, version);
+    }
+}
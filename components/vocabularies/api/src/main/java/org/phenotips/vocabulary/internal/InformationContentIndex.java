@@ -0,0 +1,203 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory view of the structure of a vocabulary, holding the precomputed information content of each term and the
+ * ancestors of each term, so that the most informative common ancestor of two terms is found by merging two short
+ * sorted arrays, without accessing the vocabulary.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+public class InformationContentIndex
+{
+    /** The position of each term in the arrays below. */
+    private final Map<String, Integer> positions;
+
+    /** The identifier of each term. */
+    private final String[] ids;
+
+    /** The information content of each term. */
+    private final double[] informationContent;
+
+    /** For each term, the sorted positions of the term itself and all its ancestors. */
+    private final int[][] ancestors;
+
+    /** The version of the vocabulary this index was built from. */
+    private final String version;
+
+    /**
+     * Builds the index.
+     *
+     * @param terms all the terms of the vocabulary, each one mapped to the identifiers of all its ancestors; the term
+     *            itself may or may not be included among its ancestors
+     * @param version the version of the vocabulary, may be {@code null}
+     */
+    public InformationContentIndex(Map<String, ? extends Collection<String>> terms, String version)
+    {
+        this.version = version;
+        int size = terms.size();
+        this.positions = new HashMap<String, Integer>(size * 2);
+        this.ids = new String[size];
+        for (String id : terms.keySet()) {
+            this.ids[this.positions.size()] = id;
+            this.positions.put(id, this.positions.size());
+        }
+
+        this.ancestors = new int[size][];
+        int[] descendantCounts = new int[size];
+        for (int i = 0; i < size; ++i) {
+            Collection<String> termAncestors = terms.get(this.ids[i]);
+            int[] termPositions = new int[termAncestors.size() + 1];
+            int count = 0;
+            termPositions[count++] = i;
+            for (String ancestor : termAncestors) {
+                Integer position = this.positions.get(ancestor);
+                // Ancestors missing from the vocabulary are ignored
+                if (position != null && position != i) {
+                    termPositions[count++] = position;
+                }
+            }
+            Arrays.sort(termPositions, 0, count);
+            this.ancestors[i] = removeDuplicates(termPositions, count);
+            for (int position : this.ancestors[i]) {
+                ++descendantCounts[position];
+            }
+        }
+
+        this.informationContent = new double[size];
+        for (int i = 0; i < size; ++i) {
+            this.informationContent[i] = Math.log((double) size / descendantCounts[i]);
+        }
+    }
+
+    /**
+     * The version of the vocabulary this index was built from.
+     *
+     * @return the version, may be {@code null}
+     */
+    public String getVersion()
+    {
+        return this.version;
+    }
+
+    /**
+     * The information content of a term.
+     *
+     * @param termId the term identifier
+     * @return a positive number, or {@code 0} for the root term or for unknown terms
+     */
+    public double getInformationContent(String termId)
+    {
+        Integer position = this.positions.get(termId);
+        return position == null ? 0 : this.informationContent[position];
+    }
+
+    /**
+     * Finds the common ancestor of two terms having the highest information content.
+     *
+     * @param termId1 the first term identifier
+     * @param termId2 the second term identifier
+     * @return the identifier of the most informative common ancestor, or {@code null} if either term is unknown or if
+     *         the terms don't have any common ancestor
+     */
+    public String getMostInformativeCommonAncestor(String termId1, String termId2)
+    {
+        int position = findMostInformativeCommonAncestor(termId1, termId2);
+        return position < 0 ? null : this.ids[position];
+    }
+
+    /**
+     * Computes the Resnik similarity of two terms.
+     *
+     * @param termId1 the first term identifier
+     * @param termId2 the second term identifier
+     * @return the information content of the most informative common ancestor, or {@code 0} if there is none
+     */
+    public double getResnikSimilarity(String termId1, String termId2)
+    {
+        int position = findMostInformativeCommonAncestor(termId1, termId2);
+        return position < 0 ? 0 : this.informationContent[position];
+    }
+
+    /**
+     * Computes the Lin similarity of two terms.
+     *
+     * @param termId1 the first term identifier
+     * @param termId2 the second term identifier
+     * @return a number between {@code 0} and {@code 1}
+     */
+    public double getLinSimilarity(String termId1, String termId2)
+    {
+        int position = findMostInformativeCommonAncestor(termId1, termId2);
+        if (position < 0) {
+            return 0;
+        }
+        double sum = getInformationContent(termId1) + getInformationContent(termId2);
+        if (sum == 0) {
+            // Both terms are the root
+            return 1;
+        }
+        return 2 * this.informationContent[position] / sum;
+    }
+
+    private int[] removeDuplicates(int[] sorted, int length)
+    {
+        int count = 0;
+        for (int i = 0; i < length; ++i) {
+            if (count == 0 || sorted[i] != sorted[count - 1]) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, count);
+    }
+
+    private int findMostInformativeCommonAncestor(String termId1, String termId2)
+    {
+        Integer position1 = this.positions.get(termId1);
+        Integer position2 = this.positions.get(termId2);
+        if (position1 == null || position2 == null) {
+            return -1;
+        }
+        int[] ancestors1 = this.ancestors[position1];
+        int[] ancestors2 = this.ancestors[position2];
+        int best = -1;
+        int i = 0;
+        int j = 0;
+        while (i < ancestors1.length && j < ancestors2.length) {
+            if (ancestors1[i] < ancestors2[j]) {
+                ++i;
+            } else if (ancestors1[i] > ancestors2[j]) {
+                ++j;
+            } else {
+                if (best < 0 || this.informationContent[ancestors1[i]] > this.informationContent[best]) {
+                    best = ancestors1[i];
+                }
+                ++i;
+                ++j;
+            }
+        }
+        return best;
+    }
+}
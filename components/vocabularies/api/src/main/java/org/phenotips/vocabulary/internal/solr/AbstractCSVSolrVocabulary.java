@@ -51,6 +51,9 @@ public abstract class AbstractCSVSolrVocabulary extends AbstractSolrVocabulary
 
     protected static final String SYMBOL_EXACT = "symbolExact^100";
 
+    /** The version of the indexed vocabulary, read once from the index and forgotten when the index changes. */
+    private volatile String version;
+
     /** The number of documents to be added and committed to Solr at a time. */
     protected abstract int getSolrDocsPerBatch();
 
@@ -114,6 +117,8 @@ protected void commitTerms(Collection<SolrInputDocument> batch)
         this.externalServicesAccess.getSolrConnection().add(batch);
         this.externalServicesAccess.getSolrConnection().commit();
         this.externalServicesAccess.getTermCache().removeAll();
+        clearSearchCache();
+        this.version = null;
     }
 
     /**
@@ -123,6 +128,8 @@ protected void commitTerms(Collection<SolrInputDocument> batch)
      */
     protected int clear()
     {
+        clearSearchCache();
+        this.version = null;
         try {
             this.externalServicesAccess.getSolrConnection().deleteByQuery("*:*");
             return 0;
@@ -164,6 +171,26 @@ protected VocabularyTerm requestTerm(String queryString, String phraseFields)
 
     @Override
     public String getVersion()
+    {
+        String result = this.version;
+        if (result == null) {
+            long generation = getIndexGeneration();
+            result = readVersion();
+            this.version = result;
+            if (generation != getIndexGeneration()) {
+                // The vocabulary was reindexed while the version was being read, it may be outdated
+                this.version = null;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Query the index for the version of the vocabulary.
+     *
+     * @return the version stored in the index, or {@code null} if the index doesn't specify one or can't be queried
+     */
+    private String readVersion()
     {
         QueryResponse response;
         SolrQuery query = new SolrQuery();
@@ -20,14 +20,15 @@
 import org.phenotips.obo2solr.ParameterPreparer;
 import org.phenotips.obo2solr.SolrUpdateGenerator;
 import org.phenotips.obo2solr.TermData;
+import org.phenotips.vocabulary.AlternativeIdMapping;
 import org.phenotips.vocabulary.VocabularyTerm;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
@@ -45,7 +46,7 @@
  * @version $Id$
  * @since 1.2M4 (under different names since 1.1)
  */
-public abstract class AbstractOBOSolrVocabulary extends AbstractSolrVocabulary
+public abstract class AbstractOBOSolrVocabulary extends AbstractSolrVocabulary implements AlternativeIdMapping
 {
     /**
      * The name of the Alternative ID field, used for older aliases of updated HPO terms.
@@ -54,6 +55,15 @@ public abstract class AbstractOBOSolrVocabulary extends AbstractSolrVocabulary
 
     protected static final String VERSION_FIELD_NAME = "version";
 
+    /** The version of the indexed vocabulary, read once from the index and forgotten when the index changes. */
+    private volatile String version;
+
+    /**
+     * Maps alternative identifiers to the primary identifier of their term. Built when the vocabulary is indexed, or
+     * read from the index the first time it is needed; {@code null} until then.
+     */
+    private volatile Map<String, String> alternativeIds;
+
     /** The number of documents to be added and committed to Solr at a time. */
     protected abstract int getSolrDocsPerBatch();
 
@@ -62,16 +72,28 @@ public VocabularyTerm getTerm(String id)
     {
         VocabularyTerm result = super.getTerm(id);
         if (result == null) {
-            Map<String, String> queryParameters = new HashMap<>();
-            queryParameters.put(ALTERNATIVE_ID_FIELD_NAME, id);
-            List<VocabularyTerm> results = search(queryParameters);
-            if (results != null && !results.isEmpty()) {
-                result = search(queryParameters).iterator().next();
+            String primaryId = getPrimaryId(id);
+            if (primaryId != null) {
+                result = super.getTerm(primaryId);
             }
         }
         return result;
     }
 
+    @Override
+    public String getPrimaryId(String alternativeId)
+    {
+        Map<String, String> mapping = this.alternativeIds;
+        if (mapping == null) {
+            mapping = loadAlternativeIds();
+            if (mapping == null) {
+                return null;
+            }
+            this.alternativeIds = mapping;
+        }
+        return mapping.get(alternativeId);
+    }
+
     @Override
     public int reindex(String sourceUrl)
     {
@@ -119,6 +141,8 @@ protected int index(String sourceUrl)
                 batchCounter++;
             }
             commitTerms(termBatch);
+            this.alternativeIds = getAlternativeIds(data);
+            termsIndexed(data);
             return 0;
         } catch (SolrServerException ex) {
             this.logger.warn("Failed to index ontology: {}", ex.getMessage());
@@ -130,12 +154,25 @@ protected int index(String sourceUrl)
         return 1;
     }
 
+    /**
+     * Called after all the terms of the vocabulary were successfully indexed, allowing vocabularies to build their own
+     * in-memory structures from the parsed terms, without reading them back from the index. Does nothing by default.
+     *
+     * @param data the indexed terms, mapped by their identifier
+     */
+    protected void termsIndexed(Map<String, TermData> data)
+    {
+        // Nothing to do by default
+    }
+
     protected void commitTerms(Collection<SolrInputDocument> batch)
         throws SolrServerException, IOException, OutOfMemoryError
     {
         this.externalServicesAccess.getSolrConnection().add(batch);
         this.externalServicesAccess.getSolrConnection().commit();
         this.externalServicesAccess.getTermCache().removeAll();
+        clearSearchCache();
+        this.version = null;
     }
 
     /**
@@ -145,6 +182,9 @@ protected void commitTerms(Collection<SolrInputDocument> batch)
      */
     protected int clear()
     {
+        this.alternativeIds = null;
+        clearSearchCache();
+        this.version = null;
         try {
             this.externalServicesAccess.getSolrConnection().deleteByQuery("*:*");
             return 0;
@@ -156,8 +196,70 @@ protected int clear()
         return 1;
     }
 
+    private Map<String, String> getAlternativeIds(Map<String, TermData> data)
+    {
+        Map<String, String> result = new HashMap<String, String>();
+        for (Map.Entry<String, TermData> item : data.entrySet()) {
+            Collection<String> termAlternativeIds = item.getValue().get(ALTERNATIVE_ID_FIELD_NAME);
+            if (termAlternativeIds != null) {
+                for (String alternativeId : termAlternativeIds) {
+                    result.put(alternativeId, item.getKey());
+                }
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Reads the alternative identifiers from the index, for vocabularies indexed before the current startup.
+     *
+     * @return the mapping from alternative identifiers to primary identifiers, or {@code null} if the index couldn't be
+     *         queried
+     */
+    private Map<String, String> loadAlternativeIds()
+    {
+        SolrQuery query = new SolrQuery(ALTERNATIVE_ID_FIELD_NAME + ":*");
+        query.setFields(ID_FIELD_NAME, ALTERNATIVE_ID_FIELD_NAME);
+        query.setRows(0);
+        try {
+            long count = this.externalServicesAccess.getSolrConnection().query(query).getResults().getNumFound();
+            query.setRows((int) count);
+            Map<String, String> result = new HashMap<String, String>();
+            for (SolrDocument doc : this.externalServicesAccess.getSolrConnection().query(query).getResults()) {
+                String id = String.valueOf(doc.getFieldValue(ID_FIELD_NAME));
+                for (Object alternativeId : doc.getFieldValues(ALTERNATIVE_ID_FIELD_NAME)) {
+                    result.put(String.valueOf(alternativeId), id);
+                }
+            }
+            return Collections.unmodifiableMap(result);
+        } catch (SolrServerException | SolrException | IOException ex) {
+            this.logger.warn("Failed to read the alternative identifiers: {}", ex.getMessage());
+        }
+        return null;
+    }
+
     @Override
     public String getVersion()
+    {
+        String result = this.version;
+        if (result == null) {
+            long generation = getIndexGeneration();
+            result = readVersion();
+            this.version = result;
+            if (generation != getIndexGeneration()) {
+                // The vocabulary was reindexed while the version was being read, it may be outdated
+                this.version = null;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Query the index for the version of the vocabulary.
+     *
+     * @return the version stored in the index, or {@code null} if the index doesn't specify one or can't be queried
+     */
+    private String readVersion()
     {
         QueryResponse response;
         SolrQuery query = new SolrQuery();
@@ -21,32 +21,39 @@
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyTerm;
 
+import org.xwiki.cache.Cache;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.SpellCheckResponse;
+import org.apache.solr.client.solrj.response.SpellCheckResponse.Collation;
 import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.params.SpellingParams;
 import org.slf4j.Logger;
 
 /**
  * Provides access to the Solr server, with the main purpose of providing access to an indexed ontology. There are two
  * ways of accessing items in the ontology: getting a single term by its identifier, or searching for terms matching a
- * given query in the Lucene query language.
+ * given query in the Lucene query language. The results of searches are cached, and the cache is cleared whenever the
+ * vocabulary is reindexed.
  *
  * @version $Id$
  * @since 1.2M4 (under different names since 1.0M8)
@@ -62,6 +69,18 @@ public abstract class AbstractSolrVocabulary implements Vocabulary, Initializabl
      */
     private static final VocabularyTerm EMPTY_MARKER = new SolrVocabularyTerm(null, null);
 
+    /**
+     * The largest number of documents that a cached search result may hold. Bulk reads, such as listing the whole
+     * vocabulary, would otherwise keep a large part of the index in memory for as long as they stay in the cache.
+     */
+    private static final int MAX_CACHED_RESULTS = 1000;
+
+    /**
+     * Incremented whenever the indexed data changes, so that results read from the index before a change aren't stored
+     * in a cache after it was cleared.
+     */
+    private final AtomicLong indexGeneration = new AtomicLong();
+
     /** Logging helper object. */
     @Inject
     protected Logger logger;
@@ -208,8 +227,10 @@ protected SolrDocumentList search(SolrParams params)
     }
 
     /**
-     * Perform a search, falling back on the suggested spellchecked query if the original query fails to return any
-     * results.
+     * Perform a search, falling back on the suggested spellchecked query if the original query returns fewer results
+     * than the spellchecked query is expected to return. The estimated number of results for the spellchecked query
+     * is computed by Solr while answering the original query, so the second query is only sent when it is likely to
+     * return better results.
      *
      * @param params the Solr parameters to use, should contain at least a value for the "q" parameter
      * @param queryOptions extra options to include in the query; these override the default values, but don't override
@@ -220,11 +241,16 @@ protected SolrDocumentList search(SolrParams params, Map<String, String> queryOp
     {
         try {
             SolrParams enhancedParams = SolrQueryUtils.enhanceParams(params, queryOptions);
+            String cacheKey = SolrQueryUtils.getCacheKey(enhancedParams);
+            SolrDocumentList cached = getCachedResults(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+            long generation = getIndexGeneration();
             this.logger.debug("Searching [{}] with query [{}]", getName(), enhancedParams);
             QueryResponse response = this.externalServicesAccess.getSolrConnection().query(enhancedParams);
             SolrDocumentList results = response.getResults();
-            if (response.getSpellCheckResponse() != null && !response.getSpellCheckResponse().isCorrectlySpelled()
-                && StringUtils.isNotEmpty(response.getSpellCheckResponse().getCollatedResult())) {
+            if (isSpellcheckRetryWorthwhile(response, enhancedParams)) {
                 enhancedParams =
                     SolrQueryUtils.applySpellcheckSuggestion(enhancedParams, response.getSpellCheckResponse()
                         .getCollatedResult());
@@ -235,13 +261,40 @@ protected SolrDocumentList search(SolrParams params, Map<String, String> queryOp
                     results = spellcheckResults;
                 }
             }
-            return results;
+            return cacheResults(cacheKey, results, generation);
         } catch (Exception ex) {
             this.logger.error("Failed to search: {}", ex.getMessage(), ex);
         }
         return null;
     }
 
+    /**
+     * Decide whether the spellchecked query suggested by Solr should be tried after the original query. The retry is
+     * only worthwhile if there is a suggestion, and, when Solr was asked to verify the collations, if the collation is
+     * expected to match more terms than the original query did.
+     *
+     * @param response the response to the original query
+     * @param params the parameters used for the original query
+     * @return {@code true} if the spellchecked query should be sent, {@code false} otherwise
+     */
+    protected boolean isSpellcheckRetryWorthwhile(QueryResponse response, SolrParams params)
+    {
+        SpellCheckResponse spellcheck = response.getSpellCheckResponse();
+        if (spellcheck == null || spellcheck.isCorrectlySpelled()
+            || StringUtils.isEmpty(spellcheck.getCollatedResult())) {
+            return false;
+        }
+        List<Collation> collations = spellcheck.getCollatedResults();
+        if (params.getInt(SpellingParams.SPELLCHECK_MAX_COLLATION_TRIES, 0) > 0 && collations != null
+            && !collations.isEmpty()) {
+            // Solr already ran the collated query to count its hits, no need to run it again if it isn't better
+            long found = response.getResults() == null ? 0 : response.getResults().getNumFound();
+            return collations.get(0).getNumberOfHits() > found;
+        }
+        // No estimate available, the results will be compared by their score
+        return true;
+    }
+
     /**
      * Get the number of entries that match a specific Lucene query.
      *
@@ -254,10 +307,16 @@ protected long count(String query)
         params.set(CommonParams.Q, query);
         params.set(CommonParams.START, "0");
         params.set(CommonParams.ROWS, "0");
-        SolrDocumentList results;
+        String cacheKey = SolrQueryUtils.getCacheKey(params);
+        SolrDocumentList results = getCachedResults(cacheKey);
+        if (results != null) {
+            return results.getNumFound();
+        }
         try {
+            long generation = getIndexGeneration();
             this.logger.debug("Counting terms matching [{}] in [{}]", query, getName());
             results = this.externalServicesAccess.getSolrConnection().query(params).getResults();
+            cacheResults(cacheKey, results, generation);
             return results.getNumFound();
         } catch (Exception ex) {
             this.logger.error("Failed to count ontology terms: {}", ex.getMessage(), ex);
@@ -265,6 +324,96 @@ protected long count(String query)
         }
     }
 
+    /**
+     * Clear the cached search results. Must be called whenever the indexed data changes.
+     */
+    protected void clearSearchCache()
+    {
+        this.indexGeneration.incrementAndGet();
+        Cache<SolrDocumentList> cache = this.externalServicesAccess.getSearchCache();
+        if (cache != null) {
+            cache.removeAll();
+        }
+    }
+
+    /**
+     * The current generation of the indexed data, incremented by {@link #clearSearchCache()}. Data read from the index
+     * must only be remembered if the generation didn't change while it was being read.
+     *
+     * @return the current generation number
+     */
+    protected long getIndexGeneration()
+    {
+        return this.indexGeneration.get();
+    }
+
+    /**
+     * Retrieve a copy of cached search results.
+     *
+     * @param cacheKey the serialized query parameters
+     * @return a copy of the cached results, or {@code null} if the query results aren't cached
+     */
+    private SolrDocumentList getCachedResults(String cacheKey)
+    {
+        Cache<SolrDocumentList> cache = this.externalServicesAccess.getSearchCache();
+        if (cache == null) {
+            return null;
+        }
+        SolrDocumentList cached = cache.get(cacheKey);
+        return cached == null ? null : copy(cached);
+    }
+
+    /**
+     * Store search results in the cache. A copy of the results is returned, so that the cached documents are never
+     * modified by the caller. Results with more than {@link #MAX_CACHED_RESULTS} documents aren't cached.
+     *
+     * @param cacheKey the serialized query parameters
+     * @param results the results to cache
+     * @param generation the {@link #getIndexGeneration() index generation} read before querying the index; if the
+     *            index changed since then, the results aren't cached
+     * @return a copy of the results, or the results themselves if they aren't cached
+     */
+    private SolrDocumentList cacheResults(String cacheKey, SolrDocumentList results, long generation)
+    {
+        Cache<SolrDocumentList> cache = this.externalServicesAccess.getSearchCache();
+        if (cache == null || results == null || results.size() > MAX_CACHED_RESULTS
+            || generation != getIndexGeneration()) {
+            return results;
+        }
+        cache.set(cacheKey, results);
+        if (generation != getIndexGeneration()) {
+            // The cache was cleared while the results were being stored
+            cache.remove(cacheKey);
+        }
+        return copy(results);
+    }
+
+    /**
+     * Copy a list of documents, including the multi-valued fields, which are modified by {@link SolrVocabularyTerm}.
+     *
+     * @param original the list to copy
+     * @return a copy of the list
+     */
+    private SolrDocumentList copy(SolrDocumentList original)
+    {
+        SolrDocumentList result = new SolrDocumentList();
+        result.setNumFound(original.getNumFound());
+        result.setStart(original.getStart());
+        result.setMaxScore(original.getMaxScore());
+        for (SolrDocument doc : original) {
+            SolrDocument docCopy = new SolrDocument();
+            for (Map.Entry<String, Object> field : doc) {
+                Object value = field.getValue();
+                if (value instanceof Collection) {
+                    value = new ArrayList<Object>((Collection<?>) value);
+                }
+                docCopy.setField(field.getKey(), value);
+            }
+            result.add(docCopy);
+        }
+        return result;
+    }
+
     /**
      * Generate a Lucene query from a map of parameters, to be used in the "q" parameter for Solr.
      *
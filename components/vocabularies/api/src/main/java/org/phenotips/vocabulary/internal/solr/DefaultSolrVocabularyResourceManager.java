@@ -25,6 +25,7 @@
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheManager;
 import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.annotation.InstantiationStrategy;
 import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
@@ -34,6 +35,7 @@
 
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
+import org.apache.solr.common.SolrDocumentList;
 
 /**
  * Default implementation for the {@link SolrVocabularyResourceManager} component.
@@ -45,12 +47,18 @@
 @InstantiationStrategy(ComponentInstantiationStrategy.PER_LOOKUP)
 public class DefaultSolrVocabularyResourceManager implements SolrVocabularyResourceManager
 {
+    /** The maximum number of search results kept in the search cache. */
+    private static final int SEARCH_CACHE_SIZE = 1000;
+
     /** @see #getSolrConnection() */
     private SolrClient core;
 
     /** @see #getTermCache() */
     private Cache<VocabularyTerm> cache;
 
+    /** @see #getSearchCache() */
+    private Cache<SolrDocumentList> searchCache;
+
     /** Provides access to the Solr cores. */
     @Inject
     private SolrCoreContainerHandler cores;
@@ -65,6 +73,8 @@ public void initialize(String vocabularyName) throws InitializationException
         try {
             this.core = new EmbeddedSolrServer(this.cores.getContainer(), vocabularyName);
             this.cache = this.cacheFactory.createNewLocalCache(new CacheConfiguration());
+            this.searchCache = this.cacheFactory.createNewLocalCache(
+                new CacheConfiguration(new LRUEvictionConfiguration(SEARCH_CACHE_SIZE)));
         } catch (RuntimeException ex) {
             throw new InitializationException("Invalid Solr core: " + ex.getMessage());
         } catch (final CacheException ex) {
@@ -78,6 +88,12 @@ public Cache<VocabularyTerm> getTermCache()
         return this.cache;
     }
 
+    @Override
+    public Cache<SolrDocumentList> getSearchCache()
+    {
+        return this.searchCache;
+    }
+
     @Override
     public SolrClient getSolrConnection()
     {
@@ -42,6 +42,9 @@
 
     private static final String SPELLCHECK = "spellcheck";
 
+    /** The default number of collations that Solr should verify, in order to estimate how many results they match. */
+    private static final String DEFAULT_COLLATION_TRIES = "1";
+
     /** Private default constructor, so that this utility class can't be instantiated. */
     private SolrQueryUtils()
     {
@@ -78,7 +81,9 @@ public static SolrParams enhanceParams(SolrParams originalParams)
     /**
      * Adds extra parameters to a Solr query for better term searches, including custom options. More specifically, adds
      * parameters for requesting the score to be included in the results, for requesting a spellcheck result, and sets
-     * the {@code start} and {@code rows} parameters when missing.
+     * the {@code start} and {@code rows} parameters when missing. When spellchecking is enabled, the collations are
+     * verified by Solr and their estimated number of hits is included in the response, so that a second query with the
+     * spellchecked collation is only sent if it is expected to return better results.
      *
      * @param originalParams the original Solr parameters to enhance
      * @param queryOptions extra options to include in the query; these override the default values, but don't override
@@ -109,6 +114,11 @@ public static SolrParams enhanceParams(SolrParams originalParams, Map<String, St
         if (newParams.get(SPELLCHECK) == null) {
             newParams.set(SPELLCHECK, Boolean.toString(true));
             newParams.set(SpellingParams.SPELLCHECK_COLLATE, Boolean.toString(true));
+            newParams.set(SpellingParams.SPELLCHECK_MAX_COLLATION_TRIES, DEFAULT_COLLATION_TRIES);
+        }
+        if (newParams.getBool(SPELLCHECK, false)
+            && newParams.get(SpellingParams.SPELLCHECK_COLLATE_EXTENDED_RESULTS) == null) {
+            newParams.set(SpellingParams.SPELLCHECK_COLLATE_EXTENDED_RESULTS, Boolean.toString(true));
         }
         return newParams;
     }
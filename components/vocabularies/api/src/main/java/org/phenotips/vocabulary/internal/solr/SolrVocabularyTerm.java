@@ -19,6 +19,7 @@
 
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyTerm;
+import org.phenotips.vocabulary.VocabularyTermAncestors;
 
 import java.util.Collection;
 import java.util.Collections;
@@ -50,7 +51,7 @@ public class SolrVocabularyTerm implements VocabularyTerm
 
     private static final String DEF = "def";
 
-    private static final String TERM_CATEGORY = "term_category";
+    private static final String TERM_CATEGORY = VocabularyTermAncestors.PROPERTY_NAME;
 
     private static final String IS_A = "is_a";
 
@@ -31,6 +31,7 @@
 
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -46,7 +47,9 @@
 import com.xpn.xwiki.objects.BaseObject;
 
 /**
- * Store the used vocabulary versions (in the form name:String, version:String) in the patient record.
+ * Store the used vocabulary versions (in the form name:String, version:String) in the patient record. Vocabularies
+ * remember their version until they are reindexed, so recording the versions doesn't query the vocabulary indexes on
+ * each save.
  *
  * @version $Id$
  * @since 1.2M4 (under different names since 1.0M10)
@@ -88,25 +91,25 @@ public void onEvent(Event event, Object source, Object data)
             return;
         }
 
-        List<BaseObject> existingVersionObjects = doc.getXObjects(VERSION_RECORDER_REFERENCE);
+        Map<String, BaseObject> existingVersionObjects = new HashMap<>();
+        List<BaseObject> versionObjects = doc.getXObjects(VERSION_RECORDER_REFERENCE);
+        if (versionObjects != null) {
+            for (BaseObject versionObject : versionObjects) {
+                String name = versionObject != null ? versionObject.getStringValue(NAME_FIELD) : null;
+                if (name != null && !existingVersionObjects.containsKey(name.toLowerCase(Locale.ROOT))) {
+                    existingVersionObjects.put(name.toLowerCase(Locale.ROOT), versionObject);
+                }
+            }
+        }
         try {
             for (Map.Entry<String, String> versionType : this.getOntologiesVersions().entrySet()) {
-                boolean skip = false;
-                if (existingVersionObjects != null) {
-                    for (BaseObject existingVersionObject : existingVersionObjects) {
-                        String name = existingVersionObject.getStringValue(NAME_FIELD);
-                        if (StringUtils.equalsIgnoreCase(name, versionType.getKey())) {
-                            existingVersionObject.set(VERSION_FIELD, versionType.getValue(), context);
-                            skip = true;
-                            break;
-                        }
-                    }
-                    if (skip) {
-                        continue;
-                    }
+                BaseObject versionObject = existingVersionObjects.get(versionType.getKey().toLowerCase(Locale.ROOT));
+                if (versionObject == null) {
+                    versionObject = doc.newXObject(VERSION_RECORDER_REFERENCE, context);
+                    versionObject.set(NAME_FIELD, versionType.getKey(), context);
+                } else if (StringUtils.equals(versionType.getValue(), versionObject.getStringValue(VERSION_FIELD))) {
+                    continue;
                 }
-                BaseObject versionObject = doc.newXObject(VERSION_RECORDER_REFERENCE, context);
-                versionObject.set(NAME_FIELD, versionType.getKey(), context);
                 versionObject.set(VERSION_FIELD, versionType.getValue(), context);
             }
         } catch (XWikiException ex) {
@@ -0,0 +1,74 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link VocabularyTermAncestors}.
+ *
+ * @version $Id$
+ */
+public class VocabularyTermAncestorsTest
+{
+    @Test
+    public void ancestorsAreReadFromTheStoredProperty()
+    {
+        VocabularyTerm term = mock(VocabularyTerm.class);
+        when(term.getId()).thenReturn("HP:0000002");
+        when(term.get("term_category")).thenReturn(Arrays.asList("HP:0000002", "HP:0000118", "HP:0000001"));
+
+        Assert.assertEquals(new LinkedHashSet<String>(Arrays.asList("HP:0000118", "HP:0000001")),
+            VocabularyTermAncestors.getAncestorIds(term));
+        verify(term, never()).getAncestors();
+    }
+
+    @Test
+    public void ancestorsAreResolvedWhenNotStored()
+    {
+        VocabularyTerm term = mock(VocabularyTerm.class);
+        when(term.getId()).thenReturn("HP:0000002");
+        VocabularyTerm root = mock(VocabularyTerm.class);
+        when(root.getId()).thenReturn("HP:0000001");
+        Set<VocabularyTerm> ancestors = Collections.singleton(root);
+        when(term.getAncestors()).thenReturn(ancestors);
+
+        Assert.assertEquals(Collections.singleton("HP:0000001"), VocabularyTermAncestors.getAncestorIds(term));
+    }
+
+    @Test
+    public void termsWithoutAncestorsHaveAnEmptySet()
+    {
+        VocabularyTerm term = mock(VocabularyTerm.class);
+        when(term.getId()).thenReturn("HP:0000001");
+        when(term.getAncestors()).thenReturn(Collections.<VocabularyTerm>emptySet());
+
+        Assert.assertTrue(VocabularyTermAncestors.getAncestorIds(term).isEmpty());
+    }
+}
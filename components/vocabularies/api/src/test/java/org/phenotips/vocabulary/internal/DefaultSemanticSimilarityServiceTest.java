@@ -0,0 +1,166 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal;
+
+import org.phenotips.vocabulary.AlternativeIdMapping;
+import org.phenotips.vocabulary.SemanticSimilarityService;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Tests for the {@link DefaultSemanticSimilarityService} component, using a small vocabulary where {@code R} is the
+ * root, {@code A} and {@code B} are children of the root, {@code C} is a child of {@code A}, {@code D} is a child of
+ * both {@code A} and {@code B}, and {@code E} is a child of {@code C}.
+ */
+public class DefaultSemanticSimilarityServiceTest
+{
+    private static final double DELTA = 1E-9;
+
+    @Rule
+    public final MockitoComponentMockingRule<SemanticSimilarityService> mocker =
+        new MockitoComponentMockingRule<SemanticSimilarityService>(DefaultSemanticSimilarityService.class);
+
+    private SemanticSimilarityService service;
+
+    private Vocabulary vocabulary;
+
+    @Before
+    public void setup() throws ComponentLookupException
+    {
+        this.service = this.mocker.getComponentUnderTest();
+        this.vocabulary = mock(Vocabulary.class, withSettings().extraInterfaces(AlternativeIdMapping.class));
+        VocabularyManager manager = this.mocker.getInstance(VocabularyManager.class);
+        when(manager.getVocabulary("T")).thenReturn(this.vocabulary);
+        when(this.vocabulary.getVersion()).thenReturn("1");
+        when(this.vocabulary.size()).thenReturn(6L);
+
+        List<VocabularyTerm> terms = new ArrayList<VocabularyTerm>();
+        terms.add(term("T:R"));
+        terms.add(term("T:A", "T:R"));
+        terms.add(term("T:B", "T:R"));
+        terms.add(term("T:C", "T:A", "T:R"));
+        terms.add(term("T:D", "T:A", "T:B", "T:R"));
+        terms.add(term("T:E", "T:C", "T:A", "T:R"));
+        when(this.vocabulary.search(anyMapOf(String.class, Object.class), anyMapOf(String.class, String.class)))
+            .thenReturn(terms);
+    }
+
+    @Test
+    public void informationContentDecreasesTowardsTheRoot()
+    {
+        Assert.assertEquals(0, this.service.getInformationContent("T:R"), DELTA);
+        Assert.assertEquals(Math.log(6.0 / 4), this.service.getInformationContent("T:A"), DELTA);
+        Assert.assertEquals(Math.log(3), this.service.getInformationContent("T:C"), DELTA);
+        Assert.assertEquals(Math.log(6), this.service.getInformationContent("T:E"), DELTA);
+        Assert.assertEquals(0, this.service.getInformationContent("T:X"), DELTA);
+        Assert.assertEquals(0, this.service.getInformationContent("X:A"), DELTA);
+    }
+
+    @Test
+    public void mostInformativeCommonAncestorIsFound()
+    {
+        Assert.assertEquals("T:A", this.service.getMostInformativeCommonAncestor("T:D", "T:E"));
+        Assert.assertEquals("T:B", this.service.getMostInformativeCommonAncestor("T:D", "T:B"));
+        Assert.assertEquals("T:R", this.service.getMostInformativeCommonAncestor("T:C", "T:B"));
+        Assert.assertEquals("T:E", this.service.getMostInformativeCommonAncestor("T:E", "T:E"));
+        Assert.assertNull(this.service.getMostInformativeCommonAncestor("T:E", "T:X"));
+    }
+
+    @Test
+    public void termSimilarities()
+    {
+        Assert.assertEquals(Math.log(6.0 / 4), this.service.getResnikSimilarity("T:D", "T:E"), DELTA);
+        Assert.assertEquals(0, this.service.getResnikSimilarity("T:C", "T:B"), DELTA);
+        Assert.assertEquals(2 * Math.log(6.0 / 4) / (2 * Math.log(6)), this.service.getLinSimilarity("T:D", "T:E"),
+            DELTA);
+        Assert.assertEquals(1, this.service.getLinSimilarity("T:E", "T:E"), DELTA);
+        Assert.assertEquals(1, this.service.getLinSimilarity("T:R", "T:R"), DELTA);
+        Assert.assertEquals(0, this.service.getLinSimilarity("T:C", "T:B"), DELTA);
+    }
+
+    @Test
+    public void setSimilarityIsTheBestMatchAverage()
+    {
+        double expected = (Math.log(3) + Math.log(6.0 / 4) + Math.log(3)) / 3;
+        Assert.assertEquals(expected,
+            this.service.getResnikSimilarity(Arrays.asList("T:D"), Arrays.asList("T:E", "T:B")), DELTA);
+        Assert.assertEquals(expected,
+            this.service.getResnikSimilarity(Arrays.asList("T:E", "T:B"), Arrays.asList("T:D")), DELTA);
+        Assert.assertEquals(1, this.service.getLinSimilarity(Arrays.asList("T:D", "T:E"), Arrays.asList("T:E",
+            "T:D")), DELTA);
+        Assert.assertEquals(0,
+            this.service.getLinSimilarity(Arrays.asList("T:D"), Collections.<String>emptyList()), DELTA);
+    }
+
+    @Test
+    public void alternativeIdentifiersAreTranslatedToThePrimaryIdentifiers()
+    {
+        when(((AlternativeIdMapping) this.vocabulary).getPrimaryId("T:OLD")).thenReturn("T:E");
+
+        Assert.assertEquals(Math.log(6), this.service.getInformationContent("T:OLD"), DELTA);
+        Assert.assertEquals("T:A", this.service.getMostInformativeCommonAncestor("T:D", "T:OLD"));
+        Assert.assertEquals(Math.log(6.0 / 4), this.service.getResnikSimilarity("T:OLD", "T:D"), DELTA);
+        Assert.assertEquals(1, this.service.getLinSimilarity("T:OLD", "T:E"), DELTA);
+        Assert.assertEquals(1, this.service.getLinSimilarity(Arrays.asList("T:D", "T:OLD"), Arrays.asList("T:E",
+            "T:D")), DELTA);
+    }
+
+    @Test
+    public void vocabularyIsReadOncePerVersion()
+    {
+        this.service.getResnikSimilarity("T:D", "T:E");
+        this.service.getLinSimilarity(Arrays.asList("T:D", "T:E"), Arrays.asList("T:B", "T:C"));
+        verify(this.vocabulary, times(1)).search(anyMapOf(String.class, Object.class),
+            anyMapOf(String.class, String.class));
+
+        when(this.vocabulary.getVersion()).thenReturn("2");
+        this.service.getResnikSimilarity("T:D", "T:E");
+        this.service.getResnikSimilarity("T:D", "T:E");
+        verify(this.vocabulary, times(2)).search(anyMapOf(String.class, Object.class),
+            anyMapOf(String.class, String.class));
+    }
+
+    private VocabularyTerm term(String id, String... ancestors)
+    {
+        VocabularyTerm term = mock(VocabularyTerm.class);
+        when(term.getId()).thenReturn(id);
+        when(term.get("term_category")).thenReturn(new ArrayList<String>(Arrays.asList(ancestors)));
+        return term;
+    }
+}
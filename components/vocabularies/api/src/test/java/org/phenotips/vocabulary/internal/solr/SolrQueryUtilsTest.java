@@ -54,10 +54,23 @@ public void testEnhanceParamsDefaultValues()
         Assert.assertNull(output.get(CommonParams.Q));
         Assert.assertEquals("* score", output.get(CommonParams.FL));
         Assert.assertEquals(true, output.getBool(SpellingParams.SPELLCHECK_COLLATE));
+        Assert.assertEquals(true, output.getBool(SpellingParams.SPELLCHECK_COLLATE_EXTENDED_RESULTS));
+        Assert.assertTrue(output.getInt(SpellingParams.SPELLCHECK_MAX_COLLATION_TRIES) > 0);
         Assert.assertEquals(0, (int) output.getInt(CommonParams.START));
         Assert.assertTrue(output.getInt(CommonParams.ROWS) > 100);
     }
 
+    @Test
+    public void testEnhanceParamsDoesntReplaceSpellcheckSettings()
+    {
+        ModifiableSolrParams input = new ModifiableSolrParams();
+        input.set("spellcheck", false);
+        SolrParams output = SolrQueryUtils.enhanceParams(input);
+        Assert.assertEquals(false, output.getBool("spellcheck"));
+        Assert.assertNull(output.get(SpellingParams.SPELLCHECK_COLLATE_EXTENDED_RESULTS));
+        Assert.assertNull(output.get(SpellingParams.SPELLCHECK_MAX_COLLATION_TRIES));
+    }
+
     @Test
     public void testEnhanceParamsDoesntReplaceExistingValues()
     {
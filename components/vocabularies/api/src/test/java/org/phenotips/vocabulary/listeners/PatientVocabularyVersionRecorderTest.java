@@ -0,0 +1,153 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.listeners;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.events.PatientChangingEvent;
+import org.phenotips.vocabulary.Vocabulary;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link PatientVocabularyVersionRecorder} listener.
+ *
+ * @version $Id$
+ */
+public class PatientVocabularyVersionRecorderTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<EventListener> mocker =
+        new MockitoComponentMockingRule<EventListener>(PatientVocabularyVersionRecorder.class);
+
+    private Map<String, Vocabulary> vocabularies = new LinkedHashMap<>();
+
+    private XWikiContext context;
+
+    private XWikiDocument doc;
+
+    @Before
+    public void setup() throws ComponentLookupException
+    {
+        ReflectionUtils.setFieldValue(this.mocker.getComponentUnderTest(), "ontologies", this.vocabularies);
+
+        Execution execution = this.mocker.getInstance(Execution.class);
+        ExecutionContext executionContext = mock(ExecutionContext.class);
+        when(execution.getContext()).thenReturn(executionContext);
+        this.context = mock(XWikiContext.class);
+        when(executionContext.getProperty("xwikicontext")).thenReturn(this.context);
+
+        this.doc = mock(XWikiDocument.class);
+        when(this.doc.getXObject(Patient.CLASS_REFERENCE)).thenReturn(mock(BaseObject.class));
+    }
+
+    @Test
+    public void unchangedVersionsAreNotRewritten() throws ComponentLookupException, XWikiException
+    {
+        addVocabulary("hpo", "2015-12-01");
+        BaseObject hpoVersion = mockVersionObject("HPO", "2015-12-01");
+        when(this.doc.getXObjects(any(EntityReference.class))).thenReturn(Arrays.asList(hpoVersion));
+
+        this.mocker.getComponentUnderTest().onEvent(new PatientChangingEvent(), this.doc, null);
+
+        verify(hpoVersion, never()).set(anyString(), any(), any(XWikiContext.class));
+        verify(this.doc, never()).newXObject(any(EntityReference.class), any(XWikiContext.class));
+    }
+
+    @Test
+    public void changedVersionsAreUpdated() throws ComponentLookupException, XWikiException
+    {
+        addVocabulary("hpo", "2016-01-15");
+        BaseObject hpoVersion = mockVersionObject("hpo", "2015-12-01");
+        when(this.doc.getXObjects(any(EntityReference.class))).thenReturn(Arrays.asList(hpoVersion));
+
+        this.mocker.getComponentUnderTest().onEvent(new PatientChangingEvent(), this.doc, null);
+
+        verify(hpoVersion).set("version", "2016-01-15", this.context);
+        verify(hpoVersion, never()).set(eq("name"), any(), any(XWikiContext.class));
+    }
+
+    @Test
+    public void missingVersionsAreAdded() throws ComponentLookupException, XWikiException
+    {
+        addVocabulary("omim", "2016-01-02");
+        addVocabulary("unversioned", "");
+        BaseObject omimVersion = mock(BaseObject.class);
+        when(this.doc.newXObject(any(EntityReference.class), eq(this.context))).thenReturn(omimVersion);
+
+        this.mocker.getComponentUnderTest().onEvent(new PatientChangingEvent(), this.doc, null);
+
+        verify(this.doc, times(1)).newXObject(any(EntityReference.class), eq(this.context));
+        verify(omimVersion).set("name", "omim", this.context);
+        verify(omimVersion).set("version", "2016-01-02", this.context);
+    }
+
+    @Test
+    public void documentsWithoutPatientsAreIgnored() throws ComponentLookupException
+    {
+        Vocabulary hpo = addVocabulary("hpo", "2016-01-15");
+        when(this.doc.getXObject(Patient.CLASS_REFERENCE)).thenReturn(null);
+
+        this.mocker.getComponentUnderTest().onEvent(new PatientChangingEvent(), this.doc, null);
+
+        verify(hpo, never()).getVersion();
+    }
+
+    private Vocabulary addVocabulary(String name, String version)
+    {
+        Vocabulary vocabulary = mock(Vocabulary.class);
+        when(vocabulary.getVersion()).thenReturn(version);
+        this.vocabularies.put(name, vocabulary);
+        return vocabulary;
+    }
+
+    private BaseObject mockVersionObject(String name, String version)
+    {
+        BaseObject result = mock(BaseObject.class);
+        when(result.getStringValue("name")).thenReturn(name);
+        when(result.getStringValue("version")).thenReturn(version);
+        return result;
+    }
+}
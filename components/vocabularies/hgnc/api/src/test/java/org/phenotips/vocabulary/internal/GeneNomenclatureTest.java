@@ -0,0 +1,111 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal;
+
+import org.phenotips.vocabulary.SolrVocabularyResourceManager;
+import org.phenotips.vocabulary.Vocabulary;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.io.IOException;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.SolrParams;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link GeneNomenclature} component.
+ *
+ * @version $Id$
+ */
+public class GeneNomenclatureTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<Vocabulary> mocker =
+        new MockitoComponentMockingRule<Vocabulary>(GeneNomenclature.class);
+
+    private SolrClient server;
+
+    @Before
+    public void setUp() throws ComponentLookupException, SolrServerException, IOException
+    {
+        SolrVocabularyResourceManager externalServicesAccess =
+            this.mocker.getInstance(SolrVocabularyResourceManager.class);
+        this.server = mock(SolrClient.class);
+        when(externalServicesAccess.getSolrConnection()).thenReturn(this.server);
+
+        QueryResponse response = mock(QueryResponse.class);
+        SolrDocumentList results = new SolrDocumentList();
+        SolrDocument doc = new SolrDocument();
+        doc.setField("version", "2015-11-30T00:00:00.000Z");
+        results.add(doc);
+        when(response.getResults()).thenReturn(results);
+        when(this.server.query(any(SolrParams.class))).thenReturn(response);
+    }
+
+    @Test
+    public void versionIsOnlyReadOnce() throws ComponentLookupException, SolrServerException, IOException
+    {
+        Vocabulary hgnc = this.mocker.getComponentUnderTest();
+
+        Assert.assertEquals("2015-11-30T00:00:00.000Z", hgnc.getVersion());
+        Assert.assertEquals("2015-11-30T00:00:00.000Z", hgnc.getVersion());
+
+        verify(this.server, times(1)).query(any(SolrParams.class));
+    }
+
+    @Test
+    public void versionIsReadAgainAfterReindexing() throws ComponentLookupException, SolrServerException, IOException
+    {
+        Vocabulary hgnc = this.mocker.getComponentUnderTest();
+
+        hgnc.getVersion();
+        // The index is cleared before the invalid URL is rejected
+        Assert.assertEquals(2, hgnc.reindex("not a URL"));
+        hgnc.getVersion();
+
+        verify(this.server).deleteByQuery("*:*");
+        verify(this.server, times(2)).query(any(SolrParams.class));
+    }
+
+    @Test
+    public void missingVersionIsNotRemembered() throws ComponentLookupException, SolrServerException, IOException
+    {
+        when(this.server.query(any(SolrParams.class))).thenThrow(new SolrServerException("Server down"));
+        Vocabulary hgnc = this.mocker.getComponentUnderTest();
+
+        Assert.assertNull(hgnc.getVersion());
+        Assert.assertNull(hgnc.getVersion());
+
+        verify(this.server, times(2)).query(any(SolrParams.class));
+    }
+}
@@ -17,11 +17,19 @@
  */
 package org.phenotips.vocabulary.internal.solr;
 
+import org.phenotips.obo2solr.TermData;
+import org.phenotips.vocabulary.TermPopularity;
 import org.phenotips.vocabulary.VocabularyTerm;
+import org.phenotips.vocabulary.VocabularyTermAncestors;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
 
+import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -29,14 +37,21 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
+import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.DisMaxParams;
 import org.apache.solr.common.params.ModifiableSolrParams;
@@ -44,7 +59,9 @@
 import org.apache.solr.common.params.SpellingParams;
 
 /**
- * Provides access to the Human Phenotype Ontology (HPO). The ontology prefix is {@code HP}.
+ * Provides access to the Human Phenotype Ontology (HPO). The ontology prefix is {@code HP}. Plain autocomplete
+ * searches are answered from an in-memory {@link TermSuggestionIndex} when it finds enough matching terms, and only
+ * fall back to a full Solr search, with spellchecking and relevance boosts, when it doesn't.
  *
  * @version $Id$
  * @since 1.0M8
@@ -57,6 +74,17 @@ public class HumanPhenotypeOntology extends AbstractOBOSolrVocabulary
     /** For determining if a query is a an id. */
     private static final Pattern ID_PATTERN = Pattern.compile("^HP:[0-9]+$", Pattern.CASE_INSENSITIVE);
 
+    /** The root of the phenotypes branch, the only branch searched by default. */
+    private static final String PHENOTYPES_ROOT = "HP:0000118";
+
+    /** Provides the term popularity, if a component providing it is available. */
+    @Inject
+    @Named("context")
+    private Provider<ComponentManager> componentManager;
+
+    /** The autocomplete index, built when the ontology is indexed, or read from the index when first needed. */
+    private final AtomicReference<TermSuggestionIndex> suggestions = new AtomicReference<>();
+
     @Override
     protected String getName()
     {
@@ -93,6 +121,12 @@ public List<VocabularyTerm> search(String input, int maxResults, String sort, St
             return Collections.emptyList();
         }
         boolean isId = this.isId(input);
+        if (!isId && maxResults > 0 && StringUtils.isBlank(sort) && StringUtils.isBlank(customFilter)) {
+            List<VocabularyTerm> suggested = suggest(input, maxResults);
+            if (suggested != null) {
+                return suggested;
+            }
+        }
         Map<String, String> options = this.getStaticSolrParams();
         if (!isId) {
             options.putAll(this.getStaticFieldSolrParams());
@@ -105,6 +139,135 @@ public List<VocabularyTerm> search(String input, int maxResults, String sort, St
         return result;
     }
 
+    @Override
+    protected void termsIndexed(Map<String, TermData> data)
+    {
+        Map<String, TermData> phenotypes = new HashMap<String, TermData>();
+        for (Map.Entry<String, TermData> term : data.entrySet()) {
+            Collection<String> ancestors = term.getValue().get(VocabularyTermAncestors.PROPERTY_NAME);
+            if (ancestors != null && ancestors.contains(PHENOTYPES_ROOT)) {
+                phenotypes.put(term.getKey(), term.getValue());
+            }
+        }
+        this.suggestions.set(new TermSuggestionIndex(phenotypes));
+    }
+
+    @Override
+    protected int clear()
+    {
+        this.suggestions.set(null);
+        return super.clear();
+    }
+
+    /**
+     * Answers an autocomplete search from the in-memory suggestions index.
+     *
+     * @param input the typed text
+     * @param maxResults the number of terms to return
+     * @return the suggested terms, or {@code null} if the index doesn't have enough matching terms and a full search
+     *         must be performed instead
+     */
+    private List<VocabularyTerm> suggest(String input, int maxResults)
+    {
+        TermSuggestionIndex index = this.suggestions.get();
+        if (index == null) {
+            index = loadSuggestions();
+            if (index == null) {
+                return null;
+            }
+            // The ontology may have been reindexed meanwhile, in which case the index built from the new terms is kept
+            if (!this.suggestions.compareAndSet(null, index)) {
+                index = this.suggestions.get();
+                if (index == null) {
+                    return null;
+                }
+            }
+        }
+        List<String> ids = index.suggest(input, maxResults, getPopularity());
+        if (ids.size() < maxResults) {
+            return null;
+        }
+
+        StringBuilder query = new StringBuilder("id:(");
+        for (String id : ids) {
+            query.append(ClientUtils.escapeQueryChars(id)).append(' ');
+        }
+        query.append(')');
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.add(CommonParams.Q, query.toString());
+        params.add(CommonParams.ROWS, String.valueOf(ids.size()));
+        SolrDocumentList docs = this.search(params);
+        if (docs == null || docs.size() < ids.size()) {
+            // The suggestions index doesn't match the Solr index
+            return null;
+        }
+        Map<String, VocabularyTerm> terms = new HashMap<String, VocabularyTerm>();
+        for (SolrDocument doc : docs) {
+            VocabularyTerm term = new SolrVocabularyTerm(doc, this);
+            terms.put(term.getId(), term);
+        }
+        List<VocabularyTerm> result = new ArrayList<VocabularyTerm>(ids.size());
+        for (String id : ids) {
+            result.add(terms.get(id));
+        }
+        return result;
+    }
+
+    /**
+     * Reads the phenotype names and synonyms from the index, for when the ontology was indexed before the current
+     * startup.
+     *
+     * @return the suggestions index, or {@code null} if the Solr index couldn't be queried
+     */
+    private TermSuggestionIndex loadSuggestions()
+    {
+        SolrQuery query =
+            new SolrQuery(VocabularyTermAncestors.PROPERTY_NAME + ':' + ClientUtils.escapeQueryChars(PHENOTYPES_ROOT));
+        query.setFields(ID_FIELD_NAME, "name", "synonym");
+        query.setRows(0);
+        try {
+            long count = this.externalServicesAccess.getSolrConnection().query(query).getResults().getNumFound();
+            query.setRows((int) count);
+            Map<String, Map<String, Collection<String>>> terms = new HashMap<String, Map<String, Collection<String>>>();
+            for (SolrDocument doc : this.externalServicesAccess.getSolrConnection().query(query).getResults()) {
+                Map<String, Collection<String>> fields = new HashMap<String, Collection<String>>();
+                for (String field : doc.getFieldNames()) {
+                    Collection<String> values = new ArrayList<String>();
+                    for (Object value : doc.getFieldValues(field)) {
+                        values.add(String.valueOf(value));
+                    }
+                    fields.put(field, values);
+                }
+                terms.put(String.valueOf(doc.getFieldValue(ID_FIELD_NAME)), fields);
+            }
+            return new TermSuggestionIndex(terms);
+        } catch (SolrServerException | SolrException | IOException ex) {
+            this.logger.warn("Failed to read the phenotype names: {}", ex.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Returns how often each term is used, as told by the {@link TermPopularity} component, when one is available.
+     *
+     * @return the popularity of each used term, empty if the popularity isn't known
+     */
+    private Map<String, Integer> getPopularity()
+    {
+        try {
+            ComponentManager cm = this.componentManager.get();
+            if (cm.hasComponent(TermPopularity.class)) {
+                Map<String, Integer> result = cm.<TermPopularity>getInstance(TermPopularity.class).getPopularity();
+                if (result != null) {
+                    return result;
+                }
+            }
+        } catch (ComponentLookupException ex) {
+            this.logger.debug("Failed to look up the term popularity: {}", ex.getMessage());
+        }
+        return Collections.emptyMap();
+    }
+
     private Map<String, String> getStaticSolrParams()
     {
         Map<String, String> params = new HashMap<>();
@@ -0,0 +1,290 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal.solr;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory index for completing partially typed term names, synonyms and identifiers. The normalized texts of all the
+ * terms are stored once, and each word start in these texts is an entry in a sorted array of (text, offset) pairs,
+ * so all the texts containing a word starting with the typed prefix form a contiguous range of entries, found with a
+ * binary search. Matches are ranked by where the prefix matched, then by the popularity of the term, then by the
+ * length of the term name.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+public class TermSuggestionIndex
+{
+    /** The term property holding the name of the term. */
+    private static final String NAME_FIELD = "name";
+
+    /** The term property holding the synonyms of the term. */
+    private static final String SYNONYM_FIELD = "synonym";
+
+    /** Match rank for a prefix of the term identifier or of the term name. */
+    private static final int NAME_START = 0;
+
+    /** Match rank for a prefix of a word inside the term name. */
+    private static final int NAME_WORD = 1;
+
+    /** Match rank for a prefix of a synonym. */
+    private static final int SYNONYM_START = 2;
+
+    /** Match rank for a prefix of a word inside a synonym. */
+    private static final int SYNONYM_WORD = 3;
+
+    /** The identifiers of the indexed terms. */
+    private final String[] termIds;
+
+    /** The length of the name of each term, used for preferring shorter, more general, terms. */
+    private final int[] nameLengths;
+
+    /** The normalized texts: names, synonyms and identifiers. */
+    private final String[] texts;
+
+    /** The term each text belongs to, as a position in {@link #termIds}. */
+    private final int[] textTerms;
+
+    /** Whether each text is a synonym, as opposed to a name or an identifier. */
+    private final boolean[] textIsSynonym;
+
+    /** For each entry, in lexicographical order of the text starting at the entry, the text of the entry. */
+    private final int[] entryTexts;
+
+    /** For each entry, the position of the word start in the text of the entry. */
+    private final int[] entryOffsets;
+
+    /**
+     * Builds the index.
+     *
+     * @param terms the terms to index, each term identifier mapped to the term properties; the {@code name} and
+     *            {@code synonym} properties are indexed, along with the identifier
+     */
+    public TermSuggestionIndex(Map<String, ? extends Map<String, ? extends Collection<String>>> terms)
+    {
+        this.termIds = new String[terms.size()];
+        this.nameLengths = new int[terms.size()];
+        final List<String> allTexts = new ArrayList<String>();
+        List<Integer> allTerms = new ArrayList<Integer>();
+        List<Boolean> allSynonyms = new ArrayList<Boolean>();
+        int term = 0;
+        for (Map.Entry<String, ? extends Map<String, ? extends Collection<String>>> entry : terms.entrySet()) {
+            this.termIds[term] = entry.getKey();
+            this.nameLengths[term] = Integer.MAX_VALUE;
+            addText(entry.getKey(), term, false, allTexts, allTerms, allSynonyms);
+            Collection<String> names = entry.getValue().get(NAME_FIELD);
+            if (names != null) {
+                for (String name : names) {
+                    addText(name, term, false, allTexts, allTerms, allSynonyms);
+                    this.nameLengths[term] = Math.min(this.nameLengths[term], name.length());
+                }
+            }
+            Collection<String> synonyms = entry.getValue().get(SYNONYM_FIELD);
+            if (synonyms != null) {
+                for (String synonym : synonyms) {
+                    addText(synonym, term, true, allTexts, allTerms, allSynonyms);
+                }
+            }
+            ++term;
+        }
+
+        this.texts = allTexts.toArray(new String[allTexts.size()]);
+        this.textTerms = new int[this.texts.length];
+        this.textIsSynonym = new boolean[this.texts.length];
+        final List<int[]> entries = new ArrayList<int[]>();
+        for (int text = 0; text < this.texts.length; ++text) {
+            this.textTerms[text] = allTerms.get(text);
+            this.textIsSynonym[text] = allSynonyms.get(text);
+            for (int offset = 0; offset < this.texts[text].length(); ++offset) {
+                if (offset == 0 || this.texts[text].charAt(offset - 1) == ' ') {
+                    entries.add(new int[] { text, offset });
+                }
+            }
+        }
+        Collections.sort(entries, new Comparator<int[]>()
+        {
+            @Override
+            public int compare(int[] o1, int[] o2)
+            {
+                String text1 = TermSuggestionIndex.this.texts[o1[0]];
+                String text2 = TermSuggestionIndex.this.texts[o2[0]];
+                int length = Math.min(text1.length() - o1[1], text2.length() - o2[1]);
+                for (int i = 0; i < length; ++i) {
+                    int diff = text1.charAt(o1[1] + i) - text2.charAt(o2[1] + i);
+                    if (diff != 0) {
+                        return diff;
+                    }
+                }
+                return (text1.length() - o1[1]) - (text2.length() - o2[1]);
+            }
+        });
+        this.entryTexts = new int[entries.size()];
+        this.entryOffsets = new int[entries.size()];
+        for (int i = 0; i < entries.size(); ++i) {
+            this.entryTexts[i] = entries.get(i)[0];
+            this.entryOffsets[i] = entries.get(i)[1];
+        }
+    }
+
+    /**
+     * Normalizes a text for indexing or searching: lowercase, with any sequence of characters other than letters and
+     * digits replaced by a single space.
+     *
+     * @param text the text to normalize
+     * @return the normalized text, may be empty
+     */
+    public static String normalize(String text)
+    {
+        StringBuilder result = new StringBuilder(text.length());
+        boolean pendingSpace = false;
+        for (char c : text.toLowerCase(Locale.ROOT).toCharArray()) {
+            if (Character.isLetterOrDigit(c)) {
+                if (pendingSpace && result.length() > 0) {
+                    result.append(' ');
+                }
+                pendingSpace = false;
+                result.append(c);
+            } else {
+                pendingSpace = true;
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Finds the terms having a name, synonym or identifier containing a word starting with the given prefix.
+     *
+     * @param input the typed text, which doesn't need to be normalized
+     * @param limit the maximum number of terms to return
+     * @param popularity the number of times each term is used, terms used more often being preferred; terms missing
+     *            from this map are considered unused
+     * @return the identifiers of the matching terms, best matches first, or an empty list if there are no matches
+     */
+    public List<String> suggest(String input, int limit, Map<String, Integer> popularity)
+    {
+        String prefix = normalize(input);
+        if (prefix.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        final Map<Integer, Integer> ranks = new HashMap<Integer, Integer>();
+        for (int entry = findFirst(prefix); entry < this.entryTexts.length && compare(entry, prefix) == 0; ++entry) {
+            int text = this.entryTexts[entry];
+            int rank = this.textIsSynonym[text] ? SYNONYM_START : NAME_START;
+            if (this.entryOffsets[entry] > 0) {
+                rank = this.textIsSynonym[text] ? SYNONYM_WORD : NAME_WORD;
+            }
+            Integer previous = ranks.get(this.textTerms[text]);
+            if (previous == null || previous > rank) {
+                ranks.put(this.textTerms[text], rank);
+            }
+        }
+
+        final int[] uses = new int[this.termIds.length];
+        for (Integer term : ranks.keySet()) {
+            Integer termPopularity = popularity.get(this.termIds[term]);
+            uses[term] = termPopularity == null ? 0 : termPopularity;
+        }
+        List<Integer> matches = new ArrayList<Integer>(ranks.keySet());
+        Collections.sort(matches, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer o1, Integer o2)
+            {
+                int result = ranks.get(o1) - ranks.get(o2);
+                if (result == 0) {
+                    result = Integer.compare(uses[o2], uses[o1]);
+                }
+                if (result == 0) {
+                    result = Integer.compare(TermSuggestionIndex.this.nameLengths[o1],
+                        TermSuggestionIndex.this.nameLengths[o2]);
+                }
+                if (result == 0) {
+                    result = TermSuggestionIndex.this.termIds[o1].compareTo(TermSuggestionIndex.this.termIds[o2]);
+                }
+                return result;
+            }
+        });
+        List<String> result = new ArrayList<String>(Math.min(limit, matches.size()));
+        for (Integer term : matches.subList(0, Math.min(limit, matches.size()))) {
+            result.add(this.termIds[term]);
+        }
+        return result;
+    }
+
+    private void addText(String text, int term, boolean synonym, List<String> allTexts, List<Integer> allTerms,
+        List<Boolean> allSynonyms)
+    {
+        String normalized = normalize(text);
+        if (!normalized.isEmpty()) {
+            allTexts.add(normalized);
+            allTerms.add(term);
+            allSynonyms.add(synonym);
+        }
+    }
+
+    /**
+     * Finds the first entry which isn't lexicographically smaller than a prefix.
+     *
+     * @param prefix the normalized prefix
+     * @return the position of the first entry starting with the prefix, if there is any
+     */
+    private int findFirst(String prefix)
+    {
+        int low = 0;
+        int high = this.entryTexts.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(middle, prefix) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares the text starting at an entry with a prefix, considering only as many characters as the prefix has.
+     *
+     * @param entry the position of the entry
+     * @param prefix the normalized prefix
+     * @return {@code 0} if the entry starts with the prefix, a negative number if the entry comes before the prefix,
+     *         a positive number if the entry comes after the prefix
+     */
+    private int compare(int entry, String prefix)
+    {
+        String text = this.texts[this.entryTexts[entry]];
+        int offset = this.entryOffsets[entry];
+        int length = Math.min(text.length() - offset, prefix.length());
+        for (int i = 0; i < length; ++i) {
+            int diff = text.charAt(offset + i) - prefix.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length < prefix.length() ? -1 : 0;
+    }
+}
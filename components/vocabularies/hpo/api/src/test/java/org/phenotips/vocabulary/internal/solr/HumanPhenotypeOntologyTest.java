@@ -17,6 +17,8 @@
  */
 package org.phenotips.vocabulary.internal.solr;
 
+import org.phenotips.vocabulary.AlternativeIdMapping;
+import org.phenotips.vocabulary.TermPopularity;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyTerm;
 import org.phenotips.vocabulary.SolrVocabularyResourceManager;
@@ -24,14 +26,22 @@
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheException;
 import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.DefaultParameterizedType;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Provider;
 
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.SpellCheckResponse;
+import org.apache.solr.client.solrj.response.SpellCheckResponse.Collation;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
@@ -45,10 +55,15 @@
 import org.mockito.ArgumentMatcher;
 import org.mockito.Matchers;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -66,6 +81,8 @@
 
     public Vocabulary ontologyService;
 
+    private ComponentManager componentManager;
+
     @Rule
     public final MockitoComponentMockingRule<Vocabulary> mocker =
         new MockitoComponentMockingRule<Vocabulary>(HumanPhenotypeOntology.class);
@@ -81,6 +98,11 @@ public void setUpOntology()
         when(externalServicesAccess.getTermCache()).thenReturn(this.cache);
         this.server = mock(SolrClient.class);
         when(externalServicesAccess.getSolrConnection()).thenReturn(this.server);
+        // No term popularity available by default
+        this.componentManager = mock(ComponentManager.class);
+        Provider<ComponentManager> contextComponentManager = this.mocker.getInstance(
+            new DefaultParameterizedType(null, Provider.class, ComponentManager.class), "context");
+        when(contextComponentManager.get()).thenReturn(this.componentManager);
         this.ontologyService = this.mocker.getComponentUnderTest();
         this.ontologyServiceResult =
             this.ontologyService.reindex(this.getClass().getResource("/hpo-test.obo").toString());
@@ -112,6 +134,59 @@ public void testHumanPhenotypeOntologyVersion() throws SolrServerException, IOEx
         Assert.assertEquals("2014:01:01", this.ontologyService.getVersion());
     }
 
+    @Test
+    public void testHumanPhenotypeOntologyVersionIsCachedUntilReindexing() throws SolrServerException, IOException
+    {
+        QueryResponse response = mock(QueryResponse.class);
+        when(this.server.query(any(SolrQuery.class))).thenReturn(response);
+        SolrDocumentList results = new SolrDocumentList();
+        SolrDocument versionDoc = new SolrDocument();
+        versionDoc.setField("version", "2014:01:01");
+        results.add(versionDoc);
+        when(response.getResults()).thenReturn(results);
+
+        Assert.assertEquals("2014:01:01", this.ontologyService.getVersion());
+        Assert.assertEquals("2014:01:01", this.ontologyService.getVersion());
+        verify(this.server, times(1)).query(any(SolrQuery.class));
+
+        this.ontologyService.reindex(this.getClass().getResource("/hpo-test.obo").toString());
+        Assert.assertEquals("2014:01:01", this.ontologyService.getVersion());
+        verify(this.server, times(2)).query(any(SolrQuery.class));
+    }
+
+    @Test
+    public void testHumanPhenotypeOntologyVersionReadWhileReindexingIsNotCached() throws SolrServerException,
+        IOException
+    {
+        final QueryResponse response = mock(QueryResponse.class);
+        SolrDocumentList results = new SolrDocumentList();
+        SolrDocument versionDoc = new SolrDocument();
+        versionDoc.setField("version", "2014:01:01");
+        results.add(versionDoc);
+        when(response.getResults()).thenReturn(results);
+        when(this.server.query(any(SolrQuery.class))).thenAnswer(new Answer<QueryResponse>()
+        {
+            private int calls;
+
+            @Override
+            public QueryResponse answer(InvocationOnMock invocation)
+            {
+                // The ontology is reindexed while the first version is being read
+                if (++this.calls == 1) {
+                    HumanPhenotypeOntologyTest.this.ontologyService.reindex(
+                        HumanPhenotypeOntologyTest.class.getResource("/hpo-test.obo").toString());
+                }
+                return response;
+            }
+        });
+
+        Assert.assertEquals("2014:01:01", this.ontologyService.getVersion());
+        // The version read before reindexing wasn't remembered, the new one is read and then remembered
+        Assert.assertEquals("2014:01:01", this.ontologyService.getVersion());
+        Assert.assertEquals("2014:01:01", this.ontologyService.getVersion());
+        verify(this.server, times(2)).query(any(SolrQuery.class));
+    }
+
     @Test
     public void testHumanPhenotypeOntologyDefaultLocation()
     {
@@ -169,6 +244,317 @@ public void testHumanPhenotypeOntologySuggestTermsMultipleWords() throws Compone
         verify(this.server).query(argThat(new IsDisMaxQuery()));
     }
 
+    @Test
+    public void testHumanPhenotypeOntologySuggestTermsSkipsUselessSpellcheckRetry() throws ComponentLookupException,
+        SolrServerException, IOException
+    {
+        QueryResponse response = mock(QueryResponse.class);
+        when(this.server.query(any(SolrParams.class))).thenReturn(response);
+        SolrDocumentList results = new SolrDocumentList();
+        results.setNumFound(5);
+        results.setMaxScore(1f);
+        when(response.getResults()).thenReturn(results);
+        SpellCheckResponse spellcheck = mock(SpellCheckResponse.class);
+        when(response.getSpellCheckResponse()).thenReturn(spellcheck);
+        when(spellcheck.isCorrectlySpelled()).thenReturn(false);
+        when(spellcheck.getCollatedResult()).thenReturn("fist second");
+        Collation collation = mock(Collation.class);
+        when(collation.getNumberOfHits()).thenReturn(2L);
+        when(spellcheck.getCollatedResults()).thenReturn(Collections.singletonList(collation));
+
+        this.mocker.getComponentUnderTest().search("first second", 10, null, null);
+
+        verify(this.server, times(1)).query(any(SolrParams.class));
+    }
+
+    @Test
+    public void testHumanPhenotypeOntologySuggestTermsRetriesPromisingSpellcheck() throws ComponentLookupException,
+        SolrServerException, IOException
+    {
+        QueryResponse response = mock(QueryResponse.class);
+        when(this.server.query(any(SolrParams.class))).thenReturn(response);
+        SolrDocumentList results = new SolrDocumentList();
+        results.setMaxScore(1f);
+        when(response.getResults()).thenReturn(results);
+        SpellCheckResponse spellcheck = mock(SpellCheckResponse.class);
+        when(response.getSpellCheckResponse()).thenReturn(spellcheck);
+        when(spellcheck.isCorrectlySpelled()).thenReturn(false);
+        when(spellcheck.getCollatedResult()).thenReturn("first second");
+        Collation collation = mock(Collation.class);
+        when(collation.getNumberOfHits()).thenReturn(7L);
+        when(spellcheck.getCollatedResults()).thenReturn(Collections.singletonList(collation));
+
+        this.mocker.getComponentUnderTest().search("frist second", 10, null, null);
+
+        verify(this.server, times(2)).query(any(SolrParams.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testHumanPhenotypeOntologySuggestTermsUsesSearchCache() throws ComponentLookupException,
+        SolrServerException, IOException
+    {
+        Cache<SolrDocumentList> searchCache = mock(Cache.class);
+        SolrVocabularyResourceManager externalServicesAccess =
+            this.mocker.getInstance(SolrVocabularyResourceManager.class);
+        when(externalServicesAccess.getSearchCache()).thenReturn(searchCache);
+        SolrDocumentList cached = new SolrDocumentList();
+        SolrDocument doc = new SolrDocument();
+        doc.setField("id", "HP:0000001");
+        cached.add(doc);
+        cached.setNumFound(1);
+        when(searchCache.get(anyString())).thenReturn(cached);
+
+        List<VocabularyTerm> result = this.mocker.getComponentUnderTest().search("first second", 10, null, null);
+
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals("HP:0000001", result.get(0).getId());
+        verify(this.server, never()).query(any(SolrParams.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testHumanPhenotypeOntologyLargeResultsAreNotCached() throws ComponentLookupException,
+        SolrServerException, IOException
+    {
+        Cache<SolrDocumentList> searchCache = mock(Cache.class);
+        SolrVocabularyResourceManager externalServicesAccess =
+            this.mocker.getInstance(SolrVocabularyResourceManager.class);
+        when(externalServicesAccess.getSearchCache()).thenReturn(searchCache);
+        QueryResponse response = mock(QueryResponse.class);
+        when(this.server.query(any(SolrParams.class))).thenReturn(response);
+        SolrDocumentList results = new SolrDocumentList();
+        for (int i = 0; i < 1001; ++i) {
+            SolrDocument doc = new SolrDocument();
+            doc.setField("id", String.format("HP:%07d", i));
+            results.add(doc);
+        }
+        results.setNumFound(results.size());
+        when(response.getResults()).thenReturn(results);
+
+        List<VocabularyTerm> terms = this.ontologyService.search(Collections.singletonMap("id", "*"),
+            Collections.singletonMap(CommonParams.ROWS, "1001"));
+
+        Assert.assertEquals(1001, terms.size());
+        verify(searchCache, never()).set(anyString(), any(SolrDocumentList.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testHumanPhenotypeOntologyResultsReadWhileReindexingAreNotCached() throws ComponentLookupException,
+        SolrServerException, IOException
+    {
+        Cache<SolrDocumentList> searchCache = mock(Cache.class);
+        SolrVocabularyResourceManager externalServicesAccess =
+            this.mocker.getInstance(SolrVocabularyResourceManager.class);
+        when(externalServicesAccess.getSearchCache()).thenReturn(searchCache);
+        final QueryResponse response = mock(QueryResponse.class);
+        when(response.getResults()).thenReturn(growthTerms());
+        when(this.server.query(any(SolrParams.class))).thenAnswer(new Answer<QueryResponse>()
+        {
+            @Override
+            public QueryResponse answer(InvocationOnMock invocation)
+            {
+                // The ontology is reindexed after the results were read, but before they are cached
+                HumanPhenotypeOntologyTest.this.ontologyService.reindex(
+                    HumanPhenotypeOntologyTest.class.getResource("/hpo-test.obo").toString());
+                return response;
+            }
+        });
+
+        List<VocabularyTerm> terms = this.ontologyService.search(Collections.singletonMap("id", "HP:0001507"),
+            Collections.<String, String>emptyMap());
+
+        Assert.assertEquals(2, terms.size());
+        verify(searchCache).removeAll();
+        verify(searchCache, never()).set(anyString(), any(SolrDocumentList.class));
+    }
+
+    @Test
+    public void testHumanPhenotypeOntologySuggestTermsUsesSuggestionsIndex() throws ComponentLookupException,
+        SolrServerException, IOException
+    {
+        QueryResponse response = mock(QueryResponse.class);
+        when(this.server.query(any(SolrParams.class))).thenReturn(response);
+        SolrDocumentList results = new SolrDocumentList();
+        SolrDocument doc = new SolrDocument();
+        doc.setField("id", "HP:0001507");
+        results.add(doc);
+        doc = new SolrDocument();
+        doc.setField("id", "HP:0001510");
+        results.add(doc);
+        when(response.getResults()).thenReturn(results);
+
+        List<VocabularyTerm> result = this.mocker.getComponentUnderTest().search("grow", 2, null, null);
+
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals("HP:0001510", result.get(0).getId());
+        Assert.assertEquals("HP:0001507", result.get(1).getId());
+        verify(this.server, times(1)).query(any(SolrParams.class));
+        verify(this.server, never()).query(argThat(new IsDisMaxQuery()));
+    }
+
+    @Test
+    public void testHumanPhenotypeOntologySuggestionsAreRankedByPopularity() throws Exception
+    {
+        QueryResponse response = mock(QueryResponse.class);
+        when(this.server.query(any(SolrParams.class))).thenReturn(response);
+        when(response.getResults()).thenReturn(growthTerms());
+        TermPopularity popularity = mock(TermPopularity.class);
+        when(popularity.getPopularity()).thenReturn(Collections.singletonMap("HP:0001507", 3));
+        when(this.componentManager.hasComponent(TermPopularity.class)).thenReturn(true);
+        when(this.componentManager.getInstance(TermPopularity.class)).thenReturn(popularity);
+
+        List<VocabularyTerm> result = this.ontologyService.search("grow", 2, null, null);
+
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals("HP:0001507", result.get(0).getId());
+        Assert.assertEquals("HP:0001510", result.get(1).getId());
+    }
+
+    @Test
+    public void testHumanPhenotypeOntologySuggestionsLoadedWhileReindexingAreDiscarded() throws Exception
+    {
+        ((HumanPhenotypeOntology) this.ontologyService).clear();
+        final QueryResponse empty = mock(QueryResponse.class);
+        when(empty.getResults()).thenReturn(new SolrDocumentList());
+        final QueryResponse found = mock(QueryResponse.class);
+        when(found.getResults()).thenReturn(growthTerms());
+        when(this.server.query(any(SolrParams.class))).thenAnswer(new Answer<QueryResponse>()
+        {
+            private int calls;
+
+            @Override
+            public QueryResponse answer(InvocationOnMock invocation)
+            {
+                // The first two queries read the suggestions from Solr, and the ontology is reindexed meanwhile
+                if (++this.calls == 1) {
+                    HumanPhenotypeOntologyTest.this.ontologyService.reindex(
+                        HumanPhenotypeOntologyTest.class.getResource("/hpo-test.obo").toString());
+                }
+                return this.calls <= 2 ? empty : found;
+            }
+        });
+
+        List<VocabularyTerm> result = this.ontologyService.search("grow", 2, null, null);
+
+        // The empty index read from Solr didn't replace the one built while reindexing
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals("HP:0001510", result.get(0).getId());
+        verify(this.server, never()).query(argThat(new IsDisMaxQuery()));
+    }
+
+    @Test
+    public void testHumanPhenotypeOntologySuggestTermsFallsBackWithTooFewSuggestions()
+        throws ComponentLookupException, SolrServerException, IOException
+    {
+        QueryResponse response = mock(QueryResponse.class);
+        when(this.server.query(any(SolrParams.class))).thenReturn(response);
+        when(response.getSpellCheckResponse()).thenReturn(null);
+        when(response.getResults()).thenReturn(new SolrDocumentList());
+
+        this.mocker.getComponentUnderTest().search("abnormality of body", 10, null, null);
+
+        verify(this.server, times(1)).query(argThat(new IsDisMaxQuery()));
+    }
+
+    @Test
+    public void testHumanPhenotypeOntologyAlternativeIdsAreKnownAfterIndexing() throws SolrServerException,
+        IOException
+    {
+        AlternativeIdMapping mapping = (AlternativeIdMapping) this.ontologyService;
+
+        Assert.assertEquals("HP:0001507", mapping.getPrimaryId("HP:0008904"));
+        Assert.assertEquals("HP:0001510", mapping.getPrimaryId("HP:0001512"));
+        Assert.assertNull(mapping.getPrimaryId("HP:0001507"));
+        verify(this.server, never()).query(any(SolrParams.class));
+    }
+
+    @Test
+    public void testHumanPhenotypeOntologyGetTermResolvesAlternativeIds() throws SolrServerException, IOException
+    {
+        QueryResponse empty = mock(QueryResponse.class);
+        when(empty.getResults()).thenReturn(new SolrDocumentList());
+        when(this.server.query(any(SolrParams.class))).thenReturn(empty);
+        QueryResponse found = mock(QueryResponse.class);
+        SolrDocumentList results = new SolrDocumentList();
+        SolrDocument doc = new SolrDocument();
+        doc.setField("id", "HP:0001507");
+        results.add(doc);
+        when(found.getResults()).thenReturn(results);
+        when(this.server.query(argThat(new IsTermQuery("HP\\:0001507")))).thenReturn(found);
+
+        VocabularyTerm term = this.ontologyService.getTerm("HP:0008904");
+
+        Assert.assertEquals("HP:0001507", term.getId());
+    }
+
+    @Test
+    public void testHumanPhenotypeOntologyAlternativeIdsAreLoadedFromTheIndexAfterRestart()
+        throws SolrServerException, IOException
+    {
+        // Forget the mapping built while indexing, as if the vocabulary was indexed before a restart
+        ((HumanPhenotypeOntology) this.ontologyService).clear();
+        QueryResponse response = mock(QueryResponse.class);
+        SolrDocumentList results = new SolrDocumentList();
+        SolrDocument doc = new SolrDocument();
+        doc.setField("id", "HP:0001507");
+        doc.addField("alt_id", "HP:0008904");
+        results.add(doc);
+        doc = new SolrDocument();
+        doc.setField("id", "HP:0001510");
+        doc.addField("alt_id", "HP:0001434");
+        doc.addField("alt_id", "HP:0001512");
+        results.add(doc);
+        results.setNumFound(2);
+        when(response.getResults()).thenReturn(results);
+        when(this.server.query(any(SolrParams.class))).thenReturn(response);
+        AlternativeIdMapping mapping = (AlternativeIdMapping) this.ontologyService;
+
+        Assert.assertEquals("HP:0001507", mapping.getPrimaryId("HP:0008904"));
+        Assert.assertEquals("HP:0001510", mapping.getPrimaryId("HP:0001512"));
+        Assert.assertNull(mapping.getPrimaryId("HP:0001510"));
+        // The mapping is only read once: one query to count the terms, one to fetch them
+        verify(this.server, times(2)).query(any(SolrParams.class));
+    }
+
+    @Test
+    public void testHumanPhenotypeOntologyGetTermReturnsNullWhenQueriesFail() throws SolrServerException,
+        IOException
+    {
+        ((HumanPhenotypeOntology) this.ontologyService).clear();
+        when(this.server.query(any(SolrParams.class))).thenThrow(new SolrServerException("Server down"));
+        AlternativeIdMapping mapping = (AlternativeIdMapping) this.ontologyService;
+
+        Assert.assertNull(this.ontologyService.getTerm("HP:0008904"));
+        Assert.assertNull(mapping.getPrimaryId("HP:0008904"));
+
+        // A failed lookup isn't remembered, the mapping is loaded once the index is reachable again
+        QueryResponse response = mock(QueryResponse.class);
+        SolrDocumentList results = new SolrDocumentList();
+        SolrDocument doc = new SolrDocument();
+        doc.setField("id", "HP:0001507");
+        doc.addField("alt_id", "HP:0008904");
+        results.add(doc);
+        results.setNumFound(1);
+        when(response.getResults()).thenReturn(results);
+        Mockito.reset(this.server);
+        when(this.server.query(any(SolrParams.class))).thenReturn(response);
+        Assert.assertEquals("HP:0001507", mapping.getPrimaryId("HP:0008904"));
+    }
+
+    private SolrDocumentList growthTerms()
+    {
+        SolrDocumentList results = new SolrDocumentList();
+        SolrDocument doc = new SolrDocument();
+        doc.setField("id", "HP:0001507");
+        results.add(doc);
+        doc = new SolrDocument();
+        doc.setField("id", "HP:0001510");
+        results.add(doc);
+        return results;
+    }
+
     class IsDisMaxQuery extends ArgumentMatcher<SolrParams>
     {
         @Override
@@ -202,4 +588,21 @@ public boolean matches(Object argument)
                 && params.get(DisMaxParams.QF) == null;
         }
     }
+
+    class IsTermQuery extends ArgumentMatcher<SolrParams>
+    {
+        private final String escapedId;
+
+        IsTermQuery(String escapedId)
+        {
+            this.escapedId = escapedId;
+        }
+
+        @Override
+        public boolean matches(Object argument)
+        {
+            SolrParams params = (SolrParams) argument;
+            return ("id:" + this.escapedId).equals(params.get(CommonParams.Q));
+        }
+    }
 }
@@ -0,0 +1,93 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal.solr;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link TermSuggestionIndex} class.
+ *
+ * @version $Id$
+ */
+public class TermSuggestionIndexTest
+{
+    private static final Map<String, Integer> NO_POPULARITY = Collections.emptyMap();
+
+    private TermSuggestionIndex index;
+
+    @Before
+    public void setup()
+    {
+        Map<String, Map<String, Collection<String>>> terms = new LinkedHashMap<>();
+        terms.put("HP:0004322", term("Short stature", "Small stature", "Stature below 3rd percentile"));
+        terms.put("HP:0003510", term("Severe short stature", "Dwarfism"));
+        terms.put("HP:0001250", term("Seizures", "Epileptic seizure"));
+        terms.put("HP:0002069", term("Generalized tonic-clonic seizures", "Grand mal seizures"));
+        this.index = new TermSuggestionIndex(terms);
+    }
+
+    @Test
+    public void namePrefixesComeBeforeWordPrefixes()
+    {
+        Assert.assertEquals(Arrays.asList("HP:0004322", "HP:0003510"), this.index.suggest("short st", 10,
+            NO_POPULARITY));
+        Assert.assertEquals(Arrays.asList("HP:0001250", "HP:0002069"), this.index.suggest("seiz", 10,
+            Collections.singletonMap("HP:0002069", 100)));
+    }
+
+    @Test
+    public void popularityRanksEquivalentMatches()
+    {
+        Assert.assertEquals(Arrays.asList("HP:0003510", "HP:0001250", "HP:0004322", "HP:0002069"),
+            this.index.suggest("s", 10, Collections.singletonMap("HP:0003510", 3)));
+    }
+
+    @Test
+    public void synonymsAndIdentifiersAreMatched()
+    {
+        Assert.assertEquals(Arrays.asList("HP:0003510"), this.index.suggest("dwarf", 10, NO_POPULARITY));
+        Assert.assertEquals(Arrays.asList("HP:0002069"), this.index.suggest("Tonic-Clonic", 10, NO_POPULARITY));
+        Assert.assertEquals(Arrays.asList("HP:0001250"), this.index.suggest("HP:000125", 10, NO_POPULARITY));
+    }
+
+    @Test
+    public void limitAndMissingMatchesAreHandled()
+    {
+        Assert.assertEquals(Arrays.asList("HP:0001250"), this.index.suggest("s", 1, NO_POPULARITY));
+        Assert.assertTrue(this.index.suggest("zzz", 10, NO_POPULARITY).isEmpty());
+        Assert.assertTrue(this.index.suggest(" - ", 10, NO_POPULARITY).isEmpty());
+        Assert.assertTrue(this.index.suggest("s", 0, NO_POPULARITY).isEmpty());
+    }
+
+    private Map<String, Collection<String>> term(String name, String... synonyms)
+    {
+        Map<String, Collection<String>> result = new HashMap<>();
+        result.put("name", Collections.singletonList(name));
+        result.put("synonym", Arrays.asList(synonyms));
+        return result;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.context;
+
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Sets up the execution context of threads doing work on behalf of a request, such as workers of a thread pool or
+ * threads streaming a response. Each such thread gets its own copy of the XWiki context of the request, without the
+ * database session of the original context, since sessions are not thread safe.
+ *
+ * @version $Id$
+ * @since 1.2RC1
+ */
+public final class WorkerContexts
+{
+    /** The key under which the XWiki context is stored in the execution context. */
+    private static final String XCONTEXT_KEY = "xwikicontext";
+
+    /** Avoid instantiation. */
+    private WorkerContexts()
+    {
+        // Nothing to do
+    }
+
+    /**
+     * Set a new execution context in the current thread, holding a copy of the given XWiki context. The caller is
+     * responsible for calling {@link Execution#removeContext()} when the work is done.
+     *
+     * @param execution the execution used by the current thread
+     * @param original the XWiki context of the request on whose behalf the current thread works
+     * @return the copy of the XWiki context that was set up
+     */
+    public static XWikiContext setup(Execution execution, XWikiContext original)
+    {
+        XWikiContext workerContext = original.clone();
+        workerContext.remove("hibsession");
+        workerContext.remove("hibtransaction");
+        ExecutionContext executionContext = new ExecutionContext();
+        executionContext.setProperty(XCONTEXT_KEY, workerContext);
+        execution.setContext(executionContext);
+        return workerContext;
+    }
+
+    /**
+     * Check if an XWiki context is available in the current thread.
+     *
+     * @param execution the execution used by the current thread
+     * @return {@code true} if the current execution context holds an XWiki context
+     */
+    public static boolean hasContext(Execution execution)
+    {
+        ExecutionContext context = execution.getContext();
+        return context != null && context.getProperty(XCONTEXT_KEY) != null;
+    }
+}
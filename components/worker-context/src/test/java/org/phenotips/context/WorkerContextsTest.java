@@ -0,0 +1,74 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.context;
+
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link WorkerContexts} utility.
+ *
+ * @version $Id$
+ */
+public class WorkerContextsTest
+{
+    @Test
+    public void setupUsesCopyWithoutDatabaseSession()
+    {
+        XWikiContext original = new XWikiContext();
+        original.put("hibsession", new Object());
+        original.put("hibtransaction", new Object());
+        original.put("other", "value");
+        Execution execution = mock(Execution.class);
+
+        XWikiContext copy = WorkerContexts.setup(execution, original);
+
+        Assert.assertNotSame(original, copy);
+        Assert.assertFalse(copy.containsKey("hibsession"));
+        Assert.assertFalse(copy.containsKey("hibtransaction"));
+        Assert.assertEquals("value", copy.get("other"));
+        Assert.assertTrue(original.containsKey("hibsession"));
+        ArgumentCaptor<ExecutionContext> captor = ArgumentCaptor.forClass(ExecutionContext.class);
+        verify(execution).setContext(captor.capture());
+        Assert.assertSame(copy, captor.getValue().getProperty("xwikicontext"));
+    }
+
+    @Test
+    public void hasContextChecksForXWikiContext()
+    {
+        Execution execution = mock(Execution.class);
+        Assert.assertFalse(WorkerContexts.hasContext(execution));
+
+        ExecutionContext context = new ExecutionContext();
+        when(execution.getContext()).thenReturn(context);
+        Assert.assertFalse(WorkerContexts.hasContext(execution));
+
+        context.setProperty("xwikicontext", new XWikiContext());
+        Assert.assertTrue(WorkerContexts.hasContext(execution));
+    }
+}